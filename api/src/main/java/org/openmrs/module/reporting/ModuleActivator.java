@@ -20,6 +20,11 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.Activator;
+import org.openmrs.module.reporting.definition.service.DefinitionCache;
+import org.openmrs.module.reporting.evaluation.EvaluationProfilerStatistics;
+import org.openmrs.module.reporting.evaluation.ParallelEvaluationUtil;
+import org.openmrs.module.reporting.evaluation.caching.SharedEvaluationCache;
+import org.openmrs.module.reporting.report.renderer.template.CompiledTemplateCache;
 import org.openmrs.module.reporting.report.task.AbstractReportsTask;
 import org.openmrs.module.reporting.report.task.RunQueuedReportsTask;
 
@@ -36,6 +41,9 @@ public class ModuleActivator implements Activator {
 	 */
 	public void startup() {
 		log.info("Starting the Reporting Module ...");
+		SharedEvaluationCache.registerStatistics();
+		EvaluationProfilerStatistics.registerStatistics();
+		EvaluationProfilerStatistics.loadStatistics();
 	}
 	
 	/**
@@ -54,6 +62,14 @@ public class ModuleActivator implements Activator {
 	        runningRequest.cancelCurrentlyRunningReportingTask();
         }
 		
+		SharedEvaluationCache.unregisterStatistics();
+		DefinitionCache.unregisterStatistics();
+		CompiledTemplateCache.unregisterStatistics();
+		EvaluationProfilerStatistics.unregisterStatistics();
+		EvaluationProfilerStatistics.saveStatistics();
+		SharedEvaluationCache.reset();
+		ParallelEvaluationUtil.shutdown();
+		
 		log.info("Shutting down the Reporting Module ...");
 	}
 	
@@ -50,6 +50,15 @@ public class ReportingConstants implements GlobalPropertyListener {
 	public static final String GLOBAL_PROPERTY_RUN_REPORT_COHORT_FILTER_MODE = "reporting.runReportCohortFilterMode";
 	public static final String GLOBAL_PROPERTY_DEFAULT_DATE_FORMAT = "reporting.defaultDateFormat";
 	public static final String DEFAULT_LOCALE_GP_NAME = "reporting.defaultLocale";
+	public static final String GLOBAL_PROPERTY_EVALUATION_CACHE_MAX_SIZE_IN_MB = "reporting.evaluationCache.maxSizeInMB";
+	public static final String GLOBAL_PROPERTY_EVALUATION_CACHE_TIME_TO_LIVE_IN_MINUTES = "reporting.evaluationCache.timeToLiveInMinutes";
+	public static final String GLOBAL_PROPERTY_EVALUATION_WORKER_THREADS = "reporting.evaluationWorkerThreads";
+	public static final String GLOBAL_PROPERTY_DEFINITION_CACHE_MAX_SIZE = "reporting.definitionCache.maxSize";
+	public static final String GLOBAL_PROPERTY_COMPOSITION_SQL_PUSHDOWN = "reporting.compositionSqlPushdown";
+	public static final String GLOBAL_PROPERTY_EVALUATION_PLANNING = "reporting.evaluationPlanning";
+	public static final String GLOBAL_PROPERTY_MATERIALIZED_COHORT_MIN_SIZE = "reporting.materializedCohort.minSize";
+	public static final String GLOBAL_PROPERTY_QUERY_FETCH_SIZE = "reporting.queryFetchSize";
+	public static final String GLOBAL_PROPERTY_TEMPLATE_CACHE_MAX_SIZE = "reporting.templateCache.maxSize";
 
 	public static final List<String> CACHED_PROPERTIES = Arrays.asList(GLOBAL_PROPERTY_DEFAULT_DATE_FORMAT, DEFAULT_LOCALE_GP_NAME);
 
@@ -57,6 +66,7 @@ public class ReportingConstants implements GlobalPropertyListener {
 	public static final String OPENMRS_REPORT_DATA = "__openmrs_report_data";
 	public static final String OPENMRS_REPORT_ARGUMENT = "__openmrs_report_argument";
 	public static final String OPENMRS_LAST_REPORT_URL = "__openmrs_last_report_url";
+	public static final String OPENMRS_REPORT_PAGE = "__openmrs_report_page";
 
 	// Some default parameters used by multiple reporting objects 
 	public static final Parameter START_DATE_PARAMETER = new Parameter("startDate", "Start date", Date.class);
@@ -90,6 +100,42 @@ public class ReportingConstants implements GlobalPropertyListener {
 		return getPropertyValueAsInt(GLOBAL_PROPERTY_DATA_EVALUATION_BATCH_SIZE, 1000);
 	}
 	
+	public static final int GLOBAL_PROPERTY_EVALUATION_CACHE_MAX_SIZE_IN_MB() {
+		return getPropertyValueAsInt(GLOBAL_PROPERTY_EVALUATION_CACHE_MAX_SIZE_IN_MB, 0);
+	}
+
+	public static final int GLOBAL_PROPERTY_EVALUATION_CACHE_TIME_TO_LIVE_IN_MINUTES() {
+		return getPropertyValueAsInt(GLOBAL_PROPERTY_EVALUATION_CACHE_TIME_TO_LIVE_IN_MINUTES, 60);
+	}
+
+	public static final int GLOBAL_PROPERTY_EVALUATION_WORKER_THREADS() {
+		return getPropertyValueAsInt(GLOBAL_PROPERTY_EVALUATION_WORKER_THREADS, 4);
+	}
+
+	public static final int GLOBAL_PROPERTY_DEFINITION_CACHE_MAX_SIZE() {
+		return getPropertyValueAsInt(GLOBAL_PROPERTY_DEFINITION_CACHE_MAX_SIZE, 500);
+	}
+	
+	public static final int GLOBAL_PROPERTY_MATERIALIZED_COHORT_MIN_SIZE() {
+		return getPropertyValueAsInt(GLOBAL_PROPERTY_MATERIALIZED_COHORT_MIN_SIZE, 0);
+	}
+
+	public static final int GLOBAL_PROPERTY_QUERY_FETCH_SIZE() {
+		return getPropertyValueAsInt(GLOBAL_PROPERTY_QUERY_FETCH_SIZE, 1000);
+	}
+
+	public static final int GLOBAL_PROPERTY_TEMPLATE_CACHE_MAX_SIZE() {
+		return getPropertyValueAsInt(GLOBAL_PROPERTY_TEMPLATE_CACHE_MAX_SIZE, 200);
+	}
+
+	public static final boolean GLOBAL_PROPERTY_COMPOSITION_SQL_PUSHDOWN() {
+		return getPropertyValueAsBoolean(GLOBAL_PROPERTY_COMPOSITION_SQL_PUSHDOWN, false);
+	}
+
+	public static final boolean GLOBAL_PROPERTY_EVALUATION_PLANNING() {
+		return getPropertyValueAsBoolean(GLOBAL_PROPERTY_EVALUATION_PLANNING, true);
+	}
+
 	public static final boolean GLOBAL_PROPERTY_INCLUDE_DATA_EXPORTS() {
 		return getPropertyValueAsBoolean(GLOBAL_PROPERTY_INCLUDE_DATA_EXPORTS, false);
 	}
@@ -151,7 +197,7 @@ public class ReportingConstants implements GlobalPropertyListener {
 	}
 
 	private static boolean getPropertyValueAsBoolean(String propertyName, boolean defaultValue) {
-		String propertyValue = getPropertyValueAsString(GLOBAL_PROPERTY_INCLUDE_DATA_EXPORTS);
+		String propertyValue = getPropertyValueAsString(propertyName);
 		if (StringUtils.hasText(propertyValue)) {
 			try {
 				return Boolean.parseBoolean(propertyValue);
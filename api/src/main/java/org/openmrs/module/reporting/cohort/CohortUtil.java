@@ -6,7 +6,7 @@ import org.openmrs.Cohort;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
 import org.openmrs.module.reporting.cohort.definition.CompositionCohortDefinition;
-import org.openmrs.module.reporting.common.ObjectUtil;
+import org.openmrs.module.reporting.common.IdBitmap;
 import org.openmrs.module.reporting.evaluation.parameter.Mapped;
 
 import java.util.Arrays;
@@ -22,18 +22,65 @@ public class CohortUtil {
 	protected static Log log = LogFactory.getLog(CohortUtil.class);
 
 	public static Cohort intersectNonNull(Cohort...cohorts) {
-		Cohort ret = null;
+		IdBitmap ret = null;
 		for (Cohort c : cohorts) {
 			if (c != null) {
 				if (ret == null) {
-					 ret = new Cohort(c.getMemberIds());
+					ret = toBitmap(c);
 				}
 				else {
-					ret = Cohort.intersect(ret, c);
+					ret = ret.and(toBitmap(c));
 				}
 			}
 		}
-		return ObjectUtil.nvl(ret, new Cohort());
+		return ret == null ? new Cohort() : toCohort(ret);
+	}
+	
+	/**
+	 * @return a new IdBitmap containing the members of the passed Cohort, or null if the passed Cohort is null
+	 */
+	public static IdBitmap toBitmap(Cohort cohort) {
+		if (cohort == null) {
+			return null;
+		}
+		return new IdBitmap(cohort.getMemberIds());
+	}
+	
+	/**
+	 * @return a new Cohort containing the members of the passed IdBitmap, or null if the passed IdBitmap is null
+	 */
+	public static Cohort toCohort(IdBitmap bitmap) {
+		if (bitmap == null) {
+			return null;
+		}
+		Cohort ret = new Cohort();
+		ret.setMemberIds(bitmap.toSet());
+		return ret;
+	}
+	
+	/**
+	 * Returns a String which identifies the members of the passed cohort, independent of the order in which they
+	 * are iterated, and which is suitable for use in cache keys.  A null cohort, which by convention means all
+	 * patients, has the fingerprint "all".
+	 * 
+	 * @param cohort the cohort to fingerprint
+	 * @return the size of the cohort, along with two order-independent hashes of its member ids
+	 */
+	public static String getFingerprint(Cohort cohort) {
+		if (cohort == null) {
+			return "all";
+		}
+		long sum = 0;
+		long xor = 0;
+		for (Integer memberId : cohort.getMemberIds()) {
+			long h = memberId * 0x9E3779B97F4A7C15L;
+			h ^= (h >>> 32);
+			h *= 0xC2B2AE3D27D4EB4FL;
+			h ^= (h >>> 29);
+			sum += h;
+			xor ^= h;
+		}
+		return cohort.getSize() + ":" + Long.toHexString(sum) + ":" + Long.toHexString(xor);
 	}
 	
 	/**
@@ -0,0 +1,111 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.cohort;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A member of a Cohort which has been written to the database, so that queries can join against it rather
+ * than binding every member id as a parameter.  Members are grouped by a key, which is unique to each
+ * materialization of a Cohort.
+ * @see MaterializedCohortUtil
+ */
+public class MaterializedCohortMember implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private String cohortKey;
+	private Integer memberId;
+	private Date dateCreated;
+
+	/**
+	 * Default Constructor
+	 */
+	public MaterializedCohortMember() {}
+
+	/**
+	 * Full Constructor
+	 */
+	public MaterializedCohortMember(String cohortKey, Integer memberId, Date dateCreated) {
+		this.cohortKey = cohortKey;
+		this.memberId = memberId;
+		this.dateCreated = dateCreated;
+	}
+
+	/**
+	 * @see Object#equals(Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof MaterializedCohortMember)) {
+			return false;
+		}
+		MaterializedCohortMember that = (MaterializedCohortMember) obj;
+		return cohortKey != null && cohortKey.equals(that.cohortKey) && memberId != null && memberId.equals(that.memberId);
+	}
+
+	/**
+	 * @see Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return (cohortKey == null ? 0 : cohortKey.hashCode()) * 31 + (memberId == null ? 0 : memberId.hashCode());
+	}
+
+	/**
+	 * @return the cohortKey
+	 */
+	public String getCohortKey() {
+		return cohortKey;
+	}
+
+	/**
+	 * @param cohortKey the cohortKey to set
+	 */
+	public void setCohortKey(String cohortKey) {
+		this.cohortKey = cohortKey;
+	}
+
+	/**
+	 * @return the memberId
+	 */
+	public Integer getMemberId() {
+		return memberId;
+	}
+
+	/**
+	 * @param memberId the memberId to set
+	 */
+	public void setMemberId(Integer memberId) {
+		this.memberId = memberId;
+	}
+
+	/**
+	 * @return the dateCreated
+	 */
+	public Date getDateCreated() {
+		return dateCreated;
+	}
+
+	/**
+	 * @param dateCreated the dateCreated to set
+	 */
+	public void setDateCreated(Date dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+}
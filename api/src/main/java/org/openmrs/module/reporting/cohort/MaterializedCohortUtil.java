@@ -0,0 +1,143 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.cohort;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Cohort;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.ReportingConstants;
+import org.openmrs.module.reporting.cohort.query.service.CohortQueryService;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+/**
+ * Restricts queries to the base cohort of an EvaluationContext.  Small base cohorts are bound as a list of ids,
+ * as before.  Base cohorts with at least {@link ReportingConstants#GLOBAL_PROPERTY_MATERIALIZED_COHORT_MIN_SIZE()}
+ * members are instead written once to the reporting_materialized_cohort_member table, and queries are restricted
+ * with a sub-query against that table, so that the text of each query stays small no matter how large the cohort.
+ *
+ * Each base cohort is written at most once per evaluation, identified by its fingerprint, and the key it is written
+ * under is shared by all contexts copied from the same context.  The cohorts are released when the outermost evaluation
+ * with any of these contexts completes, see {@link org.openmrs.module.reporting.definition.service.BaseDefinitionService}.
+ *
+ * This is disabled by default.  Members are committed in their own transaction, so they are only visible to an evaluation
+ * which has already read from the database if the transaction isolation level is READ COMMITTED.
+ */
+public class MaterializedCohortUtil {
+
+	protected static final Log log = LogFactory.getLog(MaterializedCohortUtil.class);
+
+	// Cohorts written longer ago than this are assumed to have been left behind by an evaluation that did not complete
+	private static final long LEFTOVER_AGE = 24 * 60 * 60 * 1000L;
+
+	// Leftovers are looked for at most this often
+	private static final long LEFTOVER_CHECK_INTERVAL = 60 * 60 * 1000L;
+
+	private static long leftoversLastRemoved = 0;
+
+	/**
+	 * @return the key under which the base cohort of the passed context has been written, writing it if necessary,
+	 * or null if there is no base cohort or it is too small to be written
+	 */
+	public static String getBaseCohortKey(EvaluationContext context) {
+		Cohort baseCohort = context.getBaseCohort();
+		int minSize = ReportingConstants.GLOBAL_PROPERTY_MATERIALIZED_COHORT_MIN_SIZE();
+		if (baseCohort == null || minSize <= 0 || baseCohort.size() < minSize) {
+			return null;
+		}
+		Map<String, String> keys = context.getMaterializedCohortKeys();
+		String fingerprint = context.getBaseCohortFingerprint();
+		synchronized (keys) {
+			String key = keys.get(fingerprint);
+			if (key == null) {
+				removeLeftovers();
+				key = UUID.randomUUID().toString();
+				log.debug("Writing base cohort of size " + baseCohort.size() + " under key " + key);
+				Context.getService(CohortQueryService.class).saveMaterializedCohort(key, baseCohort);
+				keys.put(fingerprint, key);
+			}
+			return key;
+		}
+	}
+
+	/**
+	 * Removes any cohorts written more than {@link #LEFTOVER_AGE} ago, for example by a server which stopped during evaluation.
+	 * Cohorts written more recently may be in use by evaluations on this or another server, so are left alone.
+	 */
+	private static synchronized void removeLeftovers() {
+		long now = System.currentTimeMillis();
+		if (now - leftoversLastRemoved >= LEFTOVER_CHECK_INTERVAL) {
+			Context.getService(CohortQueryService.class).purgeMaterializedCohortsCreatedBefore(new Date(now - LEFTOVER_AGE));
+			leftoversLastRemoved = now;
+		}
+	}
+
+	/**
+	 * @param property the HQL property to restrict, for example "obs.personId"
+	 * @param parameterName the name of the parameter to add to the passed parameter values
+	 * @return an HQL condition which restricts the passed property to members of the base cohort of the passed context,
+	 * which must not be null
+	 */
+	public static String getHqlRestriction(String property, EvaluationContext context, Map<String, Object> parameterValues, String parameterName) {
+		String key = getBaseCohortKey(context);
+		if (key == null) {
+			parameterValues.put(parameterName, context.getBaseCohort());
+			return property + " in (:" + parameterName + ")";
+		}
+		parameterValues.put(parameterName, key);
+		return property + " in (select m.memberId from MaterializedCohortMember m where m.cohortKey = :" + parameterName + ")";
+	}
+
+	/**
+	 * @param column the SQL column to restrict, for example "o.person_id"
+	 * @param parameterName the name of the parameter to add to the passed parameter values
+	 * @return a SQL condition which restricts the passed column to members of the base cohort of the passed context,
+	 * which must not be null
+	 */
+	public static String getSqlRestriction(String column, EvaluationContext context, Map<String, Object> parameterValues, String parameterName) {
+		String key = getBaseCohortKey(context);
+		if (key == null) {
+			parameterValues.put(parameterName, context.getBaseCohort());
+			return column + " in (:" + parameterName + ")";
+		}
+		parameterValues.put(parameterName, key);
+		return column + " in (select member_id from reporting_materialized_cohort_member where cohort_key = :" + parameterName + ")";
+	}
+
+	/**
+	 * Removes every base cohort written while evaluating with the passed context or any context copied from it
+	 */
+	public static void release(EvaluationContext context) {
+		Map<String, String> keys = context.getMaterializedCohortKeys();
+		List<String> toRemove;
+		synchronized (keys) {
+			toRemove = new ArrayList<String>(keys.values());
+			keys.clear();
+		}
+		for (String key : toRemove) {
+			try {
+				Context.getService(CohortQueryService.class).purgeMaterializedCohort(key);
+			}
+			catch (Exception e) {
+				log.warn("Unable to remove materialized cohort " + key, e);
+			}
+		}
+	}
+}
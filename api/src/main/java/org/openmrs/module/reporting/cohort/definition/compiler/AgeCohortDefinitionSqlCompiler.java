@@ -0,0 +1,72 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.cohort.definition.compiler;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openmrs.annotation.Handler;
+import org.openmrs.module.reporting.cohort.definition.AgeCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.common.DurationUnit;
+import org.openmrs.module.reporting.common.ObjectUtil;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+/**
+ * Translates an AgeCohortDefinition into the same query as CohortQueryService#getPatientsWithAgeRange
+ */
+@Handler(supports={AgeCohortDefinition.class})
+public class AgeCohortDefinitionSqlCompiler implements CohortDefinitionSqlCompiler {
+
+	/**
+	 * Default Constructor
+	 */
+	public AgeCohortDefinitionSqlCompiler() {}
+
+	/**
+	 * @see CohortDefinitionSqlCompiler#compile(CohortDefinition, EvaluationContext)
+	 */
+	public CohortSqlQuery compile(CohortDefinition cohortDefinition, EvaluationContext context) {
+		AgeCohortDefinition acd = (AgeCohortDefinition) cohortDefinition;
+		Date effectiveDate = ObjectUtil.nvl(acd.getEffectiveDate(), new Date());
+		DurationUnit minAgeUnit = ObjectUtil.nvl(acd.getMinAgeUnit(), DurationUnit.YEARS);
+		DurationUnit maxAgeUnit = ObjectUtil.nvl(acd.getMaxAgeUnit(), DurationUnit.YEARS);
+		Map<String, Object> parameterValues = new HashMap<String, Object>();
+
+		Date maxBirthFromAge = effectiveDate;
+		if (acd.getMinAge() != null) {
+			Calendar cal = Calendar.getInstance();
+			cal.setTime(effectiveDate);
+			cal.add(minAgeUnit.getCalendarField(), -minAgeUnit.getFieldQuantity()*acd.getMinAge());
+			maxBirthFromAge = cal.getTime();
+		}
+		String c = "p.birthdate <= :maxBirthFromAge";
+		parameterValues.put("maxBirthFromAge", maxBirthFromAge);
+
+		if (acd.getMaxAge() != null) {
+			Calendar cal = Calendar.getInstance();
+			cal.setTime(effectiveDate);
+			cal.add(maxAgeUnit.getCalendarField(), -(maxAgeUnit.getFieldQuantity()*acd.getMaxAge() + 1));
+			c = "(" + c + " and p.birthdate >= :minBirthFromAge)";
+			parameterValues.put("minBirthFromAge", cal.getTime());
+		}
+		if (acd.isUnknownAgeIncluded()) {
+			c = "(p.birthdate is null or " + c + ")";
+		}
+		String sql = "select t.patient_id from patient t, person p where t.patient_id = p.person_id and t.voided = false and " + c;
+		return new CohortSqlQuery(sql, parameterValues);
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.cohort.definition.compiler;
+
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+
+/**
+ * Implementations of this interface translate a CohortDefinition into a single SQL select statement,
+ * which returns the same patients as the evaluator of that CohortDefinition would, including any restriction to the base cohort.
+ * These are used by {@link CohortSqlCompiler} to evaluate a CompositionCohortDefinition in the database.
+ * Implementations should be annotated with @Handler(supports={...}), listing the exact types they translate.
+ */
+public interface CohortDefinitionSqlCompiler {
+
+	/**
+	 * @param cohortDefinition the definition to translate, whose parameter values have already been set from the context
+	 * @param context the context in which the definition would be evaluated
+	 * @return the select statement for the passed definition, or null if its configuration cannot be translated
+	 * @throws EvaluationException if the definition cannot be evaluated
+	 */
+	public CohortSqlQuery compile(CohortDefinition cohortDefinition, EvaluationContext context) throws EvaluationException;
+}
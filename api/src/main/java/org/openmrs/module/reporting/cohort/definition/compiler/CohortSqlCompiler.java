@@ -0,0 +1,201 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.cohort.definition.compiler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.annotation.Handler;
+import org.openmrs.api.PatientSetService.BooleanOperator;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.ReportingConstants;
+import org.openmrs.module.reporting.cohort.CohortUtil;
+import org.openmrs.module.reporting.cohort.MaterializedCohortUtil;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.CompositionCohortDefinition;
+import org.openmrs.module.reporting.cohort.query.service.CohortQueryService;
+import org.openmrs.module.reporting.common.IdBitmap;
+import org.openmrs.module.reporting.definition.DefinitionUtil;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.MissingDependencyException;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.util.HandlerUtil;
+
+/**
+ * Translates the parsed composition string of a CompositionCohortDefinition into a single SQL select statement,
+ * so that the whole expression is evaluated in the database rather than by evaluating each search and combining
+ * the resulting Cohorts in memory.  An expression can only be translated if every search it refers to has a
+ * {@link CohortDefinitionSqlCompiler}; otherwise {@link #compile(List, CompositionCohortDefinition, EvaluationContext)}
+ * returns null, and the caller is expected to fall back to evaluating it in memory.
+ *
+ * Each search becomes "patient_id in (...)", combined from left to right with the same AND, OR and NOT semantics as
+ * {@link org.openmrs.module.reporting.cohort.definition.util.CohortExpressionParser}.  NOT is relative to the base cohort,
+ * which is joined through {@link MaterializedCohortUtil}, or to all non-voided patients if there is no base cohort.
+ * A negated search becomes a "not exists" subquery rather than "not in", which would match no patients at all if the
+ * search returned a null id.
+ * Only ids of rows in the patient table are returned.
+ */
+public class CohortSqlCompiler {
+
+	protected static final Log log = LogFactory.getLog(CohortSqlCompiler.class);
+
+	private static final String PATIENT_ALIAS = "compiled_patient";
+
+	/**
+	 * @return true if compositions should be translated into SQL where possible
+	 */
+	public static boolean isEnabled() {
+		return ReportingConstants.GLOBAL_PROPERTY_COMPOSITION_SQL_PUSHDOWN();
+	}
+
+	/**
+	 * @return a single select statement equivalent to the passed tokens, or null if any of them cannot be translated
+	 * @throws EvaluationException if a search cannot be found or its parameters cannot be evaluated
+	 */
+	public static CohortSqlQuery compile(List<Object> tokens, CompositionCohortDefinition composition, EvaluationContext context) throws EvaluationException {
+		return compile(tokens, composition, context, new IdentityHashMap<List<Object>, CohortSqlQuery>());
+	}
+
+	/**
+	 * As {@link #compile(List, CompositionCohortDefinition, EvaluationContext)}, but records the result for the passed
+	 * tokens, and for each nested group that is compiled along the way, in the passed map.  This includes null for those
+	 * which cannot be translated, so that a caller falling back to evaluating the groups in memory never compiles any
+	 * of them twice.
+	 * @param compiled the result of each group of tokens which has already been compiled, keyed by identity
+	 * @throws EvaluationException if a search cannot be found or its parameters cannot be evaluated
+	 */
+	public static CohortSqlQuery compile(List<Object> tokens, CompositionCohortDefinition composition, EvaluationContext context,
+	                                     Map<List<Object>, CohortSqlQuery> compiled) throws EvaluationException {
+		if (compiled.containsKey(tokens)) {
+			return compiled.get(tokens);
+		}
+		CohortSqlQuery query = compileTokens(tokens, composition, context, compiled);
+		compiled.put(tokens, query);
+		return query;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static CohortSqlQuery compileTokens(List<Object> tokens, CompositionCohortDefinition composition, EvaluationContext context,
+	                                            Map<List<Object>, CohortSqlQuery> compiled) throws EvaluationException {
+		StringBuilder condition = null;
+		Map<String, Object> parameterValues = new HashMap<String, Object>();
+		BooleanOperator operator = BooleanOperator.AND;
+		boolean invertTheNext = false;
+		int searchIndex = 0;
+		for (Object o : tokens) {
+			if (o instanceof BooleanOperator) {
+				if (o == BooleanOperator.NOT) {
+					invertTheNext = !invertTheNext;
+				}
+				else if (invertTheNext) {
+					throw new RuntimeException("Invalid expression string, cannot have a NOT followed by an AND");
+				}
+				else {
+					operator = (BooleanOperator) o;
+				}
+			}
+			else {
+				CohortSqlQuery query = null;
+				if (o instanceof List) {
+					query = compile((List<Object>) o, composition, context, compiled);
+				}
+				else if (o instanceof String || o instanceof Integer) {
+					Mapped<CohortDefinition> search = composition.getSearches().get(o.toString());
+					if (search == null || search.getParameterizable() == null) {
+						throw new MissingDependencyException(o.toString());
+					}
+					query = compile(search, context);
+				}
+				if (query == null) {
+					return null;
+				}
+				String searchAlias = "s" + (searchIndex++);
+				query = query.withParameterPrefix(searchAlias + "_");
+				parameterValues.putAll(query.getParameterValues());
+
+				String searchCondition;
+				if (invertTheNext) {
+					String baseCondition = PATIENT_ALIAS + ".voided = false";
+					if (context.getBaseCohort() != null) {
+						baseCondition = MaterializedCohortUtil.getSqlRestriction(PATIENT_ALIAS + ".patient_id", context, parameterValues, "baseCohort");
+					}
+					String searchAliasCondition = searchAlias + ".patient_id in (" + query.getSql() + ")";
+					String excluded = "not exists (select 1 from patient " + searchAlias + " where " + searchAlias + ".patient_id = " + PATIENT_ALIAS + ".patient_id and " + searchAliasCondition + ")";
+					searchCondition = "(" + baseCondition + " and " + excluded + ")";
+					invertTheNext = false;
+				}
+				else {
+					searchCondition = PATIENT_ALIAS + ".patient_id in (" + query.getSql() + ")";
+				}
+				if (condition == null) {
+					condition = new StringBuilder(searchCondition);
+				}
+				else if (operator == BooleanOperator.AND || operator == BooleanOperator.OR) {
+					condition.insert(0, "(").append(" ").append(operator.name().toLowerCase()).append(" ").append(searchCondition).append(")");
+				}
+				else {
+					throw new RuntimeException("Unable to handle BooleanOperator: " + operator);
+				}
+			}
+		}
+		if (condition == null) {
+			return null;
+		}
+		String sql = "select " + PATIENT_ALIAS + ".patient_id from patient " + PATIENT_ALIAS + " where " + condition;
+		return new CohortSqlQuery(sql, parameterValues);
+	}
+
+	/**
+	 * @return a select statement which returns the patients in the passed search, or null if it cannot be translated
+	 * @throws EvaluationException if the parameters of the search cannot be evaluated
+	 */
+	public static CohortSqlQuery compile(Mapped<? extends CohortDefinition> search, EvaluationContext context) throws EvaluationException {
+		CohortDefinitionSqlCompiler compiler = getCompiler(search.getParameterizable().getClass());
+		if (compiler == null) {
+			return null;
+		}
+		EvaluationContext childContext = EvaluationContext.cloneForChild(context, search);
+		CohortDefinition definition = DefinitionUtil.cloneDefinitionWithContext(search.getParameterizable(), childContext);
+		return compiler.compile(definition, childContext);
+	}
+
+	/**
+	 * @return the patient ids returned by the passed query
+	 */
+	public static IdBitmap evaluate(CohortSqlQuery query) {
+		log.debug("Evaluating composition in the database: " + query);
+		CohortQueryService cqs = Context.getService(CohortQueryService.class);
+		return CohortUtil.toBitmap(cqs.executeSqlQuery(query.getSql(), query.getParameterValues()));
+	}
+
+	/**
+	 * @return the compiler which supports exactly the passed type, or null if there is none.  Subclasses are not
+	 * translated by the compiler of their superclass, since they may be evaluated differently.
+	 */
+	protected static CohortDefinitionSqlCompiler getCompiler(Class<? extends CohortDefinition> type) {
+		for (CohortDefinitionSqlCompiler compiler : HandlerUtil.getHandlersForType(CohortDefinitionSqlCompiler.class, type)) {
+			Handler handler = compiler.getClass().getAnnotation(Handler.class);
+			if (handler != null && Arrays.asList(handler.supports()).contains(type)) {
+				return compiler;
+			}
+		}
+		return null;
+	}
+}
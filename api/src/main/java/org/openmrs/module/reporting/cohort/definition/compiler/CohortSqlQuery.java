@@ -0,0 +1,90 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.cohort.definition.compiler;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A SQL select statement which returns a single column of patient ids, along with the values
+ * of the named parameters (e.g. :startDate) which it refers to
+ */
+public class CohortSqlQuery {
+
+	private String sql;
+	private Map<String, Object> parameterValues;
+
+	/**
+	 * @param sql a select statement which returns a single column of patient ids
+	 * @param parameterValues the values of the named parameters in the statement, which need not all be referred to
+	 */
+	public CohortSqlQuery(String sql, Map<String, Object> parameterValues) {
+		this.sql = sql;
+		this.parameterValues = new LinkedHashMap<String, Object>();
+		if (parameterValues != null) {
+			for (Map.Entry<String, Object> e : parameterValues.entrySet()) {
+				if (getParameterPattern(e.getKey()).matcher(sql).find()) {
+					this.parameterValues.put(e.getKey(), e.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of this query in which the passed prefix is added to the name of every parameter,
+	 * so that it can be combined with other queries whose parameters have the same names
+	 */
+	public CohortSqlQuery withParameterPrefix(String prefix) {
+		String prefixedSql = sql;
+		Map<String, Object> prefixedValues = new HashMap<String, Object>();
+		for (Map.Entry<String, Object> e : parameterValues.entrySet()) {
+			Matcher m = getParameterPattern(e.getKey()).matcher(prefixedSql);
+			prefixedSql = m.replaceAll(Matcher.quoteReplacement(":" + prefix + e.getKey()));
+			prefixedValues.put(prefix + e.getKey(), e.getValue());
+		}
+		return new CohortSqlQuery(prefixedSql, prefixedValues);
+	}
+
+	/**
+	 * @return a pattern which matches a reference to the named parameter, but not to a longer name which starts with it
+	 */
+	private static Pattern getParameterPattern(String parameterName) {
+		return Pattern.compile("(?<![:\\w]):" + Pattern.quote(parameterName) + "(?!\\w)");
+	}
+
+	/**
+	 * @return the select statement
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * @return the values of the named parameters which the select statement refers to
+	 */
+	public Map<String, Object> getParameterValues() {
+		return parameterValues;
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return sql + " " + parameterValues;
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.cohort.definition.compiler;
+
+import java.util.List;
+
+import org.openmrs.annotation.Handler;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.CompositionCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.util.CohortExpressionParser;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+
+/**
+ * Translates a CompositionCohortDefinition which is itself a search of another composition
+ */
+@Handler(supports={CompositionCohortDefinition.class})
+public class CompositionCohortDefinitionSqlCompiler implements CohortDefinitionSqlCompiler {
+
+	/**
+	 * Default Constructor
+	 */
+	public CompositionCohortDefinitionSqlCompiler() {}
+
+	/**
+	 * @see CohortDefinitionSqlCompiler#compile(CohortDefinition, EvaluationContext)
+	 */
+	public CohortSqlQuery compile(CohortDefinition cohortDefinition, EvaluationContext context) throws EvaluationException {
+		CompositionCohortDefinition composition = (CompositionCohortDefinition) cohortDefinition;
+		List<Object> tokens = CohortExpressionParser.parseIntoTokens(composition.getCompositionString());
+		if (tokens == null) {
+			return null;
+		}
+		return CohortSqlCompiler.compile(tokens, composition, context);
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.cohort.definition.compiler;
+
+import org.openmrs.annotation.Handler;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.GenderCohortDefinition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+/**
+ * Translates a GenderCohortDefinition into the same query as CohortQueryService#getPatientsWithGender
+ */
+@Handler(supports={GenderCohortDefinition.class})
+public class GenderCohortDefinitionSqlCompiler implements CohortDefinitionSqlCompiler {
+
+	/**
+	 * Default Constructor
+	 */
+	public GenderCohortDefinitionSqlCompiler() {}
+
+	/**
+	 * @see CohortDefinitionSqlCompiler#compile(CohortDefinition, EvaluationContext)
+	 */
+	public CohortSqlQuery compile(CohortDefinition cohortDefinition, EvaluationContext context) {
+		GenderCohortDefinition gcd = (GenderCohortDefinition) cohortDefinition;
+		StringBuilder sql = new StringBuilder("select t.patient_id from patient t, person p where t.patient_id = p.person_id and t.voided = false and ");
+		if (!gcd.isMaleIncluded() && !gcd.isFemaleIncluded() && !gcd.isUnknownGenderIncluded()) {
+			sql.append("1 = 0");
+		}
+		else {
+			String prefixTerm = "(";
+			if (gcd.isMaleIncluded()) {
+				sql.append(prefixTerm).append("p.gender = 'M'");
+				prefixTerm = " or ";
+			}
+			if (gcd.isFemaleIncluded()) {
+				sql.append(prefixTerm).append("p.gender = 'F'");
+				prefixTerm = " or ";
+			}
+			if (gcd.isUnknownGenderIncluded()) {
+				sql.append(prefixTerm).append("p.gender is null or (p.gender != 'M' and p.gender != 'F')");
+			}
+			sql.append(")");
+		}
+		return new CohortSqlQuery(sql.toString(), null);
+	}
+}
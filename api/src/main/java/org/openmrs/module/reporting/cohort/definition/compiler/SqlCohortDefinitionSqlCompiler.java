@@ -0,0 +1,55 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.cohort.definition.compiler;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openmrs.annotation.Handler;
+import org.openmrs.module.reporting.cohort.MaterializedCohortUtil;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.SqlCohortDefinition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.report.util.SqlScriptParser;
+
+/**
+ * Translates a SqlCohortDefinition into its own query, bound to the parameter values of the context.
+ * As with SqlCohortDefinitionEvaluator, the results are restricted to the base cohort if there is one.
+ */
+@Handler(supports={SqlCohortDefinition.class})
+public class SqlCohortDefinitionSqlCompiler implements CohortDefinitionSqlCompiler {
+
+	/**
+	 * Default Constructor
+	 */
+	public SqlCohortDefinitionSqlCompiler() {}
+
+	/**
+	 * @see CohortDefinitionSqlCompiler#compile(CohortDefinition, EvaluationContext)
+	 */
+	public CohortSqlQuery compile(CohortDefinition cohortDefinition, EvaluationContext context) {
+		SqlCohortDefinition sqlCohortDefinition = (SqlCohortDefinition) cohortDefinition;
+		String[] statements = SqlScriptParser.parse(new StringReader(sqlCohortDefinition.getQuery()));
+		if (statements.length != 1) {
+			return null;
+		}
+		if (context.getBaseCohort() == null) {
+			return new CohortSqlQuery(statements[0], context.getParameterValues());
+		}
+		Map<String, Object> parameterValues = new HashMap<String, Object>(context.getParameterValues());
+		String baseCondition = MaterializedCohortUtil.getSqlRestriction("t.patient_id", context, parameterValues, "baseCohortMembers");
+		return new CohortSqlQuery("select t.patient_id from patient t where t.patient_id in (" + statements[0] + ") and " + baseCondition, parameterValues);
+	}
+}
@@ -13,11 +13,15 @@
  */
 package org.openmrs.module.reporting.cohort.definition.service;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import org.openmrs.module.reporting.cohort.EvaluatedCohort;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
 import org.openmrs.module.reporting.definition.service.BaseDefinitionService;
 import org.openmrs.module.reporting.definition.service.DefinitionService;
 import org.openmrs.module.reporting.evaluation.Definition;
+import org.openmrs.module.reporting.evaluation.Evaluated;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
 import org.openmrs.module.reporting.evaluation.parameter.Mapped;
@@ -54,4 +58,28 @@ public class CohortDefinitionServiceImpl extends BaseDefinitionService<CohortDef
 	public EvaluatedCohort evaluate(Mapped<? extends CohortDefinition> definition, EvaluationContext context) throws EvaluationException {
 		return (EvaluatedCohort)super.evaluate(definition, context);
 	}
+	
+	/**
+	 * Evaluated cohorts are shared as a copy of their member ids, so that the shared cache does not retain
+	 * the EvaluationContext, and so that modifications made by callers cannot corrupt it
+	 * @see BaseDefinitionService#toSharedCacheValue(Evaluated)
+	 */
+	@Override
+	protected Object toSharedCacheValue(Evaluated<CohortDefinition> evaluationResult) {
+		if (evaluationResult instanceof EvaluatedCohort) {
+			return new HashSet<Integer>(((EvaluatedCohort) evaluationResult).getMemberIds());
+		}
+		return null;
+	}
+	
+	/**
+	 * @see BaseDefinitionService#fromSharedCacheValue(Object, Definition, EvaluationContext)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	protected Evaluated<CohortDefinition> fromSharedCacheValue(Object sharedValue, CohortDefinition definition, EvaluationContext context) {
+		EvaluatedCohort ret = new EvaluatedCohort(null, definition, context);
+		ret.setMemberIds(new HashSet<Integer>((Set<Integer>) sharedValue));
+		return ret;
+	}
 }
@@ -17,8 +17,10 @@ import java.io.StreamTokenizer;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Stack;
 
 import org.apache.commons.logging.Log;
@@ -27,9 +29,13 @@ import org.openmrs.Cohort;
 import org.openmrs.api.PatientSetService;
 import org.openmrs.api.PatientSetService.BooleanOperator;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.cohort.CohortUtil;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
 import org.openmrs.module.reporting.cohort.definition.CompositionCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.compiler.CohortSqlCompiler;
+import org.openmrs.module.reporting.cohort.definition.compiler.CohortSqlQuery;
 import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
+import org.openmrs.module.reporting.common.IdBitmap;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
 import org.openmrs.module.reporting.evaluation.MissingDependencyException;
@@ -78,8 +84,40 @@ public class CohortExpressionParser {
 	 * If anything in this list is a key into searches, replace it with the relevant filter from searches
 	 * @throws EvaluationException 
 	 */
-	@SuppressWarnings("unchecked")
 	public static Cohort evaluate(List<Object> tokens, CompositionCohortDefinition composition, EvaluationContext context) throws EvaluationException {
+		return CohortUtil.toCohort(evaluateToBitmap(tokens, composition, context));
+	}
+	
+	/**
+	 * Performs the work of {@link #evaluate(List, CompositionCohortDefinition, EvaluationContext)}, converting each
+	 * evaluated member to an IdBitmap so that all AND, OR, and NOT operations are done on bitmaps rather than Cohorts.
+	 * If enabled, each group whose searches can all be translated into SQL is evaluated as a single query instead.
+	 * @see CohortSqlCompiler
+	 */
+	protected static IdBitmap evaluateToBitmap(List<Object> tokens, CompositionCohortDefinition composition, EvaluationContext context) throws EvaluationException {
+		Map<List<Object>, CohortSqlQuery> compiled = null;
+		if (CohortSqlCompiler.isEnabled()) {
+			compiled = new IdentityHashMap<List<Object>, CohortSqlQuery>();
+		}
+		return evaluateToBitmap(tokens, composition, context, compiled);
+	}
+
+	/**
+	 * Performs the work of {@link #evaluateToBitmap(List, CompositionCohortDefinition, EvaluationContext)}.  Compiling a
+	 * group also compiles the groups nested within it, up to the first which cannot be translated, so the result of each
+	 * is remembered in the passed map and no group is compiled more than once.
+	 * @param compiled the result of compiling each group so far, or null if groups should not be translated into SQL
+	 */
+	@SuppressWarnings("unchecked")
+	private static IdBitmap evaluateToBitmap(List<Object> tokens, CompositionCohortDefinition composition, EvaluationContext context,
+	                                         Map<List<Object>, CohortSqlQuery> compiled) throws EvaluationException {
+		
+		if (compiled != null) {
+			CohortSqlQuery query = CohortSqlCompiler.compile(tokens, composition, context, compiled);
+			if (query != null) {
+				return CohortSqlCompiler.evaluate(query);
+			}
+		}
 		
 		log.debug("Evaluating: " + tokens + " for searches: " + composition.getSearches());
 		List<Object> use = new ArrayList<Object>();
@@ -87,7 +125,7 @@ public class CohortExpressionParser {
 			log.debug("Checking token: " + o);
 			if (o instanceof List) {
 				log.debug("This is a list, evaluate it as a group...");
-				Cohort result = evaluate((List<Object>) o, composition, context);
+				IdBitmap result = evaluateToBitmap((List<Object>) o, composition, context, compiled);
 				log.debug(o + " evaluated to: " + result.size());
 				use.add(result);
 			}
@@ -105,7 +143,7 @@ public class CohortExpressionParser {
 					throw new EvaluationException(o.toString(), ex);
 				}
 				log.debug("This evaluated to: " + result.size());
-				use.add(result);
+				use.add(CohortUtil.toBitmap(result));
 			}
 			else {
 				log.debug("This refers to an operator: " + o);
@@ -116,6 +154,7 @@ public class CohortExpressionParser {
 		
 		log.debug("Inverting all [..., NOT, Cohort, ...] combinations");
 		boolean invertTheNext = false;
+		IdBitmap baseCohort = null;
 		for (ListIterator<Object> i = use.listIterator(); i.hasNext();) {
 			Object o = i.next();
 			log.debug("Looking at element: " + o);
@@ -133,16 +172,19 @@ public class CohortExpressionParser {
 			else {
 				if (invertTheNext) {
 					log.debug("Need to invert this...");
-					if (o instanceof Cohort) {
-						Cohort baseCohort = context.getBaseCohort();
-						Cohort currentCohort = (Cohort)o;
+					if (o instanceof IdBitmap) {
 						if (baseCohort == null) {
-							baseCohort = Context.getPatientSetService().getAllPatients();
+							Cohort c = context.getBaseCohort();
+							if (c == null) {
+								c = Context.getPatientSetService().getAllPatients();
+							}
+							baseCohort = CohortUtil.toBitmap(c);
 						}
+						IdBitmap currentCohort = (IdBitmap)o;
 						log.debug("Originally a Cohort of size " + currentCohort.size());
 						log.debug("With base Cohort of size " + baseCohort.size());
-						Cohort invertedCohort = Cohort.subtract(baseCohort, currentCohort);
-						log.debug("Makes a new Cohort is of size " + baseCohort.size());
+						IdBitmap invertedCohort = baseCohort.andNot(currentCohort);
+						log.debug("Makes a new Cohort is of size " + invertedCohort.size());
 						i.set(invertedCohort);
 					}
 					else {
@@ -155,28 +197,28 @@ public class CohortExpressionParser {
 		log.debug("NOT conversion complete.  Now have: " + use);
 		
 		log.debug("Iterating across all Cohorts and Operators...");
-		Cohort ret = null;
+		IdBitmap ret = null;
 		BooleanOperator operator = BooleanOperator.AND;
 		for (Object o : use) {
 			if (o instanceof BooleanOperator) {
 				operator = (BooleanOperator)o;
 				log.debug("New operator: " + operator);
 			}
-			else if (o instanceof Cohort) {
-				Cohort c = (Cohort)o;
-				log.debug("Found Cohort: " + c.getSize());
+			else if (o instanceof IdBitmap) {
+				IdBitmap c = (IdBitmap)o;
+				log.debug("Found Cohort: " + c.size());
 				if (ret == null) {
 					ret = c;
 					log.debug("Setting this as starting Cohort for return.");
 				}
 				else {
 					if (operator == BooleanOperator.AND) {
-						ret = Cohort.intersect(ret, c);
-						log.debug("AND this in to get: " + ret.getSize());
+						ret = ret.and(c);
+						log.debug("AND this in to get: " + ret.size());
 					}
 					else if (operator == BooleanOperator.OR) {
-						ret = Cohort.union(ret, c);
-						log.debug("OR this in to get: " + ret.getSize());
+						ret = ret.or(c);
+						log.debug("OR this in to get: " + ret.size());
 					}
 					else {
 						throw new RuntimeException("Unable to handle BooleanOperator: " + operator);
@@ -187,7 +229,7 @@ public class CohortExpressionParser {
 				throw new RuntimeException("Can only handle Cohorts and Operators.  Unable to handle class: " + o.getClass());
 			}
 		}
-		log.debug("Done.  Returning: " + ret.getSize());
+		log.debug("Done.  Returning: " + ret.size());
 		return ret;
 	}
 	
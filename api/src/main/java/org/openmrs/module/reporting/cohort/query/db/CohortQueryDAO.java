@@ -86,4 +86,10 @@ public interface CohortQueryDAO {
 	
 	public List<Parameter> getNamedParameters(String sqlQuery);
 
+	public void saveMaterializedCohort(String cohortKey, Cohort cohort);
+
+	public void purgeMaterializedCohort(String cohortKey);
+
+	public void purgeMaterializedCohortsCreatedBefore(Date date);
+
 }
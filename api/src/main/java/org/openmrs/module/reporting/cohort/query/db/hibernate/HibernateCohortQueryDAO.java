@@ -1,5 +1,9 @@
 package org.openmrs.module.reporting.cohort.query.db.hibernate;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -1485,4 +1489,63 @@ public class HibernateCohortQueryDAO implements CohortQueryDAO {
 		return new Cohort(q.list());
     }
 
+	/**
+	 * @see CohortQueryDAO#saveMaterializedCohort(String, Cohort)
+	 */
+	@SuppressWarnings("deprecation")
+	public void saveMaterializedCohort(String cohortKey, Cohort cohort) {
+		String sql = "insert into reporting_materialized_cohort_member (cohort_key, member_id, date_created) values (?, ?, ?)";
+		Timestamp dateCreated = new Timestamp(System.currentTimeMillis());
+		PreparedStatement statement = null;
+		try {
+			Connection connection = sessionFactory.getCurrentSession().connection();
+			statement = connection.prepareStatement(sql);
+			int batchSize = 0;
+			for (Integer memberId : cohort.getMemberIds()) {
+				statement.setString(1, cohortKey);
+				statement.setInt(2, memberId);
+				statement.setTimestamp(3, dateCreated);
+				statement.addBatch();
+				if (++batchSize == 1000) {
+					statement.executeBatch();
+					batchSize = 0;
+				}
+			}
+			if (batchSize > 0) {
+				statement.executeBatch();
+			}
+		}
+		catch (SQLException e) {
+			throw new DAOException("Unable to save the members of materialized cohort " + cohortKey, e);
+		}
+		finally {
+			if (statement != null) {
+				try {
+					statement.close();
+				}
+				catch (SQLException e) {
+					log.warn("Unable to close statement", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @see CohortQueryDAO#purgeMaterializedCohort(String)
+	 */
+	public void purgeMaterializedCohort(String cohortKey) {
+		Query q = sessionFactory.getCurrentSession().createQuery("delete from MaterializedCohortMember where cohortKey = :cohortKey");
+		q.setString("cohortKey", cohortKey);
+		q.executeUpdate();
+	}
+
+	/**
+	 * @see CohortQueryDAO#purgeMaterializedCohortsCreatedBefore(Date)
+	 */
+	public void purgeMaterializedCohortsCreatedBefore(Date date) {
+		Query q = sessionFactory.getCurrentSession().createQuery("delete from MaterializedCohortMember where dateCreated is null or dateCreated < :date");
+		q.setTimestamp("date", date);
+		q.executeUpdate();
+	}
+
 }
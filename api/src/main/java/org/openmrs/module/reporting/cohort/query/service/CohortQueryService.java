@@ -24,6 +24,7 @@ import org.openmrs.module.reporting.common.RangeComparator;
 import org.openmrs.module.reporting.common.SetComparator;
 import org.openmrs.module.reporting.common.TimeQualifier;
 import org.openmrs.module.reporting.evaluation.parameter.Parameter;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 @Transactional(readOnly=true)
@@ -184,6 +185,34 @@ public interface CohortQueryService extends OpenmrsService {
 	 */
 	public List<Parameter> getNamedParameters(String sqlQuery);
 	
+	/**
+	 * Writes the members of the passed Cohort to the reporting_materialized_cohort_member table under the passed key.
+	 * This is committed in its own transaction, so that the members are visible to queries run in other sessions.
+	 * 
+	 * @param cohortKey	the key under which to save the members, which must not already be in use
+	 * @param cohort	the Cohort whose members to save
+	 * @see org.openmrs.module.reporting.cohort.MaterializedCohortUtil
+	 */
+	@Transactional(propagation=Propagation.REQUIRES_NEW)
+	public void saveMaterializedCohort(String cohortKey, Cohort cohort);
+	
+	/**
+	 * Removes the members saved under the passed key, in its own transaction
+	 * 
+	 * @param cohortKey	the key of the members to remove
+	 */
+	@Transactional(propagation=Propagation.REQUIRES_NEW)
+	public void purgeMaterializedCohort(String cohortKey);
+	
+	/**
+	 * Removes the members of all cohorts written before the passed date, for example those left behind if a server stopped
+	 * during evaluation.  This is committed in its own transaction.
+	 * 
+	 * @param date	the date before which cohorts are no longer in use
+	 */
+	@Transactional(propagation=Propagation.REQUIRES_NEW)
+	public void purgeMaterializedCohortsCreatedBefore(Date date);
+	
 	/**
 	 * Get patients who were born or died in a particular date range
 	 * 
@@ -265,4 +265,25 @@ public class CohortQueryServiceImpl  extends BaseOpenmrsService implements Cohor
 		return dao.getNamedParameters(sqlQuery);
 	}
 
+	/**
+	 * @see org.openmrs.module.reporting.cohort.query.service.CohortQueryService#saveMaterializedCohort(String, Cohort)
+	 */
+	public void saveMaterializedCohort(String cohortKey, Cohort cohort) {
+		dao.saveMaterializedCohort(cohortKey, cohort);
+	}
+
+	/**
+	 * @see org.openmrs.module.reporting.cohort.query.service.CohortQueryService#purgeMaterializedCohort(String)
+	 */
+	public void purgeMaterializedCohort(String cohortKey) {
+		dao.purgeMaterializedCohort(cohortKey);
+	}
+
+	/**
+	 * @see org.openmrs.module.reporting.cohort.query.service.CohortQueryService#purgeMaterializedCohortsCreatedBefore(Date)
+	 */
+	public void purgeMaterializedCohortsCreatedBefore(Date date) {
+		dao.purgeMaterializedCohortsCreatedBefore(date);
+	}
+
 }
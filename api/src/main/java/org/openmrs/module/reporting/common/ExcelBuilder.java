@@ -1,11 +1,13 @@
 package org.openmrs.module.reporting.common;
 
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.openmrs.Cohort;
 import org.openmrs.module.reporting.indicator.CohortIndicatorResult;
 import org.openmrs.module.reporting.indicator.dimension.CohortIndicatorAndDimensionResult;
@@ -20,6 +22,9 @@ import java.util.Map;
 
 /**
  * Excel Helper class that facilitates creating rows and columns in a workbook
+ * By default this builds an Excel pre-2007 workbook in memory.  If constructed with an {@link SXSSFWorkbook},
+ * only a window of the most recent rows of each sheet is held in memory, and earlier rows are written to temporary files,
+ * which are removed by {@link #dispose()}.  Rows can then only be added, never revisited.
  */
 public class ExcelBuilder {
 
@@ -36,6 +41,13 @@ public class ExcelBuilder {
 		workbook = new HSSFWorkbook();
     }
 
+	/**
+	 * @param workbook the workbook to which sheets are added
+	 */
+	public ExcelBuilder(Workbook workbook) {
+		this.workbook = workbook;
+	}
+
 	/**
 	 * Create a new sheet with a default name, and switch to this sheet
 	 */
@@ -132,6 +144,30 @@ public class ExcelBuilder {
 		workbook.write(out);
 	}
 
+	/**
+	 * Removes any temporary files which were written while building a streaming workbook
+	 */
+	public void dispose() {
+		if (workbook instanceof SXSSFWorkbook) {
+			((SXSSFWorkbook) workbook).dispose();
+		}
+	}
+
+	/**
+	 * @return the maximum number of rows which a sheet of the workbook can contain
+	 */
+	public int getMaxRowsPerSheet() {
+		SpreadsheetVersion version = (workbook instanceof HSSFWorkbook ? SpreadsheetVersion.EXCEL97 : SpreadsheetVersion.EXCEL2007);
+		return version.getMaxRows();
+	}
+
+	/**
+	 * @return the index of the current row of the current sheet
+	 */
+	public int getCurrentRowNum() {
+		return currentRowNum;
+	}
+
 	public Workbook getWorkbook() {
 		return workbook;
 	}
@@ -0,0 +1,778 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.common;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compressed set of non-negative integer ids, intended for efficient set algebra on large cohorts.
+ *
+ * Ids are partitioned by their upper 16 bits into chunks of 65536 possible values.  Each chunk is stored
+ * either as a sorted array of its lower 16 bits, when it contains few ids, or as a bitmap of 1024 words
+ * when it is dense.  Intersection, union and difference of dense chunks therefore run a 64-bit word at a
+ * time, and no boxed Integers are created unless ids are converted back to a Collection.
+ *
+ * Instances are not thread-safe for modification.
+ */
+public class IdBitmap implements Iterable<Integer>, Serializable {
+
+	public static final long serialVersionUID = 1L;
+
+	/**
+	 * The maximum number of ids held in a chunk using the sorted array representation
+	 */
+	private static final int ARRAY_MAX_SIZE = 4096;
+
+	/**
+	 * The number of 64-bit words needed to hold all 65536 possible values of a chunk
+	 */
+	private static final int BITMAP_WORDS = 1024;
+
+	//***** PROPERTIES *****
+
+	private char[] keys;
+	private Container[] containers;
+	private int numContainers;
+
+	//***** CONSTRUCTORS *****
+
+	/**
+	 * Default Constructor
+	 */
+	public IdBitmap() {
+		this(4);
+	}
+
+	private IdBitmap(int initialCapacity) {
+		keys = new char[initialCapacity];
+		containers = new Container[initialCapacity];
+		numContainers = 0;
+	}
+
+	/**
+	 * Constructs a new bitmap containing the passed ids
+	 */
+	public IdBitmap(Collection<Integer> ids) {
+		this();
+		if (ids != null) {
+			for (Integer id : ids) {
+				if (id != null) {
+					add(id);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Constructs a new bitmap containing the passed ids
+	 */
+	public IdBitmap(int... ids) {
+		this();
+		for (int id : ids) {
+			add(id);
+		}
+	}
+
+	//***** STATIC METHODS *****
+
+	/**
+	 * @return a new bitmap containing the ids that are in both passed bitmaps
+	 */
+	public static IdBitmap and(IdBitmap a, IdBitmap b) {
+		IdBitmap ret = new IdBitmap(Math.min(a.numContainers, b.numContainers) + 1);
+		int i = 0, j = 0;
+		while (i < a.numContainers && j < b.numContainers) {
+			if (a.keys[i] < b.keys[j]) {
+				i++;
+			}
+			else if (a.keys[i] > b.keys[j]) {
+				j++;
+			}
+			else {
+				ret.append(a.keys[i], a.containers[i].and(b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return a new bitmap containing the ids that are in either of the passed bitmaps
+	 */
+	public static IdBitmap or(IdBitmap a, IdBitmap b) {
+		IdBitmap ret = new IdBitmap(a.numContainers + b.numContainers + 1);
+		int i = 0, j = 0;
+		while (i < a.numContainers || j < b.numContainers) {
+			if (j >= b.numContainers || (i < a.numContainers && a.keys[i] < b.keys[j])) {
+				ret.append(a.keys[i], a.containers[i].copy());
+				i++;
+			}
+			else if (i >= a.numContainers || a.keys[i] > b.keys[j]) {
+				ret.append(b.keys[j], b.containers[j].copy());
+				j++;
+			}
+			else {
+				ret.append(a.keys[i], a.containers[i].or(b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return a new bitmap containing the ids that are in the first bitmap but not the second
+	 */
+	public static IdBitmap andNot(IdBitmap a, IdBitmap b) {
+		IdBitmap ret = new IdBitmap(a.numContainers + 1);
+		int i = 0, j = 0;
+		while (i < a.numContainers) {
+			if (j >= b.numContainers || a.keys[i] < b.keys[j]) {
+				ret.append(a.keys[i], a.containers[i].copy());
+				i++;
+			}
+			else if (a.keys[i] > b.keys[j]) {
+				j++;
+			}
+			else {
+				ret.append(a.keys[i], a.containers[i].andNot(b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the number of ids that are in both passed bitmaps, without constructing their intersection
+	 */
+	public static int andCardinality(IdBitmap a, IdBitmap b) {
+		int ret = 0;
+		int i = 0, j = 0;
+		while (i < a.numContainers && j < b.numContainers) {
+			if (a.keys[i] < b.keys[j]) {
+				i++;
+			}
+			else if (a.keys[i] > b.keys[j]) {
+				j++;
+			}
+			else {
+				ret += a.containers[i].andCardinality(b.containers[j]);
+				i++;
+				j++;
+			}
+		}
+		return ret;
+	}
+
+	//***** INSTANCE METHODS *****
+
+	/**
+	 * Adds the passed id to this bitmap
+	 * @throws IllegalArgumentException if the id is negative
+	 */
+	public void add(int id) {
+		if (id < 0) {
+			throw new IllegalArgumentException("Only non-negative ids are supported: " + id);
+		}
+		char key = highBits(id);
+		int index = indexOfKey(key);
+		if (index >= 0) {
+			containers[index] = containers[index].add(lowBits(id));
+		}
+		else {
+			insertContainer(-index - 1, key, new ArrayContainer().add(lowBits(id)));
+		}
+	}
+
+	/**
+	 * @return true if the passed id is in this bitmap
+	 */
+	public boolean contains(int id) {
+		if (id < 0) {
+			return false;
+		}
+		int index = indexOfKey(highBits(id));
+		return index >= 0 && containers[index].contains(lowBits(id));
+	}
+
+	/**
+	 * @return the number of ids in this bitmap
+	 */
+	public int size() {
+		int ret = 0;
+		for (int i = 0; i < numContainers; i++) {
+			ret += containers[i].cardinality();
+		}
+		return ret;
+	}
+
+	/**
+	 * @return true if this bitmap contains no ids
+	 */
+	public boolean isEmpty() {
+		return numContainers == 0;
+	}
+
+	/**
+	 * @return a new bitmap containing the ids that are in both this and the passed bitmap
+	 */
+	public IdBitmap and(IdBitmap other) {
+		return and(this, other);
+	}
+
+	/**
+	 * @return a new bitmap containing the ids that are in either this or the passed bitmap
+	 */
+	public IdBitmap or(IdBitmap other) {
+		return or(this, other);
+	}
+
+	/**
+	 * @return a new bitmap containing the ids that are in this bitmap but not the passed bitmap
+	 */
+	public IdBitmap andNot(IdBitmap other) {
+		return andNot(this, other);
+	}
+
+	/**
+	 * @return a new HashSet containing all of the ids in this bitmap
+	 */
+	public Set<Integer> toSet() {
+		Set<Integer> ret = new HashSet<Integer>((int) (size() / 0.75f) + 1);
+		for (Integer id : this) {
+			ret.add(id);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return a sorted array containing all of the ids in this bitmap
+	 */
+	public int[] toArray() {
+		int[] ret = new int[size()];
+		int n = 0;
+		for (IdIterator i = new IdIterator(); i.hasNext();) {
+			ret[n++] = i.nextId();
+		}
+		return ret;
+	}
+
+	/**
+	 * Iterates over the ids in ascending order
+	 * @see Iterable#iterator()
+	 */
+	public Iterator<Integer> iterator() {
+		return new IdIterator();
+	}
+
+	/**
+	 * @see Object#equals(Object)
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof IdBitmap)) {
+			return false;
+		}
+		IdBitmap that = (IdBitmap) o;
+		if (numContainers != that.numContainers) {
+			return false;
+		}
+		for (int i = 0; i < numContainers; i++) {
+			if (keys[i] != that.keys[i] || !Arrays.equals(containers[i].toValues(), that.containers[i].toValues())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @see Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		int ret = 1;
+		for (IdIterator i = new IdIterator(); i.hasNext();) {
+			ret = 31 * ret + i.nextId();
+		}
+		return ret;
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "IdBitmap[size=" + size() + "]";
+	}
+
+	//***** PRIVATE METHODS *****
+
+	private static char highBits(int id) {
+		return (char) (id >>> 16);
+	}
+
+	private static char lowBits(int id) {
+		return (char) (id & 0xFFFF);
+	}
+
+	private int indexOfKey(char key) {
+		// Most additions are in ascending order, so check the last container first
+		if (numContainers > 0 && keys[numContainers - 1] == key) {
+			return numContainers - 1;
+		}
+		return Arrays.binarySearch(keys, 0, numContainers, key);
+	}
+
+	/**
+	 * Appends a container whose key is greater than that of all existing containers, ignoring null (empty) ones
+	 */
+	private void append(char key, Container container) {
+		if (container != null) {
+			insertContainer(numContainers, key, container);
+		}
+	}
+
+	private void insertContainer(int index, char key, Container container) {
+		if (numContainers == keys.length) {
+			int newCapacity = Math.max(4, keys.length * 2);
+			keys = Arrays.copyOf(keys, newCapacity);
+			containers = Arrays.copyOf(containers, newCapacity);
+		}
+		if (index < numContainers) {
+			System.arraycopy(keys, index, keys, index + 1, numContainers - index);
+			System.arraycopy(containers, index, containers, index + 1, numContainers - index);
+		}
+		keys[index] = key;
+		containers[index] = container;
+		numContainers++;
+	}
+
+	/**
+	 * Iterates across all ids, without boxing unless accessed via {@link #next()}
+	 */
+	private class IdIterator implements Iterator<Integer> {
+
+		private int containerIndex = 0;
+		private char[] values = null;
+		private int valueIndex = 0;
+
+		public IdIterator() {
+			advance();
+		}
+
+		private void advance() {
+			while ((values == null || valueIndex >= values.length) && containerIndex < numContainers) {
+				values = containers[containerIndex++].toValues();
+				valueIndex = 0;
+			}
+		}
+
+		public boolean hasNext() {
+			return values != null && valueIndex < values.length;
+		}
+
+		public int nextId() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			int ret = (keys[containerIndex - 1] << 16) | values[valueIndex++];
+			advance();
+			return ret;
+		}
+
+		public Integer next() {
+			return nextId();
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException("IdBitmap iterators do not support removal");
+		}
+	}
+
+	//***** CONTAINERS *****
+
+	/**
+	 * Holds the lower 16 bits of all ids which share the same upper 16 bits.
+	 * Operations return null rather than an empty container.
+	 */
+	private static abstract class Container implements Serializable {
+
+		public static final long serialVersionUID = 1L;
+
+		public abstract Container add(char value);
+
+		public abstract boolean contains(char value);
+
+		public abstract int cardinality();
+
+		public abstract Container copy();
+
+		public abstract Container and(Container other);
+
+		public abstract Container or(Container other);
+
+		public abstract Container andNot(Container other);
+
+		public abstract int andCardinality(Container other);
+
+		/**
+		 * @return the values in this container in ascending order
+		 */
+		public abstract char[] toValues();
+	}
+
+	/**
+	 * Container which holds a sorted array of values, used when a chunk has few members
+	 */
+	private static class ArrayContainer extends Container {
+
+		public static final long serialVersionUID = 1L;
+
+		private char[] values;
+		private int cardinality;
+
+		public ArrayContainer() {
+			this(new char[4], 0);
+		}
+
+		public ArrayContainer(char[] values, int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		public Container add(char value) {
+			int index = (cardinality > 0 && values[cardinality - 1] < value) ? -cardinality - 1 : Arrays.binarySearch(values, 0, cardinality, value);
+			if (index >= 0) {
+				return this;
+			}
+			if (cardinality >= ARRAY_MAX_SIZE) {
+				return toBitmapContainer().add(value);
+			}
+			index = -index - 1;
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(ARRAY_MAX_SIZE, values.length * 2));
+			}
+			System.arraycopy(values, index, values, index + 1, cardinality - index);
+			values[index] = value;
+			cardinality++;
+			return this;
+		}
+
+		@Override
+		public boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		@Override
+		public int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		public Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+		}
+
+		@Override
+		public Container and(Container other) {
+			if (other instanceof BitmapContainer) {
+				BitmapContainer b = (BitmapContainer) other;
+				char[] ret = new char[cardinality];
+				int n = 0;
+				for (int i = 0; i < cardinality; i++) {
+					if (b.contains(values[i])) {
+						ret[n++] = values[i];
+					}
+				}
+				return n == 0 ? null : new ArrayContainer(ret, n);
+			}
+			ArrayContainer a = (ArrayContainer) other;
+			char[] ret = new char[Math.min(cardinality, a.cardinality)];
+			int n = 0, i = 0, j = 0;
+			while (i < cardinality && j < a.cardinality) {
+				if (values[i] < a.values[j]) {
+					i++;
+				}
+				else if (values[i] > a.values[j]) {
+					j++;
+				}
+				else {
+					ret[n++] = values[i];
+					i++;
+					j++;
+				}
+			}
+			return n == 0 ? null : new ArrayContainer(ret, n);
+		}
+
+		@Override
+		public Container or(Container other) {
+			if (other instanceof BitmapContainer) {
+				return other.or(this);
+			}
+			ArrayContainer a = (ArrayContainer) other;
+			if (cardinality + a.cardinality > ARRAY_MAX_SIZE) {
+				return toBitmapContainer().or(a);
+			}
+			char[] ret = new char[cardinality + a.cardinality];
+			int n = 0, i = 0, j = 0;
+			while (i < cardinality || j < a.cardinality) {
+				if (j >= a.cardinality || (i < cardinality && values[i] < a.values[j])) {
+					ret[n++] = values[i++];
+				}
+				else if (i >= cardinality || values[i] > a.values[j]) {
+					ret[n++] = a.values[j++];
+				}
+				else {
+					ret[n++] = values[i];
+					i++;
+					j++;
+				}
+			}
+			return new ArrayContainer(ret, n);
+		}
+
+		@Override
+		public Container andNot(Container other) {
+			char[] ret = new char[cardinality];
+			int n = 0;
+			if (other instanceof BitmapContainer) {
+				for (int i = 0; i < cardinality; i++) {
+					if (!other.contains(values[i])) {
+						ret[n++] = values[i];
+					}
+				}
+			}
+			else {
+				ArrayContainer a = (ArrayContainer) other;
+				int i = 0, j = 0;
+				while (i < cardinality) {
+					if (j >= a.cardinality || values[i] < a.values[j]) {
+						ret[n++] = values[i++];
+					}
+					else if (values[i] > a.values[j]) {
+						j++;
+					}
+					else {
+						i++;
+						j++;
+					}
+				}
+			}
+			return n == 0 ? null : new ArrayContainer(ret, n);
+		}
+
+		@Override
+		public int andCardinality(Container other) {
+			int n = 0;
+			if (other instanceof BitmapContainer) {
+				for (int i = 0; i < cardinality; i++) {
+					if (other.contains(values[i])) {
+						n++;
+					}
+				}
+			}
+			else {
+				ArrayContainer a = (ArrayContainer) other;
+				int i = 0, j = 0;
+				while (i < cardinality && j < a.cardinality) {
+					if (values[i] < a.values[j]) {
+						i++;
+					}
+					else if (values[i] > a.values[j]) {
+						j++;
+					}
+					else {
+						n++;
+						i++;
+						j++;
+					}
+				}
+			}
+			return n;
+		}
+
+		@Override
+		public char[] toValues() {
+			return cardinality == values.length ? values : Arrays.copyOf(values, cardinality);
+		}
+
+		private BitmapContainer toBitmapContainer() {
+			BitmapContainer ret = new BitmapContainer();
+			for (int i = 0; i < cardinality; i++) {
+				ret.add(values[i]);
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Container which holds a bit for each of the 65536 possible values, used when a chunk is dense
+	 */
+	private static class BitmapContainer extends Container {
+
+		public static final long serialVersionUID = 1L;
+
+		private long[] words;
+		private int cardinality;
+
+		public BitmapContainer() {
+			this(new long[BITMAP_WORDS], 0);
+		}
+
+		public BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		public Container add(char value) {
+			long mask = 1L << value;
+			int index = value >>> 6;
+			if ((words[index] & mask) == 0) {
+				words[index] |= mask;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		public boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		public int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		public Container copy() {
+			return new BitmapContainer(Arrays.copyOf(words, BITMAP_WORDS), cardinality);
+		}
+
+		@Override
+		public Container and(Container other) {
+			if (other instanceof ArrayContainer) {
+				return other.and(this);
+			}
+			long[] otherWords = ((BitmapContainer) other).words;
+			long[] ret = new long[BITMAP_WORDS];
+			int n = 0;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				ret[i] = words[i] & otherWords[i];
+				n += Long.bitCount(ret[i]);
+			}
+			return toEfficientContainer(ret, n);
+		}
+
+		@Override
+		public Container or(Container other) {
+			if (other instanceof ArrayContainer) {
+				BitmapContainer ret = (BitmapContainer) copy();
+				char[] values = other.toValues();
+				for (int i = 0; i < values.length; i++) {
+					ret.add(values[i]);
+				}
+				return ret;
+			}
+			long[] otherWords = ((BitmapContainer) other).words;
+			long[] ret = new long[BITMAP_WORDS];
+			int n = 0;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				ret[i] = words[i] | otherWords[i];
+				n += Long.bitCount(ret[i]);
+			}
+			return new BitmapContainer(ret, n);
+		}
+
+		@Override
+		public Container andNot(Container other) {
+			long[] ret = Arrays.copyOf(words, BITMAP_WORDS);
+			int n = cardinality;
+			if (other instanceof ArrayContainer) {
+				char[] values = other.toValues();
+				for (int i = 0; i < values.length; i++) {
+					long mask = 1L << values[i];
+					int index = values[i] >>> 6;
+					if ((ret[index] & mask) != 0) {
+						ret[index] &= ~mask;
+						n--;
+					}
+				}
+			}
+			else {
+				long[] otherWords = ((BitmapContainer) other).words;
+				n = 0;
+				for (int i = 0; i < BITMAP_WORDS; i++) {
+					ret[i] = ret[i] & ~otherWords[i];
+					n += Long.bitCount(ret[i]);
+				}
+			}
+			return toEfficientContainer(ret, n);
+		}
+
+		@Override
+		public int andCardinality(Container other) {
+			if (other instanceof ArrayContainer) {
+				return other.andCardinality(this);
+			}
+			long[] otherWords = ((BitmapContainer) other).words;
+			int n = 0;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				n += Long.bitCount(words[i] & otherWords[i]);
+			}
+			return n;
+		}
+
+		@Override
+		public char[] toValues() {
+			char[] ret = new char[cardinality];
+			int n = 0;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					ret[n++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return ret;
+		}
+
+		/**
+		 * @return null if the passed words are empty, an ArrayContainer if sparse, otherwise a BitmapContainer
+		 */
+		private static Container toEfficientContainer(long[] words, int cardinality) {
+			if (cardinality == 0) {
+				return null;
+			}
+			if (cardinality <= ARRAY_MAX_SIZE) {
+				return new ArrayContainer(new BitmapContainer(words, cardinality).toValues(), cardinality);
+			}
+			return new BitmapContainer(words, cardinality);
+		}
+	}
+}
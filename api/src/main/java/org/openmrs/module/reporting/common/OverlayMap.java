@@ -0,0 +1,111 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.common;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A Map which layers a small set of values over a shared base Map, without copying the base.
+ * Lookups check the overlay first and then the base.  All modifications are made to the overlay,
+ * so the base Map is never changed and can be shared safely between many overlays.
+ */
+public class OverlayMap<K, V> extends AbstractMap<K, V> {
+
+	private Map<K, V> base;
+	private Map<K, V> overlay;
+
+	/**
+	 * Constructs a new OverlayMap with an empty overlay over the passed base
+	 */
+	public OverlayMap(Map<K, V> base) {
+		this(base, new HashMap<K, V>());
+	}
+
+	/**
+	 * Constructs a new OverlayMap with the passed overlay over the passed base
+	 */
+	public OverlayMap(Map<K, V> base, Map<K, V> overlay) {
+		this.base = (base == null ? Collections.<K, V>emptyMap() : base);
+		this.overlay = overlay;
+	}
+
+	/**
+	 * @see Map#get(Object)
+	 */
+	@Override
+	public V get(Object key) {
+		V value = overlay.get(key);
+		if (value == null && !overlay.containsKey(key)) {
+			value = base.get(key);
+		}
+		return value;
+	}
+
+	/**
+	 * @see Map#containsKey(Object)
+	 */
+	@Override
+	public boolean containsKey(Object key) {
+		return overlay.containsKey(key) || base.containsKey(key);
+	}
+
+	/**
+	 * @see Map#put(Object, Object)
+	 */
+	@Override
+	public V put(K key, V value) {
+		V previous = get(key);
+		overlay.put(key, value);
+		return previous;
+	}
+
+	/**
+	 * Values cannot be removed, since this would require modifying the base Map
+	 * @see Map#remove(Object)
+	 */
+	@Override
+	public V remove(Object key) {
+		throw new UnsupportedOperationException("Values cannot be removed from an OverlayMap");
+	}
+
+	/**
+	 * @return a read-only snapshot of the combined entries.  This copies both Maps, so callers which
+	 * only need individual values should use {@link #get(Object)} instead
+	 * @see Map#entrySet()
+	 */
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		Map<K, V> combined = new HashMap<K, V>(base);
+		combined.putAll(overlay);
+		return Collections.unmodifiableMap(combined).entrySet();
+	}
+
+	/**
+	 * @return the base Map
+	 */
+	public Map<K, V> getBase() {
+		return base;
+	}
+
+	/**
+	 * @return the overlay Map
+	 */
+	public Map<K, V> getOverlay() {
+		return overlay;
+	}
+}
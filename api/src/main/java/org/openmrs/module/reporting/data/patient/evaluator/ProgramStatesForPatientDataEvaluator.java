@@ -23,6 +23,7 @@ import org.openmrs.module.reporting.data.patient.EvaluatedPatientData;
 import org.openmrs.module.reporting.data.patient.definition.PatientDataDefinition;
 import org.openmrs.module.reporting.data.patient.definition.ProgramStatesForPatientDataDefinition;
 import org.openmrs.module.reporting.dataset.query.service.DataSetQueryService;
+import org.openmrs.module.reporting.dataset.query.service.HqlResultHandler;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
 
@@ -50,7 +51,7 @@ public class ProgramStatesForPatientDataEvaluator implements PatientDataEvaluato
 	public EvaluatedPatientData evaluate(PatientDataDefinition definition, EvaluationContext context) throws EvaluationException {
 		
 		ProgramStatesForPatientDataDefinition def = (ProgramStatesForPatientDataDefinition) definition;
-		EvaluatedPatientData c = new EvaluatedPatientData(def, context);
+		final EvaluatedPatientData c = new EvaluatedPatientData(def, context);
 		
 		if (context.getBaseCohort() != null && context.getBaseCohort().isEmpty()) {
 			return c;
@@ -109,21 +110,24 @@ public class ProgramStatesForPatientDataEvaluator implements PatientDataEvaluato
 			hql.append("order by ps.startDate asc, ps.patientProgram.dateEnrolled asc");
 		}
 
-		List<Object> queryResult = qs.executeHqlQuery(hql.toString(), m);
-
-		ListMap<Integer, PatientState> statesForPatients = new ListMap<Integer, PatientState>();
-		for (Object o : queryResult) {
-			Object[] parts = (Object[]) o;
-			if (parts.length == 2) {
+		// if a single state is needed, only the first for each patient is kept, and the rest can be evicted
+		final boolean firstOnly = (def.getDataType() == PatientState.class);
+		final ListMap<Integer, PatientState> statesForPatients = new ListMap<Integer, PatientState>();
+		qs.executeHqlQuery(hql.toString(), m, new HqlResultHandler() {
+			public boolean handleResult(Object result) {
+				Object[] parts = (Object[]) result;
 				Integer pId = (Integer) parts[0];
-				PatientState pi = (PatientState) parts[1];
-				statesForPatients.putInList(pId, pi);
+				if (firstOnly && statesForPatients.containsKey(pId)) {
+					return false;
+				}
+				statesForPatients.putInList(pId, (PatientState) parts[1]);
+				return true;
 			}
-		}
+		});
 		
 		for (Integer pId : statesForPatients.keySet()) {
 			List<PatientState> l = statesForPatients.get(pId);
-			if (def.getDataType() == PatientState.class) {
+			if (firstOnly) {
 				c.addData(pId, l.get(0));
 			}
 			else {
@@ -21,6 +21,7 @@ import java.util.Map;
 import org.openmrs.Obs;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.cohort.MaterializedCohortUtil;
 import org.openmrs.module.reporting.common.ObsActiveList;
 import org.openmrs.module.reporting.data.person.EvaluatedPersonData;
 import org.openmrs.module.reporting.data.person.definition.ObsActiveListPersonDataDefinition;
@@ -64,8 +65,7 @@ public class ObsActiveListPersonDataEvaluator implements PersonDataEvaluator {
 		hql.append("and concept in (:concepts) ");
 
 		if (context.getBaseCohort() != null) {
-			hql.append("and personId in (:patientIds) ");
-			m.put("patientIds", context.getBaseCohort());
+			hql.append("and " + MaterializedCohortUtil.getHqlRestriction("personId", context, m, "patientIds") + " ");
 		}
 		
 		List<Object> startingObs = new ArrayList<Object>();
@@ -15,6 +15,7 @@ package org.openmrs.module.reporting.data.person.evaluator;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -23,6 +24,7 @@ import org.openmrs.Form;
 import org.openmrs.Obs;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.cohort.MaterializedCohortUtil;
 import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.common.ListMap;
 import org.openmrs.module.reporting.common.TimeQualifier;
@@ -35,13 +37,21 @@ import org.openmrs.module.reporting.evaluation.EvaluationException;
 
 /**
  * Evaluates an ObsForPersonDataDefinition to produce a PersonData
+ * If only the first or last Obs is needed, the database selects the id of that Obs for each person,
+ * and only the selected Obs are then loaded, rather than every matching Obs for every person.
  */
 @Handler(supports=ObsForPersonDataDefinition.class, order=50)
 public class ObsForPersonDataEvaluator implements PersonDataEvaluator {
 
+	/**
+	 * The maximum number of selected Obs to load in a single query
+	 */
+	private static final int LOAD_BATCH_SIZE = 1000;
+
 	/** 
 	 * @see PersonDataEvaluator#evaluate(PersonDataDefinition, EvaluationContext)
 	 * @should return the obs that match the passed definition configuration
+	 * @should select the first or last obs for each person in the database
 	 */
 	public EvaluatedPersonData evaluate(PersonDataDefinition definition, EvaluationContext context) throws EvaluationException {
 		
@@ -52,20 +62,105 @@ public class ObsForPersonDataEvaluator implements PersonDataEvaluator {
 			return c;
 		}
 		
+		if (def.getWhich() == TimeQualifier.LAST || def.getWhich() == TimeQualifier.FIRST) {
+			evaluateFirstOrLast(def, context, c);
+			return c;
+		}
+		
 		DataSetQueryService qs = Context.getService(DataSetQueryService.class);
 		
 		StringBuilder hql = new StringBuilder();
 		Map<String, Object> m = new HashMap<String, Object>();
 		
-		hql.append("from 		Obs ");
-		hql.append("where 		voided = false ");
+		hql.append("from 		Obs o ");
+		hql.append("where 		o.voided = false ");
 		
 		if (context.getBaseCohort() != null) {
-			hql.append("and 		personId in (:patientIds) ");
-			m.put("patientIds", context.getBaseCohort());
+			hql.append("and 		" + MaterializedCohortUtil.getHqlRestriction("o.personId", context, m, "patientIds") + " ");
+		}
+		
+		appendRestrictions(hql, "o", def, m);
+		
+		hql.append("order by 	o.obsDatetime asc");
+		
+		List<Object> queryResult = qs.executeHqlQuery(hql.toString(), m);
+		
+		ListMap<Integer, Obs> obsForPatients = new ListMap<Integer, Obs>();
+		for (Object o : queryResult) {
+			Obs obs = (Obs)o;
+			obsForPatients.putInList(obs.getPersonId(), obs);
+		}
+		
+		for (Integer pId : obsForPatients.keySet()) {
+			c.addData(pId, obsForPatients.get(pId));
 		}
 		
-		hql.append("and 		concept.conceptId = :question ");
+		return c;
+	}
+	
+	/**
+	 * Adds the first or last matching Obs for each person to the passed data.  A correlated subquery selects the
+	 * earliest or latest obsDatetime for each person, and only the ids of the Obs at that time are returned.
+	 * If more than one Obs has that obsDatetime, the one with the lowest (for FIRST) or highest (for LAST) id is used.
+	 */
+	protected void evaluateFirstOrLast(ObsForPersonDataDefinition def, EvaluationContext context, EvaluatedPersonData c) {
+		
+		DataSetQueryService qs = Context.getService(DataSetQueryService.class);
+		boolean last = (def.getWhich() == TimeQualifier.LAST);
+		
+		StringBuilder hql = new StringBuilder();
+		Map<String, Object> m = new HashMap<String, Object>();
+		
+		hql.append("select 		o.personId, o.obsId ");
+		hql.append("from 		Obs o ");
+		hql.append("where 		o.voided = false ");
+		
+		if (context.getBaseCohort() != null) {
+			hql.append("and 		" + MaterializedCohortUtil.getHqlRestriction("o.personId", context, m, "patientIds") + " ");
+		}
+		
+		appendRestrictions(hql, "o", def, m);
+		
+		hql.append("and 		o.obsDatetime = ( ");
+		hql.append("	select 	" + (last ? "max" : "min") + "(s.obsDatetime) ");
+		hql.append("	from 	Obs s ");
+		hql.append("	where 	s.voided = false ");
+		hql.append("	and 	s.personId = o.personId ");
+		appendRestrictions(hql, "s", def, m);
+		hql.append(") ");
+		
+		hql.append("order by 	o.obsId " + (last ? "desc" : "asc"));
+		
+		Map<Integer, Integer> personForObs = new LinkedHashMap<Integer, Integer>();
+		Map<Integer, Integer> obsForPerson = new HashMap<Integer, Integer>();
+		for (Object o : qs.executeHqlQuery(hql.toString(), m)) {
+			Object[] row = (Object[]) o;
+			Integer personId = (Integer) row[0];
+			Integer obsId = (Integer) row[1];
+			if (!obsForPerson.containsKey(personId)) {
+				obsForPerson.put(personId, obsId);
+				personForObs.put(obsId, personId);
+			}
+		}
+		
+		List<Integer> obsIds = new ArrayList<Integer>(personForObs.keySet());
+		for (int i = 0; i < obsIds.size(); i += LOAD_BATCH_SIZE) {
+			Map<String, Object> batchParams = new HashMap<String, Object>();
+			batchParams.put("obsIds", obsIds.subList(i, Math.min(i + LOAD_BATCH_SIZE, obsIds.size())));
+			for (Object o : qs.executeHqlQuery("from Obs where obsId in (:obsIds)", batchParams)) {
+				Obs obs = (Obs) o;
+				c.addData(personForObs.get(obs.getObsId()), obs);
+			}
+		}
+	}
+	
+	/**
+	 * Appends the restrictions on question, encounter type, form and date of the passed definition,
+	 * for the Obs with the passed alias, to the passed query
+	 */
+	private void appendRestrictions(StringBuilder hql, String alias, ObsForPersonDataDefinition def, Map<String, Object> m) {
+		
+		hql.append("and 		" + alias + ".concept.conceptId = :question ");
 		m.put("question", def.getQuestion().getConceptId());
 		
 		if (def.getEncounterTypeList() != null && !def.getEncounterTypeList().isEmpty()) {
@@ -73,7 +168,7 @@ public class ObsForPersonDataEvaluator implements PersonDataEvaluator {
 			for (EncounterType encType : def.getEncounterTypeList()) {
 				ids.add(encType.getEncounterTypeId());
 			}
-			hql.append("and		encounter.encounterType.encounterTypeId in (:encounterTypeIds) ");
+			hql.append("and		" + alias + ".encounter.encounterType.encounterTypeId in (:encounterTypeIds) ");
 			m.put("encounterTypeIds", ids);
 		}
 		
@@ -82,40 +177,18 @@ public class ObsForPersonDataEvaluator implements PersonDataEvaluator {
 			for (Form encForm : def.getFormList()) {
 				ids.add(encForm.getFormId());
 			}
-			hql.append("and		encounter.form.formId in (:formIds) ");
+			hql.append("and		" + alias + ".encounter.form.formId in (:formIds) ");
 			m.put("formIds", ids);
 		}
 		
 		if (def.getOnOrAfter() != null) {
-			hql.append("and		obsDatetime >= :onOrAfter ");
+			hql.append("and		" + alias + ".obsDatetime >= :onOrAfter ");
 			m.put("onOrAfter", def.getOnOrAfter());
 		}
 		
 		if (def.getOnOrBefore() != null) {
-			hql.append("and		obsDatetime <= :onOrBefore ");
+			hql.append("and		" + alias + ".obsDatetime <= :onOrBefore ");
 			m.put("onOrBefore", DateUtil.getEndOfDayIfTimeExcluded(def.getOnOrBefore()));
 		}
-		
-		hql.append("order by 	obsDatetime " + (def.getWhich() == TimeQualifier.LAST ? "desc" : "asc"));
-		
-		List<Object> queryResult = qs.executeHqlQuery(hql.toString(), m);
-		
-		ListMap<Integer, Obs> obsForPatients = new ListMap<Integer, Obs>();
-		for (Object o : queryResult) {
-			Obs obs = (Obs)o;
-			obsForPatients.putInList(obs.getPersonId(), obs);
-		}
-		
-		for (Integer pId : obsForPatients.keySet()) {
-			List<Obs> l = obsForPatients.get(pId);
-			if (def.getWhich() == TimeQualifier.LAST || def.getWhich() == TimeQualifier.FIRST) {
-				c.addData(pId, l.get(0));
-			}
-			else {
-				c.addData(pId, l);
-			}
-		}
-		
-		return c;
 	}
 }
@@ -20,6 +20,7 @@ import java.util.Map;
 import org.openmrs.PersonAttribute;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.cohort.MaterializedCohortUtil;
 import org.openmrs.module.reporting.data.patient.evaluator.PatientDataEvaluator;
 import org.openmrs.module.reporting.data.person.EvaluatedPersonData;
 import org.openmrs.module.reporting.data.person.definition.PersonAttributeDataDefinition;
@@ -50,17 +51,14 @@ public class PersonAttributeDataEvaluator implements PersonDataEvaluator {
 		DataSetQueryService qs = Context.getService(DataSetQueryService.class);
 		
 		StringBuilder hql = new StringBuilder();
+		Map<String, Object> m = new HashMap<String, Object>();
 		hql.append("select 		pa.person.personId, pa ");
 		hql.append("from 		PersonAttribute pa ");
 		hql.append("where 		voided = false ");
 		if (context.getBaseCohort() != null) {
-			hql.append("and 		pa.person.personId in (:patientIds) ");
+			hql.append("and 		" + MaterializedCohortUtil.getHqlRestriction("pa.person.personId", context, m, "patientIds") + " ");
 		}
 		hql.append("and 		pa.attributeType.personAttributeTypeId = :idType ");
-		Map<String, Object> m = new HashMap<String, Object>();
-		if (context.getBaseCohort() != null) {
-			m.put("patientIds", context.getBaseCohort());
-		}
 		m.put("idType", def.getPersonAttributeType().getPersonAttributeTypeId());
 		List<Object> queryResult = qs.executeHqlQuery(hql.toString(), m);
 		for (Object o : queryResult) {
@@ -16,15 +16,16 @@ package org.openmrs.module.reporting.data.person.evaluator;
 import org.openmrs.PersonName;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.cohort.MaterializedCohortUtil;
 import org.openmrs.module.reporting.data.person.EvaluatedPersonData;
 import org.openmrs.module.reporting.data.person.definition.PersonDataDefinition;
 import org.openmrs.module.reporting.data.person.definition.PreferredNameDataDefinition;
 import org.openmrs.module.reporting.dataset.query.service.DataSetQueryService;
+import org.openmrs.module.reporting.dataset.query.service.HqlResultHandler;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -41,30 +42,30 @@ public class PreferredNameDataEvaluator implements PersonDataEvaluator {
 	 * @should return the preferred name for all persons
 	 */
 	public EvaluatedPersonData evaluate(PersonDataDefinition definition, EvaluationContext context) throws EvaluationException {
-		EvaluatedPersonData c = new EvaluatedPersonData(definition, context);
+		final EvaluatedPersonData c = new EvaluatedPersonData(definition, context);
 		if (context != null && context.getBaseCohort() != null && !context.getBaseCohort().isEmpty()) {
 			DataSetQueryService qs = Context.getService(DataSetQueryService.class);
 
-			// orders all person names so preferred comes last for each person id
+			// orders all person names so preferred comes first for each person id
+			Map<String, Object> m = new HashMap<String, Object>();
 			String hql = "select pn.person.personId, pn" +
 					" from PersonName as pn" +
 					" where voided = false " +
-					" and pn.person.personId in (:personIds)" +
-					" order by preferred asc";
-
-			Map<String, Object> m = new HashMap<String, Object>();
-			m.put("personIds", context.getBaseCohort());
+					" and " + MaterializedCohortUtil.getHqlRestriction("pn.person.personId", context, m, "personIds") +
+					" order by preferred desc";
 
-			// overwrite person name for each person, finishing with the preferred if it exists
-			List<Object> queryResult = qs.executeHqlQuery(hql, m);
-			for (Object o : queryResult) {
-				Object[] parts = (Object[]) o;
-				if (parts.length == 2) {
+			// keep the first person name for each person, which is the preferred if it exists, and let the rest be evicted
+			qs.executeHqlQuery(hql, m, new HqlResultHandler() {
+				public boolean handleResult(Object result) {
+					Object[] parts = (Object[]) result;
 					Integer pId = (Integer) parts[0];
-					PersonName pn = (PersonName) parts[1];
-					c.addData(pId, pn);
+					if (c.getData().containsKey(pId)) {
+						return false;
+					}
+					c.addData(pId, (PersonName) parts[1]);
+					return true;
 				}
-			}
+			});
 		}
 		return c;
 	}
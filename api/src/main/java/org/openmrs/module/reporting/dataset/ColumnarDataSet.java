@@ -0,0 +1,652 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.dataset;
+
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+/**
+ * A {@link SimpleDataSet} which stores its values by column rather than by row.  Each column holds its values
+ * in a single vector, specialized to primitive arrays for Integer, Double, and Date values, and to
+ * dictionary-encoded codes for String values, falling back to an Object array for any other (or mixed) types.
+ * This avoids the map, entries, and boxed values that a {@link DataSetRow} holds per cell.
+ *
+ * The rows returned from this DataSet are lightweight views onto the column vectors, and any changes made
+ * through them are written to this DataSet.  Note that {@link #getRowMap()} returns a new map of such views
+ * on each call, so rows must be added with {@link #addRow(Integer, DataSetRow)} rather than via this map.
+ */
+public class ColumnarDataSet extends SimpleDataSet {
+
+	/**
+	 * String columns with more than this number of distinct values are no longer dictionary-encoded
+	 */
+	public static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+	private List<Column> columns = new ArrayList<Column>();
+	private Map<String, Integer> columnIndexes = new HashMap<String, Integer>();
+	private int[] rowKeys = new int[16];
+	private int rowCount = 0;
+	private RowIndex rowIndex = new RowIndex();
+
+	// *************
+	// CONSTRUCTORS
+	// *************
+
+	/**
+	 * Default Constructor which creates an empty DataSet for the given definition and evaluationContext
+	 */
+	public ColumnarDataSet(DataSetDefinition definition, EvaluationContext evaluationContext) {
+		super(definition, evaluationContext);
+	}
+
+	// *************
+	// INSTANCE METHODS
+	// *************
+
+	/**
+	 * @see SimpleDataSet#addRow(DataSetRow)
+	 */
+	@Override
+	public void addRow(DataSetRow row) {
+		addRow(rowCount + 1, row);
+	}
+
+	/**
+	 * @see SimpleDataSet#addRow(Integer, DataSetRow)
+	 */
+	@Override
+	public void addRow(Integer index, DataSetRow row) {
+		int r = getOrCreateRow(index);
+		if (row != null) {
+			for (Map.Entry<DataSetColumn, Object> e : row.getColumnValues().entrySet()) {
+				setValue(r, e.getKey(), e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @see SimpleDataSet#addColumnValue(Integer, DataSetColumn, Object)
+	 */
+	@Override
+	public void addColumnValue(Integer id, DataSetColumn column, Object columnValue) {
+		setValue(getOrCreateRow(id), column, columnValue);
+	}
+
+	/**
+	 * @see SimpleDataSet#getColumnValue(Integer, String)
+	 */
+	@Override
+	public Object getColumnValue(Integer id, String columnName) {
+		if (id == null) {
+			return null;
+		}
+		int r = rowIndex.get(id);
+		Integer c = findColumnIndex(columnName);
+		if (r < 0 || c == null) {
+			return null;
+		}
+		return columns.get(c).get(r);
+	}
+
+	/**
+	 * @see SimpleDataSet#getRows()
+	 */
+	@Override
+	public DataSetRowList getRows() {
+		DataSetRowList l = new DataSetRowList();
+		for (int r = 0; r < rowCount; r++) {
+			l.add(new ColumnarDataSetRow(r));
+		}
+		if (getSortCriteria() != null) {
+			Collections.sort(l, new DataSetRowComparator(getSortCriteria()));
+		}
+		return l;
+	}
+
+	/**
+	 * @see SimpleDataSet#iterator()
+	 */
+	@Override
+	public Iterator<DataSetRow> iterator() {
+		if (getSortCriteria() != null) {
+			return getRows().iterator();
+		}
+		return new Iterator<DataSetRow>() {
+			private int next = 0;
+			public boolean hasNext() {
+				return next < rowCount;
+			}
+			public DataSetRow next() {
+				return new ColumnarDataSetRow(next++);
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * @return the number of rows in this DataSet
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the value of the passed column in the row with the passed position, where the first row is at position 0
+	 */
+	public Object getValueAt(int rowPosition, String columnName) {
+		Integer c = findColumnIndex(columnName);
+		return c == null ? null : columns.get(c).get(rowPosition);
+	}
+
+	/**
+	 * @return a new map of row views, keyed on the id with which each row was added
+	 * @see SimpleDataSet#getRowMap()
+	 */
+	@Override
+	public Map<Integer, DataSetRow> getRowMap() {
+		Map<Integer, DataSetRow> ret = new LinkedHashMap<Integer, DataSetRow>();
+		for (int r = 0; r < rowCount; r++) {
+			ret.put(rowKeys[r], new ColumnarDataSetRow(r));
+		}
+		return ret;
+	}
+
+	/**
+	 * Replaces all rows in this DataSet with those in the passed map
+	 * @see SimpleDataSet#setRowMap(Map)
+	 */
+	@Override
+	public void setRowMap(Map<Integer, DataSetRow> rowMap) {
+		Map<Integer, DataSetRow> existing = rowMap == null ? new HashMap<Integer, DataSetRow>() : new LinkedHashMap<Integer, DataSetRow>(rowMap);
+		for (Map.Entry<Integer, DataSetRow> e : existing.entrySet()) {
+			if (e.getValue() instanceof ColumnarDataSetRow) {
+				e.setValue(((ColumnarDataSetRow) e.getValue()).copy());
+			}
+		}
+		columns = new ArrayList<Column>();
+		columnIndexes = new HashMap<String, Integer>();
+		rowKeys = new int[16];
+		rowCount = 0;
+		rowIndex = new RowIndex();
+		for (Map.Entry<Integer, DataSetRow> e : existing.entrySet()) {
+			addRow(e.getKey(), e.getValue());
+		}
+	}
+
+	// *************
+	// PRIVATE METHODS
+	// *************
+
+	private int getOrCreateRow(Integer id) {
+		if (id == null) {
+			throw new IllegalArgumentException("Rows of a ColumnarDataSet must have a non-null id");
+		}
+		int r = rowIndex.get(id);
+		if (r < 0) {
+			if (rowCount == rowKeys.length) {
+				rowKeys = Arrays.copyOf(rowKeys, rowKeys.length * 2);
+			}
+			r = rowCount++;
+			rowKeys[r] = id;
+			rowIndex.put(id, r);
+		}
+		return r;
+	}
+
+	private void setValue(int row, DataSetColumn column, Object value) {
+		Integer c = columnIndexes.get(column.getName());
+		if (c == null) {
+			c = columns.size();
+			columns.add(new Column(column));
+			columnIndexes.put(column.getName(), c);
+		}
+		if (getMetaData().getColumn(column.getName()) == null) {
+			getMetaData().addColumn(column);
+		}
+		columns.get(c).set(row, value);
+	}
+
+	/**
+	 * Finds a column by exact name, falling back to a case-insensitive match as {@link DataSetRow#getColumnValue(String)} does
+	 */
+	private Integer findColumnIndex(String columnName) {
+		Integer c = columnIndexes.get(columnName);
+		if (c == null && columnName != null) {
+			for (int i = 0; i < columns.size(); i++) {
+				if (columnName.equalsIgnoreCase(columns.get(i).getDataSetColumn().getName())) {
+					return i;
+				}
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * A lightweight view of a single row of this DataSet
+	 */
+	public class ColumnarDataSetRow extends DataSetRow {
+
+		private static final long serialVersionUID = 1L;
+
+		private int row;
+
+		public ColumnarDataSetRow(int row) {
+			this.row = row;
+		}
+
+		/**
+		 * @see DataSetRow#getColumnValue(DataSetColumn)
+		 */
+		@Override
+		public Object getColumnValue(DataSetColumn column) {
+			Integer c = columnIndexes.get(column.getName());
+			return c == null ? null : columns.get(c).get(row);
+		}
+
+		/**
+		 * @see DataSetRow#getColumnValue(String)
+		 */
+		@Override
+		public Object getColumnValue(String columnName) {
+			Integer c = findColumnIndex(columnName);
+			return c == null ? null : columns.get(c).get(row);
+		}
+
+		/**
+		 * @see DataSetRow#addColumnValue(DataSetColumn, Object)
+		 */
+		@Override
+		public void addColumnValue(DataSetColumn column, Object value) {
+			setValue(row, column, value);
+		}
+
+		/**
+		 * @see DataSetRow#getColumnValuesByKey()
+		 */
+		@Override
+		public Map<String, Object> getColumnValuesByKey() {
+			Map<String, Object> ret = new HashMap<String, Object>();
+			for (Column c : columns) {
+				if (c.isAssigned(row)) {
+					ret.put(c.getDataSetColumn().getName(), c.get(row));
+				}
+			}
+			return ret;
+		}
+
+		/**
+		 * @see DataSetRow#removeColumn(String)
+		 */
+		@Override
+		public void removeColumn(String columnName) {
+			for (Column c : columns) {
+				if (c.getDataSetColumn().getName().equals(columnName)) {
+					c.unassign(row);
+				}
+			}
+		}
+
+		/**
+		 * @return a new map containing the values in this row.  Changes to this map are not written to the DataSet.
+		 * @see DataSetRow#getColumnValues()
+		 */
+		@Override
+		public Map<DataSetColumn, Object> getColumnValues() {
+			Map<DataSetColumn, Object> ret = new LinkedHashMap<DataSetColumn, Object>();
+			for (Column c : columns) {
+				if (c.isAssigned(row)) {
+					ret.put(c.getDataSetColumn(), c.get(row));
+				}
+			}
+			return ret;
+		}
+
+		/**
+		 * Replaces all values in this row with those in the passed map
+		 * @see DataSetRow#setColumnValues(Map)
+		 */
+		@Override
+		public void setColumnValues(Map<DataSetColumn, Object> columnValues) {
+			for (Column c : columns) {
+				c.unassign(row);
+			}
+			if (columnValues != null) {
+				for (Map.Entry<DataSetColumn, Object> e : columnValues.entrySet()) {
+					setValue(row, e.getKey(), e.getValue());
+				}
+			}
+		}
+
+		/**
+		 * @return a DataSetRow which holds a copy of the values in this row
+		 */
+		public DataSetRow copy() {
+			DataSetRow ret = new DataSetRow();
+			ret.setColumnValues(getColumnValues());
+			return ret;
+		}
+	}
+
+	/**
+	 * The values of a single column.  Rows to which a value has been assigned, and which of these are non-null,
+	 * are tracked here, so that the underlying vector only needs to hold non-null values
+	 */
+	private static class Column {
+
+		private DataSetColumn dataSetColumn;
+		private BitSet assigned = new BitSet();
+		private BitSet nonNull = new BitSet();
+		private ColumnVector vector;
+
+		public Column(DataSetColumn dataSetColumn) {
+			this.dataSetColumn = dataSetColumn;
+		}
+
+		public DataSetColumn getDataSetColumn() {
+			return dataSetColumn;
+		}
+
+		public boolean isAssigned(int row) {
+			return assigned.get(row);
+		}
+
+		public Object get(int row) {
+			return nonNull.get(row) ? vector.get(row) : null;
+		}
+
+		public void set(int row, Object value) {
+			assigned.set(row);
+			if (value == null) {
+				if (nonNull.get(row)) {
+					vector.clear(row);
+					nonNull.clear(row);
+				}
+				return;
+			}
+			if (vector == null) {
+				vector = ColumnVector.newVector(value);
+			}
+			else if (!vector.accepts(value)) {
+				ObjectVector objectVector = new ObjectVector();
+				for (int r = nonNull.nextSetBit(0); r >= 0; r = nonNull.nextSetBit(r + 1)) {
+					objectVector.set(r, vector.get(r));
+				}
+				vector = objectVector;
+			}
+			vector.set(row, value);
+			nonNull.set(row);
+		}
+
+		public void unassign(int row) {
+			set(row, null);
+			assigned.clear(row);
+		}
+	}
+
+	/**
+	 * Holds the non-null values of a column, indexed by row
+	 */
+	private static abstract class ColumnVector {
+
+		/**
+		 * @return a new vector specialized for values of the same type as the passed value
+		 */
+		public static ColumnVector newVector(Object value) {
+			Class<?> type = value.getClass();
+			if (type == Integer.class) {
+				return new IntVector();
+			}
+			if (type == Double.class) {
+				return new DoubleVector();
+			}
+			if (DateVector.isSupported(value)) {
+				return new DateVector(type);
+			}
+			if (type == String.class) {
+				return new StringVector();
+			}
+			return new ObjectVector();
+		}
+
+		public abstract boolean accepts(Object value);
+
+		public abstract Object get(int row);
+
+		public abstract void set(int row, Object value);
+
+		public void clear(int row) { }
+
+		protected int newCapacity(int currentCapacity, int row) {
+			return Math.max(row + 1, Math.max(16, currentCapacity + (currentCapacity >> 1)));
+		}
+	}
+
+	private static class IntVector extends ColumnVector {
+
+		private int[] values = new int[0];
+
+		public boolean accepts(Object value) {
+			return value.getClass() == Integer.class;
+		}
+
+		public Object get(int row) {
+			return values[row];
+		}
+
+		public void set(int row, Object value) {
+			if (row >= values.length) {
+				values = Arrays.copyOf(values, newCapacity(values.length, row));
+			}
+			values[row] = (Integer) value;
+		}
+	}
+
+	private static class DoubleVector extends ColumnVector {
+
+		private double[] values = new double[0];
+
+		public boolean accepts(Object value) {
+			return value.getClass() == Double.class;
+		}
+
+		public Object get(int row) {
+			return values[row];
+		}
+
+		public void set(int row, Object value) {
+			if (row >= values.length) {
+				values = Arrays.copyOf(values, newCapacity(values.length, row));
+			}
+			values[row] = (Double) value;
+		}
+	}
+
+	/**
+	 * Stores the time of each Date.  A vector holds dates of a single class, which may be one of the subclasses
+	 * returned by JDBC, and each value is rebuilt as that class when read.  Timestamps with a fraction of a
+	 * millisecond are not accepted, as their time alone would not preserve them.
+	 */
+	private static class DateVector extends ColumnVector {
+
+		private Class<?> type;
+		private long[] values = new long[0];
+
+		public DateVector(Class<?> type) {
+			this.type = type;
+		}
+
+		/**
+		 * @return true if the passed value is a Date of a class which this vector can store
+		 */
+		public static boolean isSupported(Object value) {
+			Class<?> type = value.getClass();
+			if (type == Timestamp.class) {
+				return ((Timestamp) value).getNanos() % 1000000 == 0;
+			}
+			return type == Date.class || type == java.sql.Date.class || type == Time.class;
+		}
+
+		public boolean accepts(Object value) {
+			return value.getClass() == type && isSupported(value);
+		}
+
+		public Object get(int row) {
+			long time = values[row];
+			if (type == Timestamp.class) {
+				return new Timestamp(time);
+			}
+			if (type == java.sql.Date.class) {
+				return new java.sql.Date(time);
+			}
+			if (type == Time.class) {
+				return new Time(time);
+			}
+			return new Date(time);
+		}
+
+		public void set(int row, Object value) {
+			if (row >= values.length) {
+				values = Arrays.copyOf(values, newCapacity(values.length, row));
+			}
+			values[row] = ((Date) value).getTime();
+		}
+	}
+
+	/**
+	 * Stores each String as a code into a dictionary of the distinct values in the column
+	 */
+	private static class StringVector extends ColumnVector {
+
+		private int[] codes = new int[0];
+		private List<String> dictionary = new ArrayList<String>();
+		private Map<String, Integer> dictionaryCodes = new HashMap<String, Integer>();
+
+		public boolean accepts(Object value) {
+			if (value.getClass() != String.class) {
+				return false;
+			}
+			return dictionary.size() < MAX_DICTIONARY_SIZE || dictionaryCodes.containsKey(value);
+		}
+
+		public Object get(int row) {
+			return dictionary.get(codes[row]);
+		}
+
+		public void set(int row, Object value) {
+			if (row >= codes.length) {
+				codes = Arrays.copyOf(codes, newCapacity(codes.length, row));
+			}
+			Integer code = dictionaryCodes.get(value);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.add((String) value);
+				dictionaryCodes.put((String) value, code);
+			}
+			codes[row] = code;
+		}
+	}
+
+	private static class ObjectVector extends ColumnVector {
+
+		private Object[] values = new Object[0];
+
+		public boolean accepts(Object value) {
+			return true;
+		}
+
+		public Object get(int row) {
+			return values[row];
+		}
+
+		public void set(int row, Object value) {
+			if (row >= values.length) {
+				values = Arrays.copyOf(values, newCapacity(values.length, row));
+			}
+			values[row] = value;
+		}
+
+		@Override
+		public void clear(int row) {
+			values[row] = null;
+		}
+	}
+
+	/**
+	 * Maps the id of each row to its position, using open addressing over primitive arrays
+	 */
+	private static class RowIndex {
+
+		private int[] keys = new int[32];
+		private int[] positions = new int[32]; // position + 1, so that 0 indicates an empty slot
+		private int size = 0;
+
+		public int get(Integer id) {
+			if (id == null) {
+				return -1;
+			}
+			int mask = keys.length - 1;
+			for (int i = mix(id) & mask; positions[i] != 0; i = (i + 1) & mask) {
+				if (keys[i] == id) {
+					return positions[i] - 1;
+				}
+			}
+			return -1;
+		}
+
+		public void put(int id, int position) {
+			if ((size + 1) * 2 > keys.length) {
+				int[] oldKeys = keys;
+				int[] oldPositions = positions;
+				keys = new int[oldKeys.length * 2];
+				positions = new int[oldKeys.length * 2];
+				size = 0;
+				for (int i = 0; i < oldKeys.length; i++) {
+					if (oldPositions[i] != 0) {
+						put(oldKeys[i], oldPositions[i] - 1);
+					}
+				}
+			}
+			int mask = keys.length - 1;
+			int i = mix(id) & mask;
+			while (positions[i] != 0 && keys[i] != id) {
+				i = (i + 1) & mask;
+			}
+			if (positions[i] == 0) {
+				size++;
+			}
+			keys[i] = id;
+			positions[i] = position + 1;
+		}
+
+		private int mix(int id) {
+			int h = id * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+}
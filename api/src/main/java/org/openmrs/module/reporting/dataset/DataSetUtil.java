@@ -20,12 +20,35 @@ import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 import org.openmrs.module.reporting.common.ObjectUtil;
+import org.openmrs.module.reporting.dataset.definition.CohortIndicatorDataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.RowPerObjectDataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.SqlDataSetDefinition;
+import org.openmrs.module.reporting.evaluation.ParallelEvaluationUtil;
 
 /**
  * Utility methods for working with Data Sets
  */
 public class DataSetUtil {
 
+	/**
+	 * Data sets evaluated on a worker thread are used after the worker's session is closed, so only those whose values
+	 * are known to be ids or scalars, rather than Hibernate entities which would then be detached, can be evaluated there.
+	 * @return true if the data set produced by the passed definition can be evaluated on a worker thread
+	 * @see ParallelEvaluationUtil#isIndependentOfSession(Class)
+	 */
+	public static boolean canEvaluateOnWorker(DataSetDefinition dataSetDefinition) {
+		if (dataSetDefinition instanceof RowPerObjectDataSetDefinition) {
+			for (DataSetColumn column : ((RowPerObjectDataSetDefinition) dataSetDefinition).getDataSetColumns()) {
+				if (!ParallelEvaluationUtil.isIndependentOfSession(column.getDataType())) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return dataSetDefinition instanceof CohortIndicatorDataSetDefinition || dataSetDefinition instanceof SqlDataSetDefinition;
+	}
+
 	/**
 	 * Prints the passed dataset to the console
 	 */
@@ -0,0 +1,188 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.dataset;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.openmrs.module.reporting.ReportingException;
+import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.serializer.BinaryReportDataSerializer;
+
+/**
+ * This is a {@link DataSet} whose rows have been written to a file by a {@link BinaryReportDataSerializer}, and are
+ * read from that file one block at a time as they are needed, rather than being held in memory.
+ * As a {@link PageableDataSet}, a page of rows can be read without reading the rows that precede it.
+ */
+public class PersistedDataSet implements PageableDataSet {
+
+	private BinaryReportDataSerializer serializer;
+	private File file;
+	private DataSetDefinition definition;
+	private EvaluationContext context;
+	private SimpleDataSetMetaData metaData;
+
+	// The position of each block of rows within the file, and the number of rows in each
+	private long[] blockPositions;
+	private int[] blockRowCounts;
+
+	public PersistedDataSet(BinaryReportDataSerializer serializer, File file, DataSetDefinition definition, EvaluationContext context,
+	                        SimpleDataSetMetaData metaData, long[] blockPositions, int[] blockRowCounts) {
+		this.serializer = serializer;
+		this.file = file;
+		this.definition = definition;
+		this.context = context;
+		this.metaData = metaData;
+		this.blockPositions = blockPositions;
+		this.blockRowCounts = blockRowCounts;
+	}
+
+	/**
+	 * @see DataSet#iterator()
+	 */
+	public Iterator<DataSetRow> iterator() {
+		return rowsForCohortSubset(0, -1);
+	}
+
+	/**
+	 * Unlike other {@link PageableDataSet}s, start and size refer to rows of this data set rather than patients
+	 * @see PageableDataSet#rowsForCohortSubset(int, int)
+	 */
+	public Iterator<DataSetRow> rowsForCohortSubset(int start, int size) {
+		int end = (size < 0 ? getSize() : (int) Math.min((long) start + size, getSize()));
+		return new BlockIterator(start, end);
+	}
+
+	/**
+	 * @return the rows from start (inclusive) to end (exclusive), reading only the blocks which contain them
+	 */
+	public List<DataSetRow> getRows(int start, int end) {
+		List<DataSetRow> rows = new ArrayList<DataSetRow>(Math.max(0, end - start));
+		for (Iterator<DataSetRow> i = new BlockIterator(start, end); i.hasNext();) {
+			rows.add(i.next());
+		}
+		return rows;
+	}
+
+	/**
+	 * @return a SimpleDataSet holding only the rows of the passed page, so that it can be displayed like any other data set
+	 * @param page the index of the page, starting from 0
+	 * @param pageSize the number of rows in each page
+	 */
+	public SimpleDataSet getPage(int page, int pageSize) {
+		SimpleDataSet ret = new SimpleDataSet(definition, context);
+		ret.setMetaData(metaData);
+		int start = (int) Math.min((long) page * pageSize, getSize());
+		int end = (int) Math.min((long) start + pageSize, getSize());
+		for (DataSetRow row : getRows(start, end)) {
+			ret.addRow(row);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the number of rows in this DataSet
+	 */
+	public int getSize() {
+		int size = 0;
+		for (int numRows : blockRowCounts) {
+			size += numRows;
+		}
+		return size;
+	}
+
+	/**
+	 * @see DataSet#getMetaData()
+	 */
+	public DataSetMetaData getMetaData() {
+		return metaData;
+	}
+
+	/**
+	 * @see DataSet#getContext()
+	 */
+	public EvaluationContext getContext() {
+		return context;
+	}
+
+	/**
+	 * @see DataSet#getDefinition()
+	 */
+	public DataSetDefinition getDefinition() {
+		return definition;
+	}
+
+	/**
+	 * @return the file from which the rows of this DataSet are read
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Reads one block of rows at a time, skipping the blocks which precede the first row.  This iterator is not thread-safe.
+	 */
+	public class BlockIterator implements Iterator<DataSetRow> {
+
+		private int nextRow;
+		private int endRow;
+		private int nextBlock = 0;
+		private int firstRowOfNextBlock = 0;
+		private Iterator<DataSetRow> currentBlockIterator;
+
+		public BlockIterator(int startRow, int endRow) {
+			this.nextRow = startRow;
+			this.endRow = endRow;
+			while (nextBlock < blockRowCounts.length && firstRowOfNextBlock + blockRowCounts[nextBlock] <= startRow) {
+				firstRowOfNextBlock += blockRowCounts[nextBlock];
+				nextBlock++;
+			}
+		}
+
+		public boolean hasNext() {
+			if (nextRow >= endRow) {
+				return false;
+			}
+			if (currentBlockIterator == null || !currentBlockIterator.hasNext()) {
+				List<DataSetRow> block;
+				try {
+					block = serializer.readBlock(file, blockPositions[nextBlock], metaData.getColumns());
+				}
+				catch (Exception e) {
+					throw new ReportingException("Unable to read rows of data set from " + file, e);
+				}
+				currentBlockIterator = block.subList(Math.max(0, nextRow - firstRowOfNextBlock), block.size()).iterator();
+				firstRowOfNextBlock += blockRowCounts[nextBlock];
+				nextBlock++;
+			}
+			return currentBlockIterator.hasNext();
+		}
+
+		public DataSetRow next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			nextRow++;
+			return currentBlockIterator.next();
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
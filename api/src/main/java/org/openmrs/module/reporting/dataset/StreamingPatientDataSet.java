@@ -0,0 +1,135 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.dataset;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.openmrs.Cohort;
+import org.openmrs.module.reporting.ReportingException;
+import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.PatientDataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.evaluator.PatientDataSetEvaluator;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+/**
+ * This is a {@link DataSet} for a {@link PatientDataSetDefinition} whose rows are not held in memory, but are
+ * evaluated one batch of patients at a time as they are iterated (by delegating to a {@link PatientDataSetEvaluator}).
+ * This keeps memory consumption bounded by the batch size rather than the number of patients, but means that each
+ * iteration re-evaluates the data, so it is intended for consumers that need a single pass over the rows, such as renderers.
+ */
+public class StreamingPatientDataSet implements DataSet {
+
+	private PatientDataSetEvaluator evaluator;
+	private PatientDataSetDefinition definition;
+	private EvaluationContext context;
+	private SimpleDataSetMetaData metaData;
+
+	// A snapshot of patient ids so that we can evaluate them in batches on demand
+	private List<Integer> patientIds;
+	private int batchSize;
+
+	/**
+	 * @param evaluator the evaluator which evaluates each batch of rows
+	 * @param definition the definition being evaluated
+	 * @param context the context for evaluation, whose base cohort is replaced with each batch of patients
+	 * @param cohort the patients for which rows should be produced
+	 * @param batchSize the maximum number of patients to evaluate at a time
+	 */
+	public StreamingPatientDataSet(PatientDataSetEvaluator evaluator, PatientDataSetDefinition definition,
+	                               EvaluationContext context, Cohort cohort, int batchSize) {
+		this.evaluator = evaluator;
+		this.definition = definition;
+		this.context = context;
+		this.patientIds = new ArrayList<Integer>(cohort.getMemberIds());
+		this.batchSize = batchSize <= 0 ? Integer.MAX_VALUE : batchSize;
+		this.metaData = new SimpleDataSetMetaData();
+		for (DataSetColumn column : definition.getDataSetColumns()) {
+			metaData.addColumn(column);
+		}
+	}
+
+	/**
+	 * @see DataSet#iterator()
+	 */
+	public Iterator<DataSetRow> iterator() {
+		return new BatchIterator();
+	}
+
+	/**
+	 * @see DataSet#getMetaData()
+	 */
+	public DataSetMetaData getMetaData() {
+		return metaData;
+	}
+
+	/**
+	 * @see DataSet#getContext()
+	 */
+	public EvaluationContext getContext() {
+		return context;
+	}
+
+	/**
+	 * @see DataSet#getDefinition()
+	 */
+	public DataSetDefinition getDefinition() {
+		return definition;
+	}
+
+	/**
+	 * @return the number of rows in this DataSet
+	 */
+	public int getSize() {
+		return patientIds.size();
+	}
+
+	/**
+	 * Evaluates the rows of one batch of patients at a time, only moving to the next batch once
+	 * all rows of the current batch have been returned.  This iterator is not thread-safe.
+	 */
+	public class BatchIterator implements Iterator<DataSetRow> {
+
+		private int nextIndex = 0;
+		private Iterator<DataSetRow> currentBatchIterator;
+
+		public boolean hasNext() {
+			while ((currentBatchIterator == null || !currentBatchIterator.hasNext()) && nextIndex < patientIds.size()) {
+				int end = (int) Math.min((long) nextIndex + batchSize, patientIds.size());
+				List<Integer> batch = patientIds.subList(nextIndex, end);
+				try {
+					currentBatchIterator = evaluator.evaluateBatch(definition, context, batch).iterator();
+				}
+				catch (Exception e) {
+					throw new ReportingException("Unable to evaluate rows " + nextIndex + " to " + end + " of data set", e);
+				}
+				nextIndex = end;
+			}
+			return currentBatchIterator != null && currentBatchIterator.hasNext();
+		}
+
+		public DataSetRow next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return currentBatchIterator.next();
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
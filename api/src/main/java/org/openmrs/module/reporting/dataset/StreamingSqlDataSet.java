@@ -0,0 +1,199 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.dataset;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.openmrs.Cohort;
+import org.openmrs.module.reporting.ReportingException;
+import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.SqlDataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.evaluator.SqlDataSetEvaluator;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+/**
+ * This is a {@link DataSet} for a {@link SqlDataSetDefinition} whose rows are not held in memory, but are read
+ * from the database as they are iterated (by executing the query through a {@link SqlDataSetEvaluator}).
+ * Each iteration executes the query again, so it is intended for consumers that need a single pass over the rows,
+ * such as renderers.  The connection of the current session is used for the duration of an iteration, so no other
+ * queries should be run in that session until the iteration has finished.  Whoever iterates the data set should call
+ * {@link #close()} once done with it, so that the results of an iteration which did not read every row are closed.
+ */
+public class StreamingSqlDataSet implements DataSet {
+
+	private SqlDataSetEvaluator evaluator;
+	private SqlDataSetDefinition definition;
+	private EvaluationContext context;
+	private SimpleDataSetMetaData metaData;
+	private String sqlQuery;
+	private Map<String, Object> parameterValues;
+	private List<ResultSetIterator> iterators = new ArrayList<ResultSetIterator>();
+
+	/**
+	 * @param evaluator the evaluator which executes the query
+	 * @param definition the definition being evaluated
+	 * @param context the context for evaluation
+	 * @param metaData the columns returned by the query
+	 * @param sqlQuery the query to execute, already restricted to the base cohort of the context if possible
+	 * @param parameterValues the values of the parameters in the query
+	 */
+	public StreamingSqlDataSet(SqlDataSetEvaluator evaluator, SqlDataSetDefinition definition, EvaluationContext context,
+	                           SimpleDataSetMetaData metaData, String sqlQuery, Map<String, Object> parameterValues) {
+		this.evaluator = evaluator;
+		this.definition = definition;
+		this.context = context;
+		this.metaData = metaData;
+		this.sqlQuery = sqlQuery;
+		this.parameterValues = parameterValues;
+	}
+
+	/**
+	 * @see DataSet#iterator()
+	 */
+	public Iterator<DataSetRow> iterator() {
+		try {
+			ResultSetIterator iterator = new ResultSetIterator(evaluator.executeQuery(sqlQuery, parameterValues), metaData, context.getBaseCohort());
+			synchronized (iterators) {
+				iterators.add(iterator);
+			}
+			return iterator;
+		}
+		catch (SQLException e) {
+			throw new ReportingException("Unable to execute query of data set", e);
+		}
+	}
+
+	/**
+	 * Closes the results of every iteration of this data set which has not yet read all of its rows
+	 */
+	public void close() {
+		synchronized (iterators) {
+			for (ResultSetIterator iterator : iterators) {
+				iterator.close();
+			}
+			iterators.clear();
+		}
+	}
+
+	/**
+	 * @see DataSet#getMetaData()
+	 */
+	public DataSetMetaData getMetaData() {
+		return metaData;
+	}
+
+	/**
+	 * @see DataSet#getContext()
+	 */
+	public EvaluationContext getContext() {
+		return context;
+	}
+
+	/**
+	 * @see DataSet#getDefinition()
+	 */
+	public DataSetDefinition getDefinition() {
+		return definition;
+	}
+
+	/**
+	 * Returns a row for each row of a ResultSet, whose columns are in the same order as those of the passed metadata.
+	 * If the ResultSet has a patient_id column, rows for patients outside the passed cohort are skipped.
+	 * The ResultSet and its statement are closed once the last row has been read, if it cannot be read, or by {@link #close()}.
+	 * This iterator is not thread-safe.
+	 */
+	public static class ResultSetIterator implements Iterator<DataSetRow> {
+
+		private ResultSet resultSet;
+		private List<DataSetColumn> columns;
+		private Cohort cohort;
+		private int patientIdColumnIndex = -1;
+		private DataSetRow nextRow;
+
+		/**
+		 * @param resultSet the results to read, whose statement is closed once they have all been read
+		 * @param metaData the columns of the rows to return
+		 * @param cohort the patients to which rows should be limited, or null for all patients
+		 */
+		public ResultSetIterator(ResultSet resultSet, DataSetMetaData metaData, Cohort cohort) throws SQLException {
+			this.resultSet = resultSet;
+			this.columns = metaData.getColumns();
+			this.cohort = cohort;
+			if (cohort != null) {
+				ResultSetMetaData rsmd = resultSet.getMetaData();
+				for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+					if ("patient_id".equalsIgnoreCase(rsmd.getColumnName(i))) {
+						patientIdColumnIndex = i;
+					}
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			if (nextRow == null && resultSet != null) {
+				try {
+					while (nextRow == null && resultSet.next()) {
+						// Limit the DataSet to only patients in the base cohort, if there exists a column named "patient_id"
+						if (patientIdColumnIndex > 0 && !cohort.contains(resultSet.getInt(patientIdColumnIndex))) {
+							continue;
+						}
+						DataSetRow row = new DataSetRow();
+						for (int i = 0; i < columns.size(); i++) {
+							row.addColumnValue(columns.get(i), resultSet.getObject(i + 1));
+						}
+						nextRow = row;
+					}
+				}
+				catch (SQLException e) {
+					close();
+					throw new ReportingException("Unable to read row of data set", e);
+				}
+				if (nextRow == null) {
+					close();
+				}
+			}
+			return nextRow != null;
+		}
+
+		public DataSetRow next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			DataSetRow row = nextRow;
+			nextRow = null;
+			return row;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Closes the ResultSet and its statement, if they have not already been closed
+		 */
+		public void close() {
+			if (resultSet != null) {
+				SqlDataSetEvaluator.close(resultSet);
+				resultSet = null;
+			}
+		}
+	}
+}
@@ -37,6 +37,9 @@ public class MultiParameterDataSetDefinition extends BaseDataSetDefinition imple
 	@ConfigurationProperty
 	private List<Map<String, Object>> iterations;
 
+	@ConfigurationProperty
+	private Integer maxConcurrentIterations;
+
 	public MultiParameterDataSetDefinition() {
 		iterations = new ArrayList<Map<String, Object>>();
 	}
@@ -75,4 +78,19 @@ public class MultiParameterDataSetDefinition extends BaseDataSetDefinition imple
 		}
 		this.iterations = newIterations;
 	}
+
+	/**
+	 * @return the maximum number of iterations that may be evaluated concurrently.
+	 * If null or not greater than one, iterations are evaluated one at a time.
+	 */
+	public Integer getMaxConcurrentIterations() {
+		return maxConcurrentIterations;
+	}
+
+	/**
+	 * @param maxConcurrentIterations the maxConcurrentIterations to set
+	 */
+	public void setMaxConcurrentIterations(Integer maxConcurrentIterations) {
+		this.maxConcurrentIterations = maxConcurrentIterations;
+	}
 }
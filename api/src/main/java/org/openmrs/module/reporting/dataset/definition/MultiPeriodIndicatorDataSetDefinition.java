@@ -29,6 +29,9 @@ public class MultiPeriodIndicatorDataSetDefinition extends BaseDataSetDefinition
 	@ConfigurationProperty
 	private List<Iteration> iterations;
 	
+	@ConfigurationProperty
+	private Integer maxConcurrentIterations;
+	
 	//***** CONSTRUCTORS *****
 	
 	/**
@@ -96,6 +99,21 @@ public class MultiPeriodIndicatorDataSetDefinition extends BaseDataSetDefinition
     public void setIterations(List<Iteration> iterations) {
     	this.iterations = iterations;
     }
+
+    /**
+     * @return the maximum number of iterations that may be evaluated concurrently.
+     * If null or not greater than one, iterations are evaluated one at a time.
+     */
+    public Integer getMaxConcurrentIterations() {
+    	return maxConcurrentIterations;
+    }
+
+    /**
+     * @param maxConcurrentIterations the maxConcurrentIterations to set
+     */
+    public void setMaxConcurrentIterations(Integer maxConcurrentIterations) {
+    	this.maxConcurrentIterations = maxConcurrentIterations;
+    }
     
     //***** INNER CLASS *****
 
@@ -57,6 +57,9 @@ public class RepeatPerTimePeriodDataSetDefinition extends BaseDataSetDefinition
     @ConfigurationProperty
     private TimePeriod repeatPerTimePeriod;
 
+    @ConfigurationProperty
+    private Integer maxConcurrentIterations;
+
     public Mapped<? extends DataSetDefinition> getBaseDefinition() {
         return baseDefinition;
     }
@@ -73,4 +76,16 @@ public class RepeatPerTimePeriodDataSetDefinition extends BaseDataSetDefinition
         this.repeatPerTimePeriod = repeatPerTimePeriod;
     }
 
+    /**
+     * @return the maximum number of time periods that may be evaluated concurrently.
+     * If null or not greater than one, time periods are evaluated one at a time.
+     */
+    public Integer getMaxConcurrentIterations() {
+        return maxConcurrentIterations;
+    }
+
+    public void setMaxConcurrentIterations(Integer maxConcurrentIterations) {
+        this.maxConcurrentIterations = maxConcurrentIterations;
+    }
+
 }
@@ -43,6 +43,9 @@ public abstract class RowPerObjectDataSetDefinition extends BaseDataSetDefinitio
     
     @ConfigurationProperty
     private SortCriteria sortCriteria;
+    
+    @ConfigurationProperty
+    private Integer maxConcurrentColumns;
  
     //***** CONSTRUCTORS *****
     
@@ -164,4 +167,19 @@ public abstract class RowPerObjectDataSetDefinition extends BaseDataSetDefinitio
 	public void setSortCriteria(SortCriteria sortCriteria) {
 		this.sortCriteria = sortCriteria;
 	}
+
+	/**
+	 * @return the maximum number of column definitions that may be evaluated concurrently.
+	 * If null or not greater than one, columns are evaluated one at a time.
+	 */
+	public Integer getMaxConcurrentColumns() {
+		return maxConcurrentColumns;
+	}
+
+	/**
+	 * @param maxConcurrentColumns the maxConcurrentColumns to set
+	 */
+	public void setMaxConcurrentColumns(Integer maxConcurrentColumns) {
+		this.maxConcurrentColumns = maxConcurrentColumns;
+	}
 }
\ No newline at end of file
@@ -1,10 +1,12 @@
 package org.openmrs.module.reporting.dataset.definition.evaluator;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.openmrs.Cohort;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.reporting.common.ObjectUtil;
@@ -19,7 +21,7 @@ import org.openmrs.module.reporting.evaluation.parameter.Mapped;
 import org.openmrs.module.reporting.indicator.CohortIndicatorResult;
 import org.openmrs.module.reporting.indicator.dimension.CohortDefinitionDimension;
 import org.openmrs.module.reporting.indicator.dimension.CohortDimensionResult;
-import org.openmrs.module.reporting.indicator.dimension.CohortIndicatorAndDimensionResult;
+import org.openmrs.module.reporting.indicator.dimension.CohortIndicatorCube;
 import org.openmrs.module.reporting.indicator.dimension.service.DimensionService;
 import org.openmrs.module.reporting.indicator.service.IndicatorService;
 import org.openmrs.module.reporting.indicator.util.IndicatorUtil;
@@ -52,47 +54,53 @@ public class CohortIndicatorAndDimensionDataSetEvaluator implements DataSetEvalu
 		IndicatorService is = Context.getService(IndicatorService.class);
 		DimensionService ds = Context.getService(DimensionService.class);
 
+		// Each distinct intersection of dimension options, and each indicator value within it, is calculated once by the cube
+		CohortIndicatorCube cube = new CohortIndicatorCube();
+		Map<String, CohortDefinitionDimension> dimensions = new HashMap<String, CohortDefinitionDimension>();
+
 		for (CohortIndicatorAndDimensionSpecification spec : dsd.getSpecifications()) {
 
 			// Get all dimension combinations to include
 			List<String> combinations = IndicatorUtil.compileColumnDimensionOptions(spec.getDimensionOptions());
 			combinations.add(0, null); // Add in the "no dimension" case at the start
 			
+			// First evaluate the indicator
+			CohortIndicatorResult result;
+			try {
+				result = (CohortIndicatorResult) is.evaluate(spec.getIndicator(), context);
+			} catch (Exception ex) {
+				throw new EvaluationException("indicator " + spec.getLabel() + " (" + spec.getIndicatorNumber() + ")");
+			}
+			log.debug("Evaluated Indicator: " + spec.getLabel() + " = " + result.getValue());
+
 			for (String combination : combinations) {
 				
-				// First evaluate the indicator and create the result object
-				CohortIndicatorResult result;
-				try {
-					result = (CohortIndicatorResult) is.evaluate(spec.getIndicator(), context);
-				} catch (Exception ex) {
-					throw new EvaluationException("indicator " + spec.getLabel() + " (" + spec.getIndicatorNumber() + ")");
-				}
-				log.debug("Evaluated Indicator: " + spec.getLabel() + " = " + result.getValue());
-				CohortIndicatorAndDimensionResult resultWithDimensions = new CohortIndicatorAndDimensionResult(result, context);
-				
 				// Set up the basic column definition
 				DataSetColumn column = new DataSetColumn(spec.getIndicatorNumber(), spec.getLabel(), Object.class);	
+				Map<String, String> dimensionOptions = new LinkedHashMap<String, String>();
 
 				if (combination != null) {
 					for (String option : combination.split(",")) {
 						String[] dimOpt = option.split("=");
 						column.setName(column.getName() + "." + option);
 						column.setLabel(column.getLabel() + (column.getLabel().equals(spec.getLabel()) ? " (" : ", ") + dimOpt[0] + " - " + dimOpt[1]);
-	
-						Mapped<CohortDefinitionDimension> dimension = dsd.getDimension(dimOpt[0]);
-						try { 
-							CohortDimensionResult dimensionResult = (CohortDimensionResult)ds.evaluate(dimension, context);
-							Cohort dimensionCohort = dimensionResult.getCohort(dimOpt[1]);
-							
-							resultWithDimensions.addDimensionResult(dimension.getParameterizable(), dimensionCohort);
-						} catch (Exception ex) {
-							throw new EvaluationException("dimension " + option, ex);
+						dimensionOptions.put(dimOpt[0], dimOpt[1]);
+
+						if (!dimensions.containsKey(dimOpt[0])) {
+							Mapped<CohortDefinitionDimension> dimension = dsd.getDimension(dimOpt[0]);
+							try { 
+								CohortDimensionResult dimensionResult = (CohortDimensionResult)ds.evaluate(dimension, context);
+								cube.addDimension(dimOpt[0], dimensionResult.getOptionCohorts());
+								dimensions.put(dimOpt[0], dimension.getParameterizable());
+							} catch (Exception ex) {
+								throw new EvaluationException("dimension " + option, ex);
+							}
 						}
 					}
 					column.setLabel(column.getLabel() + ")");
 				}
 
-				ret.addData(column, resultWithDimensions);
+				ret.addData(column, cube.createResult(result, dimensionOptions, dimensions, context));
 			}
 		}
 		return ret;
@@ -5,7 +5,6 @@ import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.openmrs.Cohort;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.reporting.common.ObjectUtil;
@@ -22,6 +21,7 @@ import org.openmrs.module.reporting.indicator.CohortIndicatorResult;
 import org.openmrs.module.reporting.indicator.dimension.CohortDefinitionDimension;
 import org.openmrs.module.reporting.indicator.dimension.CohortDimensionResult;
 import org.openmrs.module.reporting.indicator.dimension.CohortIndicatorAndDimensionResult;
+import org.openmrs.module.reporting.indicator.dimension.CohortIndicatorCube;
 import org.openmrs.module.reporting.indicator.dimension.service.DimensionService;
 import org.openmrs.module.reporting.indicator.service.IndicatorService;
 
@@ -58,12 +58,14 @@ public class CohortIndicatorDataSetEvaluator implements DataSetEvaluator {
 		}
 		
 		// evaluate all dimension options
-		Map<String, Map<String, Cohort>> dimensionCalculationCache = new HashMap<String, Map<String, Cohort>>();
+		CohortIndicatorCube cube = new CohortIndicatorCube();
+		Map<String, CohortDefinitionDimension> dimensions = new HashMap<String, CohortDefinitionDimension>();
 		for (Map.Entry<String, Mapped<CohortDefinitionDimension>> e : dsd.getDimensions().entrySet()) {
 			String dimensionKey = e.getKey();
 			try {
 				CohortDimensionResult dim = (CohortDimensionResult)ds.evaluate(e.getValue(), context);
-				dimensionCalculationCache.put(dimensionKey, dim.getOptionCohorts());
+				cube.addDimension(dimensionKey, dim.getOptionCohorts());
+				dimensions.put(dimensionKey, e.getValue().getParameterizable());
 			} catch (Exception ex) {
 				throw new EvaluationException("dimension " + dimensionKey, ex);
 			}
@@ -84,22 +86,14 @@ public class CohortIndicatorDataSetEvaluator implements DataSetEvaluator {
 			}
 		}
 		
-		// Populate Data Set columns with Indicator and Dimension Results as defined
+		// Populate Data Set columns with Indicator and Dimension Results as defined.  Each distinct intersection
+		// of dimension options, and each indicator value within it, is calculated once by the cube
 		for (DataSetColumn c : dsd.getColumns()) {
 			CohortIndicatorAndDimensionColumn col = (CohortIndicatorAndDimensionColumn) c;
 			// get this indicator result from the cache
 			CohortIndicatorResult result = indicatorCalculationCache.get(col.getIndicator());
 			// get its value taking dimensions into account
-			CohortIndicatorAndDimensionResult resultWithDimensions = new CohortIndicatorAndDimensionResult(result, context);
-
-			if (col.getDimensionOptions() != null) {
-				for (Map.Entry<String, String> e : col.getDimensionOptions().entrySet()) {
-					log.debug("looking up dimension: " + e.getKey() + " = " + e.getValue());
-					CohortDefinitionDimension dimension = dsd.getDimension(e.getKey()).getParameterizable();
-					Cohort dimensionCohort = dimensionCalculationCache.get(e.getKey()).get(e.getValue());
-					resultWithDimensions.addDimensionResult(dimension, dimensionCohort);
-				}
-			}
+			CohortIndicatorAndDimensionResult resultWithDimensions = cube.createResult(result, col.getDimensionOptions(), dimensions, context);
 			ret.addData(col, resultWithDimensions);
 		}
 		
@@ -25,12 +25,14 @@ import org.openmrs.module.reporting.data.encounter.definition.EncounterDataDefin
 import org.openmrs.module.reporting.data.encounter.service.EncounterDataService;
 import org.openmrs.module.reporting.dataset.DataSet;
 import org.openmrs.module.reporting.dataset.DataSetColumn;
+import org.openmrs.module.reporting.dataset.ColumnarDataSet;
 import org.openmrs.module.reporting.dataset.SimpleDataSet;
 import org.openmrs.module.reporting.dataset.column.definition.RowPerObjectColumnDefinition;
 import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.EncounterDataSetDefinition;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.ParallelEvaluationUtil;
 import org.openmrs.module.reporting.evaluation.context.EncounterEvaluationContext;
 import org.openmrs.module.reporting.evaluation.parameter.Mapped;
 import org.openmrs.module.reporting.query.QueryUtil;
@@ -39,6 +41,12 @@ import org.openmrs.module.reporting.query.encounter.definition.AllEncounterQuery
 import org.openmrs.module.reporting.query.encounter.definition.EncounterQuery;
 import org.openmrs.module.reporting.query.encounter.service.EncounterQueryService;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
 /**
  * The logic that evaluates a {@link EncounterDataSetDefinition} and produces an {@link DataSet}
  */
@@ -61,7 +69,7 @@ public class EncounterDataSetEvaluator implements DataSetEvaluator {
 		EncounterDataSetDefinition dsd = (EncounterDataSetDefinition) dataSetDefinition;
 		context = ObjectUtil.nvl(context, new EvaluationContext());
 
-		SimpleDataSet dataSet = new SimpleDataSet(dsd, context);
+		SimpleDataSet dataSet = new ColumnarDataSet(dsd, context);
 		dataSet.setSortCriteria(dsd.getSortCriteria());
 		
 		// Construct an EncounterEvaluationContext based on the encounter filter
@@ -77,11 +85,40 @@ public class EncounterDataSetEvaluator implements DataSetEvaluator {
 		}
 		EncounterEvaluationContext eec = new EncounterEvaluationContext(context, r);
 
-		// Evaluate each specified ColumnDefinition for all of the included rows and add these to the dataset
-		for (RowPerObjectColumnDefinition cd : dsd.getColumnDefinitions()) {
+		// Evaluate each specified ColumnDefinition for all of the included rows, concurrently if configured to do so.
+		// Only columns whose data are ids or scalars are evaluated on worker threads, as any entities would be detached
+		// once the session of their worker is closed
+		List<RowPerObjectColumnDefinition> columns = dsd.getColumnDefinitions();
+		int maxConcurrency = ObjectUtil.nvl(dsd.getMaxConcurrentColumns(), 1);
+		List<Integer> concurrentColumns = new ArrayList<Integer>();
+		if (maxConcurrency > 1) {
+			for (int i = 0; i < columns.size(); i++) {
+				if (canEvaluateOnWorker(columns.get(i))) {
+					concurrentColumns.add(i);
+				}
+			}
+		}
+		Map<Integer, EvaluatedEncounterData> columnData = new HashMap<Integer, EvaluatedEncounterData>();
+		if (concurrentColumns.size() > 1) {
+			List<Callable<EvaluatedEncounterData>> tasks = new ArrayList<Callable<EvaluatedEncounterData>>();
+			for (Integer i : concurrentColumns) {
+				MappedData<? extends EncounterDataDefinition> dataDef = (MappedData<? extends EncounterDataDefinition>) columns.get(i).getDataDefinition();
+				tasks.add(new ColumnEvaluationTask(dataDef, (EncounterEvaluationContext) ParallelEvaluationUtil.copyContextForWorker(eec)));
+			}
+			List<EvaluatedEncounterData> results = ParallelEvaluationUtil.evaluateAll(tasks, maxConcurrency);
+			for (int j = 0; j < concurrentColumns.size(); j++) {
+				columnData.put(concurrentColumns.get(j), results.get(j));
+			}
+		}
 
+		// Add the evaluated data for each column to the dataset, converting it within the session of the caller
+		for (int i = 0; i < columns.size(); i++) {
+			RowPerObjectColumnDefinition cd = columns.get(i);
 			MappedData<? extends EncounterDataDefinition> dataDef = (MappedData<? extends EncounterDataDefinition>) cd.getDataDefinition();
-			EvaluatedEncounterData data = Context.getService(EncounterDataService.class).evaluate(dataDef, eec);
+			EvaluatedEncounterData data = columnData.get(i);
+			if (data == null) {
+				data = new ColumnEvaluationTask(dataDef, eec).evaluate();
+			}
 			
 			DataSetColumn column = new DataSetColumn(cd.getName(), cd.getName(), dataDef.getParameterizable().getDataType()); // TODO: Support One-Many column definition to column
 			
@@ -94,4 +131,34 @@ public class EncounterDataSetEvaluator implements DataSetEvaluator {
 
 		return dataSet;
 	}
+
+	/**
+	 * @return true if the data of the passed column are ids or scalars, which can be evaluated on a worker thread
+	 * @see ParallelEvaluationUtil#isIndependentOfSession(Class)
+	 */
+	protected boolean canEvaluateOnWorker(RowPerObjectColumnDefinition cd) {
+		return ParallelEvaluationUtil.isIndependentOfSession(cd.getDataDefinition().getParameterizable().getDataType());
+	}
+
+	/**
+	 * Evaluates the data for a single column definition
+	 */
+	private class ColumnEvaluationTask implements Callable<EvaluatedEncounterData> {
+
+		private MappedData<? extends EncounterDataDefinition> dataDef;
+		private EncounterEvaluationContext context;
+
+		public ColumnEvaluationTask(MappedData<? extends EncounterDataDefinition> dataDef, EncounterEvaluationContext context) {
+			this.dataDef = dataDef;
+			this.context = context;
+		}
+
+		public EvaluatedEncounterData call() throws Exception {
+			return evaluate();
+		}
+
+		public EvaluatedEncounterData evaluate() throws EvaluationException {
+			return Context.getService(EncounterDataService.class).evaluate(dataDef, context);
+		}
+	}
 }
@@ -14,22 +14,28 @@
 package org.openmrs.module.reporting.dataset.definition.evaluator;
 
 import org.openmrs.annotation.Handler;
+import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.dataset.DataSet;
 import org.openmrs.module.reporting.dataset.DataSetColumn;
 import org.openmrs.module.reporting.dataset.DataSetRow;
+import org.openmrs.module.reporting.dataset.DataSetUtil;
 import org.openmrs.module.reporting.dataset.SimpleDataSet;
 import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.MultiParameterDataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.service.DataSetDefinitionService;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.ParallelEvaluationUtil;
 import org.openmrs.module.reporting.evaluation.parameter.Mapped;
 import org.openmrs.module.reporting.evaluation.parameter.Parameter;
 import org.openmrs.module.reporting.report.renderer.ReportTemplateRenderer;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 @Handler(supports={MultiParameterDataSetDefinition.class})
 public class MultiParameterDataSetEvaluator implements DataSetEvaluator {
@@ -40,6 +46,10 @@ public class MultiParameterDataSetEvaluator implements DataSetEvaluator {
 	DataSetDefinitionService dataSetDefinitionService;
 
 	/**
+	 * Iterations are evaluated concurrently if the definition allows it and they can be evaluated on worker threads,
+	 * see {@link #canEvaluateConcurrently(MultiParameterDataSetDefinition, EvaluationContext)}, each with its own context.  Cacheable results
+	 * which do not depend on the iteration are shared between concurrent iterations.  Rows are always returned in the
+	 * order of the iterations.
 	 * @throws org.openmrs.module.reporting.evaluation.EvaluationException
 	 * @see org.openmrs.module.reporting.dataset.definition.evaluator.DataSetEvaluator#evaluate(org.openmrs.module.reporting.dataset.definition.DataSetDefinition, org.openmrs.module.reporting.evaluation.EvaluationContext)
 	 * @should evaluate a MultiParameterDataSetDefinition
@@ -52,22 +62,18 @@ public class MultiParameterDataSetEvaluator implements DataSetEvaluator {
 		MultiParameterDataSetDefinition dsd = (MultiParameterDataSetDefinition) dataSetDefinition;
 		SimpleDataSet ret = new SimpleDataSet(dsd, context);
 
-		for (Map<String, Object> iteration: dsd.getIterations()) {
-			EvaluationContext ec = context.shallowCopy();
-			DataSet ds;
-			try {
-                // in case there are parameters not specified in the iteration, we map straight through
-                Mapped<DataSetDefinition> mapped = Mapped.mapStraightThrough(dsd.getBaseDefinition());
+		int maxConcurrency = ObjectUtil.nvl(dsd.getMaxConcurrentIterations(), 1);
+		boolean concurrent = maxConcurrency > 1 && dsd.getIterations().size() > 1 && canEvaluateConcurrently(dsd, context);
+		Map<String, Object> sharedCache = concurrent ? ParallelEvaluationUtil.getSharedCache(context) : null;
 
-                // now override those mappings with parameter values specified in the iteration
-				for (Map.Entry<String, Object> param: iteration.entrySet()) {
-					mapped.addParameterMapping(param.getKey(), param.getValue());
-				}
-				ds = dataSetDefinitionService.evaluate(mapped, ec);
-			} catch (Exception ex) {
-				throw new EvaluationException("baseDefinition", ex);
-			}
+		List<Callable<DataSet>> tasks = new ArrayList<Callable<DataSet>>();
+		for (Map<String, Object> iteration: dsd.getIterations()) {
+			EvaluationContext ec = concurrent ? ParallelEvaluationUtil.copyContextForWorker(context, sharedCache) : context.shallowCopy();
+			tasks.add(new IterationEvaluationTask(dsd.getBaseDefinition(), iteration, ec));
+		}
+		List<DataSet> results = ParallelEvaluationUtil.evaluateAll(tasks, concurrent ? maxConcurrency : 1);
 
+		for (DataSet ds : results) {
 			Iterator<DataSetRow> iterator = ds.iterator();
 			while (iterator.hasNext()) {
 				DataSetRow row = new DataSetRow();
@@ -85,4 +91,60 @@ public class MultiParameterDataSetEvaluator implements DataSetEvaluator {
 		
 		return ret;
 	}
+
+	/**
+	 * Each iteration evaluated on a worker thread has its own session, which is closed as soon as it completes.  So the base
+	 * definition must produce a data set which can be used after that, and the values passed to it must not be entities
+	 * such as a Location, which would otherwise be shared between the sessions of concurrent iterations.
+	 * @return true if the iterations of the passed definition can be evaluated concurrently on worker threads
+	 * @see DataSetUtil#canEvaluateOnWorker(DataSetDefinition)
+	 * @see ParallelEvaluationUtil#isIndependentOfSession(Class)
+	 * @should only allow base definitions evaluated with ids or scalars
+	 */
+	protected boolean canEvaluateConcurrently(MultiParameterDataSetDefinition dsd, EvaluationContext context) {
+		if (!DataSetUtil.canEvaluateOnWorker(dsd.getBaseDefinition())) {
+			return false;
+		}
+		List<Object> values = new ArrayList<Object>(context.getParameterValues().values());
+		for (Map<String, Object> iteration : dsd.getIterations()) {
+			values.addAll(iteration.values());
+		}
+		for (Object value : values) {
+			if (value != null && !ParallelEvaluationUtil.isIndependentOfSession(value.getClass())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Evaluates the base definition for a single iteration
+	 */
+	private class IterationEvaluationTask implements Callable<DataSet> {
+
+		private DataSetDefinition baseDefinition;
+		private Map<String, Object> iteration;
+		private EvaluationContext context;
+
+		public IterationEvaluationTask(DataSetDefinition baseDefinition, Map<String, Object> iteration, EvaluationContext context) {
+			this.baseDefinition = baseDefinition;
+			this.iteration = iteration;
+			this.context = context;
+		}
+
+		public DataSet call() throws Exception {
+			try {
+				// in case there are parameters not specified in the iteration, we map straight through
+				Mapped<DataSetDefinition> mapped = Mapped.mapStraightThrough(baseDefinition);
+
+				// now override those mappings with parameter values specified in the iteration
+				for (Map.Entry<String, Object> param: iteration.entrySet()) {
+					mapped.addParameterMapping(param.getKey(), param.getValue());
+				}
+				return dataSetDefinitionService.evaluate(mapped, context);
+			} catch (Exception ex) {
+				throw new EvaluationException("baseDefinition", ex);
+			}
+		}
+	}
 }
@@ -1,7 +1,10 @@
 package org.openmrs.module.reporting.dataset.definition.evaluator;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.context.Context;
@@ -11,12 +14,14 @@ import org.openmrs.module.reporting.dataset.DataSetColumn;
 import org.openmrs.module.reporting.dataset.DataSetRow;
 import org.openmrs.module.reporting.dataset.MapDataSet;
 import org.openmrs.module.reporting.dataset.SimpleDataSet;
+import org.openmrs.module.reporting.dataset.definition.CohortIndicatorDataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.MultiPeriodIndicatorDataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.MultiPeriodIndicatorDataSetDefinition.Iteration;
 import org.openmrs.module.reporting.dataset.definition.service.DataSetDefinitionService;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.ParallelEvaluationUtil;
 
 @Handler(supports={MultiPeriodIndicatorDataSetDefinition.class})
 public class MultiPeriodIndicatorDataSetEvaluator implements DataSetEvaluator {
@@ -24,6 +29,9 @@ public class MultiPeriodIndicatorDataSetEvaluator implements DataSetEvaluator {
 	public MultiPeriodIndicatorDataSetEvaluator() { }
 	
 	/**
+	 * Iterations are evaluated concurrently if the definition allows it, each with its own context.  Cacheable results
+	 * which do not depend on the iteration, such as a gender cohort, are shared between concurrent iterations.
+	 * Rows are always returned in the order of the iterations.
 	 * @throws EvaluationException 
 	 * @see DataSetEvaluator#evaluate(DataSetDefinition, EvaluationContext)
 	 * @should evaluate a MultiPeriodIndicatorDataSetDefinition
@@ -39,17 +47,25 @@ public class MultiPeriodIndicatorDataSetEvaluator implements DataSetEvaluator {
 		MultiPeriodIndicatorDataSetDefinition dsd = (MultiPeriodIndicatorDataSetDefinition) dataSetDefinition;
 		SimpleDataSet ret = new SimpleDataSet(dsd, context);
 		
+		int maxConcurrency = ObjectUtil.nvl(dsd.getMaxConcurrentIterations(), 1);
+		boolean concurrent = maxConcurrency > 1 && dsd.getIterations().size() > 1;
+		Map<String, Object> sharedCache = concurrent ? ParallelEvaluationUtil.getSharedCache(context) : null;
+
+		List<EvaluationContext> iterationContexts = new ArrayList<EvaluationContext>();
+		List<Callable<MapDataSet>> tasks = new ArrayList<Callable<MapDataSet>>();
 		for (Iteration iter : dsd.getIterations()) {
-			EvaluationContext ec = context.shallowCopy();
+			EvaluationContext ec = concurrent ? ParallelEvaluationUtil.copyContextForWorker(context, sharedCache) : context.shallowCopy();
 			ec.addParameterValue("startDate", iter.getStartDate());
 			ec.addParameterValue("endDate", iter.getEndDate());
 			ec.addParameterValue("location", iter.getLocation());
-			MapDataSet ds;
-			try {
-				ds = (MapDataSet) Context.getService(DataSetDefinitionService.class).evaluate(dsd.getBaseDefinition(), ec);
-			} catch (Exception ex) {
-				throw new EvaluationException("baseDefinition", ex);
-			}
+			iterationContexts.add(ec);
+			tasks.add(new IterationEvaluationTask(dsd.getBaseDefinition(), ec));
+		}
+		List<MapDataSet> results = ParallelEvaluationUtil.evaluateAll(tasks, maxConcurrency);
+
+		for (int i = 0; i < tasks.size(); i++) {
+			EvaluationContext ec = iterationContexts.get(i);
+			MapDataSet ds = results.get(i);
 		    DataSetRow row = new DataSetRow();
 		    for (DataSetColumn column : dsd.getColumns()) {
 		    	if (keysToCopy.contains(column.getName())) {
@@ -64,4 +80,26 @@ public class MultiPeriodIndicatorDataSetEvaluator implements DataSetEvaluator {
 		
 		return ret;
 	}
+
+	/**
+	 * Evaluates the base definition for a single iteration
+	 */
+	private class IterationEvaluationTask implements Callable<MapDataSet> {
+
+		private CohortIndicatorDataSetDefinition baseDefinition;
+		private EvaluationContext context;
+
+		public IterationEvaluationTask(CohortIndicatorDataSetDefinition baseDefinition, EvaluationContext context) {
+			this.baseDefinition = baseDefinition;
+			this.context = context;
+		}
+
+		public MapDataSet call() throws Exception {
+			try {
+				return (MapDataSet) Context.getService(DataSetDefinitionService.class).evaluate(baseDefinition, context);
+			} catch (Exception ex) {
+				throw new EvaluationException("baseDefinition", ex);
+			}
+		}
+	}
 }
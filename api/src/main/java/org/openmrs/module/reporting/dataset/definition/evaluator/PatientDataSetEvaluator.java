@@ -18,6 +18,7 @@ import org.apache.commons.logging.LogFactory;
 import org.openmrs.Cohort;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.ReportingConstants;
 import org.openmrs.module.reporting.cohort.CohortUtil;
 import org.openmrs.module.reporting.cohort.definition.AllPatientsCohortDefinition;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
@@ -30,15 +31,25 @@ import org.openmrs.module.reporting.data.patient.definition.PatientDataDefinitio
 import org.openmrs.module.reporting.data.patient.service.PatientDataService;
 import org.openmrs.module.reporting.dataset.DataSet;
 import org.openmrs.module.reporting.dataset.DataSetColumn;
+import org.openmrs.module.reporting.dataset.ColumnarDataSet;
 import org.openmrs.module.reporting.dataset.SimpleDataSet;
+import org.openmrs.module.reporting.dataset.StreamingPatientDataSet;
 import org.openmrs.module.reporting.dataset.column.definition.RowPerObjectColumnDefinition;
 import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.PatientDataSetDefinition;
 import org.openmrs.module.reporting.definition.DefinitionUtil;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.ParallelEvaluationUtil;
 import org.openmrs.module.reporting.evaluation.parameter.Mapped;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
 /**
  * The logic that evaluates a {@link PatientDataSetDefinition} and produces an {@link DataSet}
  */
@@ -53,17 +64,15 @@ public class PatientDataSetEvaluator implements DataSetEvaluator {
 	public PatientDataSetEvaluator() { }
 	
 	/**
+	 * If the context allows streaming, and the rows need not be sorted, this returns a {@link StreamingPatientDataSet}
+	 * which evaluates its rows in batches as they are iterated.  Otherwise, all rows are evaluated into a {@link ColumnarDataSet}
 	 * @see DataSetEvaluator#evaluate(DataSetDefinition, EvaluationContext)
 	 */
-	@SuppressWarnings("unchecked")
 	public DataSet evaluate(DataSetDefinition dataSetDefinition, EvaluationContext context) throws EvaluationException {
 		
 		PatientDataSetDefinition dsd = (PatientDataSetDefinition) dataSetDefinition;
 		context = ObjectUtil.nvl(context, new EvaluationContext());
 		
-		SimpleDataSet dataSet = new SimpleDataSet(dsd, context);
-		dataSet.setSortCriteria(dsd.getSortCriteria());
-		
 		// Construct a new EvaluationContext based on the passed filters
 		Cohort c = context.getBaseCohort();
 		if (dsd.getRowFilters() != null) {
@@ -81,20 +90,75 @@ public class PatientDataSetEvaluator implements DataSetEvaluator {
 			ec.setBaseCohort(c);
 		}
 
-		// Evaluate each specified ColumnDefinition for all of the included rows and add these to the dataset
-		for (RowPerObjectColumnDefinition cd : dsd.getColumnDefinitions()) {
+		boolean sorted = dsd.getSortCriteria() != null && !dsd.getSortCriteria().getSortElements().isEmpty();
+		if (context.isStreamingAllowed() && !sorted) {
+			return new StreamingPatientDataSet(this, dsd, ec, c, ReportingConstants.GLOBAL_PROPERTY_DATA_EVALUATION_BATCH_SIZE());
+		}
 
-			if (log.isDebugEnabled()) {
-				log.debug("Evaluating column: " + cd.getName());
-				log.debug("With Data Definition: " + DefinitionUtil.format(cd.getDataDefinition().getParameterizable()));
-				log.debug("With Mappings: " + cd.getDataDefinition().getParameterMappings());
-				log.debug("With Parameters: " + ec.getParameterValues());
+		SimpleDataSet dataSet = new ColumnarDataSet(dsd, context);
+		dataSet.setSortCriteria(dsd.getSortCriteria());
+		evaluateRows(dsd, dataSet, ec, c.getMemberIds());
+		return dataSet;
+	}
+
+	/**
+	 * Evaluates the rows for the passed patients only
+	 * @param dsd the definition to evaluate
+	 * @param context the context to evaluate with, whose base cohort will be replaced with the passed patients
+	 * @param patientIds the patients to evaluate, in the order in which rows should be returned
+	 * @return a SimpleDataSet containing a row for each of the passed patients
+	 */
+	public SimpleDataSet evaluateBatch(PatientDataSetDefinition dsd, EvaluationContext context, List<Integer> patientIds) throws EvaluationException {
+		EvaluationContext ec = context.shallowCopy();
+		ec.setCache(new HashMap<String, Object>()); // Changing the base cohort must not clear the cache of the passed context
+		ec.setBaseCohort(new Cohort(patientIds));
+		SimpleDataSet dataSet = new ColumnarDataSet(dsd, ec);
+		evaluateRows(dsd, dataSet, ec, patientIds);
+		return dataSet;
+	}
+
+	/**
+	 * Evaluates each column of the passed definition for the base cohort of the passed context, and adds a row to the passed
+	 * data set for each of the passed patient ids
+	 */
+	@SuppressWarnings("unchecked")
+	protected void evaluateRows(PatientDataSetDefinition dsd, SimpleDataSet dataSet, EvaluationContext ec, Collection<Integer> patientIds) throws EvaluationException {
+
+		// Evaluate each specified ColumnDefinition for all of the included rows, concurrently if configured to do so.
+		// Only columns whose data are ids or scalars are evaluated on worker threads, as any entities would be detached
+		// once the session of their worker is closed
+		List<RowPerObjectColumnDefinition> columns = dsd.getColumnDefinitions();
+		int maxConcurrency = ObjectUtil.nvl(dsd.getMaxConcurrentColumns(), 1);
+		List<Integer> concurrentColumns = new ArrayList<Integer>();
+		if (maxConcurrency > 1) {
+			for (int i = 0; i < columns.size(); i++) {
+				if (canEvaluateOnWorker(columns.get(i))) {
+					concurrentColumns.add(i);
+				}
+			}
+		}
+		Map<Integer, EvaluatedPatientData> columnData = new HashMap<Integer, EvaluatedPatientData>();
+		if (concurrentColumns.size() > 1) {
+			List<Callable<EvaluatedPatientData>> tasks = new ArrayList<Callable<EvaluatedPatientData>>();
+			for (Integer i : concurrentColumns) {
+				tasks.add(new ColumnEvaluationTask(columns.get(i), ParallelEvaluationUtil.copyContextForWorker(ec)));
+			}
+			List<EvaluatedPatientData> results = ParallelEvaluationUtil.evaluateAll(tasks, maxConcurrency);
+			for (int j = 0; j < concurrentColumns.size(); j++) {
+				columnData.put(concurrentColumns.get(j), results.get(j));
 			}
+		}
 
+		// Add the evaluated data for each column to the dataset, converting it within the session of the caller
+		for (int i = 0; i < columns.size(); i++) {
+			RowPerObjectColumnDefinition cd = columns.get(i);
 			MappedData<? extends PatientDataDefinition> dataDef = (MappedData<? extends PatientDataDefinition>) cd.getDataDefinition();
-			EvaluatedPatientData data = Context.getService(PatientDataService.class).evaluate(dataDef, ec);
+			EvaluatedPatientData data = columnData.get(i);
+			if (data == null) {
+				data = new ColumnEvaluationTask(cd, ec).evaluate();
+			}
 
-			for (Integer id : c.getMemberIds()) {
+			for (Integer id : patientIds) {
 				for (DataSetColumn column : cd.getDataSetColumns()) {
 					Object val = data.getData().get(id);
 					val = DataUtil.convertData(val, dataDef.getConverters());
@@ -102,7 +166,43 @@ public class PatientDataSetEvaluator implements DataSetEvaluator {
 				}
 			}
 		}
+	}
 
-		return dataSet;
+	/**
+	 * @return true if the data of the passed column are ids or scalars, which can be evaluated on a worker thread
+	 * @see ParallelEvaluationUtil#isIndependentOfSession(Class)
+	 */
+	protected boolean canEvaluateOnWorker(RowPerObjectColumnDefinition cd) {
+		return ParallelEvaluationUtil.isIndependentOfSession(cd.getDataDefinition().getParameterizable().getDataType());
+	}
+
+	/**
+	 * Evaluates the data for a single column definition
+	 */
+	private class ColumnEvaluationTask implements Callable<EvaluatedPatientData> {
+
+		private RowPerObjectColumnDefinition cd;
+		private EvaluationContext context;
+
+		public ColumnEvaluationTask(RowPerObjectColumnDefinition cd, EvaluationContext context) {
+			this.cd = cd;
+			this.context = context;
+		}
+
+		public EvaluatedPatientData call() throws Exception {
+			return evaluate();
+		}
+
+		@SuppressWarnings("unchecked")
+		public EvaluatedPatientData evaluate() throws EvaluationException {
+			if (log.isDebugEnabled()) {
+				log.debug("Evaluating column: " + cd.getName());
+				log.debug("With Data Definition: " + DefinitionUtil.format(cd.getDataDefinition().getParameterizable()));
+				log.debug("With Mappings: " + cd.getDataDefinition().getParameterMappings());
+				log.debug("With Parameters: " + context.getParameterValues());
+			}
+			MappedData<? extends PatientDataDefinition> dataDef = (MappedData<? extends PatientDataDefinition>) cd.getDataDefinition();
+			return Context.getService(PatientDataService.class).evaluate(dataDef, context);
+		}
 	}
 }
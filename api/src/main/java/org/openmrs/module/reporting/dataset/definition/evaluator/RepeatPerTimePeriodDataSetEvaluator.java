@@ -35,7 +35,8 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Delegates to evaluating a MultiParameterDataSet after producing a specific set of iterations on the fly
+ * Delegates to evaluating a MultiParameterDataSet after producing a specific set of iterations on the fly.
+ * Iterations are only evaluated concurrently where the MultiParameterDataSetEvaluator allows it.
  */
 @Handler(supports={RepeatPerTimePeriodDataSetDefinition.class})
 public class RepeatPerTimePeriodDataSetEvaluator implements DataSetEvaluator {
@@ -54,6 +55,7 @@ public class RepeatPerTimePeriodDataSetEvaluator implements DataSetEvaluator {
         Mapped<? extends DataSetDefinition> baseMappedDef = dsd.getBaseDefinition();
 
         MultiParameterDataSetDefinition delegate = new MultiParameterDataSetDefinition(baseMappedDef.getParameterizable());
+        delegate.setMaxConcurrentIterations(dsd.getMaxConcurrentIterations());
 
         TimePeriod period = dsd.getRepeatPerTimePeriod();
         if (period == null) {
@@ -11,7 +11,6 @@
  *
  * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
  */
-
 package org.openmrs.module.reporting.dataset.definition.evaluator;
 
 import java.io.StringReader;
@@ -19,6 +18,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -27,21 +34,27 @@ import org.openmrs.Cohort;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.reporting.IllegalDatabaseAccessException;
+import org.openmrs.module.reporting.ReportingConstants;
 import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.dataset.DataSet;
 import org.openmrs.module.reporting.dataset.DataSetColumn;
 import org.openmrs.module.reporting.dataset.DataSetRow;
 import org.openmrs.module.reporting.dataset.SimpleDataSet;
+import org.openmrs.module.reporting.dataset.SimpleDataSetMetaData;
+import org.openmrs.module.reporting.dataset.StreamingSqlDataSet;
 import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.SqlDataSetDefinition;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.report.util.SqlScriptParser;
 import org.openmrs.module.reporting.report.util.SqlUtils;
-import org.openmrs.util.DatabaseUpdater;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * The logic that evaluates a {@link SqlDataSetDefinition} and produces an {@link DataSet}
+ * If the query returns a patient_id column, its rows are restricted to the base cohort.
+ * If the context allows streaming, this returns a {@link StreamingSqlDataSet}, which reads its rows from the
+ * database as they are iterated, rather than holding them all in memory, and whose query is restricted to the base
+ * cohort in the database where possible.
  * @see SqlDataSetDefinition
  */
 @Handler(supports = { SqlDataSetDefinition.class })
@@ -49,6 +62,16 @@ public class SqlDataSetEvaluator implements DataSetEvaluator {
 	
 	protected Log log = LogFactory.getLog(this.getClass());
 	
+	private static final String QUERY_ALIAS = "reporting_sql_data_set";
+	
+	private static final String BASE_COHORT_PARAMETER = "reportingBaseCohort";
+	
+	// This may also match an ordered sub-query, in which case the query is simply not restricted in the database
+	private static final Pattern ORDER_BY = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+	
+	// Column class names are resolved once, rather than for every column of every evaluation
+	private static final Map<String, Class<?>> columnClasses = new ConcurrentHashMap<String, Class<?>>();
+	
 	@Autowired
 	private SessionFactory sessionFactory;
 	
@@ -63,67 +86,56 @@ public class SqlDataSetEvaluator implements DataSetEvaluator {
 	 * @should evaluate a SQLDataSetDefinition with parameters
 	 * @should evaluate a SQLDataSetDefinition with in statement
 	 * @should protect SQL Query Against database modifications
+	 * @should restrict the query to the base cohort
+	 * @should keep the order of an ordered query restricted to the base cohort
+	 * @should return a streaming data set if the context allows streaming
+	 * @should restrict a streamed query to the base cohort in the database
 	 */
 	public DataSet evaluate(DataSetDefinition dataSetDefinition, EvaluationContext context) {
 		
 		context = ObjectUtil.nvl(context, new EvaluationContext());
 		
 		SqlDataSetDefinition sqlDsd = (SqlDataSetDefinition) dataSetDefinition;
-		SimpleDataSet dataSet = new SimpleDataSet(dataSetDefinition, context);
 		
 		// By default, get all patients
 		Cohort cohort = context.getBaseCohort();
 				
-		Connection connection = null;
 		try {
-			connection = sessionFactory.getCurrentSession().connection();
-			ResultSet resultSet = null;
-
 			String sqlQuery = sqlDsd.getSqlQuery();
 			sqlQuery = SqlScriptParser.parse(new StringReader(sqlQuery))[0];
+			if (sqlQuery.endsWith(";")) {
+				sqlQuery = sqlQuery.substring(0, sqlQuery.length() - 1);
+			}
+			Map<String, Object> parameterValues = new HashMap<String, Object>(context.getParameterValues());
+			
+			if (context.isStreamingAllowed()) {
+				DataSet dataSet = evaluateStreaming(sqlDsd, context, sqlQuery, parameterValues);
+				if (dataSet != null) {
+					return dataSet;
+				}
+			}
 			
 			// if the user asked for only a subset, append a "limit" clause to the query so that 
 			// the query runs faster in the database
 			if (context.getLimit() != null && !sqlQuery.contains(" limit ")) {
-				if (sqlQuery.endsWith(";"))
-					sqlQuery = sqlQuery.substring(0, sqlQuery.length() - 1);
 				// this is safe to simply append because limit is always the last clause in queries
 				sqlQuery += " limit " + context.getLimit();
 			}
 			
-			PreparedStatement statement = SqlUtils.prepareStatement(connection, sqlQuery, context.getParameterValues());
-			boolean result = statement.execute();
-			if (result) {
-				resultSet = statement.getResultSet();
-			}
-			
-			int patientIdColumnIndex = -1;
-			ResultSetMetaData rsmd = resultSet.getMetaData();
-			for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-				DataSetColumn column = new DataSetColumn();
-				column.setName(rsmd.getColumnLabel(i));
-				column.setDataType(Context.loadClass(rsmd.getColumnClassName(i)));
-				column.setLabel(rsmd.getColumnLabel(i));
-				dataSet.getMetaData().addColumn(column);
-				if ("patient_id".equalsIgnoreCase(rsmd.getColumnName(i))) {
-					patientIdColumnIndex = i;
+			// The columns are read from the executed query, whose rows are restricted to the base cohort as they are read
+			SimpleDataSet dataSet = new SimpleDataSet(dataSetDefinition, context);
+			ResultSet resultSet = executeQuery(sqlQuery, parameterValues);
+			try {
+				dataSet.setMetaData(getMetaData(resultSet.getMetaData()));
+				Iterator<DataSetRow> rows = new StreamingSqlDataSet.ResultSetIterator(resultSet, dataSet.getMetaData(), cohort);
+				while (rows.hasNext()) {
+					dataSet.addRow(rows.next());
 				}
 			}
-			
-			while (resultSet.next()) {
-				// Limit the DataSet to only patient in the base cohort, if there exists a column named "patientId"
-				if (patientIdColumnIndex > 0) {
-					Integer patientId = resultSet.getInt(patientIdColumnIndex);
-					if (cohort != null && !cohort.contains(patientId)) {
-						continue;
-					}
-				}
-				DataSetRow dataSetRow = new DataSetRow();
-				for (DataSetColumn column : dataSet.getMetaData().getColumns()) {
-					dataSetRow.addColumnValue(column, resultSet.getObject(column.getName()));
-				}
-				dataSet.addRow(dataSetRow);
+			finally {
+				close(resultSet);
 			}
+			return dataSet;
 		}
 		catch (IllegalDatabaseAccessException ie) {
 			throw ie;
@@ -131,6 +143,184 @@ public class SqlDataSetEvaluator implements DataSetEvaluator {
 		catch (Exception e) {
 			throw new RuntimeException(e);
 		}
-		return dataSet;
+	}
+	
+	/**
+	 * A streaming data set must describe its columns before its query is executed, so the query is described by the driver
+	 * without reading any rows.  If it then has a patient_id column, and it is not ordered, it is restricted to the base
+	 * cohort in the database by wrapping it in a derived table, which need not keep the order of an ordered query.
+	 * Otherwise, rows are restricted to the base cohort as they are read.
+	 * @return a data set which reads the rows of the passed query as they are iterated, or null if the query cannot be described
+	 */
+	protected DataSet evaluateStreaming(SqlDataSetDefinition definition, EvaluationContext context, String sqlQuery, Map<String, Object> parameterValues) throws SQLException {
+		QueryColumns columns = describeQuery(sqlQuery, parameterValues);
+		if (columns == null) {
+			return null;
+		}
+		Cohort cohort = context.getBaseCohort();
+		String patientIdColumn = columns.getPatientIdColumn();
+		boolean restricted = false;
+		if (cohort != null && patientIdColumn != null && !ORDER_BY.matcher(sqlQuery).find()) {
+			if (cohort.isEmpty()) {
+				SimpleDataSet dataSet = new SimpleDataSet(definition, context);
+				dataSet.setMetaData(columns.getMetaData());
+				return dataSet;
+			}
+			// A streamed query runs after evaluation completes, so the base cohort is bound directly rather than materialized.
+			// SqlUtils adds its own brackets around a Cohort of more than one member
+			parameterValues.put(BASE_COHORT_PARAMETER, cohort);
+			String restriction = QUERY_ALIAS + "." + patientIdColumn + " in " + (cohort.size() > 1 ? ":" + BASE_COHORT_PARAMETER : "(:" + BASE_COHORT_PARAMETER + ")");
+			sqlQuery = "select " + QUERY_ALIAS + ".* from (" + sqlQuery + ") " + QUERY_ALIAS + " where " + restriction;
+			restricted = true;
+		}
+		if (context.getLimit() != null && (restricted || !sqlQuery.contains(" limit "))) {
+			sqlQuery += " limit " + context.getLimit();
+		}
+		return new StreamingSqlDataSet(this, definition, context, columns.getMetaData(), sqlQuery, parameterValues);
+	}
+	
+	/**
+	 * Executes the passed query on the connection of the current session.  The statement of the returned
+	 * ResultSet should be closed by the caller, for example by calling {@link #close(ResultSet)}
+	 * @return the results of the passed query, read from the database {@link #getFetchSize(Connection)} rows at a time
+	 * @throws SQLException if the query cannot be executed
+	 */
+	public ResultSet executeQuery(String sqlQuery, Map<String, Object> parameterValues) throws SQLException {
+		Connection connection = sessionFactory.getCurrentSession().connection();
+		PreparedStatement statement = SqlUtils.prepareStatement(connection, sqlQuery, parameterValues);
+		try {
+			statement.setFetchSize(getFetchSize(connection));
+			return statement.executeQuery();
+		}
+		catch (SQLException e) {
+			statement.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Closes the passed ResultSet and its statement
+	 */
+	public static void close(ResultSet resultSet) {
+		try {
+			resultSet.getStatement().close();
+		}
+		catch (SQLException e) {
+			// Not much we can do about this
+		}
+	}
+	
+	/**
+	 * MySQL Connector/J reads the whole result set into memory unless the fetch size is Integer.MIN_VALUE,
+	 * in which case it streams rows one at a time.  Other drivers honour the configured fetch size.
+	 * @return the fetch size for queries on the passed connection
+	 */
+	protected int getFetchSize(Connection connection) throws SQLException {
+		if ("MySQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName())) {
+			return Integer.MIN_VALUE;
+		}
+		return Math.max(ReportingConstants.GLOBAL_PROPERTY_QUERY_FETCH_SIZE(), 0);
+	}
+	
+	/**
+	 * Describes the columns returned by the passed query from the metadata of its prepared statement, without executing it
+	 * @return the columns returned by the passed query, or null if the driver cannot describe them before it is executed
+	 */
+	protected QueryColumns describeQuery(String sqlQuery, Map<String, Object> parameterValues) throws SQLException {
+		Connection connection = sessionFactory.getCurrentSession().connection();
+		PreparedStatement statement = SqlUtils.prepareStatement(connection, sqlQuery, parameterValues);
+		try {
+			ResultSetMetaData rsmd = statement.getMetaData();
+			if (rsmd == null) {
+				return null;
+			}
+			return new QueryColumns(getMetaData(rsmd), getPatientIdColumn(rsmd));
+		}
+		finally {
+			statement.close();
+		}
+	}
+	
+	/**
+	 * @return the columns of the passed result set metadata
+	 */
+	protected SimpleDataSetMetaData getMetaData(ResultSetMetaData rsmd) throws SQLException {
+		SimpleDataSetMetaData metaData = new SimpleDataSetMetaData();
+		for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+			DataSetColumn column = new DataSetColumn();
+			column.setName(rsmd.getColumnLabel(i));
+			column.setDataType(getColumnClass(rsmd.getColumnClassName(i)));
+			column.setLabel(rsmd.getColumnLabel(i));
+			metaData.addColumn(column);
+		}
+		return metaData;
+	}
+	
+	/**
+	 * @return the label of the patient_id column, if there is exactly one, and it can be referred to unambiguously in an outer query
+	 */
+	protected String getPatientIdColumn(ResultSetMetaData rsmd) throws SQLException {
+		String patientIdColumn = null;
+		Set<String> labels = new HashSet<String>();
+		for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+			if (!labels.add(rsmd.getColumnLabel(i).toLowerCase())) {
+				return null;
+			}
+			if ("patient_id".equalsIgnoreCase(rsmd.getColumnName(i))) {
+				if (patientIdColumn != null) {
+					return null;
+				}
+				patientIdColumn = rsmd.getColumnLabel(i);
+			}
+		}
+		if (patientIdColumn != null && !patientIdColumn.matches("\\w+")) {
+			return null;
+		}
+		return patientIdColumn;
+	}
+	
+	/**
+	 * @return the class with the passed name, which is loaded only the first time it is requested
+	 */
+	private static Class<?> getColumnClass(String className) {
+		Class<?> c = columnClasses.get(className);
+		if (c == null) {
+			try {
+				c = Context.loadClass(className);
+			}
+			catch (ClassNotFoundException e) {
+				throw new IllegalArgumentException("Unable to load column class " + className, e);
+			}
+			columnClasses.put(className, c);
+		}
+		return c;
+	}
+	
+	/**
+	 * The columns returned by a query, as described by {@link SqlDataSetEvaluator#describeQuery(String, Map)}
+	 */
+	protected static class QueryColumns {
+		
+		private SimpleDataSetMetaData metaData;
+		private String patientIdColumn;
+		
+		public QueryColumns(SimpleDataSetMetaData metaData, String patientIdColumn) {
+			this.metaData = metaData;
+			this.patientIdColumn = patientIdColumn;
+		}
+		
+		/**
+		 * @return the columns of the query
+		 */
+		public SimpleDataSetMetaData getMetaData() {
+			return metaData;
+		}
+		
+		/**
+		 * @return the label of the patient_id column of the query, or null if it cannot be restricted to the base cohort
+		 */
+		public String getPatientIdColumn() {
+			return patientIdColumn;
+		}
 	}
 }
@@ -40,6 +40,13 @@ public class BaseDataSetQueryService implements DataSetQueryService {
 		return dao.executeHqlQuery(hqlQuery, parameterValues);
 	}
 	
+	/** 
+	 * @see DataSetQueryService#executeHqlQuery(String, Map, HqlResultHandler)
+	 */
+	public void executeHqlQuery(String hqlQuery, Map<String, Object> parameterValues, HqlResultHandler handler) {
+		dao.executeHqlQuery(hqlQuery, parameterValues, handler);
+	}
+	
 	/** 
 	 * @see DataSetQueryDAO#getPropertyValues(Class, String, EvaluationContext)
 	 */
@@ -18,6 +18,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.openmrs.OpenmrsObject;
+import org.openmrs.module.reporting.ReportingConstants;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -32,6 +33,14 @@ public interface DataSetQueryService {
 	 */
 	public List<Object> executeHqlQuery(String hqlQuery, Map<String, Object> parameterValues);
 	
+	/**
+	 * Executes the passed hql query, passing each result to the passed handler as it is read, rather than
+	 * returning them all in a List.  Results are read forward-only, {@link ReportingConstants#GLOBAL_PROPERTY_QUERY_FETCH_SIZE()}
+	 * rows at a time, and entities in results which the handler does not keep are evicted from the session after each batch,
+	 * unless they were already in the session before the query was executed.
+	 */
+	public void executeHqlQuery(String hqlQuery, Map<String, Object> parameterValues, HqlResultHandler handler);
+	
 	/**
 	 * @return all properties with the given name on the given type for the given ids
 	 */
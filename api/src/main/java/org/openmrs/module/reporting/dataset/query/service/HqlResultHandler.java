@@ -0,0 +1,28 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.dataset.query.service;
+
+/**
+ * Receives each result of an HQL query executed by
+ * {@link DataSetQueryService#executeHqlQuery(String, java.util.Map, HqlResultHandler)}, as it is read from the database
+ */
+public interface HqlResultHandler {
+
+	/**
+	 * @param result a single result of the query, which is an Object[] if the query selects more than one value
+	 * @return true if the handler keeps a reference to any entity in the passed result; if false, those entities
+	 * are evicted from the session once the current batch of results has been handled
+	 */
+	public boolean handleResult(Object result);
+}
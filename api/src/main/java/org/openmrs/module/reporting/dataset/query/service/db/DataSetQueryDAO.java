@@ -19,6 +19,7 @@ import java.util.Set;
 
 import org.openmrs.OpenmrsObject;
 import org.openmrs.module.reporting.dataset.query.service.DataSetQueryService;
+import org.openmrs.module.reporting.dataset.query.service.HqlResultHandler;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 
 /**
@@ -31,6 +32,11 @@ public interface DataSetQueryDAO {
 	 */
 	public List<Object> executeHqlQuery(String hqlQuery, Map<String, Object> parameterValues);
 	
+	/** 
+	 * @see DataSetQueryService#executeHqlQuery(String, Map, HqlResultHandler)
+	 */
+	public void executeHqlQuery(String hqlQuery, Map<String, Object> parameterValues, HqlResultHandler handler);
+	
 	/** 
 	 * @see DataSetQueryService#getPropertyValues(Class, String, EvaluationContext)
 	 */
@@ -16,7 +16,11 @@ package org.openmrs.module.reporting.dataset.query.service.db;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.engine.SessionImplementor;
 import org.hibernate.metadata.ClassMetadata;
 import org.openmrs.Cohort;
 import org.openmrs.Encounter;
@@ -31,11 +35,17 @@ import org.openmrs.PatientState;
 import org.openmrs.Person;
 import org.openmrs.PersonName;
 import org.openmrs.Relationship;
+import org.openmrs.module.reporting.ReportingConstants;
+import org.openmrs.module.reporting.cohort.MaterializedCohortUtil;
 import org.openmrs.module.reporting.dataset.DataSetColumn;
+import org.openmrs.module.reporting.dataset.query.service.HqlResultHandler;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -44,6 +54,9 @@ public class HibernateDataSetQueryDAO implements DataSetQueryDAO {
 
 	protected static final Log log = LogFactory.getLog(HibernateDataSetQueryDAO.class);
 
+	// Base cohorts at least this large are not bound into queries, unless they are materialized
+	private static final int LARGE_BASE_COHORT_SIZE = 2000;
+
 	//***** PROPERTIES *****
 	
 	private SessionFactory sessionFactory;
@@ -53,8 +66,71 @@ public class HibernateDataSetQueryDAO implements DataSetQueryDAO {
 	/** 
 	 * @see DataSetQueryDAO#executeHqlQuery(String, Map<String, Object>)
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@SuppressWarnings("unchecked")
 	public List<Object> executeHqlQuery(String hqlQuery, Map<String, Object> parameterValues) {
+		return createQuery(hqlQuery, parameterValues).list();
+	}
+	
+	/** 
+	 * @see DataSetQueryDAO#executeHqlQuery(String, Map, HqlResultHandler)
+	 */
+	public void executeHqlQuery(String hqlQuery, Map<String, Object> parameterValues, HqlResultHandler handler) {
+		Session session = sessionFactory.getCurrentSession();
+		int fetchSize = Math.max(ReportingConstants.GLOBAL_PROPERTY_QUERY_FETCH_SIZE(), 1);
+		Query q = createQuery(hqlQuery, parameterValues);
+		q.setFetchSize(fetchSize);
+		q.setReadOnly(true);
+		Set<Object> alreadyLoaded = getEntitiesInSession(session);
+		ScrollableResults results = q.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			List<Object> toEvict = new ArrayList<Object>();
+			int rowsInBatch = 0;
+			while (results.next()) {
+				Object[] row = results.get();
+				Object result = (row.length == 1 ? row[0] : row);
+				if (!handler.handleResult(result)) {
+					for (Object o : row) {
+						if (o != null && !alreadyLoaded.contains(o) && session.contains(o)) {
+							toEvict.add(o);
+						}
+					}
+				}
+				if (++rowsInBatch >= fetchSize) {
+					evict(session, toEvict);
+					rowsInBatch = 0;
+				}
+			}
+			evict(session, toEvict);
+		}
+		finally {
+			results.close();
+		}
+	}
+	
+	/**
+	 * @return the entities which are currently in the passed session, which are compared by identity
+	 */
+	private Set<Object> getEntitiesInSession(Session session) {
+		Set<Object> ret = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		ret.addAll(((SessionImplementor) session).getPersistenceContext().getEntitiesByKey().values());
+		return ret;
+	}
+	
+	/**
+	 * Evicts the passed entities from the passed session, and empties the passed List
+	 */
+	private void evict(Session session, List<Object> entities) {
+		for (Object o : entities) {
+			session.evict(o);
+		}
+		entities.clear();
+	}
+	
+	/**
+	 * @return a query for the passed hql, with the passed parameter values bound to it
+	 */
+	@SuppressWarnings("rawtypes")
+	private Query createQuery(String hqlQuery, Map<String, Object> parameterValues) {
 		Query q = sessionFactory.getCurrentSession().createQuery(hqlQuery);
 		for (Map.Entry<String, Object> e : parameterValues.entrySet()) {
 			if (e.getValue() instanceof Collection) {
@@ -70,16 +146,16 @@ public class HibernateDataSetQueryDAO implements DataSetQueryDAO {
 				q.setParameter(e.getKey(), e.getValue());
 			}
 		}
-		return q.list();
+		return q;
 	}
 	
 	/** 
 	 * @see DataSetQueryDAO#getPropertyValues(Class, String, EvaluationContext)
 	 */
 	public Map<Integer, Object> getPropertyValues(Class<? extends OpenmrsObject> type, String property, EvaluationContext context) {
-		Map<Integer, Object> ret = new HashMap<Integer, Object>();
+		final Map<Integer, Object> ret = new HashMap<Integer, Object>();
 		
-		Cohort baseCohort = context.getBaseCohort();
+		final Cohort baseCohort = context.getBaseCohort();
 		if (baseCohort != null && baseCohort.isEmpty()) {
 			return ret;
 		}
@@ -106,36 +182,35 @@ public class HibernateDataSetQueryDAO implements DataSetQueryDAO {
 		
 		String voidedProperty = (type == Person.class ? "personVoided" : "voided");
 
-        // the special-case code for filtering in Java if the baseCohort is too big only handles Person or Patient queries
-        // (though we may eventually want to extend it)
-        boolean personOrPatientQuery = type.equals(Patient.class) || type.equals(Person.class);
-        boolean filterInQuery = !personOrPatientQuery || (baseCohort != null && baseCohort.size() < 2000);  // TODO: Change to batch if it is good
-        boolean doNotFilterInJava = baseCohort == null || filterInQuery;
-		
+		// Large base cohorts are joined against a materialized copy if enabled.  Otherwise, the special-case code for
+		// filtering in Java if the base cohort is too big to bind only handles Person or Patient queries
+		boolean personOrPatientQuery = type.equals(Patient.class) || type.equals(Person.class);
+		final boolean filterInJava = personOrPatientQuery && baseCohort != null && baseCohort.size() >= LARGE_BASE_COHORT_SIZE
+		                             && MaterializedCohortUtil.getBaseCohortKey(context) == null;
+
+		Map<String, Object> parameterValues = new HashMap<String, Object>();
 		StringBuilder hql = new StringBuilder();
 		hql.append("select 	" + idPropertyName + ", " + property + " ");
 		hql.append("from	" + entityName + " " + alias + " ");
 		hql.append("where	" + alias + "." + voidedProperty + " = false ");
-        if (filterInQuery) {
-            for (Class<? extends OpenmrsData> clazz : patientJoinProperties.keySet()) {
-                if (clazz.isAssignableFrom(type) && baseCohort != null) {
-                    hql.append(" and " + alias + "." + patientJoinProperties.get(clazz) + " in (:ids)");
-                }
-            }
-        }
-		
-		Query query = sessionFactory.getCurrentSession().createQuery(hql.toString());
-		if(hql.toString().contains(":ids")) {
-			query.setParameterList("ids", baseCohort.getMemberIds());
+		if (!filterInJava) {
+			for (Class<? extends OpenmrsData> clazz : patientJoinProperties.keySet()) {
+				if (clazz.isAssignableFrom(type) && baseCohort != null) {
+					hql.append(" and " + MaterializedCohortUtil.getHqlRestriction(alias + "." + patientJoinProperties.get(clazz), context, parameterValues, "ids"));
+				}
+			}
 		}
 
-		for (Object o : query.list()) {
-			Object[] vals = (Object[]) o;
-            Integer ptId = (Integer) vals[0];
-            if (doNotFilterInJava || baseCohort.contains(ptId)) {
-                ret.put(ptId, vals[1]);
-            }
-		}
+		executeHqlQuery(hql.toString(), parameterValues, new HqlResultHandler() {
+			public boolean handleResult(Object result) {
+				Object[] vals = (Object[]) result;
+				Integer ptId = (Integer) vals[0];
+				if (!filterInJava || baseCohort.contains(ptId)) {
+					ret.put(ptId, vals[1]);
+				}
+				return true;
+			}
+		});
 		return ret;
 	}
 	
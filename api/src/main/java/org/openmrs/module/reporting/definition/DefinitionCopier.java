@@ -0,0 +1,238 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.definition;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.api.APIException;
+import org.openmrs.module.reporting.evaluation.Definition;
+
+import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
+import com.thoughtworks.xstream.converters.reflection.Sun14ReflectionProvider;
+
+/**
+ * Makes deep copies of Definitions, so that a Definition can be handed out more than once without
+ * changes made by one caller being visible to another.  Persistent OpenMRS objects referenced by a Definition,
+ * such as Concepts or Locations, are not copied but are re-associated with the current Hibernate session.
+ * Strings, boxed primitives, enums and other JDK types which are known to be immutable are shared, as are the values
+ * of transient fields.  All other objects, including Definitions from other modules and any other mutable objects,
+ * are copied.  Collections and Maps are copied element by element, and other objects field by field, without invoking
+ * constructors, in the same way as the Definition would have been deserialized.
+ */
+public class DefinitionCopier {
+
+	private static final Map<Class<?>, List<Field>> fieldsByType = new ConcurrentHashMap<Class<?>, List<Field>>();
+	private static final ReflectionProvider instantiator = new Sun14ReflectionProvider();
+	private static final Set<Class<?>> immutableTypes = new HashSet<Class<?>>(Arrays.<Class<?>>asList(String.class,
+		Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class,
+		BigInteger.class, BigDecimal.class, Class.class, Locale.class));
+
+	private SessionFactory sessionFactory;
+	private Map<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+	/**
+	 * @param sessionFactory used to re-associate persistent objects with the current session, may be null
+	 */
+	public DefinitionCopier(SessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+
+	/**
+	 * @return a deep copy of the passed Definition
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Definition> T copy(T definition) {
+		try {
+			return (T) copyObject(definition);
+		}
+		catch (IllegalAccessException e) {
+			throw new APIException("Unable to copy " + definition, e);
+		}
+	}
+
+	protected Object copyObject(Object o) throws IllegalAccessException {
+		if (o == null) {
+			return null;
+		}
+		Object existing = copies.get(o);
+		if (existing != null) {
+			return existing;
+		}
+		Class<?> type = o.getClass();
+		if (o instanceof Enum || immutableTypes.contains(type)) {
+			return o;
+		}
+		if (o instanceof Date) {
+			return register(o, ((Date) o).clone());
+		}
+		if (type.isArray()) {
+			return copyArray(o);
+		}
+		if (o instanceof Collection) {
+			return copyCollection((Collection<?>) o);
+		}
+		if (o instanceof Map) {
+			return copyMap((Map<?, ?>) o);
+		}
+		if (o instanceof OpenmrsObject && !(o instanceof Definition)) {
+			Object persistent = loadPersistentObject((OpenmrsObject) o);
+			if (persistent != null) {
+				return register(o, persistent);
+			}
+		}
+		Object copy = register(o, instantiator.newInstance(type));
+		for (Field f : getFields(type)) {
+			Object value = f.get(o);
+			f.set(copy, Modifier.isTransient(f.getModifiers()) ? value : copyObject(value));
+		}
+		return copy;
+	}
+
+	private Object register(Object original, Object copy) {
+		copies.put(original, copy);
+		return copy;
+	}
+
+	private Object copyArray(Object array) throws IllegalAccessException {
+		int length = Array.getLength(array);
+		Class<?> componentType = array.getClass().getComponentType();
+		Object copy = register(array, Array.newInstance(componentType, length));
+		if (componentType.isPrimitive()) {
+			System.arraycopy(array, 0, copy, 0, length);
+		}
+		else {
+			for (int i = 0; i < length; i++) {
+				Array.set(copy, i, copyObject(Array.get(array, i)));
+			}
+		}
+		return copy;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Object copyCollection(Collection<?> c) throws IllegalAccessException {
+		Collection copy;
+		if (c instanceof SortedSet) {
+			copy = new TreeSet(((SortedSet) c).comparator());
+		}
+		else {
+			copy = (Collection) newInstance(c.getClass());
+			if (copy == null) {
+				copy = (c instanceof Set ? new LinkedHashSet() : new ArrayList());
+			}
+		}
+		register(c, copy);
+		for (Object element : c) {
+			copy.add(copyObject(element));
+		}
+		return copy;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Object copyMap(Map<?, ?> m) throws IllegalAccessException {
+		Map copy;
+		if (m instanceof SortedMap) {
+			copy = new TreeMap(((SortedMap) m).comparator());
+		}
+		else {
+			copy = (Map) newInstance(m.getClass());
+			if (copy == null) {
+				copy = new LinkedHashMap();
+			}
+		}
+		register(m, copy);
+		for (Map.Entry<?, ?> e : m.entrySet()) {
+			copy.put(copyObject(e.getKey()), copyObject(e.getValue()));
+		}
+		return copy;
+	}
+
+	/**
+	 * @return a new instance of the passed type created with its public no-argument constructor, or null if there is none
+	 */
+	private Object newInstance(Class<?> type) {
+		try {
+			return type.getConstructor().newInstance();
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the persistent instance of the passed object in the current session, or null if it is not persistent
+	 */
+	private Object loadPersistentObject(OpenmrsObject o) {
+		// Proxies are never initialized here, as they may belong to a session that is already closed
+		if (o instanceof HibernateProxy) {
+			LazyInitializer initializer = ((HibernateProxy) o).getHibernateLazyInitializer();
+			return (sessionFactory == null ? o : load(initializer.getPersistentClass(), initializer.getIdentifier()));
+		}
+		if (sessionFactory == null || o.getId() == null || sessionFactory.getClassMetadata(o.getClass()) == null) {
+			return null;
+		}
+		return load(o.getClass(), o.getId());
+	}
+
+	private Object load(Class<?> type, Serializable id) {
+		Session session = sessionFactory.getCurrentSession();
+		return session.load(type, id);
+	}
+
+	/**
+	 * @return all non-static fields of the passed type and its superclasses, made accessible
+	 */
+	private static List<Field> getFields(Class<?> type) {
+		List<Field> fields = fieldsByType.get(type);
+		if (fields == null) {
+			fields = new ArrayList<Field>();
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field f : c.getDeclaredFields()) {
+					if (!Modifier.isStatic(f.getModifiers())) {
+						f.setAccessible(true);
+						fields.add(f);
+					}
+				}
+			}
+			fieldsByType.put(type, fields);
+		}
+		return fields;
+	}
+}
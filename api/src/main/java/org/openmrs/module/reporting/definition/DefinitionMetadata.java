@@ -0,0 +1,242 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.definition;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openmrs.api.APIException;
+import org.openmrs.module.reporting.common.Localized;
+import org.openmrs.module.reporting.common.MessageUtil;
+import org.openmrs.module.reporting.common.ObjectUtil;
+import org.openmrs.module.reporting.common.ReflectionUtil;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationProperty;
+
+/**
+ * Describes the properties of a Definition class, as needed to clone a Definition, to set its parameter values,
+ * and to build cache keys from it.  The fields, getters and setters of each class are looked up only once,
+ * the first time the metadata for that class is requested, so evaluating a Definition does not need to introspect it.
+ * Display names and groups are translated only when they are asked for.
+ */
+public class DefinitionMetadata {
+
+	private static final Map<Class<?>, DefinitionMetadata> metadataByType = new ConcurrentHashMap<Class<?>, DefinitionMetadata>();
+
+	private Class<?> type;
+	private List<PropertyMetadata> configurationProperties;
+	private Map<String, PropertyMetadata> propertiesByName;
+
+	/**
+	 * @return the metadata for the passed type, which is built the first time it is requested
+	 */
+	public static DefinitionMetadata getMetadata(Class<?> type) {
+		DefinitionMetadata metadata = metadataByType.get(type);
+		if (metadata == null) {
+			metadata = new DefinitionMetadata(type);
+			metadataByType.put(type, metadata);
+		}
+		return metadata;
+	}
+
+	private DefinitionMetadata(Class<?> type) {
+		this.type = type;
+		List<PropertyMetadata> configurationProperties = new ArrayList<PropertyMetadata>();
+		Map<String, PropertyMetadata> propertiesByName = new HashMap<String, PropertyMetadata>();
+		addProperties(type, type, configurationProperties, propertiesByName);
+		this.configurationProperties = Collections.unmodifiableList(configurationProperties);
+		this.propertiesByName = propertiesByName;
+	}
+
+	/**
+	 * Adds the properties of the passed class, after those of its superclasses.  As with {@link ReflectionUtil#getField(Class, String)},
+	 * a field declared in a subclass takes precedence over one of the same name in a superclass.
+	 */
+	private void addProperties(Class<?> type, Class<?> c, List<PropertyMetadata> configurationProperties, Map<String, PropertyMetadata> propertiesByName) {
+		if (c == null) {
+			return;
+		}
+		addProperties(type, c.getSuperclass(), configurationProperties, propertiesByName);
+		Localized l = c.getAnnotation(Localized.class);
+		String prefix = (l == null ? null : l.value() + ".");
+		for (Field f : c.getDeclaredFields()) {
+			if (!Modifier.isStatic(f.getModifiers())) {
+				PropertyMetadata property = new PropertyMetadata(type, f, prefix);
+				propertiesByName.put(f.getName(), property);
+				if (property.getConfigurationProperty() != null) {
+					configurationProperties.add(property);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the type which this metadata describes
+	 */
+	public Class<?> getType() {
+		return type;
+	}
+
+	/**
+	 * @return the properties annotated as {@link ConfigurationProperty}, those of superclasses first
+	 */
+	public List<PropertyMetadata> getConfigurationProperties() {
+		return configurationProperties;
+	}
+
+	/**
+	 * @return the property backed by the field with the passed name, or null if there is no such field
+	 */
+	public PropertyMetadata getProperty(String name) {
+		return propertiesByName.get(name);
+	}
+
+	/**
+	 * Describes a single field of a Definition, along with the methods used to get and set it
+	 */
+	public static class PropertyMetadata {
+
+		private Field field;
+		private Method getter;
+		private Method setter;
+		private ConfigurationProperty configurationProperty;
+		private String localizationPrefix;
+
+		private PropertyMetadata(Class<?> type, Field field, String localizationPrefix) {
+			this.field = field;
+			this.localizationPrefix = localizationPrefix;
+			this.configurationProperty = field.getAnnotation(ConfigurationProperty.class);
+			String baseName = field.getName().substring(0, 1).toUpperCase() + field.getName().substring(1);
+			this.getter = getPublicMethod(type, "get" + baseName);
+			if (getter == null) {
+				this.getter = getPublicMethod(type, "is" + baseName);
+			}
+			this.setter = getPublicMethod(type, "set" + baseName, field.getType());
+			if (getter == null || setter == null) {
+				field.setAccessible(true);
+			}
+		}
+
+		private static Method getPublicMethod(Class<?> c, String name, Class<?>... parameterTypes) {
+			try {
+				return c.getMethod(name, parameterTypes);
+			}
+			catch (NoSuchMethodException e) {
+				return null;
+			}
+		}
+
+		/**
+		 * @return the value of this property on the passed object
+		 */
+		public Object getValue(Object object) {
+			try {
+				return (getter == null ? field.get(object) : getter.invoke(object));
+			}
+			catch (Exception e) {
+				throw new IllegalArgumentException("Error getting '" + field.getName() + "' from " + object + " (" + object.getClass() + ")", e);
+			}
+		}
+
+		/**
+		 * Sets this property on the passed object.  As with {@link ReflectionUtil#setPropertyValue(Object, Field, Object)}, if this
+		 * property is a Collection and the passed value is not, the value is added to the existing Collection
+		 */
+		@SuppressWarnings("unchecked")
+		public void setValue(Object object, Object value) {
+			try {
+				if (value != null && ReflectionUtil.isCollection(field) && !(value instanceof Collection<?>)) {
+					Collection<Object> collection = (Collection<Object>) getValue(object);
+					if (collection == null) {
+						collection = (List.class.isAssignableFrom(field.getType()) ? new ArrayList<Object>() : new HashSet<Object>());
+					}
+					collection.add(value);
+					value = collection;
+				}
+				if (setter == null) {
+					field.set(object, value);
+				}
+				else {
+					setter.invoke(object, value);
+				}
+			}
+			catch (Exception e) {
+				throw new APIException("Error trying to set field <" + field.getName() + "> on " +
+						object.getClass() + " object with value <" + value + ">", e);
+			}
+		}
+
+		/**
+		 * @return the display name of this property, translated into the current locale
+		 */
+		public String getDisplayName() {
+			String displayName = field.getName();
+			if (configurationProperty != null) {
+				if (ObjectUtil.notNull(configurationProperty.value())) {
+					displayName = MessageUtil.translate(configurationProperty.value());
+				}
+				else if (localizationPrefix != null) {
+					displayName = MessageUtil.translate(localizationPrefix + field.getName(), displayName);
+				}
+			}
+			return displayName;
+		}
+
+		/**
+		 * @return the group of this property, translated into the current locale, or an empty String if it has no group
+		 */
+		public String getGroup() {
+			String groupName = "";
+			if (configurationProperty != null && ObjectUtil.notNull(configurationProperty.group())) {
+				groupName = configurationProperty.group();
+				if (localizationPrefix != null) {
+					groupName = MessageUtil.translate(localizationPrefix + configurationProperty.group(), groupName);
+				}
+				if (ObjectUtil.isNull(groupName)) {
+					groupName = MessageUtil.translate(configurationProperty.group(), groupName);
+				}
+			}
+			return groupName;
+		}
+
+		/**
+		 * @return the field
+		 */
+		public Field getField() {
+			return field;
+		}
+
+		/**
+		 * @return the name of the field
+		 */
+		public String getName() {
+			return field.getName();
+		}
+
+		/**
+		 * @return the ConfigurationProperty annotation of the field, or null if it is not annotated
+		 */
+		public ConfigurationProperty getConfigurationProperty() {
+			return configurationProperty;
+		}
+	}
+}
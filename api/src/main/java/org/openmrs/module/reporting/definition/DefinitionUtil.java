@@ -16,10 +16,9 @@ package org.openmrs.module.reporting.definition;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.APIException;
-import org.openmrs.module.reporting.common.Localized;
-import org.openmrs.module.reporting.common.MessageUtil;
 import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.common.ReflectionUtil;
+import org.openmrs.module.reporting.definition.DefinitionMetadata.PropertyMetadata;
 import org.openmrs.module.reporting.definition.configuration.ConfigurationProperty;
 import org.openmrs.module.reporting.definition.configuration.Property;
 import org.openmrs.module.reporting.definition.evaluator.DefinitionEvaluator;
@@ -29,7 +28,6 @@ import org.openmrs.module.reporting.evaluation.EvaluationException;
 import org.openmrs.module.reporting.evaluation.parameter.Parameter;
 import org.openmrs.util.HandlerUtil;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -51,83 +49,20 @@ public class DefinitionUtil {
 	/**
 	 * Utility method which takes in an Object and returns a List of {@link Property}s
 	 * based on the annotated {@link ConfigurationProperty} fields within its class or superclasses.
+	 * Display names and groups are translated into the current locale.
 	 * @param classInstance - The instance from which to retrieve Param fields
 	 * @return - A List of {@link Property}s based on the annotations in the passed instance class
 	 */
 	public static List<Property> getConfigurationProperties(Definition classInstance) {
-		return getConfigurationProperties(classInstance.getClass(), classInstance);
+		List<Property> ret = new ArrayList<Property>();
+		for (PropertyMetadata p : DefinitionMetadata.getMetadata(classInstance.getClass()).getConfigurationProperties()) {
+			ConfigurationProperty ann = p.getConfigurationProperty();
+			Object value = p.getValue(classInstance);
+			ret.add(new Property(p.getField(), value, ann.required(), p.getDisplayName(), p.getGroup(), ann.displayFormat(), ann.displayAttributes()));
+		}
+		return ret;
 	}
 	
-	/**
-	 * Utility method which takes in an Object class and instance 
-	 * and returns a List of {@link Property}s based on the annotated {@link ConfigurationProperty}
-	 * fields within the classToCheck or its superclasses.
-	 * This is private as it exists only to support recursion in the above class.
-	 * @param classToCheck - The class to look at for annotated fields.
-	 * @param classInstance - The instance to look at for default values.
-	 * @return - A List of {@link Property}s based on the annotations in the passed classes
-	 */
-	@SuppressWarnings("rawtypes")
-    private static List<Property> getConfigurationProperties(Class<?> classToCheck, Object classInstance) {
-    	
-    	List<Property> ret = new ArrayList<Property>();
-    	
-    	if (classToCheck != null) {
-
-			// If this class extends another class, then inspect all inherited field values as well
-	    	Class superclass = classToCheck.getSuperclass();
-	    	if (superclass != null) {
-	    		ret.addAll(getConfigurationProperties(superclass, classInstance));
-	    	}
-    		
-    		String prefix = null;
-    		Localized l = classToCheck.getAnnotation(Localized.class);
-    		if (l != null) {
-    			prefix = l.value() + ".";
-    		}
-
-    		// Iterate across all of the declared fields in the passed class
-	    	for (Field f : classToCheck.getDeclaredFields()) {
-    			ConfigurationProperty ann = f.getAnnotation(ConfigurationProperty.class);
-    			
-    			// If it is annotated to accept parameters, then retrieve values for Parameter
-    			if (ann != null) {
-    				Object value = ReflectionUtil.getPropertyValue(classInstance, f.getName());
-    				
-    				// By default, show the property name, within a blank group, for each field
-    				String displayName = f.getName();
-    				String groupName = "";
-    				
-    				// If the ConfigurationProperty specifies the property text, use it
-    				if (ObjectUtil.notNull(ann.value())) {
-    					displayName = MessageUtil.translate(ann.value());
-    				}
-    				else {
-    					// Otherwise, try to imply the text from convention
-    					if (prefix != null) {
-        					displayName = MessageUtil.translate(prefix + f.getName(), displayName);
-    					}
-    				}
-    				
-    				// If the group is specified, then set the groupName by default to it and try to translate
-					if (ObjectUtil.notNull(ann.group())) {
-						groupName = ann.group();
-						if (prefix != null) {
-							groupName = MessageUtil.translate(prefix + ann.group(), groupName);
-						}
-						if (ObjectUtil.isNull(groupName)) {
-							groupName = MessageUtil.translate(ann.group(), groupName);
-						}
-					}
-
-    				Property p = new Property(f, value, ann.required(), displayName, groupName, ann.displayFormat(), ann.displayAttributes());
-    				ret.add(p);
-    			}
-	    	}
-    	}
-    	return ret;
-   	}
-	
 	/**
 	 * Utility method which takes in a Definition instance and returns a
 	 * new instance with identical properties for any that are annotated as {@link ConfigurationProperty}
@@ -153,12 +88,12 @@ public class DefinitionUtil {
 				newInstance.setDateRetired(instanceToClone.getDateRetired());
 				newInstance.setRetireReason(instanceToClone.getRetireReason());
 				
-				for (Property p : getConfigurationProperties(instanceToClone)) {
-					Object toCopy = ReflectionUtil.getPropertyValue(instanceToClone, p.getField().getName());
+				for (PropertyMetadata p : DefinitionMetadata.getMetadata(instanceToClone.getClass()).getConfigurationProperties()) {
+					Object toCopy = p.getValue(instanceToClone);
 					if (toCopy instanceof Definition) {
 						toCopy = DefinitionUtil.clone((Definition)toCopy);
 					}
-					ReflectionUtil.setPropertyValue(newInstance, p.getField(), toCopy);
+					p.setValue(newInstance, toCopy);
 				}
 				
 				for (Parameter p : instanceToClone.getParameters()) {
@@ -192,12 +127,16 @@ public class DefinitionUtil {
 	 */
     public static <T extends Definition> T cloneDefinitionWithContext(T definition, EvaluationContext context) {
 		T clonedDefinition = DefinitionUtil.clone(definition);
+		DefinitionMetadata metadata = DefinitionMetadata.getMetadata(clonedDefinition.getClass());
 		for (Parameter p : clonedDefinition.getParameters()) {
 			Object value = p.getDefaultValue();
 			if (context != null && context.containsParameter(p.getName())) {
 				value = context.getParameterValue(p.getName());
 			}
-			ReflectionUtil.setPropertyValue(clonedDefinition, p.getName(), value);
+			PropertyMetadata property = metadata.getProperty(p.getName());
+			if (property != null) {
+				property.setValue(clonedDefinition, value);
+			}
 		}
 		return clonedDefinition;
 	}
@@ -13,11 +13,11 @@
  */
 package org.openmrs.module.reporting.definition.configuration;
 
-import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
-import org.openmrs.module.reporting.definition.DefinitionUtil;
+import org.openmrs.module.reporting.definition.DefinitionMetadata;
+import org.openmrs.module.reporting.definition.DefinitionMetadata.PropertyMetadata;
 import org.openmrs.module.reporting.evaluation.Definition;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.caching.Caching;
@@ -39,11 +39,11 @@ public class ConfigurationPropertyCachingStrategy implements CachingStrategy  {
 		if (definition == null) {
 			throw new IllegalArgumentException("Unable to getCacheKey for object that is null");
 		}
-		List<Property> props = DefinitionUtil.getConfigurationProperties(definition);
 		Map<String, Object> m = new TreeMap<String, Object>();
-		for (Property p : props) {
-			if (p.getValue() != null) {
-				m.put(p.getField().getName(), p.getValue());
+		for (PropertyMetadata p : DefinitionMetadata.getMetadata(definition.getClass()).getConfigurationProperties()) {
+			Object value = p.getValue(definition);
+			if (value != null) {
+				m.put(p.getName(), value);
 			}
 		}
 		return definition.getClass().getName() + m.toString();
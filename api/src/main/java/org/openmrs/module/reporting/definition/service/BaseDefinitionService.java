@@ -15,12 +15,15 @@ package org.openmrs.module.reporting.definition.service;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.APIException;
 import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.reporting.cohort.MaterializedCohortUtil;
 import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.definition.DefinitionSummary;
 import org.openmrs.module.reporting.definition.DefinitionUtil;
@@ -30,9 +33,12 @@ import org.openmrs.module.reporting.evaluation.Definition;
 import org.openmrs.module.reporting.evaluation.Evaluated;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.EvaluationProfiler;
 import org.openmrs.module.reporting.evaluation.EvaluationUtil;
 import org.openmrs.module.reporting.evaluation.MissingDependencyException;
+import org.openmrs.module.reporting.evaluation.caching.SharedEvaluationCache;
 import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.evaluation.plan.EvaluationPlan;
 import org.openmrs.util.HandlerUtil;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
@@ -197,23 +203,51 @@ public abstract class BaseDefinitionService<T extends Definition> extends BaseOp
 	/**
 	 * This is the main method which should be used to evaluate a Definition - retrieves all
 	 * evaluation parameter values from the class and the EvaluationContext - checks whether a
-	 * definition with this configuration exists in the cache (if caching is supported) - returns
-	 * the cached evaluation result if found - otherwise, delegates to the appropriate Evaluator and
-	 * evaluates the result - caches the result (if caching is supported)
+	 * definition with this configuration exists in the cache of the context, in the shared cache of the context,
+	 * or in the {@link SharedEvaluationCache} (if caching is supported) - returns the cached evaluation result
+	 * if found - otherwise, delegates to the appropriate Evaluator and evaluates the result - caches
+	 * the result (if caching is supported).  If the context has an {@link EvaluationPlan} in which this definition
+	 * is shared by several consumers, it is only evaluated by the first of these.  Once the outermost evaluation with
+	 * a context completes, any base cohorts written to the database while evaluating it are released.
 	 *
 	 * @see DefinitionEvaluator#evaluate(Definition, EvaluationContext)
 	 */
-	@SuppressWarnings("unchecked")
 	public Evaluated<T> evaluate(T definition, EvaluationContext context) throws EvaluationException {
 		
 		// Ensure context is not null
-		context = ObjectUtil.nvl(context, new EvaluationContext());
+		final EvaluationContext evaluationContext = ObjectUtil.nvl(context, new EvaluationContext());
 		
 		// Retrieve QueryEvaluator which can evaluate this Query
-		DefinitionEvaluator<T> evaluator = DefinitionUtil.getPreferredEvaluator(definition);
+		final DefinitionEvaluator<T> evaluator = DefinitionUtil.getPreferredEvaluator(definition);
 		
 		// Clone Query and set all properties from the Parameters in the EvaluationContext
-		T clonedDefinition = DefinitionUtil.cloneDefinitionWithContext(definition, context);
+		final T clonedDefinition = DefinitionUtil.cloneDefinitionWithContext(definition, evaluationContext);
+		
+		evaluationContext.startEvaluation();
+		try {
+			EvaluationPlan plan = evaluationContext.getEvaluationPlan();
+			if (plan == null) {
+				return evaluateWithCache(evaluator, clonedDefinition, evaluationContext);
+			}
+			return plan.evaluate(definition, evaluationContext, new Callable<Evaluated<T>>() {
+				public Evaluated<T> call() throws Exception {
+					return evaluateWithCache(evaluator, clonedDefinition, evaluationContext);
+				}
+			});
+		}
+		finally {
+			if (evaluationContext.endEvaluation()) {
+				MaterializedCohortUtil.release(evaluationContext);
+			}
+		}
+	}
+	
+	/**
+	 * Evaluates the passed definition, which has already been cloned with the context, retrieving the result from and
+	 * adding it to the caches as described in {@link #evaluate(Definition, EvaluationContext)}
+	 */
+	@SuppressWarnings("unchecked")
+	protected Evaluated<T> evaluateWithCache(DefinitionEvaluator<T> evaluator, T clonedDefinition, EvaluationContext context) throws EvaluationException {
 		
 		String cacheKey = EvaluationUtil.getCacheKey(clonedDefinition, context);
 		
@@ -222,12 +256,43 @@ public abstract class BaseDefinitionService<T extends Definition> extends BaseOp
 		if (cacheKey != null) {
 			evaluationResult = (Evaluated<T>) context.getFromCache(cacheKey);
 			if (evaluationResult == null) {
-				log.debug("No cached value with key <" + cacheKey + ">.  Evaluating.");
-				evaluationResult = executeEvaluator(evaluator, clonedDefinition, context);
+				// The shared cache of the context is used by other threads, so like the SharedEvaluationCache it only holds
+				// values that can outlive the context and session that produced them, see toSharedCacheValue
+				Map<String, Object> contextSharedCache = context.getSharedCache();
+				String sharedCacheKey = (contextSharedCache == null ? null : SharedEvaluationCache.getSharedCacheKey(cacheKey, context));
+				if (contextSharedCache != null) {
+					Object sharedValue = contextSharedCache.get(sharedCacheKey);
+					if (sharedValue != null) {
+						evaluationResult = fromSharedCacheValue(sharedValue, clonedDefinition, context);
+					}
+				}
+				if (evaluationResult == null) {
+					Object sharedValue = SharedEvaluationCache.get(cacheKey, context);
+					if (sharedValue != null) {
+						evaluationResult = fromSharedCacheValue(sharedValue, clonedDefinition, context);
+					}
+				}
+				if (evaluationResult == null) {
+					log.debug("No cached value with key <" + cacheKey + ">.  Evaluating.");
+					EvaluationProfiler.recordCacheHit(false);
+					evaluationResult = executeEvaluator(evaluator, clonedDefinition, context);
+					Object valueToShare = toSharedCacheValue(evaluationResult);
+					if (valueToShare != null) {
+						SharedEvaluationCache.put(cacheKey, context, valueToShare);
+						if (contextSharedCache != null) {
+							contextSharedCache.put(sharedCacheKey, valueToShare);
+						}
+					}
+				}
+				else {
+					log.debug("Retrieved shared cached value with key <" + cacheKey + ">");
+					EvaluationProfiler.recordCacheHit(true);
+				}
 				context.addToCache(cacheKey, evaluationResult);
 			}
 			else {
 				log.debug("Retrieved cached value with key <" + cacheKey + "> = " + evaluationResult);
+				EvaluationProfiler.recordCacheHit(true);
 			}
 		}
 
@@ -259,6 +324,24 @@ public abstract class BaseDefinitionService<T extends Definition> extends BaseOp
 		return evaluator.evaluate(definition, context);
 	}
 	
+	/**
+	 * Subclasses whose evaluation results can safely outlive the EvaluationContext that produced them
+	 * should override this to return a detached copy of the passed result which can be held in the
+	 * {@link SharedEvaluationCache}.  The default implementation returns null, which means that
+	 * results are only cached within their EvaluationContext.
+	 */
+	protected Object toSharedCacheValue(Evaluated<T> evaluationResult) {
+		return null;
+	}
+	
+	/**
+	 * Subclasses which override {@link #toSharedCacheValue(Evaluated)} should override this to return
+	 * a new evaluation result for the passed definition and context from the passed shared value
+	 */
+	protected Evaluated<T> fromSharedCacheValue(Object sharedValue, T definition, EvaluationContext context) {
+		return null;
+	}
+	
 	/**
 	 * @return the DefinitionPersister<?> for the passed Definition
 	 * @throws APIException if no matching persister is found
@@ -0,0 +1,222 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.definition.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.SessionFactory;
+import org.openmrs.api.db.SerializedObject;
+import org.openmrs.module.reporting.definition.DefinitionCopier;
+import org.openmrs.module.reporting.evaluation.Definition;
+import org.openmrs.module.reporting.evaluation.caching.EvaluationCacheStatistics;
+
+/**
+ * Caches deserialized Definitions by uuid, so that a Definition is only unmarshalled again when it changes.
+ * Each entry is stored along with the version of the {@link SerializedObject} it was deserialized from,
+ * and is only returned for that same version.  Callers always receive a copy, so they can never modify the
+ * cached instance.
+ *
+ * A Definition which refers to other saved Definitions contains copies of them, so each entry also records the uuids
+ * of the Definitions that were loaded while deserializing it, and is removed whenever one of them is removed.
+ * The least recently used entries are removed once the maximum size is reached.
+ */
+public class DefinitionCache {
+
+	private static Log log = LogFactory.getLog(DefinitionCache.class);
+
+	public static final String MBEAN_NAME = "org.openmrs.module.reporting:type=DefinitionCache";
+
+	private final int maxSize;
+	private final SessionFactory sessionFactory;
+	private final Map<String, Entry> entries;
+	private final EvaluationCacheStatistics statistics = new EvaluationCacheStatistics();
+
+	/**
+	 * @param maxSize the maximum number of Definitions to cache
+	 * @param sessionFactory used to re-associate persistent objects referenced by cached Definitions with the current session
+	 */
+	public DefinitionCache(final int maxSize, SessionFactory sessionFactory) {
+		this.maxSize = maxSize;
+		this.sessionFactory = sessionFactory;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * @return a copy of the cached Definition deserialized from the passed SerializedObject, or null if there is no
+	 * cached Definition for the current version of that SerializedObject
+	 */
+	public <T extends Definition> T get(SerializedObject so, Class<T> definitionType) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(so.getUuid());
+			if (entry != null && !entry.getVersion().equals(getVersion(so))) {
+				entries.remove(so.getUuid());
+				entry = null;
+			}
+		}
+		if (entry == null || !definitionType.isInstance(entry.getDefinition())) {
+			statistics.recordMiss();
+			return null;
+		}
+		statistics.recordHit();
+		return definitionType.cast(new DefinitionCopier(sessionFactory).copy(entry.getDefinition()));
+	}
+
+	/**
+	 * @return the uuids of the Definitions on which the cached Definition with the passed uuid depends, or null if it is not cached
+	 */
+	public synchronized Set<String> getDependencies(String uuid) {
+		Entry entry = entries.get(uuid);
+		return entry == null ? null : entry.getDependencies();
+	}
+
+	/**
+	 * Caches a copy of the passed Definition, which was deserialized from the passed SerializedObject
+	 * @param dependencies the uuids of all saved Definitions that were loaded while deserializing it
+	 */
+	public void put(SerializedObject so, Definition definition, Set<String> dependencies) {
+		if (maxSize <= 0) {
+			return;
+		}
+		Definition copy = new DefinitionCopier(sessionFactory).copy(definition);
+		synchronized (this) {
+			entries.put(so.getUuid(), new Entry(getVersion(so), copy, dependencies));
+			statistics.recordPut();
+			while (entries.size() > maxSize) {
+				Iterator<String> i = entries.keySet().iterator();
+				i.next();
+				i.remove();
+				statistics.recordEviction();
+			}
+			statistics.setCurrentWeight(entries.size());
+		}
+	}
+
+	/**
+	 * Removes the Definition with the passed uuid, and any Definitions which depend on it
+	 */
+	public synchronized void remove(String uuid) {
+		entries.remove(uuid);
+		for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+			if (i.next().getDependencies().contains(uuid)) {
+				i.remove();
+			}
+		}
+		statistics.setCurrentWeight(entries.size());
+	}
+
+	/**
+	 * Removes all cached Definitions
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		statistics.setCurrentWeight(0);
+	}
+
+	/**
+	 * @return the number of cached Definitions
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the hit, miss and eviction counts of this cache.  The weight is the number of cached Definitions.
+	 */
+	public EvaluationCacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Registers the statistics of this cache with the platform MBean server, so they can be monitored over JMX
+	 */
+	public void registerStatistics() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(MBEAN_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(statistics, name);
+		}
+		catch (Exception e) {
+			log.warn("Unable to register definition cache statistics with JMX", e);
+		}
+	}
+
+	/**
+	 * Removes the statistics of the definition cache from the platform MBean server
+	 */
+	public static void unregisterStatistics() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(MBEAN_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		}
+		catch (Exception e) {
+			log.warn("Unable to unregister definition cache statistics from JMX", e);
+		}
+	}
+
+	/**
+	 * @return a key which changes whenever the passed SerializedObject is changed
+	 */
+	protected String getVersion(SerializedObject so) {
+		Date lastChanged = so.getDateChanged() == null ? so.getDateCreated() : so.getDateChanged();
+		String data = so.getSerializedData();
+		return (lastChanged == null ? "" : Long.toString(lastChanged.getTime())) + ":"
+				+ (data == null ? 0 : data.length()) + ":" + (data == null ? 0 : data.hashCode());
+	}
+
+	/**
+	 * A cached Definition, along with the version it was deserialized from and the uuids of the Definitions it depends on
+	 */
+	private static class Entry {
+
+		private String version;
+		private Definition definition;
+		private Set<String> dependencies;
+
+		public Entry(String version, Definition definition, Set<String> dependencies) {
+			this.version = version;
+			this.definition = definition;
+			this.dependencies = (dependencies == null ? new HashSet<String>() : new HashSet<String>(dependencies));
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		public Definition getDefinition() {
+			return definition;
+		}
+
+		public Set<String> getDependencies() {
+			return dependencies;
+		}
+	}
+}
@@ -20,6 +20,7 @@ import org.openmrs.api.OpenmrsService;
 import org.openmrs.api.db.SerializedObject;
 import org.openmrs.module.reporting.definition.DefinitionSummary;
 import org.openmrs.module.reporting.evaluation.Definition;
+import org.openmrs.module.reporting.evaluation.caching.EvaluationCacheStatistics;
 import org.openmrs.module.reporting.report.definition.ReportDefinition;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -120,4 +121,14 @@ public interface SerializedDefinitionService extends OpenmrsService {
 	 */
     public void saveSerializedDefinition(SerializedObject serializedDefinition);
 
+	/**
+	 * @return the hit, miss and eviction counts of the cache of deserialized Definitions
+	 */
+    public EvaluationCacheStatistics getDefinitionCacheStatistics();
+
+	/**
+	 * Removes all Definitions from the cache of deserialized Definitions
+	 */
+    public void clearDefinitionCache();
+
 }
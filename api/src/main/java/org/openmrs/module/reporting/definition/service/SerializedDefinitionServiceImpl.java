@@ -17,10 +17,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.SessionFactory;
 import org.openmrs.Auditable;
 import org.openmrs.OpenmrsObject;
 import org.openmrs.api.context.Context;
@@ -28,9 +32,11 @@ import org.openmrs.api.db.SerializedObject;
 import org.openmrs.api.db.SerializedObjectDAO;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.reporting.ExceptionUtil;
+import org.openmrs.module.reporting.ReportingConstants;
 import org.openmrs.module.reporting.cohort.definition.persister.CohortDefinitionPersister;
 import org.openmrs.module.reporting.definition.DefinitionSummary;
 import org.openmrs.module.reporting.evaluation.Definition;
+import org.openmrs.module.reporting.evaluation.caching.EvaluationCacheStatistics;
 import org.openmrs.serialization.OpenmrsSerializer;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -41,6 +47,16 @@ import org.springframework.transaction.annotation.Transactional;
 public class SerializedDefinitionServiceImpl extends BaseOpenmrsService implements SerializedDefinitionService {
 	
 	protected static Log log = LogFactory.getLog(SerializedDefinitionServiceImpl.class);
+
+	/**
+	 * For each Definition currently being deserialized on this thread, the uuids of the saved Definitions it refers to
+	 */
+	private static ThreadLocal<LinkedList<Set<String>>> dependenciesBeingLoaded = new ThreadLocal<LinkedList<Set<String>>>() {
+		@Override
+		protected LinkedList<Set<String>> initialValue() {
+			return new LinkedList<Set<String>>();
+		}
+	};
 	
     //****************
     // Constructor
@@ -53,6 +69,8 @@ public class SerializedDefinitionServiceImpl extends BaseOpenmrsService implemen
 	
 	private SerializedObjectDAO dao = null;
 	private OpenmrsSerializer serializer = null;
+	private SessionFactory sessionFactory = null;
+	private volatile DefinitionCache definitionCache = null;
 	
     /**
      * @return the dao
@@ -81,6 +99,75 @@ public class SerializedDefinitionServiceImpl extends BaseOpenmrsService implemen
     public void setSerializer(OpenmrsSerializer serializer) {
     	this.serializer = serializer;
     }
+
+    /**
+     * @return the sessionFactory
+     */
+    public SessionFactory getSessionFactory() {
+    	return sessionFactory;
+    }
+
+    /**
+     * @param sessionFactory the sessionFactory to set
+     */
+    public void setSessionFactory(SessionFactory sessionFactory) {
+    	this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * @return the cache of deserialized Definitions, which is created the first time it is needed
+     */
+    protected DefinitionCache getDefinitionCache() {
+    	if (definitionCache == null) {
+    		synchronized (this) {
+    			if (definitionCache == null) {
+    				DefinitionCache cache = new DefinitionCache(ReportingConstants.GLOBAL_PROPERTY_DEFINITION_CACHE_MAX_SIZE(), sessionFactory);
+    				cache.registerStatistics();
+    				definitionCache = cache;
+    			}
+    		}
+    	}
+    	return definitionCache;
+    }
+
+    /**
+     * @return the Definition deserialized from the passed SerializedObject, taken from the cache of deserialized Definitions
+     * if it has not changed since it was cached
+     */
+    protected <T extends Definition> T convertSerializedObject(Class<T> definitionType, SerializedObject so) {
+    	if (so == null) {
+    		return dao.convertSerializedObject(definitionType, so);
+    	}
+    	DefinitionCache cache = getDefinitionCache();
+    	LinkedList<Set<String>> loading = dependenciesBeingLoaded.get();
+    	Set<String> parentDependencies = loading.peek();
+    	if (parentDependencies != null) {
+    		parentDependencies.add(so.getUuid());
+    	}
+    	T definition = cache.get(so, definitionType);
+    	if (definition != null) {
+    		Set<String> dependencies = cache.getDependencies(so.getUuid());
+    		if (parentDependencies != null && dependencies != null) {
+    			parentDependencies.addAll(dependencies);
+    		}
+    		return definition;
+    	}
+    	Set<String> dependencies = new HashSet<String>();
+    	loading.push(dependencies);
+    	try {
+    		definition = dao.convertSerializedObject(definitionType, so);
+    	}
+    	finally {
+    		loading.pop();
+    		if (parentDependencies != null) {
+    			parentDependencies.addAll(dependencies);
+    		}
+    	}
+    	if (definition != null) {
+    		cache.put(so, definition, dependencies);
+    	}
+    	return definition;
+    }
 	
 	
     //****************
@@ -107,7 +194,7 @@ public class SerializedDefinitionServiceImpl extends BaseOpenmrsService implemen
     public <T extends Definition> T getDefinition(Class<T> definitionType, Integer id) {
     	SerializedObject so = dao.getSerializedObject(id);
     	try {
-    		return dao.convertSerializedObject(definitionType, so);
+    		return convertSerializedObject(definitionType, so);
     	}
     	catch (Exception e) {
     		ExceptionUtil.rethrowAuthenticationException(e);
@@ -122,7 +209,7 @@ public class SerializedDefinitionServiceImpl extends BaseOpenmrsService implemen
     public <T extends Definition> T getDefinitionByUuid(Class<T> definitionType, String uuid) {
     	SerializedObject so = dao.getSerializedObjectByUuid(uuid);
     	try {
-    		return dao.convertSerializedObject(definitionType, so);
+    		return convertSerializedObject(definitionType, so);
     	}
     	catch (Exception e) {
     		ExceptionUtil.rethrowAuthenticationException(e);
@@ -138,7 +225,7 @@ public class SerializedDefinitionServiceImpl extends BaseOpenmrsService implemen
     	List<T> ret = new ArrayList<T>();
     	for (SerializedObject so : dao.getAllSerializedObjects(definitionType, includeRetired)) {
         	try {
-        		ret.add(dao.convertSerializedObject(definitionType, so));
+        		ret.add(convertSerializedObject(definitionType, so));
         	}
         	catch (Exception e) {
         		ExceptionUtil.rethrowAuthenticationException(e);
@@ -183,7 +270,7 @@ public class SerializedDefinitionServiceImpl extends BaseOpenmrsService implemen
     	List<SerializedObject> ret = new ArrayList<SerializedObject>();
     	for (SerializedObject so : dao.getAllSerializedObjects(definitionType, includeRetired)) {
         	try {
-        		dao.convertSerializedObject(definitionType, so);
+        		convertSerializedObject(definitionType, so);
         	}
         	catch (Exception e) {
         		ExceptionUtil.rethrowAuthenticationException(e);
@@ -207,7 +294,7 @@ public class SerializedDefinitionServiceImpl extends BaseOpenmrsService implemen
     	List<T> ret = new ArrayList<T>();
     	for (SerializedObject so : dao.getAllSerializedObjectsByName(definitionType, name, exactMatchOnly)) {
         	try {
-        		ret.add(dao.convertSerializedObject(definitionType, so));
+        		ret.add(convertSerializedObject(definitionType, so));
         	}
         	catch (Exception e) {
         		ExceptionUtil.rethrowAuthenticationException(e);
@@ -237,7 +324,9 @@ public class SerializedDefinitionServiceImpl extends BaseOpenmrsService implemen
 			}
 		}
      	
-    	return dao.saveObject(definition, serializer);
+    	T saved = dao.saveObject(definition, serializer);
+    	getDefinitionCache().remove(saved.getUuid());
+    	return saved;
     }
 
     /**
@@ -245,6 +334,7 @@ public class SerializedDefinitionServiceImpl extends BaseOpenmrsService implemen
      */
     public <T extends Definition> void purgeDefinition(T definition) {
     	dao.purgeObject(definition.getId());
+    	getDefinitionCache().remove(definition.getUuid());
     }
     
 	/** 
@@ -253,6 +343,7 @@ public class SerializedDefinitionServiceImpl extends BaseOpenmrsService implemen
 	public void purgeDefinition(String uuid) {
 		SerializedObject obj = dao.getSerializedObjectByUuid(uuid);
 		dao.purgeObject(obj.getId());
+		getDefinitionCache().remove(uuid);
 	}
 
 	/** 
@@ -268,5 +359,20 @@ public class SerializedDefinitionServiceImpl extends BaseOpenmrsService implemen
 	public void saveSerializedDefinition(SerializedObject serializedDefinition) {
 		Definition d = dao.convertSerializedObject(Definition.class, serializedDefinition);
 		dao.saveObject(d);
+		getDefinitionCache().remove(serializedDefinition.getUuid());
+	}
+
+	/**
+	 * @see SerializedDefinitionService#getDefinitionCacheStatistics()
+	 */
+	public EvaluationCacheStatistics getDefinitionCacheStatistics() {
+		return getDefinitionCache().getStatistics();
+	}
+
+	/**
+	 * @see SerializedDefinitionService#clearDefinitionCache()
+	 */
+	public void clearDefinitionCache() {
+		getDefinitionCache().clear();
 	}
 }
@@ -16,6 +16,8 @@ package org.openmrs.module.reporting.evaluation;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,6 +33,7 @@ import org.openmrs.module.reporting.evaluation.parameter.Mapped;
 import org.openmrs.module.reporting.evaluation.parameter.Parameter;
 import org.openmrs.module.reporting.evaluation.parameter.ParameterException;
 import org.openmrs.module.reporting.evaluation.parameter.Parameterizable;
+import org.openmrs.module.reporting.evaluation.plan.EvaluationPlan;
 
 /**
  * The EvaluationContext provides the following capabilities: 
@@ -65,9 +68,28 @@ public class EvaluationContext implements PatientCalculationContext {
 	// Generic object cache
 	private transient Map<String, Object> cache;
 	
+	// Cache shared by contexts which are evaluated concurrently, whose keys are qualified by base cohort and evaluation date
+	private transient Map<String, Object> sharedCache;
+	
+	// Keys of the base cohorts written to the database during this evaluation, by cohort fingerprint, shared by all copies
+	private transient Map<String, String> materializedCohortKeys;
+	
+	// Number of evaluations in progress with this context or any copy of it, shared by all copies
+	private transient AtomicInteger evaluationDepth;
+	
+	// Fingerprint of the members of the base cohort, computed on demand
+	private transient String baseCohortFingerprint;
+	
 	// Stores the date for which the Evaluation Context was constructed
 	private Date evaluationDate;
 	
+	// Whether the data set evaluated directly with this context may produce its rows lazily, as they are iterated
+	// This is deliberately not copied to other contexts, as nested consumers of a data set may iterate it more than once
+	private transient boolean streamingAllowed = false;
+	
+	// Plan of the report being evaluated, which identifies the definitions whose results are shared by several consumers
+	private transient EvaluationPlan evaluationPlan;
+	
 	// *******************
 	// CONSTRUCTORS 
 	// *******************
@@ -103,6 +125,11 @@ public class EvaluationContext implements PatientCalculationContext {
 		this.getParameterValues().putAll(context.getParameterValues());
 		this.getContextValues().putAll(context.getContextValues());
 		this.setCache(context.getCache()); // This needs to be the last call, as the above calls clears the cache
+		this.setSharedCache(context.getSharedCache());
+		this.materializedCohortKeys = context.getMaterializedCohortKeys();
+		this.evaluationDepth = context.getEvaluationDepth();
+		this.baseCohortFingerprint = context.baseCohortFingerprint;
+		this.evaluationPlan = context.evaluationPlan;
 	}
 	
 	// *******************
@@ -190,6 +217,65 @@ public class EvaluationContext implements PatientCalculationContext {
 	public void setCache(Map<String, Object> cache) {
 		this.cache = cache;
 	}
+	
+	/**
+	 * @return a thread-safe cache which is shared by this context, contexts copied from it, and other contexts which are
+	 * being evaluated concurrently with it, or null if there is none.  Unlike {@link #getCache()}, this is not cleared
+	 * when the base cohort, limit or evaluation date change, so values must be stored with keys that are qualified by these.
+	 * As its values are used on other threads, within other sessions, it only holds detached values such as the member ids
+	 * of a cohort, see {@link org.openmrs.module.reporting.definition.service.BaseDefinitionService#toSharedCacheValue}.
+	 * @see org.openmrs.module.reporting.evaluation.caching.SharedEvaluationCache#getSharedCacheKey(String, EvaluationContext)
+	 */
+	@JsonIgnore
+	public Map<String, Object> getSharedCache() {
+		return sharedCache;
+	}
+	
+	/**
+	 * @param sharedCache the sharedCache to set
+	 */
+	public void setSharedCache(Map<String, Object> sharedCache) {
+		this.sharedCache = sharedCache;
+	}
+	
+	/**
+	 * @return the keys under which base cohorts have been written to the database while evaluating with this context
+	 * or any context copied from it, indexed by cohort fingerprint
+	 * @see org.openmrs.module.reporting.cohort.MaterializedCohortUtil
+	 */
+	@JsonIgnore
+	public Map<String, String> getMaterializedCohortKeys() {
+		if (materializedCohortKeys == null) {
+			materializedCohortKeys = new ConcurrentHashMap<String, String>();
+		}
+		return materializedCohortKeys;
+	}
+	
+	/**
+	 * @return the number of evaluations in progress with this context or any context copied from the same context
+	 */
+	private AtomicInteger getEvaluationDepth() {
+		if (evaluationDepth == null) {
+			evaluationDepth = new AtomicInteger();
+		}
+		return evaluationDepth;
+	}
+	
+	/**
+	 * Records that an evaluation with this context has started
+	 * @see #endEvaluation()
+	 */
+	public void startEvaluation() {
+		getEvaluationDepth().incrementAndGet();
+	}
+	
+	/**
+	 * Records that an evaluation with this context has completed
+	 * @return true if this was the outermost evaluation with this context or any context copied from the same context
+	 */
+	public boolean endEvaluation() {
+		return getEvaluationDepth().decrementAndGet() == 0;
+	}
 
 	/**
 	 * @see PatientCalculationContext#getNow()
@@ -334,6 +420,19 @@ public class EvaluationContext implements PatientCalculationContext {
 	public void setBaseCohort(Cohort baseCohort) {
 		clearCache();
 		this.baseCohort = baseCohort;
+		this.baseCohortFingerprint = null;
+	}
+	
+	/**
+	 * @return a String which identifies the members of the (limited) base cohort, suitable for use in cache keys
+	 * @see CohortUtil#getFingerprint(Cohort)
+	 */
+	@JsonIgnore
+	public String getBaseCohortFingerprint() {
+		if (baseCohortFingerprint == null) {
+			baseCohortFingerprint = CohortUtil.getFingerprint(getBaseCohort());
+		}
+		return baseCohortFingerprint;
 	}
 
 	/**
@@ -349,6 +448,7 @@ public class EvaluationContext implements PatientCalculationContext {
 	public void setLimit(Integer limit) {
 		clearCache();
 		this.limit = limit;
+		this.baseCohortFingerprint = null;
 	}
 	
 	/**
@@ -366,4 +466,35 @@ public class EvaluationContext implements PatientCalculationContext {
 		this.evaluationDate = evaluationDate;
 	}
 	
+	/**
+	 * @return true if the data set evaluated with this context may produce its rows lazily, in a single pass
+	 */
+	@JsonIgnore
+	public boolean isStreamingAllowed() {
+		return streamingAllowed;
+	}
+	
+	/**
+	 * @param streamingAllowed the streamingAllowed to set
+	 */
+	public void setStreamingAllowed(boolean streamingAllowed) {
+		this.streamingAllowed = streamingAllowed;
+	}
+	
+	/**
+	 * @return the plan of the report being evaluated with this context, or null if it was not planned
+	 * @see org.openmrs.module.reporting.evaluation.plan.EvaluationPlanner
+	 */
+	@JsonIgnore
+	public EvaluationPlan getEvaluationPlan() {
+		return evaluationPlan;
+	}
+	
+	/**
+	 * @param evaluationPlan the evaluationPlan to set
+	 */
+	public void setEvaluationPlan(EvaluationPlan evaluationPlan) {
+		this.evaluationPlan = evaluationPlan;
+	}
+	
 }
@@ -11,7 +11,6 @@
  *
  * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
  */
-
 package org.openmrs.module.reporting.evaluation;
 
 import org.aopalliance.intercept.MethodInterceptor;
@@ -19,29 +18,46 @@ import org.aopalliance.intercept.MethodInvocation;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.Cohort;
+import org.openmrs.module.reporting.cohort.query.service.CohortQueryService;
+import org.openmrs.module.reporting.data.BaseData;
+import org.openmrs.module.reporting.dataset.SimpleDataSet;
+import org.openmrs.module.reporting.dataset.query.service.DataSetQueryService;
 import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.query.IdSet;
 
 /**
- * Advice class to profile all evaluate methods in definition services. Outputs TRACE level log messages with timing
- * information. To view those messages ensure that that the EvaluationProfiler logger is set to TRACE.
+ * Advice class to profile all evaluate methods in definition services.  Every evaluation of a Definition is
+ * timed as an {@link EvaluationSpan}, recording whether it was retrieved from the cache, the size of the base
+ * cohort and of the result, and the time spent in the query services that it called directly.  The timings
+ * are aggregated in the {@link EvaluationProfilerStatistics}, and the spans started within a profile
+ * (see {@link #startProfile(String)}) are retained as a tree.
+ *
+ * Timing information is also output as TRACE level log messages.  To view those messages ensure that the
+ * EvaluationProfiler logger is set to TRACE.
  */
 public class EvaluationProfiler implements MethodInterceptor {
 
 	protected static final Log log = LogFactory.getLog(EvaluationProfiler.class);
 
-	protected static ThreadLocal<Integer> level = new ThreadLocal<Integer>();
+	protected static ThreadLocal<EvaluationSpan> currentSpan = new ThreadLocal<EvaluationSpan>();
 
 	/**
 	 * @see org.aopalliance.intercept.MethodInterceptor#invoke(org.aopalliance.intercept.MethodInvocation)
 	 */
 	@Override
 	public Object invoke(MethodInvocation methodInvocation) throws Throwable {
-		if (methodInvocation.getMethod().getName().equals("evaluate") && log.isTraceEnabled()) {
-			Definition definition = getDefinition(methodInvocation.getArguments()[0]);
-			String name = definition.getName() != null ? definition.getName() : "?";
-			String label = definition.getClass().getSimpleName() + " [" + name + "]";
-
-			return timed(methodInvocation, label);
+		if (methodInvocation.getMethod().getName().equals("evaluate")) {
+			return profiled(methodInvocation);
+		}
+		else if (methodInvocation.getThis() instanceof CohortQueryService || methodInvocation.getThis() instanceof DataSetQueryService) {
+			long start = System.nanoTime();
+			try {
+				return methodInvocation.proceed();
+			}
+			finally {
+				recordQueryTime(System.nanoTime() - start);
+			}
 		}
 		else {
 			return methodInvocation.proceed();
@@ -49,40 +65,159 @@ public class EvaluationProfiler implements MethodInterceptor {
 	}
 
 	/**
-	 * Times the given method invocation and logs the result
+	 * Profiles the given invocation of an evaluate method as a new span within the current span
 	 * @param methodInvocation the method invocation
-	 * @param label the label for log output
 	 * @return the invocation result
 	 */
-	protected Object timed(MethodInvocation methodInvocation, String label) throws Throwable {
-		int currentLevel = level.get() != null ? level.get() : 1;
-		level.set(currentLevel + 1);
-
-		long start = System.currentTimeMillis();
-		Object result = methodInvocation.proceed();
-		long timeTaken = System.currentTimeMillis() - start;
-
-		level.set(currentLevel);
-
-		log.trace(StringUtils.repeat('>', currentLevel) + " " + timeTaken + " ms to evaluate " + label);
+	protected Object profiled(MethodInvocation methodInvocation) throws Throwable {
+		Object[] args = methodInvocation.getArguments();
+		Definition definition = (args.length > 0 ? getDefinition(args[0]) : null);
+		if (definition == null) {
+			return methodInvocation.proceed();
+		}
+		String label = getLabel(definition);
 
-		return result;
+		EvaluationSpan parent = currentSpan.get();
+		EvaluationSpan span = new EvaluationSpan(label, parent);
+		span.setDefinitionType(definition.getClass().getName());
+		span.setDefinitionUuid(definition.getUuid());
+		if (args.length > 1 && args[1] instanceof EvaluationContext) {
+			Cohort baseCohort = ((EvaluationContext) args[1]).getBaseCohort();
+			if (baseCohort != null) {
+				span.setBaseCohortSize(baseCohort.size());
+			}
+		}
+		currentSpan.set(span);
+		try {
+			Object result = methodInvocation.proceed();
+			span.setResultSize(getResultSize(result));
+			return result;
+		}
+		finally {
+			long nanos = span.end();
+			currentSpan.set(parent);
+			EvaluationProfilerStatistics.getInstance().record(getKey(definition), span);
+			if (log.isTraceEnabled()) {
+				log.trace(StringUtils.repeat('>', span.getDepth()) + " " + (nanos / 1000000) + " ms to evaluate " + label);
+			}
+		}
 	}
 
 	/**
 	 * Gets the definition argument of an invocation of evaluate
 	 * @param arg a definition or a mapped definition
-	 * @return the definition
+	 * @return the definition, or null if there is none, in which case the evaluation is not profiled
 	 */
 	protected Definition getDefinition(Object arg) {
 		if (arg instanceof Definition) {
 			return (Definition) arg;
 		}
-		else if (arg instanceof Mapped) {
+		else if (arg instanceof Mapped && ((Mapped) arg).getParameterizable() instanceof Definition) {
 			return (Definition) ((Mapped) arg).getParameterizable();
 		}
+		return null;
+	}
+
+	/**
+	 * @return the number of members, values or rows in the passed evaluation result, or null if unknown
+	 */
+	protected Integer getResultSize(Object result) {
+		if (result instanceof Cohort) {
+			return ((Cohort) result).size();
+		}
+		else if (result instanceof IdSet) {
+			return ((IdSet<?>) result).getMemberIds().size();
+		}
+		else if (result instanceof BaseData) {
+			return ((BaseData) result).getData().size();
+		}
+		else if (result instanceof SimpleDataSet) {
+			return ((SimpleDataSet) result).getRows().size();
+		}
+		return null;
+	}
+
+	//***** STATIC METHODS *****
+
+	/**
+	 * @return the label of the spans of the passed definition, which is how their timings are displayed
+	 */
+	public static String getLabel(Definition definition) {
+		String name = definition.getName() != null ? definition.getName() : "?";
+		return definition.getClass().getSimpleName() + " [" + name + "]";
+	}
+
+	/**
+	 * @return the key under which the timings of the passed definition are recorded.  Saved definitions are keyed by uuid,
+	 * so this is unique to them even if other definitions share their label.  Definitions which have not been saved are
+	 * often built in code, with a new uuid, each time they are evaluated, so they are keyed by type and name instead.
+	 * @see EvaluationProfilerStatistics#getTimings(String)
+	 */
+	public static String getKey(Definition definition) {
+		if (definition.getId() == null) {
+			return definition.getClass().getName() + "[" + definition.getName() + "]";
+		}
+		return definition.getClass().getName() + ":" + definition.getUuid();
+	}
+
+	/**
+	 * Starts a new profile on the current thread.  All evaluations started on this thread, or on worker threads
+	 * on its behalf, are retained as a tree of spans beneath it until it is passed to {@link #endProfile(EvaluationSpan)}
+	 * @param label describes what is being profiled
+	 * @return the root span of the profile
+	 */
+	public static EvaluationSpan startProfile(String label) {
+		EvaluationSpan profile = EvaluationSpan.startProfile(label);
+		currentSpan.set(profile);
+		return profile;
+	}
+
+	/**
+	 * Ends the passed profile, which must have been started on the current thread
+	 */
+	public static void endProfile(EvaluationSpan profile) {
+		profile.end();
+		currentSpan.remove();
+	}
+
+	/**
+	 * @return the span of the evaluation in progress on the current thread, or null if there is none
+	 */
+	public static EvaluationSpan getCurrentSpan() {
+		return currentSpan.get();
+	}
+
+	/**
+	 * Sets the span within which evaluations on the current thread are started, which allows worker threads
+	 * to add to the profile of the thread that they are working for.  Pass null to clear it.
+	 */
+	public static void setCurrentSpan(EvaluationSpan span) {
+		if (span == null) {
+			currentSpan.remove();
+		}
 		else {
-			throw new RuntimeException("Invalid argument passed to evaluate method");
+			currentSpan.set(span);
+		}
+	}
+
+	/**
+	 * Records whether the result of the evaluation in progress on the current thread was retrieved from a cache.
+	 * Only the first call for each span is recorded, since that is the call made for its own definition.
+	 */
+	public static void recordCacheHit(boolean hit) {
+		EvaluationSpan span = currentSpan.get();
+		if (span != null && span.getCacheHit() == null) {
+			span.setCacheHit(hit);
+		}
+	}
+
+	/**
+	 * Adds the passed time spent executing a query to the evaluation in progress on the current thread
+	 */
+	public static void recordQueryTime(long nanos) {
+		EvaluationSpan span = currentSpan.get();
+		if (span != null) {
+			span.addQueryNanos(nanos);
 		}
 	}
-}
\ No newline at end of file
+}
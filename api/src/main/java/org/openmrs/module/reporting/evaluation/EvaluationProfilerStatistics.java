@@ -0,0 +1,539 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.util.OpenmrsUtil;
+
+/**
+ * Thread-safe counters and timing histograms, aggregated over all profiled evaluations, both in total and
+ * for each definition.  These are exposed over JMX, so that slow definitions can be identified on a running server.
+ * The timings of each definition are saved to the application data directory, and loaded again when the module starts,
+ * so that evaluation plans can still be explained from past evaluations after a restart.
+ * @see EvaluationProfiler
+ */
+public class EvaluationProfilerStatistics implements EvaluationProfilerStatisticsMBean {
+
+	protected static final Log log = LogFactory.getLog(EvaluationProfilerStatistics.class);
+
+	public static final String MBEAN_NAME = "org.openmrs.module.reporting:type=EvaluationProfiler";
+
+	/**
+	 * The upper bounds, in milliseconds, of the histogram buckets.  A final bucket counts all longer evaluations.
+	 */
+	public static final long[] BUCKET_BOUNDS_MILLIS = {1, 10, 100, 1000, 10000, 60000};
+
+	/**
+	 * The maximum number of definitions which are counted individually.  Once reached, the timings of the
+	 * definition which was least recently evaluated are discarded to make room for another.
+	 */
+	public static final int MAX_DEFINITIONS = 1000;
+
+	/**
+	 * The number of definitions listed by {@link #getSlowestDefinitions()}
+	 */
+	public static final int NUM_SLOWEST_DEFINITIONS = 25;
+
+	/**
+	 * The directory within the application data directory in which the timings of each definition are saved, alongside
+	 * the profiles of report requests
+	 */
+	public static final String STATISTICS_DIR = "REPORT_RESULTS";
+
+	public static final String STATISTICS_FILE = "evaluation.profilerstatistics";
+
+	private static final EvaluationProfilerStatistics instance = new EvaluationProfilerStatistics();
+
+	private final Timings totals = new Timings("total", "total");
+	// Ordered from least to most recently accessed, and guarded by synchronizing on the map
+	private final Map<String, Timings> definitions = new LinkedHashMap<String, Timings>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Timings> eldest) {
+			return size() > MAX_DEFINITIONS;
+		}
+	};
+
+	//***** STATIC METHODS *****
+
+	/**
+	 * @return the statistics shared by all profilers
+	 */
+	public static EvaluationProfilerStatistics getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Registers the shared statistics with the platform MBean server, so they can be monitored over JMX
+	 */
+	public static void registerStatistics() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(MBEAN_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(instance, name);
+			}
+		}
+		catch (Exception e) {
+			log.warn("Unable to register evaluation profiler statistics with JMX", e);
+		}
+	}
+
+	/**
+	 * Removes the shared statistics from the platform MBean server
+	 */
+	public static void unregisterStatistics() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(MBEAN_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		}
+		catch (Exception e) {
+			log.warn("Unable to unregister evaluation profiler statistics from JMX", e);
+		}
+	}
+
+	/**
+	 * Saves the timings of each definition in the shared statistics to the application data directory
+	 */
+	public static void saveStatistics() {
+		try {
+			instance.save(getStatisticsFile());
+		}
+		catch (Exception e) {
+			log.warn("Unable to save evaluation profiler statistics", e);
+		}
+	}
+
+	/**
+	 * Loads the timings of each definition which were last saved to the application data directory, if any
+	 */
+	public static void loadStatistics() {
+		try {
+			File file = getStatisticsFile();
+			if (file.exists()) {
+				instance.load(file);
+			}
+		}
+		catch (Exception e) {
+			log.warn("Unable to load evaluation profiler statistics", e);
+		}
+	}
+
+	/**
+	 * @return the file to which the timings of each definition are saved
+	 */
+	public static File getStatisticsFile() {
+		return new File(OpenmrsUtil.getDirectoryInApplicationDataDirectory(STATISTICS_DIR), STATISTICS_FILE);
+	}
+
+	//***** INSTANCE METHODS *****
+
+	/**
+	 * Writes the timings of each definition to the passed file, one definition per line.  The file is replaced in
+	 * a single step, so that it is never left partially written.
+	 */
+	public synchronized void save(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		synchronized (definitions) {
+			for (Timings timings : definitions.values()) {
+				lines.add(timings.format());
+			}
+		}
+		File tempFile = new File(file.getPath() + ".tmp");
+		FileUtils.writeLines(tempFile, "UTF-8", lines);
+		if (!tempFile.renameTo(file)) {
+			FileUtils.copyFile(tempFile, file);
+			FileUtils.deleteQuietly(tempFile);
+		}
+	}
+
+	/**
+	 * Reads the timings of each definition from the passed file, as written by {@link #save(File)}.  Definitions which
+	 * already have timings keep them, and lines which cannot be read are skipped.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void load(File file) throws IOException {
+		for (String line : (List<String>) FileUtils.readLines(file, "UTF-8")) {
+			Timings timings = Timings.parse(line);
+			if (timings == null) {
+				log.debug("Skipping unreadable evaluation profiler statistics: " + line);
+				continue;
+			}
+			synchronized (definitions) {
+				if (!definitions.containsKey(timings.getKey())) {
+					definitions.put(timings.getKey(), timings);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records the passed completed span, under the passed definition key, displaying the timings with the label of the span
+	 * @see EvaluationProfiler#getKey(Definition)
+	 */
+	public void record(String definitionKey, EvaluationSpan span) {
+		totals.record(span);
+		Timings timings;
+		synchronized (definitions) {
+			timings = definitions.get(definitionKey);
+			if (timings == null) {
+				timings = new Timings(definitionKey, span.getLabel());
+				definitions.put(definitionKey, timings);
+			}
+		}
+		timings.record(span);
+	}
+
+	/**
+	 * @return the timings recorded for the definition with the passed key, or null if there are none
+	 */
+	public Timings getTimings(String definitionKey) {
+		synchronized (definitions) {
+			return definitions.get(definitionKey);
+		}
+	}
+
+	/**
+	 * @see EvaluationProfilerStatisticsMBean#reset()
+	 */
+	public void reset() {
+		totals.reset();
+		synchronized (definitions) {
+			definitions.clear();
+		}
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return totals.toString();
+	}
+
+	//***** PROPERTY ACCESS *****
+
+	public long getEvaluationCount() {
+		return totals.getCount();
+	}
+
+	public long getTotalTimeMillis() {
+		return totals.getTotalNanos() / 1000000;
+	}
+
+	public long getQueryTimeMillis() {
+		return totals.getQueryNanos() / 1000000;
+	}
+
+	public long getCacheHitCount() {
+		return totals.getCacheHitCount();
+	}
+
+	public long getCacheMissCount() {
+		return totals.getCacheMissCount();
+	}
+
+	/**
+	 * @return the number of evaluations in each bucket of the histogram, over all definitions
+	 */
+	public String[] getHistogram() {
+		return totals.formatHistogram();
+	}
+
+	/**
+	 * @see EvaluationProfilerStatisticsMBean#getDefinitionKeys()
+	 */
+	public String[] getDefinitionKeys() {
+		List<String> keys;
+		synchronized (definitions) {
+			keys = new ArrayList<String>(definitions.keySet());
+		}
+		Collections.sort(keys);
+		return keys.toArray(new String[keys.size()]);
+	}
+
+	/**
+	 * @see EvaluationProfilerStatisticsMBean#getDefinitionHistogram(String)
+	 */
+	public String[] getDefinitionHistogram(String definitionKey) {
+		Timings timings = getTimings(definitionKey);
+		return timings == null ? null : timings.formatHistogram();
+	}
+
+	/**
+	 * @return the definitions which have taken the most time in total, slowest first
+	 */
+	public String[] getSlowestDefinitions() {
+		List<Timings> l;
+		synchronized (definitions) {
+			l = new ArrayList<Timings>(definitions.values());
+		}
+		Collections.sort(l, new Comparator<Timings>() {
+			public int compare(Timings t1, Timings t2) {
+				long n1 = t1.getTotalNanos();
+				long n2 = t2.getTotalNanos();
+				return n1 > n2 ? -1 : (n1 == n2 ? 0 : 1);
+			}
+		});
+		int num = Math.min(NUM_SLOWEST_DEFINITIONS, l.size());
+		String[] ret = new String[num];
+		for (int i = 0; i < num; i++) {
+			ret[i] = l.get(i).toString();
+		}
+		return ret;
+	}
+
+	/**
+	 * Counters and a timing histogram for a set of evaluations
+	 */
+	public static class Timings {
+
+		private final String key;
+		private final String label;
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private final AtomicLong queryNanos = new AtomicLong();
+		private final AtomicLong cacheHitCount = new AtomicLong();
+		private final AtomicLong cacheMissCount = new AtomicLong();
+		private final AtomicLong evaluatedCount = new AtomicLong();
+		private final AtomicLong evaluatedNanos = new AtomicLong();
+		private final AtomicLong resultSizeCount = new AtomicLong();
+		private final AtomicLong resultSizeTotal = new AtomicLong();
+		private final AtomicLong scaledResultSizeCount = new AtomicLong();
+		private final AtomicLong scaledResultSizeTotal = new AtomicLong();
+		private final AtomicLong scaledBaseCohortSizeTotal = new AtomicLong();
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+
+		public Timings(String key, String label) {
+			this.key = key;
+			this.label = label;
+		}
+
+		public void record(EvaluationSpan span) {
+			long nanos = span.getDurationNanos();
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			queryNanos.addAndGet(span.getQueryNanos());
+			long max = maxNanos.get();
+			while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+				max = maxNanos.get();
+			}
+			if (span.getCacheHit() != null) {
+				(span.getCacheHit() ? cacheHitCount : cacheMissCount).incrementAndGet();
+			}
+			if (!Boolean.TRUE.equals(span.getCacheHit())) {
+				evaluatedCount.incrementAndGet();
+				evaluatedNanos.addAndGet(nanos);
+			}
+			if (span.getResultSize() != null) {
+				resultSizeCount.incrementAndGet();
+				resultSizeTotal.addAndGet(span.getResultSize());
+				if (span.getBaseCohortSize() != null) {
+					scaledResultSizeCount.incrementAndGet();
+					scaledResultSizeTotal.addAndGet(span.getResultSize());
+					scaledBaseCohortSizeTotal.addAndGet(span.getBaseCohortSize());
+				}
+			}
+			long millis = nanos / 1000000;
+			int bucket = 0;
+			while (bucket < BUCKET_BOUNDS_MILLIS.length && millis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+				bucket++;
+			}
+			buckets.incrementAndGet(bucket);
+		}
+
+		public void reset() {
+			count.set(0);
+			totalNanos.set(0);
+			maxNanos.set(0);
+			queryNanos.set(0);
+			cacheHitCount.set(0);
+			cacheMissCount.set(0);
+			evaluatedCount.set(0);
+			evaluatedNanos.set(0);
+			resultSizeCount.set(0);
+			resultSizeTotal.set(0);
+			scaledResultSizeCount.set(0);
+			scaledResultSizeTotal.set(0);
+			scaledBaseCohortSizeTotal.set(0);
+			for (int i = 0; i < buckets.length(); i++) {
+				buckets.set(i, 0);
+			}
+		}
+
+		/**
+		 * @return these timings as a single line of tab-separated values, which can be read by {@link #parse(String)}
+		 */
+		public String format() {
+			List<Object> values = new ArrayList<Object>();
+			values.add(key.replaceAll("[\\t\\r\\n]", " "));
+			values.add(label.replaceAll("[\\t\\r\\n]", " "));
+			for (AtomicLong counter : getCounters()) {
+				values.add(counter.get());
+			}
+			for (int i = 0; i < buckets.length(); i++) {
+				values.add(buckets.get(i));
+			}
+			return StringUtils.join(values, "\t");
+		}
+
+		/**
+		 * @return the timings formatted in the passed line by {@link #format()}, or null if it cannot be read
+		 */
+		public static Timings parse(String line) {
+			String[] values = line.split("\t");
+			Timings timings = new Timings(values[0], values.length > 1 ? values[1] : "");
+			AtomicLong[] counters = timings.getCounters();
+			if (values.length != 2 + counters.length + timings.buckets.length()) {
+				return null;
+			}
+			try {
+				for (int i = 0; i < counters.length; i++) {
+					counters[i].set(Long.parseLong(values[2 + i]));
+				}
+				for (int i = 0; i < timings.buckets.length(); i++) {
+					timings.buckets.set(i, Long.parseLong(values[2 + counters.length + i]));
+				}
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+			return timings;
+		}
+
+		/**
+		 * @return each of the counters, in the order in which they are formatted
+		 */
+		private AtomicLong[] getCounters() {
+			return new AtomicLong[] { count, totalNanos, maxNanos, queryNanos, cacheHitCount, cacheMissCount, evaluatedCount,
+			        evaluatedNanos, resultSizeCount, resultSizeTotal, scaledResultSizeCount, scaledResultSizeTotal,
+			        scaledBaseCohortSizeTotal };
+		}
+
+		/**
+		 * @return the number of evaluations in each bucket, labelled by the bucket bounds
+		 */
+		public String[] formatHistogram() {
+			String[] ret = new String[buckets.length()];
+			for (int i = 0; i < buckets.length(); i++) {
+				String bound = (i < BUCKET_BOUNDS_MILLIS.length ? "< " + BUCKET_BOUNDS_MILLIS[i] : ">= " + BUCKET_BOUNDS_MILLIS[i-1]);
+				ret[i] = bound + " ms: " + buckets.get(i);
+			}
+			return ret;
+		}
+
+		@Override
+		public String toString() {
+			long n = getCount();
+			return label + ": count=" + n + ", total=" + getTotalNanos()/1000000 + " ms, mean=" + (n == 0 ? 0 : getTotalNanos()/n/1000000) +
+					" ms, max=" + getMaxNanos()/1000000 + " ms, query=" + getQueryNanos()/1000000 + " ms, cacheHits=" + getCacheHitCount() +
+					", cacheMisses=" + getCacheMissCount();
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getTotalNanos() {
+			return totalNanos.get();
+		}
+
+		public long getMaxNanos() {
+			return maxNanos.get();
+		}
+
+		public long getQueryNanos() {
+			return queryNanos.get();
+		}
+
+		public long getCacheHitCount() {
+			return cacheHitCount.get();
+		}
+
+		public long getCacheMissCount() {
+			return cacheMissCount.get();
+		}
+
+		/**
+		 * @return the number of evaluations which were not retrieved from a cache
+		 */
+		public long getEvaluatedCount() {
+			return evaluatedCount.get();
+		}
+
+		/**
+		 * @return the mean time of the evaluations which were not retrieved from a cache, or null if there were none
+		 */
+		public Long getMeanEvaluatedNanos() {
+			long n = evaluatedCount.get();
+			return n == 0 ? null : evaluatedNanos.get() / n;
+		}
+
+		/**
+		 * @return the mean size of the results, or null if no result sizes were recorded
+		 */
+		public Long getMeanResultSize() {
+			long n = resultSizeCount.get();
+			return n == 0 ? null : resultSizeTotal.get() / n;
+		}
+
+		/**
+		 * @return the expected size of the result for a base cohort of the passed size, in proportion to the results
+		 * of past evaluations with a base cohort, or the mean result size if there were none
+		 */
+		public Long getExpectedResultSize(long baseCohortSize) {
+			long baseCohortTotal = scaledBaseCohortSizeTotal.get();
+			if (scaledResultSizeCount.get() == 0 || baseCohortTotal == 0) {
+				return getMeanResultSize();
+			}
+			return Math.round((double) scaledResultSizeTotal.get() * baseCohortSize / baseCohortTotal);
+		}
+
+		/**
+		 * @return the number of evaluations in the bucket with the passed index
+		 */
+		public long getBucketCount(int bucket) {
+			return buckets.get(bucket);
+		}
+	}
+}
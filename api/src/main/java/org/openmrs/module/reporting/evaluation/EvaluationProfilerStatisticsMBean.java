@@ -0,0 +1,48 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation;
+
+/**
+ * JMX management interface for {@link EvaluationProfilerStatistics}
+ */
+public interface EvaluationProfilerStatisticsMBean {
+
+	public long getEvaluationCount();
+
+	public long getTotalTimeMillis();
+
+	public long getQueryTimeMillis();
+
+	public long getCacheHitCount();
+
+	public long getCacheMissCount();
+
+	public String[] getHistogram();
+
+	public String[] getSlowestDefinitions();
+
+	/**
+	 * @return the keys of the definitions whose timings are recorded individually
+	 * @see EvaluationProfiler#getKey(Definition)
+	 */
+	public String[] getDefinitionKeys();
+
+	/**
+	 * @return the number of evaluations in each bucket of the histogram of the definition with the passed key,
+	 * or null if no timings are recorded for it
+	 */
+	public String[] getDefinitionHistogram(String definitionKey);
+
+	public void reset();
+}
@@ -0,0 +1,237 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A single timed step within an evaluation, typically the evaluation of one Definition, along with the
+ * steps that were evaluated within it.  A tree of spans is collected for each profiled evaluation, such
+ * as a ReportRequest, so that the slowest parts of that evaluation can be identified afterwards.
+ * @see EvaluationProfiler
+ */
+public class EvaluationSpan {
+
+	/**
+	 * The maximum number of spans that are retained in the tree of a single profile.  Further spans are
+	 * still timed and counted in the {@link EvaluationProfilerStatistics}, but not retained.
+	 */
+	public static final int MAX_SPANS_PER_PROFILE = 10000;
+
+	private String label;
+	private String definitionType;
+	private String definitionUuid;
+	private int depth;
+	private long startNanos;
+	private long durationNanos = -1;
+	private Boolean cacheHit;
+	private Integer baseCohortSize;
+	private Integer resultSize;
+	private final AtomicLong queryNanos = new AtomicLong();
+	private final List<EvaluationSpan> children = Collections.synchronizedList(new ArrayList<EvaluationSpan>());
+
+	private EvaluationSpan profile;
+	private AtomicInteger numSpans;
+
+	/**
+	 * Starts a new span with the passed label, as a child of the passed parent span if not null
+	 */
+	public EvaluationSpan(String label, EvaluationSpan parent) {
+		this.label = label;
+		this.startNanos = System.nanoTime();
+		if (parent != null) {
+			this.depth = parent.depth + 1;
+			this.profile = parent.profile;
+			if (profile != null && profile.numSpans.incrementAndGet() <= MAX_SPANS_PER_PROFILE) {
+				parent.children.add(this);
+			}
+		}
+		else {
+			this.depth = 1;
+		}
+	}
+
+	/**
+	 * @return a new span which is the root of a profile, and which retains the tree of all spans started within it
+	 */
+	public static EvaluationSpan startProfile(String label) {
+		EvaluationSpan span = new EvaluationSpan(label, null);
+		span.depth = 0;
+		span.profile = span;
+		span.numSpans = new AtomicInteger();
+		return span;
+	}
+
+	//***** INSTANCE METHODS *****
+
+	/**
+	 * Ends this span, recording its duration
+	 * @return the duration of this span in nanoseconds
+	 */
+	public long end() {
+		durationNanos = System.nanoTime() - startNanos;
+		return durationNanos;
+	}
+
+	/**
+	 * Adds the passed time spent executing queries directly within this span
+	 */
+	public void addQueryNanos(long nanos) {
+		queryNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * @return true if this span is the root of a profile
+	 */
+	public boolean isProfile() {
+		return profile == this;
+	}
+
+	/**
+	 * @return the number of spans started within this profile, including any that were not retained
+	 */
+	public int getNumSpans() {
+		return numSpans == null ? 0 : numSpans.get();
+	}
+
+	/**
+	 * @return this span and all retained spans within it, formatted one per line and indented by depth
+	 */
+	public List<String> format() {
+		List<String> lines = new ArrayList<String>();
+		format(lines, 0);
+		if (isProfile() && getNumSpans() > MAX_SPANS_PER_PROFILE) {
+			lines.add("(" + (getNumSpans() - MAX_SPANS_PER_PROFILE) + " further evaluations were not retained)");
+		}
+		return lines;
+	}
+
+	private void format(List<String> lines, int indent) {
+		StringBuilder sb = new StringBuilder(StringUtils.repeat("  ", indent));
+		sb.append(formatMillis(durationNanos)).append(" ms ").append(label);
+		if (definitionUuid != null) {
+			sb.append(" uuid=").append(definitionUuid);
+		}
+		if (cacheHit != null) {
+			sb.append(cacheHit ? " cache=hit" : " cache=miss");
+		}
+		if (baseCohortSize != null) {
+			sb.append(" baseCohort=").append(baseCohortSize);
+		}
+		if (resultSize != null) {
+			sb.append(" result=").append(resultSize);
+		}
+		if (getQueryNanos() > 0) {
+			sb.append(" query=").append(formatMillis(getQueryNanos())).append(" ms");
+		}
+		lines.add(sb.toString());
+		synchronized (children) {
+			for (EvaluationSpan child : children) {
+				child.format(lines, indent + 1);
+			}
+		}
+	}
+
+	private String formatMillis(long nanos) {
+		return nanos < 0 ? "?" : String.format("%.1f", nanos / 1000000.0);
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return StringUtils.join(format(), "\n");
+	}
+
+	//***** PROPERTY ACCESS *****
+
+	public String getLabel() {
+		return label;
+	}
+
+	public String getDefinitionType() {
+		return definitionType;
+	}
+
+	public void setDefinitionType(String definitionType) {
+		this.definitionType = definitionType;
+	}
+
+	public String getDefinitionUuid() {
+		return definitionUuid;
+	}
+
+	public void setDefinitionUuid(String definitionUuid) {
+		this.definitionUuid = definitionUuid;
+	}
+
+	/**
+	 * @return the number of spans above this one, 0 for the root of a profile
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return the duration of this span in nanoseconds, or -1 if it has not ended
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * @return true if the result was retrieved from a cache, false if it was evaluated, or null if not cacheable
+	 */
+	public Boolean getCacheHit() {
+		return cacheHit;
+	}
+
+	public void setCacheHit(Boolean cacheHit) {
+		this.cacheHit = cacheHit;
+	}
+
+	public Integer getBaseCohortSize() {
+		return baseCohortSize;
+	}
+
+	public void setBaseCohortSize(Integer baseCohortSize) {
+		this.baseCohortSize = baseCohortSize;
+	}
+
+	public Integer getResultSize() {
+		return resultSize;
+	}
+
+	public void setResultSize(Integer resultSize) {
+		this.resultSize = resultSize;
+	}
+
+	/**
+	 * @return the time spent executing queries directly within this span, excluding those of its children
+	 */
+	public long getQueryNanos() {
+		return queryNanos.get();
+	}
+
+	public List<EvaluationSpan> getChildren() {
+		return children;
+	}
+}
@@ -13,17 +13,15 @@
  */
 package org.openmrs.module.reporting.evaluation;
 
-import org.apache.commons.lang.time.DateUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.module.reporting.common.ObjectUtil;
+import org.openmrs.module.reporting.common.OverlayMap;
 import org.openmrs.module.reporting.evaluation.caching.Caching;
 import org.openmrs.module.reporting.evaluation.caching.CachingStrategy;
 import org.openmrs.module.reporting.evaluation.caching.NoCachingStrategy;
 import org.openmrs.module.reporting.evaluation.parameter.ParameterException;
 
-import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -48,7 +46,7 @@ public class EvaluationUtil {
      *                 \d*\.?\d+                ... captures either #.# or #
      *                          [a-zA-Z]*+      ... optional unit (*+ means possessive, zero or more times)
      */
-    private static Pattern expressionPattern = Pattern.compile("([a-zA-Z_0-9.]+)((?:\\s*[+-/*]\\s*\\d*\\.?\\d+[a-zA-Z]*+)+)");
+    static final Pattern expressionPattern = Pattern.compile("([a-zA-Z_0-9.]+)((?:\\s*[+-/*]\\s*\\d*\\.?\\d+[a-zA-Z]*+)+)");
 
     /*
      * ([+-/*])                           ... (group 1) single-character operator
@@ -56,7 +54,7 @@ public class EvaluationUtil {
      *            (\d*\.?\d+)             ... (group 2) captures either #.# or #
      *                       ([a-zA-Z]*+) ... (group 3) optional unit (*+ means possessive, zero or more times)
      */
-    private static Pattern operationPattern = Pattern.compile("([+-/*])\\s*(\\d*\\.?\\d+)([a-zA-Z]*+)");
+    static final Pattern operationPattern = Pattern.compile("([+-/*])\\s*(\\d*\\.?\\d+)([a-zA-Z]*+)");
 
     /**
 	 * Returns true if the passed String is an expression that is capable of being evaluated
@@ -83,8 +81,7 @@ public class EvaluationUtil {
 	 * @see EvaluationUtil#evaluateExpression(String, Map<String, Object>, Class)
 	 */
 	public static Object evaluateExpression(String expression, EvaluationContext context) throws ParameterException {
-		Map<String, Object> params = new HashMap<String, Object>(context.getParameterValues());
-		params.putAll(context.getContextValues());
+		Map<String, Object> params = new OverlayMap<String, Object>(context.getParameterValues(), context.getContextValues());
 		return evaluateExpression(expression, params);
 	}
 	
@@ -120,9 +117,23 @@ public class EvaluationUtil {
 	}
 
 	/**
+	 * Evaluates the passed expression using the passed delimiters.  Expressions are compiled once
+	 * into an {@link ExpressionTemplate} and cached, so repeated evaluations do not re-parse them
 	 */
 	public static Object evaluateExpression(String expression, Map<String, Object> parameters, 
 						 					String expressionPrefix, String expressionSuffix) throws ParameterException {
+		if (expression == null) {
+			return null;
+		}
+		return ExpressionTemplate.compile(expression, expressionPrefix, expressionSuffix).evaluate(parameters);
+	}
+
+	/**
+	 * Evaluates the passed expression by repeatedly replacing the first expression found in it, until no
+	 * more are found.  Unlike {@link ExpressionTemplate}, this also evaluates expressions within replaced values
+	 */
+	static Object evaluateExpressionByScanning(String expression, Map<String, Object> parameters,
+											   String expressionPrefix, String expressionSuffix) throws ParameterException {
 
 		while (expression != null) {
 			String newExpression = expression;
@@ -194,120 +205,7 @@ public class EvaluationUtil {
 	 * @throws org.openmrs.module.reporting.evaluation.parameter.ParameterException
 	 */
 	public static Object evaluateParameterExpression(String expression, Map<String, Object> parameters) throws ParameterException {
-		
-		log.debug("evaluateParameterExpression(): " + expression);
-
-		log.debug("Starting expression: " + expression);
-		String[] paramAndFormat = expression.split(FORMAT_SEPARATOR, 2);
-		Object paramValueToFormat = null;
-
-        try {
-            Matcher matcher = expressionPattern.matcher(paramAndFormat[0]);
-            if (matcher.matches()) {
-                String parameterName = matcher.group(1);
-                paramValueToFormat = parameters.get(parameterName);
-                if (paramValueToFormat == null) {
-                    log.debug("Looked like an expression but the parameter value is null");
-                } else {
-                    String operations = matcher.group(2);
-                    Matcher opMatcher = operationPattern.matcher(operations);
-                    while (opMatcher.find()) {
-                        String op = opMatcher.group(1);
-                        String number = opMatcher.group(2);
-                        String unit = opMatcher.group(3).toLowerCase();
-                        if (paramValueToFormat instanceof Date) {
-                            if (!op.matches("[+-]")) {
-                                throw new IllegalArgumentException("Dates only support the + and - operators");
-                            }
-                            Integer numAsInt;
-                            try {
-                                numAsInt = Integer.parseInt(number);
-                            } catch (NumberFormatException ex) {
-                                throw new IllegalArgumentException("Dates do not support arithmetic with floating-point values");
-                            }
-
-                            if ("-".equals(op)) {
-                                numAsInt = -numAsInt;
-                            }
-                            if ("w".equals(unit)) {
-                                unit = "d";
-                                numAsInt *= 7;
-                            }
-                            if ("ms".equals(unit)) {
-                                paramValueToFormat = DateUtils.addMilliseconds((Date) paramValueToFormat, numAsInt);
-                            } else if ("s".equals(unit)) {
-                                paramValueToFormat = DateUtils.addSeconds((Date) paramValueToFormat, numAsInt);
-                            } else if ("h".equals(unit)) {
-                                paramValueToFormat = DateUtils.addHours((Date) paramValueToFormat, numAsInt);
-                            } else if ("m".equals(unit)) {
-                                paramValueToFormat = DateUtils.addMonths((Date) paramValueToFormat, numAsInt);
-                            } else if ("y".equals(unit)) {
-                                paramValueToFormat = DateUtils.addYears((Date) paramValueToFormat, numAsInt);
-                            } else if ("".equals(unit) || "d".equals(unit)) {
-                                paramValueToFormat = DateUtils.addDays((Date) paramValueToFormat, numAsInt);
-                            } else {
-                                throw new IllegalArgumentException("Unknown unit: " + unit);
-                            }
-                        }
-                        else { // assume it's a number
-                            if (!"".equals(unit)) {
-                                throw new IllegalArgumentException("Can't specify units in a non-date expression");
-                            }
-                            if (paramValueToFormat instanceof Integer && number.matches("\\d+")) {
-                                Integer parsed = Integer.parseInt(number);
-                                if ("+".equals(op)) {
-                                    paramValueToFormat = ((Integer) paramValueToFormat) + parsed;
-                                } else if ("-".equals(op)) {
-                                    paramValueToFormat = ((Integer) paramValueToFormat) - parsed;
-                                } else if ("*".equals(op)) {
-                                    paramValueToFormat = ((Integer) paramValueToFormat) * parsed;
-                                } else if ("/".equals(op)) {
-                                    paramValueToFormat = ((Integer) paramValueToFormat) / parsed;
-                                } else {
-                                    throw new IllegalArgumentException("Unknown operator " + op);
-                                }
-                            } else {
-                                // since one or both are decimal values, do double arithmetic
-                                Double parsed = Double.parseDouble(number);
-                                if ("+".equals(op)) {
-                                    paramValueToFormat = ((Number) paramValueToFormat).doubleValue() + parsed;
-                                } else if ("-".equals(op)) {
-                                    paramValueToFormat = ((Number) paramValueToFormat).doubleValue() - parsed;
-                                } else if ("*".equals(op)) {
-                                    paramValueToFormat = ((Number) paramValueToFormat).doubleValue() * parsed;
-                                } else if ("/".equals(op)) {
-                                    paramValueToFormat = ((Number) paramValueToFormat).doubleValue() / parsed;
-                                } else {
-                                    throw new IllegalArgumentException("Unknown operator " + op);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        catch (Exception e) {
-            log.debug(e.getMessage());
-            throw new ParameterException("Error handling expression: " + paramAndFormat[0], e);
-        }
-
-		paramValueToFormat = ObjectUtil.nvl(paramValueToFormat, parameters.get(paramAndFormat[0]));
-		if (ObjectUtil.isNull(paramValueToFormat)) {
-			if (parameters.containsKey(paramAndFormat[0])) {
-				return paramValueToFormat;
-			}
-			else {
-				return expression;
-			}
-		}
-		log.debug("Evaluated to: " + paramValueToFormat);
-
-		// Attempt to format the evaluated value if appropriate
-		if (paramAndFormat.length == 2) {
-			paramValueToFormat = ObjectUtil.format(paramValueToFormat, paramAndFormat[1]);
-		}
-
-		return paramValueToFormat;
+		return ParameterExpression.compile(expression).evaluate(parameters);
 	}
 	
 	/**
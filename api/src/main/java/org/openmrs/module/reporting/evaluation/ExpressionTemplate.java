@@ -0,0 +1,157 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openmrs.module.reporting.common.ObjectUtil;
+import org.openmrs.module.reporting.evaluation.parameter.ParameterException;
+
+/**
+ * A String containing zero or more expressions, parsed once into literal segments and the expressions
+ * between them, so that it can be evaluated repeatedly without re-scanning the text.  Evaluation gives
+ * the same result as repeatedly replacing the first expression found in the text, as long as no replaced
+ * value itself contains an expression
+ */
+public class ExpressionTemplate {
+
+	/**
+	 * Longer templates, such as entire text reports, are parsed on each use rather than cached
+	 */
+	public static final int MAX_CACHED_LENGTH = 1000;
+
+	/**
+	 * The maximum number of distinct templates that are cached
+	 */
+	public static final int MAX_CACHE_SIZE = 10000;
+
+	private static final Map<String, ExpressionTemplate> cache = new ConcurrentHashMap<String, ExpressionTemplate>();
+
+	private String template;
+	private String expressionPrefix;
+	private String expressionSuffix;
+	private List<String> literals = new ArrayList<String>();
+	private List<String> expressions = new ArrayList<String>();
+	private List<ParameterExpression> compiledExpressions = new ArrayList<ParameterExpression>();
+
+	/**
+	 * @return the parsed form of the passed template, from the cache if it has been parsed before
+	 * with the same delimiters
+	 */
+	public static ExpressionTemplate compile(String template, String expressionPrefix, String expressionSuffix) {
+		if (template.length() > MAX_CACHED_LENGTH) {
+			return new ExpressionTemplate(template, expressionPrefix, expressionSuffix);
+		}
+		ExpressionTemplate ret = cache.get(template);
+		if (ret == null || !ret.expressionPrefix.equals(expressionPrefix) || !ret.expressionSuffix.equals(expressionSuffix)) {
+			ret = new ExpressionTemplate(template, expressionPrefix, expressionSuffix);
+			if (cache.size() >= MAX_CACHE_SIZE) {
+				cache.clear();
+			}
+			cache.put(template, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Clears all cached templates
+	 */
+	public static void clearCache() {
+		cache.clear();
+	}
+
+	/**
+	 * Parses the passed template using the passed expression delimiters
+	 */
+	public ExpressionTemplate(String template, String expressionPrefix, String expressionSuffix) {
+		this.template = template;
+		this.expressionPrefix = expressionPrefix;
+		this.expressionSuffix = expressionSuffix;
+
+		int position = 0;
+		while (true) {
+			int startIndex = template.indexOf(expressionPrefix, position);
+			int endIndex = (startIndex == -1 ? -1 : template.indexOf(expressionSuffix, startIndex+1));
+			if (endIndex == -1) {
+				literals.add(template.substring(position));
+				break;
+			}
+			literals.add(template.substring(position, startIndex));
+			String expression = template.substring(startIndex + expressionPrefix.length(), endIndex);
+			expressions.add(expression);
+			compiledExpressions.add(ParameterExpression.compile(expression));
+			position = endIndex + expressionSuffix.length();
+		}
+	}
+
+	/**
+	 * @return the result of evaluating this template against the passed parameters.  If the template
+	 * consists of a single expression, the value is returned as is, otherwise all values are formatted
+	 * into the resulting String
+	 */
+	public Object evaluate(Map<String, Object> parameters) throws ParameterException {
+		if (expressions.isEmpty()) {
+			return template;
+		}
+		StringBuilder sb = new StringBuilder(literals.get(0));
+		for (int i=0; i<expressions.size(); i++) {
+			Object value = compiledExpressions.get(i).evaluate(parameters);
+			String nextLiteral = literals.get(i+1);
+			if (sb.length() == 0 && nextLiteral.length() == 0 && i == expressions.size()-1 && expressionSuffix.length() == 1) {
+				return value;
+			}
+			String replacement = ObjectUtil.format(value);
+			if (startsExpression(replacement, nextLiteral, i+1 < expressions.size())) {
+				// Replaced values are themselves evaluated, so leave this rare case to the original algorithm
+				return EvaluationUtil.evaluateExpressionByScanning(template, parameters, expressionPrefix, expressionSuffix);
+			}
+			sb.append(replacement).append(nextLiteral);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return true if an expression prefix starts within the passed replacement, including one which
+	 * only completes in the text that follows it
+	 */
+	private boolean startsExpression(String replacement, String nextLiteral, boolean followedByExpression) {
+		String following = nextLiteral + (followedByExpression ? expressionPrefix : "");
+		int overlap = Math.min(following.length(), expressionPrefix.length()-1);
+		return (replacement + following.substring(0, overlap)).indexOf(expressionPrefix) != -1;
+	}
+
+	/**
+	 * @return true if this template contains no expressions
+	 */
+	public boolean isConstant() {
+		return expressions.isEmpty();
+	}
+
+	/**
+	 * @return the original template
+	 */
+	public String getTemplate() {
+		return template;
+	}
+
+	/**
+	 * @return the expressions found in the template, without their delimiters
+	 */
+	public List<String> getExpressions() {
+		return expressions;
+	}
+}
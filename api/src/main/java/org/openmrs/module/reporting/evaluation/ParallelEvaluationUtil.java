@@ -0,0 +1,293 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.reporting.ReportingConstants;
+
+/**
+ * Provides a bounded pool of worker threads on which independent parts of an evaluation can be run concurrently.
+ * Each task runs within its own OpenMRS session, authenticated as the user who requested the evaluation.
+ * Callers are responsible for giving each task its own EvaluationContext, see {@link #copyContextForWorker(EvaluationContext)}.
+ * As the session of a task is closed as soon as it completes, its result must not hold any Hibernate entities,
+ * which would be detached by then, see {@link #isIndependentOfSession(Class)}.
+ *
+ * Tasks that are submitted from a worker thread are run sequentially on that thread, so that nested
+ * parallel evaluations can never exhaust the pool while waiting on each other.  Evaluations on worker
+ * threads are profiled within the evaluation that submitted them, see {@link EvaluationProfiler}.
+ */
+public class ParallelEvaluationUtil {
+
+	protected static final Log log = LogFactory.getLog(ParallelEvaluationUtil.class);
+
+	private static final ThreadLocal<Boolean> workerThread = new ThreadLocal<Boolean>();
+
+	private static ThreadPoolExecutor executor;
+
+	// Types whose values hold no state that is managed by a Hibernate session
+	private static final Class<?>[] SESSION_INDEPENDENT_TYPES = { Number.class, CharSequence.class, Boolean.class, Character.class, Date.class };
+
+	/**
+	 * @return a copy of the passed context with its own cache, pre-populated with the contents of the passed context's
+	 * cache, so that it can be used on another thread without affecting the passed context
+	 */
+	public static EvaluationContext copyContextForWorker(EvaluationContext context) {
+		EvaluationContext ret = context.shallowCopy();
+		ret.setCache(new HashMap<String, Object>(context.getCache()));
+		return ret;
+	}
+
+	/**
+	 * @return a copy of the passed context for use on another thread, as by {@link #copyContextForWorker(EvaluationContext)},
+	 * which shares results with other contexts through the passed shared cache.  This allows results which do not depend on
+	 * whatever differs between concurrent tasks to be evaluated only once.
+	 * @see #getSharedCache(EvaluationContext)
+	 */
+	public static EvaluationContext copyContextForWorker(EvaluationContext context, Map<String, Object> sharedCache) {
+		EvaluationContext ret = copyContextForWorker(context);
+		ret.setSharedCache(sharedCache);
+		return ret;
+	}
+
+	/**
+	 * @return the shared cache of the passed context, or a new thread-safe shared cache if it has none
+	 * @see EvaluationContext#getSharedCache()
+	 */
+	public static Map<String, Object> getSharedCache(EvaluationContext context) {
+		Map<String, Object> sharedCache = context.getSharedCache();
+		return (sharedCache == null ? new ConcurrentHashMap<String, Object>() : sharedCache);
+	}
+
+	/**
+	 * @return true if values of the passed type hold no state that is managed by a Hibernate session, so that they can be
+	 * evaluated on a worker thread and still be used after its session is closed.  This is false for entities, and for
+	 * anything that may contain them, including collections and types which are not known.
+	 */
+	public static boolean isIndependentOfSession(Class<?> type) {
+		if (type == null) {
+			return false;
+		}
+		if (type.isPrimitive() || type.isEnum()) {
+			return true;
+		}
+		for (Class<?> c : SESSION_INDEPENDENT_TYPES) {
+			if (c.isAssignableFrom(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the current thread is one of the evaluation worker threads
+	 */
+	public static boolean isWorkerThread() {
+		return Boolean.TRUE.equals(workerThread.get());
+	}
+
+	/**
+	 * Runs all of the passed tasks, with no more than maxConcurrency of them running at the same time, and
+	 * returns their results in the same order as the tasks.  If maxConcurrency is not greater than one, or if
+	 * this is called from a worker thread, the tasks are run sequentially on the calling thread.
+	 * If any task fails, all outstanding tasks are cancelled and the failure is thrown.
+	 *
+	 * @param tasks the tasks to run
+	 * @param maxConcurrency the maximum number of these tasks that should be run concurrently
+	 * @return the result of each task, in the order of the passed tasks
+	 * @throws EvaluationException if any task fails
+	 */
+	public static <T> List<T> evaluateAll(List<Callable<T>> tasks, int maxConcurrency) throws EvaluationException {
+		List<T> results = new ArrayList<T>(tasks.size());
+		if (maxConcurrency <= 1 || tasks.size() <= 1 || isWorkerThread()) {
+			for (Callable<T> task : tasks) {
+				results.add(call(task));
+			}
+			return results;
+		}
+
+		UserContext userContext = Context.getUserContext();
+		ExecutorCompletionService<IndexedResult<T>> completionService = new ExecutorCompletionService<IndexedResult<T>>(getExecutor());
+		List<Future<IndexedResult<T>>> futures = new ArrayList<Future<IndexedResult<T>>>();
+		for (int i = 0; i < tasks.size(); i++) {
+			results.add(null);
+		}
+
+		int numSubmitted = 0;
+		int numCompleted = 0;
+		try {
+			while (numSubmitted < tasks.size() && numSubmitted < maxConcurrency) {
+				futures.add(completionService.submit(new WorkerTask<T>(numSubmitted, tasks.get(numSubmitted), userContext)));
+				numSubmitted++;
+			}
+			while (numCompleted < tasks.size()) {
+				IndexedResult<T> result = completionService.take().get();
+				results.set(result.getIndex(), result.getResult());
+				numCompleted++;
+				if (numSubmitted < tasks.size()) {
+					futures.add(completionService.submit(new WorkerTask<T>(numSubmitted, tasks.get(numSubmitted), userContext)));
+					numSubmitted++;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			cancelAll(futures);
+			Thread.currentThread().interrupt();
+			throw new EvaluationException("parallel evaluation, as it was interrupted", e);
+		}
+		catch (ExecutionException e) {
+			cancelAll(futures);
+			if (e.getCause() instanceof EvaluationException) {
+				throw (EvaluationException) e.getCause();
+			}
+			throw new EvaluationException("parallel evaluation", e.getCause());
+		}
+		return results;
+	}
+
+	/**
+	 * Stops all worker threads.  The pool is re-created if it is needed again.
+	 */
+	public static synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return the shared executor, creating it with the configured number of worker threads if necessary
+	 */
+	protected static synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			int numThreads = Math.max(1, ReportingConstants.GLOBAL_PROPERTY_EVALUATION_WORKER_THREADS());
+			log.info("Starting " + numThreads + " evaluation worker threads");
+			executor = new ThreadPoolExecutor(numThreads, numThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	private static <T> T call(Callable<T> task) throws EvaluationException {
+		try {
+			return task.call();
+		}
+		catch (EvaluationException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new EvaluationException("parallel evaluation", e);
+		}
+	}
+
+	private static void cancelAll(List<? extends Future<?>> futures) {
+		for (Future<?> f : futures) {
+			f.cancel(true);
+		}
+	}
+
+	/**
+	 * Runs a task within a new session on a worker thread, authenticated with the passed UserContext
+	 */
+	private static class WorkerTask<T> implements Callable<IndexedResult<T>> {
+
+		private int index;
+		private Callable<T> task;
+		private UserContext userContext;
+		private EvaluationSpan parentSpan;
+
+		public WorkerTask(int index, Callable<T> task, UserContext userContext) {
+			this.index = index;
+			this.task = task;
+			this.userContext = userContext;
+			this.parentSpan = EvaluationProfiler.getCurrentSpan();
+		}
+
+		public IndexedResult<T> call() throws Exception {
+			workerThread.set(Boolean.TRUE);
+			EvaluationProfiler.setCurrentSpan(parentSpan);
+			Context.openSession();
+			try {
+				if (userContext != null) {
+					Context.setUserContext(userContext);
+				}
+				return new IndexedResult<T>(index, task.call());
+			}
+			finally {
+				try {
+					Context.closeSession();
+				}
+				finally {
+					Context.clearUserContext();
+					EvaluationProfiler.setCurrentSpan(null);
+					workerThread.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The result of a task, along with the position of that task in the submitted list
+	 */
+	private static class IndexedResult<T> {
+
+		private int index;
+		private T result;
+
+		public IndexedResult(int index, T result) {
+			this.index = index;
+			this.result = result;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public T getResult() {
+			return result;
+		}
+	}
+
+	/**
+	 * Creates named daemon threads, so that worker threads are identifiable and never prevent shutdown
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "reporting-evaluation-" + threadNumber.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.openmrs.module.reporting.common.ObjectUtil;
+import org.openmrs.module.reporting.evaluation.parameter.ParameterException;
+
+/**
+ * The compiled form of a parameter expression such as "endDate-1m+1d|yyyy-MM-dd", consisting of the name of
+ * a parameter, a sequence of arithmetic operations to apply to its value, and an optional format.
+ * Expressions are parsed once and cached, so evaluating the same expression repeatedly only involves
+ * looking up its parameter and applying the operations.
+ * @see EvaluationUtil#evaluateParameterExpression(String, Map)
+ */
+public class ParameterExpression {
+
+	/**
+	 * The maximum number of distinct expressions that are cached
+	 */
+	public static final int MAX_CACHE_SIZE = 10000;
+
+	private static final Map<String, ParameterExpression> cache = new ConcurrentHashMap<String, ParameterExpression>();
+
+	private String expression;
+	private String name;
+	private String format;
+	private String parameterName;
+	private List<Operation> operations = new ArrayList<Operation>();
+
+	/**
+	 * @return the compiled form of the passed expression, from the cache if it has been compiled before
+	 */
+	public static ParameterExpression compile(String expression) {
+		ParameterExpression ret = cache.get(expression);
+		if (ret == null) {
+			ret = new ParameterExpression(expression);
+			if (cache.size() >= MAX_CACHE_SIZE) {
+				cache.clear();
+			}
+			cache.put(expression, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Parses the passed expression.  Use {@link #compile(String)} to take advantage of the cache
+	 */
+	public ParameterExpression(String expression) {
+		this.expression = expression;
+		String[] paramAndFormat = expression.split(EvaluationUtil.FORMAT_SEPARATOR, 2);
+		this.name = paramAndFormat[0];
+		this.format = (paramAndFormat.length == 2 ? paramAndFormat[1] : null);
+		Matcher matcher = EvaluationUtil.expressionPattern.matcher(name);
+		if (matcher.matches()) {
+			parameterName = matcher.group(1);
+			Matcher opMatcher = EvaluationUtil.operationPattern.matcher(matcher.group(2));
+			while (opMatcher.find()) {
+				operations.add(new Operation(opMatcher.group(1).charAt(0), opMatcher.group(2), opMatcher.group(3).toLowerCase()));
+			}
+		}
+	}
+
+	/**
+	 * @return the value of this expression for the passed parameters.  If the named parameter has no value
+	 * and is not present in the passed parameters, the original expression is returned
+	 */
+	public Object evaluate(Map<String, Object> parameters) throws ParameterException {
+		Object value = null;
+		if (parameterName != null) {
+			value = parameters.get(parameterName);
+			if (value != null) {
+				try {
+					for (Operation operation : operations) {
+						value = operation.apply(value);
+					}
+				}
+				catch (Exception e) {
+					throw new ParameterException("Error handling expression: " + name, e);
+				}
+			}
+		}
+		value = ObjectUtil.nvl(value, parameters.get(name));
+		if (ObjectUtil.isNull(value)) {
+			return (parameters.containsKey(name) ? value : expression);
+		}
+		if (format != null) {
+			value = ObjectUtil.format(value, format);
+		}
+		return value;
+	}
+
+	/**
+	 * Clears all cached expressions
+	 */
+	public static void clearCache() {
+		cache.clear();
+	}
+
+	/**
+	 * @return the original expression
+	 */
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * @return the name of the parameter this expression refers to, if it includes any operations
+	 */
+	public String getParameterName() {
+		return parameterName;
+	}
+
+	/**
+	 * @return the format to apply to the value, or null if none is specified
+	 */
+	public String getFormat() {
+		return format;
+	}
+
+	/**
+	 * A single arithmetic operation, such as "+1m"
+	 */
+	private static class Operation {
+
+		private char operator;
+		private String number;
+		private Integer intValue;
+		private boolean integral;
+		private Double doubleValue;
+		private String unit;
+
+		public Operation(char operator, String number, String unit) {
+			this.operator = operator;
+			this.number = number;
+			this.integral = number.matches("\\d+");
+			try {
+				this.intValue = Integer.parseInt(number);
+			}
+			catch (NumberFormatException e) {
+				// Only an error if this is applied to a date or an integer, which is checked on evaluation
+			}
+			this.doubleValue = Double.parseDouble(number);
+			this.unit = unit;
+		}
+
+		public Object apply(Object value) {
+			if (value instanceof Date) {
+				if (operator != '+' && operator != '-') {
+					throw new IllegalArgumentException("Dates only support the + and - operators");
+				}
+				if (intValue == null) {
+					throw new IllegalArgumentException("Dates do not support arithmetic with floating-point values");
+				}
+				int amount = (operator == '-' ? -intValue : intValue);
+				Date d = (Date) value;
+				if ("w".equals(unit)) {
+					return DateUtils.addDays(d, amount * 7);
+				}
+				else if ("ms".equals(unit)) {
+					return DateUtils.addMilliseconds(d, amount);
+				}
+				else if ("s".equals(unit)) {
+					return DateUtils.addSeconds(d, amount);
+				}
+				else if ("h".equals(unit)) {
+					return DateUtils.addHours(d, amount);
+				}
+				else if ("m".equals(unit)) {
+					return DateUtils.addMonths(d, amount);
+				}
+				else if ("y".equals(unit)) {
+					return DateUtils.addYears(d, amount);
+				}
+				else if ("".equals(unit) || "d".equals(unit)) {
+					return DateUtils.addDays(d, amount);
+				}
+				throw new IllegalArgumentException("Unknown unit: " + unit);
+			}
+			// assume it's a number
+			if (!"".equals(unit)) {
+				throw new IllegalArgumentException("Can't specify units in a non-date expression");
+			}
+			if (value instanceof Integer && integral) {
+				int parsed = (intValue == null ? Integer.parseInt(number) : intValue);
+				int i = (Integer) value;
+				switch (operator) {
+					case '+': return i + parsed;
+					case '-': return i - parsed;
+					case '*': return i * parsed;
+					case '/': return i / parsed;
+				}
+			}
+			else {
+				// since one or both are decimal values, do double arithmetic
+				double d = ((Number) value).doubleValue();
+				switch (operator) {
+					case '+': return d + doubleValue;
+					case '-': return d - doubleValue;
+					case '*': return d * doubleValue;
+					case '/': return d / doubleValue;
+				}
+			}
+			throw new IllegalArgumentException("Unknown operator " + operator);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation.caching;
+
+/**
+ * Represents a cache of evaluation results which, unlike the cache within an EvaluationContext,
+ * lives beyond a single evaluation and may be shared across report requests and threads.
+ * Implementations must be thread-safe.
+ *
+ * @see SharedEvaluationCache
+ */
+public interface EvaluationCache {
+
+	/**
+	 * @return the value cached with the given key, or null if no (unexpired) value exists
+	 */
+	public Object get(String key);
+
+	/**
+	 * Adds the given value to the cache with the given key, replacing any existing value
+	 */
+	public void put(String key, Object value);
+
+	/**
+	 * Removes any value cached with the given key
+	 */
+	public void remove(String key);
+
+	/**
+	 * Removes all values from the cache
+	 */
+	public void clear();
+
+	/**
+	 * @return the number of entries currently in the cache
+	 */
+	public int size();
+
+	/**
+	 * @return the statistics for this cache
+	 */
+	public EvaluationCacheStatistics getStatistics();
+}
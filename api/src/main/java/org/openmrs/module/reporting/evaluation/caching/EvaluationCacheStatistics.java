@@ -0,0 +1,110 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation.caching;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counters describing the effectiveness of an {@link EvaluationCache}
+ */
+public class EvaluationCacheStatistics implements EvaluationCacheStatisticsMBean {
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong putCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong expirationCount = new AtomicLong();
+	private final AtomicLong currentWeight = new AtomicLong();
+
+	//***** INSTANCE METHODS *****
+
+	public void recordHit() {
+		hitCount.incrementAndGet();
+	}
+
+	public void recordMiss() {
+		missCount.incrementAndGet();
+	}
+
+	public void recordPut() {
+		putCount.incrementAndGet();
+	}
+
+	public void recordEviction() {
+		evictionCount.incrementAndGet();
+	}
+
+	public void recordExpiration() {
+		expirationCount.incrementAndGet();
+	}
+
+	public void setCurrentWeight(long weight) {
+		currentWeight.set(weight);
+	}
+
+	/**
+	 * @see EvaluationCacheStatisticsMBean#reset()
+	 */
+	public void reset() {
+		hitCount.set(0);
+		missCount.set(0);
+		putCount.set(0);
+		evictionCount.set(0);
+		expirationCount.set(0);
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "hits=" + getHitCount() + ", misses=" + getMissCount() + ", puts=" + getPutCount() +
+				", evictions=" + getEvictionCount() + ", expirations=" + getExpirationCount() + ", weight=" + getCurrentWeight();
+	}
+
+	//***** PROPERTY ACCESS *****
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getPutCount() {
+		return putCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public long getExpirationCount() {
+		return expirationCount.get();
+	}
+
+	public long getCurrentWeight() {
+		return currentWeight.get();
+	}
+
+	/**
+	 * @return the fraction of lookups which were served from the cache
+	 */
+	public double getHitRatio() {
+		long hits = getHitCount();
+		long total = hits + getMissCount();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+}
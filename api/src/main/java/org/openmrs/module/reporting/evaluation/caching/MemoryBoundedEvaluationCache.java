@@ -0,0 +1,234 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation.caching;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Cohort;
+import org.openmrs.module.reporting.query.IdSet;
+
+/**
+ * An {@link EvaluationCache} which evicts the least recently used entries once the estimated
+ * memory used by all cached values exceeds a configured maximum, and which expires entries
+ * once they have been in the cache longer than a configured time to live.
+ */
+public class MemoryBoundedEvaluationCache implements EvaluationCache {
+
+	protected static Log log = LogFactory.getLog(MemoryBoundedEvaluationCache.class);
+
+	/**
+	 * Approximate number of bytes retained per member of a HashSet of Integers
+	 */
+	public static final long BYTES_PER_ID = 48;
+
+	/**
+	 * Approximate number of bytes retained per entry of a HashMap with non-trivial values
+	 */
+	public static final long BYTES_PER_ENTRY = 128;
+
+	/**
+	 * Approximate number of bytes retained by values whose size cannot otherwise be estimated
+	 */
+	public static final long DEFAULT_WEIGHT = 1024;
+
+	//***** PROPERTIES *****
+
+	private final long maxWeight;
+	private final long timeToLiveMillis;
+	private final EvaluationCacheStatistics statistics = new EvaluationCacheStatistics();
+
+	// Access-ordered, so iteration starts with the least recently used entry
+	private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+	private long currentWeight = 0;
+
+	//***** CONSTRUCTORS *****
+
+	/**
+	 * @param maxWeight the maximum estimated number of bytes that may be retained by cached values
+	 * @param timeToLiveMillis the number of milliseconds after which entries expire, or <= 0 if they never expire
+	 */
+	public MemoryBoundedEvaluationCache(long maxWeight, long timeToLiveMillis) {
+		this.maxWeight = maxWeight;
+		this.timeToLiveMillis = timeToLiveMillis;
+	}
+
+	//***** INSTANCE METHODS *****
+
+	/**
+	 * @see EvaluationCache#get(String)
+	 */
+	public synchronized Object get(String key) {
+		CacheEntry entry = entries.get(key);
+		if (entry != null && isExpired(entry)) {
+			removeEntry(key);
+			statistics.recordExpiration();
+			statistics.setCurrentWeight(currentWeight);
+			entry = null;
+		}
+		if (entry == null) {
+			statistics.recordMiss();
+			return null;
+		}
+		statistics.recordHit();
+		return entry.getValue();
+	}
+
+	/**
+	 * @see EvaluationCache#put(String, Object)
+	 */
+	public synchronized void put(String key, Object value) {
+		if (key == null || value == null) {
+			return;
+		}
+		long weight = estimateWeight(value);
+		removeEntry(key);
+		if (weight > maxWeight) {
+			log.debug("Not caching value with key <" + key + "> as its estimated size of " + weight + " bytes exceeds the cache size");
+			return;
+		}
+		entries.put(key, new CacheEntry(value, weight, System.currentTimeMillis()));
+		currentWeight += weight;
+		statistics.recordPut();
+		evictIfNecessary();
+		statistics.setCurrentWeight(currentWeight);
+	}
+
+	/**
+	 * @see EvaluationCache#remove(String)
+	 */
+	public synchronized void remove(String key) {
+		removeEntry(key);
+		statistics.setCurrentWeight(currentWeight);
+	}
+
+	/**
+	 * @see EvaluationCache#clear()
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		currentWeight = 0;
+		statistics.setCurrentWeight(currentWeight);
+	}
+
+	/**
+	 * @see EvaluationCache#size()
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @see EvaluationCache#getStatistics()
+	 */
+	public EvaluationCacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @return an estimate of the number of bytes retained by the given value.  Subclasses may override this
+	 * if they cache values whose size cannot be estimated from their member ids or entries
+	 */
+	protected long estimateWeight(Object value) {
+		if (value instanceof Cohort) {
+			return BYTES_PER_ID * ((Cohort) value).getSize();
+		}
+		if (value instanceof IdSet) {
+			return BYTES_PER_ID * ((IdSet<?>) value).getSize();
+		}
+		if (value instanceof Collection) {
+			return BYTES_PER_ID * ((Collection<?>) value).size();
+		}
+		if (value instanceof Map) {
+			return BYTES_PER_ENTRY * ((Map<?, ?>) value).size();
+		}
+		return DEFAULT_WEIGHT;
+	}
+
+	/**
+	 * Removes expired entries, and then least recently used entries, until the cache is within its maximum weight
+	 */
+	protected void evictIfNecessary() {
+		if (currentWeight <= maxWeight) {
+			return;
+		}
+		for (Iterator<Map.Entry<String, CacheEntry>> i = entries.entrySet().iterator(); i.hasNext() && currentWeight > maxWeight;) {
+			CacheEntry entry = i.next().getValue();
+			if (isExpired(entry)) {
+				i.remove();
+				currentWeight -= entry.getWeight();
+				statistics.recordExpiration();
+			}
+		}
+		for (Iterator<Map.Entry<String, CacheEntry>> i = entries.entrySet().iterator(); i.hasNext() && currentWeight > maxWeight;) {
+			CacheEntry entry = i.next().getValue();
+			i.remove();
+			currentWeight -= entry.getWeight();
+			statistics.recordEviction();
+		}
+	}
+
+	private void removeEntry(String key) {
+		CacheEntry existing = entries.remove(key);
+		if (existing != null) {
+			currentWeight -= existing.getWeight();
+		}
+	}
+
+	private boolean isExpired(CacheEntry entry) {
+		return timeToLiveMillis > 0 && System.currentTimeMillis() - entry.getCreated() > timeToLiveMillis;
+	}
+
+	//***** PROPERTY ACCESS *****
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public long getTimeToLiveMillis() {
+		return timeToLiveMillis;
+	}
+
+	/**
+	 * A cached value, along with its estimated weight and the time at which it was cached
+	 */
+	private static class CacheEntry {
+
+		private final Object value;
+		private final long weight;
+		private final long created;
+
+		public CacheEntry(Object value, long weight, long created) {
+			this.value = value;
+			this.weight = weight;
+			this.created = created;
+		}
+
+		public Object getValue() {
+			return value;
+		}
+
+		public long getWeight() {
+			return weight;
+		}
+
+		public long getCreated() {
+			return created;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation.caching;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.module.reporting.ReportingConstants;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+/**
+ * Provides access to the {@link EvaluationCache} which is shared across all evaluations on this server.
+ * By default this is a {@link MemoryBoundedEvaluationCache} configured from global properties, and is
+ * disabled if the configured maximum size is not greater than zero.  An alternative implementation may be
+ * plugged in via {@link #setCache(EvaluationCache)}.
+ *
+ * Values are shared with the cache key produced by the {@link CachingStrategy} of the evaluated Definition,
+ * further qualified by the base cohort and evaluation date of the EvaluationContext, since these are the
+ * properties whose modification clears the cache of an EvaluationContext.  The evaluation date is considered
+ * at the granularity of a day, so that reports run at different times of the same day may share results.
+ * Staleness is bounded by the configured time to live.
+ */
+public class SharedEvaluationCache implements GlobalPropertyListener {
+
+	protected static final Log log = LogFactory.getLog(SharedEvaluationCache.class);
+
+	public static final String MBEAN_NAME = "org.openmrs.module.reporting:type=EvaluationCache";
+
+	private static volatile EvaluationCache cache;
+	private static volatile boolean initialized = false;
+
+	/**
+	 * @return the shared EvaluationCache, or null if shared caching is disabled
+	 */
+	public static EvaluationCache getCache() {
+		if (!initialized) {
+			synchronized (SharedEvaluationCache.class) {
+				if (!initialized) {
+					cache = createDefaultCache();
+					initialized = true;
+				}
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Plugs in the given cache implementation, replacing the default.  A null value disables shared caching.
+	 */
+	public static synchronized void setCache(EvaluationCache newCache) {
+		cache = newCache;
+		initialized = true;
+	}
+
+	/**
+	 * Discards the shared cache, so that it is re-created from the global properties on next access
+	 */
+	public static synchronized void reset() {
+		if (cache != null) {
+			cache.clear();
+		}
+		cache = null;
+		initialized = false;
+	}
+
+	/**
+	 * @return the key with which a value, cached in the passed context with the passed key, is shared
+	 */
+	public static String getSharedCacheKey(String cacheKey, EvaluationContext context) {
+		StringBuilder sb = new StringBuilder(cacheKey);
+		sb.append("|baseCohort=").append(context.getBaseCohortFingerprint());
+		if (context.getEvaluationDate() != null) {
+			sb.append("|evaluationDate=").append(DateUtil.getStartOfDay(context.getEvaluationDate()).getTime());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the value shared with the given key, or null if not found or shared caching is disabled
+	 */
+	public static Object get(String cacheKey, EvaluationContext context) {
+		EvaluationCache c = getCache();
+		return c == null ? null : c.get(getSharedCacheKey(cacheKey, context));
+	}
+
+	/**
+	 * Shares the given value with the given key, if shared caching is enabled
+	 */
+	public static void put(String cacheKey, EvaluationContext context, Object value) {
+		EvaluationCache c = getCache();
+		if (c != null) {
+			c.put(getSharedCacheKey(cacheKey, context), value);
+		}
+	}
+
+	/**
+	 * Registers the statistics of the shared cache with the platform MBean server, so they can be monitored over JMX
+	 */
+	public static void registerStatistics() {
+		EvaluationCache c = getCache();
+		if (c != null) {
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(MBEAN_NAME);
+				if (server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+				server.registerMBean(c.getStatistics(), name);
+			}
+			catch (Exception e) {
+				log.warn("Unable to register evaluation cache statistics with JMX", e);
+			}
+		}
+	}
+
+	/**
+	 * Removes the statistics of the shared cache from the platform MBean server
+	 */
+	public static void unregisterStatistics() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(MBEAN_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		}
+		catch (Exception e) {
+			log.warn("Unable to unregister evaluation cache statistics from JMX", e);
+		}
+	}
+
+	/**
+	 * @return a new MemoryBoundedEvaluationCache configured from global properties, or null if disabled
+	 */
+	protected static EvaluationCache createDefaultCache() {
+		long maxSizeInMb = ReportingConstants.GLOBAL_PROPERTY_EVALUATION_CACHE_MAX_SIZE_IN_MB();
+		if (maxSizeInMb <= 0) {
+			return null;
+		}
+		long timeToLiveInMinutes = ReportingConstants.GLOBAL_PROPERTY_EVALUATION_CACHE_TIME_TO_LIVE_IN_MINUTES();
+		log.info("Creating shared evaluation cache of " + maxSizeInMb + " MB with time to live of " + timeToLiveInMinutes + " minutes");
+		return new MemoryBoundedEvaluationCache(maxSizeInMb * 1024 * 1024, timeToLiveInMinutes * 60 * 1000);
+	}
+
+	/**
+	 * @see GlobalPropertyListener#supportsPropertyName(String)
+	 */
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return ReportingConstants.GLOBAL_PROPERTY_EVALUATION_CACHE_MAX_SIZE_IN_MB.equals(propertyName) ||
+				ReportingConstants.GLOBAL_PROPERTY_EVALUATION_CACHE_TIME_TO_LIVE_IN_MINUTES.equals(propertyName);
+	}
+
+	/**
+	 * @see GlobalPropertyListener#globalPropertyChanged(GlobalProperty)
+	 */
+	@Override
+	public void globalPropertyChanged(GlobalProperty globalProperty) {
+		reconfigure();
+	}
+
+	/**
+	 * @see GlobalPropertyListener#globalPropertyDeleted(String)
+	 */
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		reconfigure();
+	}
+
+	private void reconfigure() {
+		unregisterStatistics();
+		reset();
+		registerStatistics();
+	}
+}
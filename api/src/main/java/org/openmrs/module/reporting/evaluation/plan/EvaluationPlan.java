@@ -0,0 +1,219 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation.plan;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Cohort;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.module.reporting.cohort.CohortUtil;
+import org.openmrs.module.reporting.evaluation.Definition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.caching.SharedEvaluationCache;
+
+/**
+ * The result of planning the evaluation of a ReportDefinition with an {@link EvaluationPlanner}.  Each distinct
+ * Definition which is mapped into the report, with its parameter mappings resolved, is a single node of the plan,
+ * however many times it is mapped.  When a plan is set on the EvaluationContext, each node which is shared
+ * by more than one consumer is evaluated exactly once for each base cohort, even by concurrent workers, and its
+ * result is released once the last of its consumers has retrieved it.
+ * @see EvaluationContext#getEvaluationPlan()
+ */
+public class EvaluationPlan {
+
+	protected static Log log = LogFactory.getLog(EvaluationPlan.class);
+
+	private EvaluationPlanNode root;
+
+	// Number of consumers which have not yet retrieved the result of each shared node, by node key
+	private Map<String, AtomicInteger> remainingConsumers = new ConcurrentHashMap<String, AtomicInteger>();
+
+	// Results of the shared nodes, by node key, and then by base cohort, evaluation date and limit
+	private Map<String, Map<String, SharedResult>> results = new ConcurrentHashMap<String, Map<String, SharedResult>>();
+
+	//***** CONSTRUCTORS *****
+
+	public EvaluationPlan(EvaluationPlanNode root, Map<String, Integer> consumersByNodeKey) {
+		this.root = root;
+		for (Map.Entry<String, Integer> e : consumersByNodeKey.entrySet()) {
+			if (e.getValue() > 1) {
+				remainingConsumers.put(e.getKey(), new AtomicInteger(e.getValue()));
+			}
+		}
+	}
+
+	//***** STATIC METHODS *****
+
+	/**
+	 * @return a key which is the same for the same Definition evaluated with the same parameter values
+	 */
+	public static String getNodeKey(Definition definition, Map<String, Object> parameterValues) {
+		StringBuilder sb = new StringBuilder(definition.getClass().getName());
+		sb.append("|").append(definition.getUuid() != null ? definition.getUuid() : "@" + System.identityHashCode(definition));
+		if (parameterValues != null && !parameterValues.isEmpty()) {
+			sb.append("|").append(formatValue(parameterValues));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return a String representation of the passed parameter value which is stable for equal values
+	 */
+	protected static String formatValue(Object value) {
+		if (value == null) {
+			return "null";
+		}
+		if (value instanceof Cohort) {
+			return "Cohort[" + CohortUtil.getFingerprint((Cohort) value) + "]";
+		}
+		if (value instanceof OpenmrsObject) {
+			return value.getClass().getSimpleName() + "[" + ((OpenmrsObject) value).getUuid() + "]";
+		}
+		if (value instanceof Date) {
+			return Long.toString(((Date) value).getTime());
+		}
+		if (value instanceof Map) {
+			Map<String, String> m = new TreeMap<String, String>();
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				m.put(formatValue(e.getKey()), formatValue(e.getValue()));
+			}
+			return m.toString();
+		}
+		if (value instanceof Collection) {
+			StringBuilder sb = new StringBuilder("[");
+			for (Iterator<?> i = ((Collection<?>) value).iterator(); i.hasNext();) {
+				sb.append(formatValue(i.next())).append(i.hasNext() ? "," : "");
+			}
+			return sb.append("]").toString();
+		}
+		return value.toString();
+	}
+
+	//***** INSTANCE METHODS *****
+
+	/**
+	 * @return true if the node with the passed key has more than one consumer whose result has not yet been retrieved
+	 */
+	public boolean isShared(String nodeKey) {
+		AtomicInteger remaining = remainingConsumers.get(nodeKey);
+		return remaining != null && remaining.get() > 0;
+	}
+
+	/**
+	 * @return the number of shared nodes whose results are currently retained
+	 */
+	public int getNumRetainedResults() {
+		return results.size();
+	}
+
+	/**
+	 * Evaluates the passed Definition with the passed context, using the passed evaluation.  If the Definition is a
+	 * shared node of this plan, the evaluation is only run by the first consumer for each base cohort, and the
+	 * others wait for and return its result.  The retained results are released once all of the planned
+	 * consumers of the node have retrieved them.  Anything which is not a shared node is evaluated directly.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T evaluate(Definition definition, EvaluationContext context, Callable<T> evaluation) throws EvaluationException {
+		String nodeKey = getNodeKey(definition, context.getParameterValues());
+		AtomicInteger remaining = remainingConsumers.get(nodeKey);
+		if (remaining == null || remaining.get() <= 0) {
+			return call(evaluation);
+		}
+
+		SharedResult sharedResult = getSharedResult(nodeKey, context);
+		T result;
+		synchronized (sharedResult) {
+			if (!sharedResult.evaluated) {
+				log.debug("Evaluating shared plan node <" + nodeKey + "> once for " + remaining.get() + " consumers");
+				sharedResult.value = call(evaluation);
+				sharedResult.evaluated = true;
+			}
+			result = (T) sharedResult.value;
+		}
+
+		if (remaining.decrementAndGet() <= 0) {
+			log.debug("Releasing the results of plan node <" + nodeKey + ">");
+			results.remove(nodeKey);
+		}
+		return result;
+	}
+
+	private SharedResult getSharedResult(String nodeKey, EvaluationContext context) {
+		synchronized (results) {
+			Map<String, SharedResult> resultsForNode = results.get(nodeKey);
+			if (resultsForNode == null) {
+				resultsForNode = new ConcurrentHashMap<String, SharedResult>();
+				results.put(nodeKey, resultsForNode);
+			}
+			String resultKey = SharedEvaluationCache.getSharedCacheKey(context.getClass().getName(), context) + "|limit=" + context.getLimit();
+			SharedResult sharedResult = resultsForNode.get(resultKey);
+			if (sharedResult == null) {
+				sharedResult = new SharedResult();
+				resultsForNode.put(resultKey, sharedResult);
+			}
+			return sharedResult;
+		}
+	}
+
+	private static <T> T call(Callable<T> evaluation) throws EvaluationException {
+		try {
+			return evaluation.call();
+		}
+		catch (EvaluationException e) {
+			throw e;
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new EvaluationException("planned evaluation", e);
+		}
+	}
+
+	//***** PROPERTY ACCESS *****
+
+	/**
+	 * @return the node of the ReportDefinition from which this plan was built
+	 */
+	public EvaluationPlanNode getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return the number of consumers of the node with the passed key which have not yet retrieved its result,
+	 * or 0 if the node is not shared
+	 */
+	public int getRemainingConsumers(String nodeKey) {
+		AtomicInteger remaining = remainingConsumers.get(nodeKey);
+		return remaining == null ? 0 : Math.max(remaining.get(), 0);
+	}
+
+	/**
+	 * The result of a shared node for a single base cohort, which is evaluated by the first consumer to reach it
+	 */
+	private static class SharedResult {
+		private boolean evaluated = false;
+		private Object value;
+	}
+}
@@ -0,0 +1,207 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation.plan;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.data.encounter.definition.EncounterDataDefinition;
+import org.openmrs.module.reporting.data.obs.definition.ObsDataDefinition;
+import org.openmrs.module.reporting.data.patient.definition.PatientDataDefinition;
+import org.openmrs.module.reporting.data.person.definition.PersonDataDefinition;
+import org.openmrs.module.reporting.definition.DefinitionUtil;
+import org.openmrs.module.reporting.evaluation.Definition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationProfiler;
+import org.openmrs.module.reporting.evaluation.EvaluationProfilerStatistics;
+import org.openmrs.module.reporting.evaluation.EvaluationUtil;
+import org.openmrs.module.reporting.evaluation.caching.SharedEvaluationCache;
+import org.openmrs.module.reporting.query.encounter.definition.EncounterQuery;
+import org.openmrs.module.reporting.query.obs.definition.ObsQuery;
+import org.openmrs.module.reporting.query.person.definition.PersonQuery;
+
+/**
+ * Explains an {@link EvaluationPlan} before it is evaluated.  For each node, this finds the evaluator which will be used,
+ * and whether a result is already cached for it.  The time each node will take, and the size of its result, are
+ * estimated from the {@link EvaluationProfilerStatistics} of past evaluations of the same definition, which are kept
+ * across restarts, scaled to the expected size of the base cohort.  Where a definition has no history, its result size is bounded by the size of the
+ * base cohort, or by the number of rows which the database estimates are in the table that it queries, and its time is
+ * the sum of the times of its children, if all of these are known.
+ */
+public class EvaluationPlanExplainer {
+
+	protected static Log log = LogFactory.getLog(EvaluationPlanExplainer.class);
+
+	/**
+	 * The name of the property of a ReportDefinition whose result becomes the base cohort of its other properties
+	 */
+	public static final String BASE_COHORT_PROPERTY = "baseCohortDefinition";
+
+	private EvaluationContext context;
+	private Map<String, Long> tableRowCounts = new HashMap<String, Long>();
+
+	protected EvaluationPlanExplainer(EvaluationContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * @return the explanation of the passed plan, which was built for the passed context
+	 */
+	public static EvaluationPlanExplanation explain(EvaluationPlan plan, EvaluationContext context) {
+		EvaluationPlanExplainer explainer = new EvaluationPlanExplainer(context);
+		Long baseCohortSize = (context.getBaseCohort() == null ? null : (long) context.getBaseCohort().size());
+		return new EvaluationPlanExplanation(plan, explainer.explain(plan.getRoot(), baseCohortSize));
+	}
+
+	/**
+	 * @return the explanation of the passed node, evaluated with a base cohort of the passed size, and of its children
+	 */
+	protected ExplainedPlanNode explain(EvaluationPlanNode node, Long baseCohortSize) {
+		Definition definition = node.getDefinition();
+		ExplainedPlanNode explained = new ExplainedPlanNode(node, EvaluationProfiler.getLabel(definition));
+		explained.setBaseCohortSize(baseCohortSize);
+
+		EvaluationContext nodeContext = context.shallowCopy();
+		nodeContext.setParameterValues(new HashMap<String, Object>(node.getParameterValues()));
+		try {
+			explained.setEvaluator(DefinitionUtil.getPreferredEvaluator(definition).getClass().getSimpleName());
+		}
+		catch (Exception e) {
+			log.debug("No evaluator found for " + definition, e);
+		}
+		explained.setCacheStatus(getCacheStatus(node, nodeContext));
+
+		// The result of the base cohort definition of a report is the base cohort of everything else in it
+		Long childBaseCohortSize = baseCohortSize;
+		Map<EvaluationPlanNode, ExplainedPlanNode> explainedChildren = new HashMap<EvaluationPlanNode, ExplainedPlanNode>();
+		for (EvaluationPlanNode child : node.getChildren()) {
+			if (BASE_COHORT_PROPERTY.equals(child.getName())) {
+				ExplainedPlanNode explainedChild = explain(child, baseCohortSize);
+				explainedChildren.put(child, explainedChild);
+				if (explainedChild.getEstimatedResultSize() != null) {
+					childBaseCohortSize = explainedChild.getEstimatedResultSize();
+				}
+			}
+		}
+		// The time of the children is only known if that of each of them is known
+		Long childMillis = (node.getChildren().isEmpty() ? null : 0L);
+		for (EvaluationPlanNode child : node.getChildren()) {
+			ExplainedPlanNode explainedChild = explainedChildren.get(child);
+			if (explainedChild == null) {
+				explainedChild = explain(child, childBaseCohortSize);
+			}
+			explained.addChild(explainedChild);
+			if (childMillis != null) {
+				childMillis = (explainedChild.getEstimatedMillis() == null ? null : childMillis + explainedChild.getEstimatedMillis());
+			}
+		}
+
+		EvaluationProfilerStatistics.Timings timings = EvaluationProfilerStatistics.getInstance().getTimings(EvaluationProfiler.getKey(definition));
+		if (timings != null) {
+			explained.setEstimatedResultSize(baseCohortSize == null ? timings.getMeanResultSize() : timings.getExpectedResultSize(baseCohortSize));
+		}
+		if (explained.getEstimatedResultSize() == null) {
+			explained.setEstimatedResultSize(getMaximumResultSize(definition, baseCohortSize));
+		}
+
+		if (explained.getCacheStatus() == ExplainedPlanNode.CacheStatus.HIT || explained.getCacheStatus() == ExplainedPlanNode.CacheStatus.SHARED) {
+			explained.setEstimatedMillis(0L);
+		}
+		else if (timings != null && timings.getMeanEvaluatedNanos() != null) {
+			explained.setNumPastEvaluations(timings.getEvaluatedCount());
+			explained.setEstimatedMillis(timings.getMeanEvaluatedNanos() / 1000000);
+		}
+		else {
+			explained.setEstimatedMillis(childMillis);
+		}
+		return explained;
+	}
+
+	/**
+	 * @return whether the result of the passed node is expected to be retrieved rather than evaluated
+	 */
+	protected ExplainedPlanNode.CacheStatus getCacheStatus(EvaluationPlanNode node, EvaluationContext nodeContext) {
+		if (node.isShared() && node.isRepeated()) {
+			return ExplainedPlanNode.CacheStatus.SHARED;
+		}
+		try {
+			Definition clonedDefinition = DefinitionUtil.cloneDefinitionWithContext(node.getDefinition(), nodeContext);
+			String cacheKey = EvaluationUtil.getCacheKey(clonedDefinition, nodeContext);
+			if (cacheKey == null) {
+				return ExplainedPlanNode.CacheStatus.NOT_CACHEABLE;
+			}
+			if (nodeContext.isCached(cacheKey) || SharedEvaluationCache.get(cacheKey, nodeContext) != null) {
+				return ExplainedPlanNode.CacheStatus.HIT;
+			}
+			return ExplainedPlanNode.CacheStatus.MISS;
+		}
+		catch (Exception e) {
+			log.debug("Unable to determine the cache key of " + node.getDefinition(), e);
+			return ExplainedPlanNode.CacheStatus.NOT_CACHEABLE;
+		}
+	}
+
+	/**
+	 * @return the largest result the passed definition could produce, which is the estimated number of rows in the table that
+	 * it queries, limited to the size of the base cohort for patient-based definitions, or null if unknown
+	 */
+	protected Long getMaximumResultSize(Definition definition, Long baseCohortSize) {
+		Long rows = null;
+		if (definition instanceof CohortDefinition || definition instanceof PatientDataDefinition) {
+			rows = getTableRowCount("patient");
+			if (baseCohortSize != null) {
+				rows = (rows == null ? baseCohortSize : Math.min(rows, baseCohortSize));
+			}
+		}
+		else if (definition instanceof PersonDataDefinition || definition instanceof PersonQuery) {
+			rows = getTableRowCount("person");
+		}
+		else if (definition instanceof EncounterDataDefinition || definition instanceof EncounterQuery) {
+			rows = getTableRowCount("encounter");
+		}
+		else if (definition instanceof ObsDataDefinition || definition instanceof ObsQuery) {
+			rows = getTableRowCount("obs");
+		}
+		return rows;
+	}
+
+	/**
+	 * The estimate is read from the statistics the database keeps for the table, rather than by counting its rows, which
+	 * for large tables can take longer than evaluating the plan being explained.  It includes voided rows.
+	 * @return the estimated number of rows in the passed table, which is only read once per explanation, or null if the
+	 * database does not provide an estimate
+	 */
+	protected Long getTableRowCount(String table) {
+		if (!tableRowCounts.containsKey(table)) {
+			Long count = null;
+			try {
+				String sql = "select table_rows from information_schema.tables where table_schema = database() and table_name = '" + table + "'";
+				List<List<Object>> results = Context.getAdministrationService().executeSQL(sql, true);
+				if (!results.isEmpty() && results.get(0).get(0) != null) {
+					count = ((Number) results.get(0).get(0)).longValue();
+				}
+			}
+			catch (Exception e) {
+				log.debug("Unable to estimate the rows of " + table, e);
+			}
+			tableRowCounts.put(table, count);
+		}
+		return tableRowCounts.get(table);
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation.plan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Describes how each node of an {@link EvaluationPlan} is expected to be evaluated, whether it is expected to be
+ * retrieved from a cache, and estimates of the size of its result and the time it will take, so that expensive
+ * parts of a report can be identified before it is run.
+ * @see EvaluationPlanExplainer
+ */
+public class EvaluationPlanExplanation {
+
+	private EvaluationPlan plan;
+	private ExplainedPlanNode root;
+
+	//***** CONSTRUCTORS *****
+
+	public EvaluationPlanExplanation(EvaluationPlan plan, ExplainedPlanNode root) {
+		this.plan = plan;
+		this.root = root;
+	}
+
+	//***** INSTANCE METHODS *****
+
+	/**
+	 * @return the expected time to evaluate the whole plan, or null if there is nothing to base an estimate on
+	 */
+	public Long getEstimatedMillis() {
+		return root.getEstimatedMillis();
+	}
+
+	/**
+	 * @return up to the passed number of nodes with the highest estimated times, of those estimated from past evaluations
+	 */
+	public List<ExplainedPlanNode> getMostExpensiveNodes(int maxNodes) {
+		List<ExplainedPlanNode> nodes = new ArrayList<ExplainedPlanNode>();
+		addEstimatedNodes(root, nodes);
+		Collections.sort(nodes, new Comparator<ExplainedPlanNode>() {
+			public int compare(ExplainedPlanNode n1, ExplainedPlanNode n2) {
+				return n2.getEstimatedMillis().compareTo(n1.getEstimatedMillis());
+			}
+		});
+		return nodes.subList(0, Math.min(maxNodes, nodes.size()));
+	}
+
+	private void addEstimatedNodes(ExplainedPlanNode node, List<ExplainedPlanNode> nodes) {
+		if (node.isEstimatedFromHistory() && node.getEstimatedMillis() != null) {
+			nodes.add(node);
+		}
+		for (ExplainedPlanNode child : node.getChildren()) {
+			addEstimatedNodes(child, nodes);
+		}
+	}
+
+	/**
+	 * @return one line for each node of the explanation, indented by its depth in the tree
+	 */
+	public List<String> format() {
+		List<String> lines = new ArrayList<String>();
+		format(root, 0, lines);
+		return lines;
+	}
+
+	private void format(ExplainedPlanNode node, int depth, List<String> lines) {
+		lines.add(StringUtils.repeat("  ", depth) + node.format());
+		for (ExplainedPlanNode child : node.getChildren()) {
+			format(child, depth + 1, lines);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return StringUtils.join(format(), "\n");
+	}
+
+	//***** PROPERTY ACCESS *****
+
+	public EvaluationPlan getPlan() {
+		return plan;
+	}
+
+	public ExplainedPlanNode getRoot() {
+		return root;
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation.plan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.module.reporting.evaluation.Definition;
+
+/**
+ * A single Definition within an {@link EvaluationPlan}, along with the parameter values it will be evaluated
+ * with once the mappings that lead to it have been resolved, and the nodes for the Definitions it is mapped to
+ */
+public class EvaluationPlanNode {
+
+	private String key;
+	private String name;
+	private Definition definition;
+	private Map<String, Object> parameterValues;
+	private boolean shared = false;
+	private boolean repeated = false;
+	private List<EvaluationPlanNode> children = new ArrayList<EvaluationPlanNode>();
+
+	//***** CONSTRUCTORS *****
+
+	public EvaluationPlanNode(String key, String name, Definition definition, Map<String, Object> parameterValues) {
+		this.key = key;
+		this.name = name;
+		this.definition = definition;
+		this.parameterValues = parameterValues;
+	}
+
+	//***** INSTANCE METHODS *****
+
+	/**
+	 * @return the number of nodes in the tree rooted at this node, including this node
+	 */
+	public int getSize() {
+		int size = 1;
+		for (EvaluationPlanNode child : children) {
+			size += child.getSize();
+		}
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + key;
+	}
+
+	//***** PROPERTY ACCESS *****
+
+	/**
+	 * @return the key which identifies the Definition and resolved parameter values of this node
+	 * @see EvaluationPlan#getNodeKey(Definition, Map)
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return the name of the property, and the key within it if any, by which the parent of this node refers to it
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public Definition getDefinition() {
+		return definition;
+	}
+
+	public Map<String, Object> getParameterValues() {
+		return parameterValues;
+	}
+
+	/**
+	 * @return true if the result of this node may be shared by all of its consumers
+	 */
+	public boolean isShared() {
+		return shared;
+	}
+
+	public void setShared(boolean shared) {
+		this.shared = shared;
+	}
+
+	/**
+	 * @return true if an identical node appears earlier in the plan, in which case its children are not repeated here
+	 */
+	public boolean isRepeated() {
+		return repeated;
+	}
+
+	public void setRepeated(boolean repeated) {
+		this.repeated = repeated;
+	}
+
+	public List<EvaluationPlanNode> getChildren() {
+		return children;
+	}
+
+	public void addChild(EvaluationPlanNode child) {
+		children.add(child);
+	}
+}
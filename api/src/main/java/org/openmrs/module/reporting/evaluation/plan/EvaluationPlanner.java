@@ -0,0 +1,178 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation.plan;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.definition.DefinitionMetadata;
+import org.openmrs.module.reporting.definition.DefinitionMetadata.PropertyMetadata;
+import org.openmrs.module.reporting.evaluation.Definition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.indicator.dimension.CohortDefinitionDimension;
+
+/**
+ * Builds an {@link EvaluationPlan} before a Definition is evaluated, by walking every {@link Mapped} Definition
+ * that is reachable from its configuration properties, resolving the parameter mappings along the way.
+ * Identical nodes, that is the same Definition with the same resolved parameter values, are counted so
+ * that those which are consumed more than once can be evaluated once and shared.
+ * <p/>
+ * Only cohort definitions and cohort dimensions are shared, as their results are not modified by their consumers
+ */
+public class EvaluationPlanner {
+
+	protected static Log log = LogFactory.getLog(EvaluationPlanner.class);
+
+	private static final String REPORTING_PACKAGE = "org.openmrs.module.reporting.";
+
+	private Map<String, Integer> consumersByNodeKey = new HashMap<String, Integer>();
+	private Set<String> expandedNodeKeys = new HashSet<String>();
+	private Set<String> nodeKeysInPath = new HashSet<String>();
+
+	private EvaluationPlanner() { }
+
+	/**
+	 * @return the plan for evaluating the passed Definition with the passed context
+	 */
+	public static EvaluationPlan plan(Definition definition, EvaluationContext context) {
+		EvaluationPlanner planner = new EvaluationPlanner();
+		Map<String, Object> parameterValues = context.getParameterValues();
+		EvaluationPlanNode root = new EvaluationPlanNode(EvaluationPlan.getNodeKey(definition, parameterValues), null, definition, parameterValues);
+		planner.nodeKeysInPath.add(root.getKey());
+		planner.expand(root, context);
+		return new EvaluationPlan(root, planner.consumersByNodeKey);
+	}
+
+	/**
+	 * @return true if the result of the passed Definition can be shared by all of its consumers
+	 */
+	public static boolean isShareable(Definition definition) {
+		return definition instanceof CohortDefinition || definition instanceof CohortDefinitionDimension;
+	}
+
+	/**
+	 * Adds a child to the passed node for each Definition that is mapped into it, and expands each of these in turn.
+	 * The children of a shareable node are only expanded the first time it is reached, as it will only be evaluated once
+	 */
+	private void expand(EvaluationPlanNode node, EvaluationContext context) {
+		Map<String, Mapped<?>> mappedProperties = new LinkedHashMap<String, Mapped<?>>();
+		Map<Object, Object> visited = new IdentityHashMap<Object, Object>();
+		for (PropertyMetadata p : DefinitionMetadata.getMetadata(node.getDefinition().getClass()).getConfigurationProperties()) {
+			try {
+				collectMapped(p.getName(), p.getValue(node.getDefinition()), mappedProperties, visited);
+			}
+			catch (Exception e) {
+				log.debug("Unable to plan property " + p.getName() + " of " + node.getDefinition(), e);
+			}
+		}
+
+		for (Map.Entry<String, Mapped<?>> e : mappedProperties.entrySet()) {
+			Mapped<?> mapped = e.getValue();
+			if (!(mapped.getParameterizable() instanceof Definition)) {
+				continue;
+			}
+			Definition childDefinition = (Definition) mapped.getParameterizable();
+			EvaluationContext childContext;
+			try {
+				childContext = EvaluationContext.cloneForChild(context, mapped);
+			}
+			catch (Exception ex) {
+				log.debug("Unable to resolve the mappings of " + e.getKey() + " of " + node.getDefinition(), ex);
+				continue;
+			}
+
+			String key = EvaluationPlan.getNodeKey(childDefinition, childContext.getParameterValues());
+			EvaluationPlanNode child = new EvaluationPlanNode(key, e.getKey(), childDefinition, childContext.getParameterValues());
+			node.addChild(child);
+
+			if (isShareable(childDefinition)) {
+				child.setShared(true);
+				Integer consumers = consumersByNodeKey.get(key);
+				consumersByNodeKey.put(key, consumers == null ? 1 : consumers + 1);
+				if (!expandedNodeKeys.add(key)) {
+					child.setRepeated(true);
+					continue;
+				}
+			}
+			if (nodeKeysInPath.add(key)) {
+				expand(child, childContext);
+				nodeKeysInPath.remove(key);
+			}
+			else {
+				child.setRepeated(true);
+			}
+		}
+	}
+
+	/**
+	 * Adds each Mapped object found within the passed value to the passed map, by the path at which it was found.
+	 * This looks within collections, maps, and objects of this module which are not themselves Definitions,
+	 * such as the columns of a data set definition
+	 */
+	private void collectMapped(String path, Object value, Map<String, Mapped<?>> mapped, Map<Object, Object> visited) throws IllegalAccessException {
+		if (value == null || value instanceof Definition || visited.put(value, value) != null) {
+			return;
+		}
+		if (value instanceof Mapped) {
+			mapped.put(path, (Mapped<?>) value);
+		}
+		else if (value instanceof Map) {
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				collectMapped(path + "[" + e.getKey() + "]", e.getValue(), mapped, visited);
+			}
+		}
+		else if (value instanceof Collection) {
+			int i = 0;
+			for (Object o : (Collection<?>) value) {
+				collectMapped(path + "[" + i++ + "]", o, mapped, visited);
+			}
+		}
+		else if (value.getClass().getName().startsWith(REPORTING_PACKAGE) && !value.getClass().isEnum()) {
+			for (Field f : getFields(value.getClass())) {
+				if (!f.isAccessible()) {
+					f.setAccessible(true);
+				}
+				collectMapped(path + "." + f.getName(), f.get(value), mapped, visited);
+			}
+		}
+	}
+
+	/**
+	 * @return the non-static, non-synthetic fields of the passed class and its superclasses
+	 */
+	private List<Field> getFields(Class<?> type) {
+		List<Field> fields = new ArrayList<Field>();
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field f : c.getDeclaredFields()) {
+				if (!Modifier.isStatic(f.getModifiers()) && !f.isSynthetic()) {
+					fields.add(f);
+				}
+			}
+		}
+		return fields;
+	}
+}
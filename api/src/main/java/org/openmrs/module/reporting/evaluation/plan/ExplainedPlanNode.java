@@ -0,0 +1,191 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation.plan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A node of an {@link EvaluationPlanExplanation}, which describes how a single node of an {@link EvaluationPlan}
+ * is expected to be evaluated, and what it is expected to cost
+ */
+public class ExplainedPlanNode {
+
+	/**
+	 * Whether the result of a node is expected to be retrieved rather than evaluated
+	 */
+	public enum CacheStatus {
+
+		/**
+		 * The definition does not support caching
+		 */
+		NOT_CACHEABLE,
+
+		/**
+		 * The definition supports caching, but no result is currently cached for it
+		 */
+		MISS,
+
+		/**
+		 * A result is currently cached for the definition
+		 */
+		HIT,
+
+		/**
+		 * The definition is evaluated earlier in the plan, and its result will be shared
+		 */
+		SHARED
+	}
+
+	private EvaluationPlanNode planNode;
+	private String label;
+	private String evaluator;
+	private CacheStatus cacheStatus = CacheStatus.NOT_CACHEABLE;
+	private Long baseCohortSize;
+	private Long estimatedResultSize;
+	private Long estimatedMillis;
+	private long numPastEvaluations = 0;
+	private List<ExplainedPlanNode> children = new ArrayList<ExplainedPlanNode>();
+
+	//***** CONSTRUCTORS *****
+
+	public ExplainedPlanNode(EvaluationPlanNode planNode, String label) {
+		this.planNode = planNode;
+		this.label = label;
+	}
+
+	//***** INSTANCE METHODS *****
+
+	/**
+	 * @return true if the estimated time of this node is based on past evaluations of its own definition,
+	 * rather than on those of its children
+	 */
+	public boolean isEstimatedFromHistory() {
+		return numPastEvaluations > 0;
+	}
+
+	/**
+	 * @return a single line describing this node
+	 */
+	public String format() {
+		StringBuilder sb = new StringBuilder();
+		if (planNode.getName() != null) {
+			sb.append(planNode.getName()).append(": ");
+		}
+		sb.append(label);
+		sb.append(" | evaluator=").append(evaluator == null ? "none" : evaluator);
+		sb.append(" | cache=").append(cacheStatus.name().toLowerCase());
+		if (baseCohortSize != null) {
+			sb.append(" | baseCohort=").append(baseCohortSize);
+		}
+		sb.append(" | rows~").append(estimatedResultSize == null ? "?" : estimatedResultSize.toString());
+		sb.append(" | time~").append(estimatedMillis == null ? "?" : estimatedMillis + " ms");
+		if (isEstimatedFromHistory()) {
+			sb.append(" (from ").append(numPastEvaluations).append(" past evaluations)");
+		}
+		else if (estimatedMillis != null && cacheStatus != CacheStatus.HIT && cacheStatus != CacheStatus.SHARED) {
+			sb.append(" (from children)");
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return format();
+	}
+
+	//***** PROPERTY ACCESS *****
+
+	/**
+	 * @return the node of the plan which this explains
+	 */
+	public EvaluationPlanNode getPlanNode() {
+		return planNode;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @return the simple name of the evaluator class which will evaluate this node, or null if there is none
+	 */
+	public String getEvaluator() {
+		return evaluator;
+	}
+
+	public void setEvaluator(String evaluator) {
+		this.evaluator = evaluator;
+	}
+
+	public CacheStatus getCacheStatus() {
+		return cacheStatus;
+	}
+
+	public void setCacheStatus(CacheStatus cacheStatus) {
+		this.cacheStatus = cacheStatus;
+	}
+
+	/**
+	 * @return the expected size of the base cohort this node is evaluated with, or null if it is evaluated for all patients
+	 */
+	public Long getBaseCohortSize() {
+		return baseCohortSize;
+	}
+
+	public void setBaseCohortSize(Long baseCohortSize) {
+		this.baseCohortSize = baseCohortSize;
+	}
+
+	/**
+	 * @return the expected number of members, values or rows in the result, or null if unknown
+	 */
+	public Long getEstimatedResultSize() {
+		return estimatedResultSize;
+	}
+
+	public void setEstimatedResultSize(Long estimatedResultSize) {
+		this.estimatedResultSize = estimatedResultSize;
+	}
+
+	/**
+	 * @return the expected time to evaluate this node, including its children, or null if unknown
+	 */
+	public Long getEstimatedMillis() {
+		return estimatedMillis;
+	}
+
+	public void setEstimatedMillis(Long estimatedMillis) {
+		this.estimatedMillis = estimatedMillis;
+	}
+
+	/**
+	 * @return the number of past evaluations of this node's definition which were not retrieved from a cache
+	 */
+	public long getNumPastEvaluations() {
+		return numPastEvaluations;
+	}
+
+	public void setNumPastEvaluations(long numPastEvaluations) {
+		this.numPastEvaluations = numPastEvaluations;
+	}
+
+	public List<ExplainedPlanNode> getChildren() {
+		return children;
+	}
+
+	public void addChild(ExplainedPlanNode child) {
+		children.add(child);
+	}
+}
@@ -13,11 +13,15 @@
  */
 package org.openmrs.module.reporting.indicator;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.openmrs.Cohort;
+import org.openmrs.module.reporting.cohort.CohortUtil;
 import org.openmrs.module.reporting.common.Fraction;
+import org.openmrs.module.reporting.common.IdBitmap;
 import org.openmrs.module.reporting.evaluation.Evaluated;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.indicator.CohortIndicator.IndicatorType;
@@ -53,31 +57,31 @@ public class CohortIndicatorResult implements IndicatorResult {
     //***** INSTANCE METHODS *****
     
     public static Number getResultValue(CohortIndicatorResult cohortIndicatorResult, Cohort...filters) {
-    	
-    	IndicatorType type = cohortIndicatorResult.getDefinition().getType();
-    	Cohort numerator = cohortIndicatorResult.getCohort();
-    	Cohort denominator = cohortIndicatorResult.getDenominatorCohort();
-    	Map<Integer, Number> logicVals = new HashMap<Integer, Number>(cohortIndicatorResult.getLogicResults());
-    	
-    	// Reduce each of the result cohorts as needed based on the filter Cohorts
+    	IdBitmap filter = null;
     	if (filters != null) {
-	    	for (Cohort filter : filters) {
-	    		if (filter != null) {
-		    		numerator = Cohort.intersect(numerator, filter);
-		    		if (type == IndicatorType.FRACTION) {
-		    			denominator = Cohort.intersect(denominator, filter);
-		    		}
-		    		else if (type == IndicatorType.LOGIC) {
-		    			logicVals.keySet().retainAll(filter.getMemberIds());
-		    		}
+	    	for (Cohort c : filters) {
+	    		if (c != null) {
+	    			filter = (filter == null ? CohortUtil.toBitmap(c) : filter.and(CohortUtil.toBitmap(c)));
 	    		}
 	    	}
     	}
+    	return getResultValue(cohortIndicatorResult, filter);
+    }
+    
+    /**
+     * @return the value of the passed result, restricted to the members of the passed filter if not null.
+     * Counts are obtained from the cardinality of bitmap intersections, without constructing the filtered Cohorts.
+     */
+    public static Number getResultValue(CohortIndicatorResult cohortIndicatorResult, IdBitmap filter) {
+    	
+    	IndicatorType type = cohortIndicatorResult.getDefinition().getType();
+    	Cohort numerator = cohortIndicatorResult.getCohort();
+    	Cohort denominator = cohortIndicatorResult.getDenominatorCohort();
     	
     	// Return the appropriate result, given the IndicatorType
     	if (type == IndicatorType.FRACTION) {
-    		int n = numerator.getSize();
-    		int d = denominator.getSize();
+    		int n = getFilteredSize(numerator, filter);
+    		int d = getFilteredSize(denominator, filter);
     		return new Fraction(n, d);
     	}
     	else if (type == IndicatorType.LOGIC) {
@@ -85,11 +89,27 @@ public class CohortIndicatorResult implements IndicatorResult {
         	if (aggregator == null) {
         		aggregator = CountAggregator.class;
         	}
-        	return AggregationUtil.aggregate(logicVals.values(), aggregator);
+        	List<Number> logicVals = new ArrayList<Number>();
+        	for (Map.Entry<Integer, Number> e : cohortIndicatorResult.getLogicResults().entrySet()) {
+        		if (filter == null || filter.contains(e.getKey())) {
+        			logicVals.add(e.getValue());
+        		}
+        	}
+        	return AggregationUtil.aggregate(logicVals, aggregator);
     	}
     	else { // Assume IndicatorType.COUNT
-    		return numerator.getSize();
+    		return getFilteredSize(numerator, filter);
+    	}
+    }
+    
+    /**
+     * @return the number of members of the passed cohort which are also in the passed filter, if not null
+     */
+    private static int getFilteredSize(Cohort cohort, IdBitmap filter) {
+    	if (filter == null) {
+    		return cohort.getSize();
     	}
+    	return IdBitmap.andCardinality(CohortUtil.toBitmap(cohort), filter);
     }
     
     /**
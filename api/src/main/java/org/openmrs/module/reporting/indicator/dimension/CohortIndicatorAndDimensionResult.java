@@ -4,6 +4,8 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.openmrs.Cohort;
+import org.openmrs.module.reporting.cohort.CohortUtil;
+import org.openmrs.module.reporting.common.IdBitmap;
 import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.evaluation.Evaluated;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
@@ -22,6 +24,10 @@ public class CohortIndicatorAndDimensionResult implements IndicatorResult {
 	private CohortIndicatorResult cohortIndicatorResult;
 	private Map<CohortDimension, String> dimensions = new HashMap<CohortDimension, String>();
 	private Map<CohortDimension, Cohort> dimensionResults = new HashMap<CohortDimension, Cohort>();
+
+	// Calculated from the above when first needed, or supplied by a CohortIndicatorCube
+	private transient IdBitmap dimensionBitmap;
+	private transient Number value;
 	
 	//***** CONSTRUCTORS *****
 	
@@ -41,21 +47,51 @@ public class CohortIndicatorAndDimensionResult implements IndicatorResult {
 	public void applyDimensionResult(CohortDimension dimension, String option, Cohort result) {
 		getDimensions().put(dimension, option);
 		getDimensionResults().put(dimension, result);
+		clearCalculatedValues();
+	}
+
+	/**
+	 * Supplies the intersection of the dimension Cohorts, and the resulting value, which have already been
+	 * calculated for the configured Dimensions, so that they are not calculated again
+	 * @see CohortIndicatorCube
+	 */
+	public void setCalculatedValues(IdBitmap dimensionBitmap, Number value) {
+		this.dimensionBitmap = dimensionBitmap;
+		this.value = value;
+	}
+
+	/**
+	 * Discards the values calculated from the current indicator result and dimensions
+	 */
+	protected void clearCalculatedValues() {
+		this.dimensionBitmap = null;
+		this.value = null;
 	}
 	
 	/**
 	 * Retrieves the combined filter Cohort for all configured Dimensions
 	 */
 	public Cohort calculateDimensionCohort() {
-		Cohort ret = null;
+		return CohortUtil.toCohort(calculateDimensionBitmap());
+	}
+	
+	/**
+	 * @return the intersection of all configured Dimension Cohorts, as an IdBitmap, or null if there are none
+	 */
+	protected IdBitmap calculateDimensionBitmap() {
+		if (dimensionBitmap != null) {
+			return dimensionBitmap;
+		}
+		IdBitmap ret = null;
 		for (Cohort c : getDimensionResults().values()) {
 			if (ret == null) {
-				ret = new Cohort(c.getMemberIds());
+				ret = CohortUtil.toBitmap(c);
 			}
 			else {
-				ret = Cohort.intersect(ret, c);
+				ret = ret.and(CohortUtil.toBitmap(c));
 			}
 		}
+		dimensionBitmap = ret;
 		return ret;
 	}
 	
@@ -65,7 +101,7 @@ public class CohortIndicatorAndDimensionResult implements IndicatorResult {
 	public Cohort getCohortIndicatorAndDimensionCohort() {
 		Cohort ret = cohortIndicatorResult.getCohort();
 		if (ret != null && !getDimensionResults().isEmpty()) {
-			ret = Cohort.intersect(ret, calculateDimensionCohort());
+			ret = CohortUtil.toCohort(CohortUtil.toBitmap(ret).and(calculateDimensionBitmap()));
 		}
 		return ret;
 	}
@@ -76,7 +112,7 @@ public class CohortIndicatorAndDimensionResult implements IndicatorResult {
 	public Cohort getCohortIndicatorAndDimensionDenominator() {
 		Cohort ret = cohortIndicatorResult.getDenominatorCohort();
 		if (ret != null && !getDimensionResults().isEmpty()) {
-			ret = Cohort.intersect(ret, calculateDimensionCohort());
+			ret = CohortUtil.toCohort(CohortUtil.toBitmap(ret).and(calculateDimensionBitmap()));
 		}
 		return ret;
 	}
@@ -87,8 +123,13 @@ public class CohortIndicatorAndDimensionResult implements IndicatorResult {
 	public Map<Integer, Number> getCohortIndicatorAndDimensionLogicResults() {
 		Map<Integer, Number> ret = cohortIndicatorResult.getLogicResults();
 		if (ret != null && !getDimensionResults().isEmpty()) {
-			ret = new HashMap<Integer, Number>(cohortIndicatorResult.getLogicResults());
-			ret.keySet().retainAll(calculateDimensionCohort().getMemberIds());
+			IdBitmap dimensionBitmap = calculateDimensionBitmap();
+			ret = new HashMap<Integer, Number>();
+			for (Map.Entry<Integer, Number> e : cohortIndicatorResult.getLogicResults().entrySet()) {
+				if (dimensionBitmap.contains(e.getKey())) {
+					ret.put(e.getKey(), e.getValue());
+				}
+			}
 		}
 		return ret;
 	}
@@ -97,7 +138,10 @@ public class CohortIndicatorAndDimensionResult implements IndicatorResult {
 	 * @see IndicatorResult#getValue()
 	 */
 	public Number getValue() {
-		return CohortIndicatorResult.getResultValue(cohortIndicatorResult, calculateDimensionCohort());
+		if (value == null) {
+			value = CohortIndicatorResult.getResultValue(cohortIndicatorResult, calculateDimensionBitmap());
+		}
+		return value;
     }
 	
 	/**
@@ -153,6 +197,7 @@ public class CohortIndicatorAndDimensionResult implements IndicatorResult {
 	 */
 	public void setCohortIndicatorResult(CohortIndicatorResult cohortIndicatorResult) {
 		this.cohortIndicatorResult = cohortIndicatorResult;
+		clearCalculatedValues();
 	}
 
 	/**
@@ -170,6 +215,7 @@ public class CohortIndicatorAndDimensionResult implements IndicatorResult {
 	 */
 	public void setDimensionResults(Map<CohortDimension, Cohort> dimensionResults) {
 		this.dimensionResults = dimensionResults;
+		clearCalculatedValues();
 	}
 	
 	/**
@@ -177,5 +223,6 @@ public class CohortIndicatorAndDimensionResult implements IndicatorResult {
 	 */
 	public void addDimensionResult(CohortDimension dimension, Cohort cohort) {
 	    getDimensionResults().put(dimension, cohort);
+	    clearCalculatedValues();
     }
 }
@@ -0,0 +1,229 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.indicator.dimension;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openmrs.Cohort;
+import org.openmrs.module.reporting.cohort.CohortUtil;
+import org.openmrs.module.reporting.common.Fraction;
+import org.openmrs.module.reporting.common.IdBitmap;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.indicator.CohortIndicator.IndicatorType;
+import org.openmrs.module.reporting.indicator.CohortIndicatorResult;
+
+/**
+ * Computes the values of CohortIndicatorResults broken down by combinations of dimension options, as needed by
+ * the columns of an indicator data set.  Each dimension option Cohort is converted to an IdBitmap once, and the
+ * intersection for each combination of options is computed once and shared by every column which uses it.
+ * Combinations are built up one dimension at a time, in order of dimension key, so that combinations which share
+ * their first dimension options also share the intersection of those options.
+ * Each indicator result is a row, whose numerator and denominator Cohorts are converted to IdBitmaps once, and whose
+ * counts for each combination are stored in a column of an int array.
+ */
+public class CohortIndicatorCube {
+
+	private Map<String, Map<String, Cohort>> optionCohorts = new HashMap<String, Map<String, Cohort>>();
+	private Map<String, Map<String, IdBitmap>> optionBitmaps = new HashMap<String, Map<String, IdBitmap>>();
+
+	// The intersection of each combination of dimension options, keyed by its canonical form
+	private Map<String, IdBitmap> filters = new HashMap<String, IdBitmap>();
+
+	// The table of values, with a row for each indicator result and a column for each combination
+	private Map<CohortIndicatorResult, Row> rows = new IdentityHashMap<CohortIndicatorResult, Row>();
+	private Map<String, Integer> columns = new HashMap<String, Integer>();
+
+	public CohortIndicatorCube() { }
+
+	/**
+	 * Adds a dimension, with the Cohort for each of its options
+	 */
+	public void addDimension(String dimensionKey, Map<String, Cohort> cohortsByOption) {
+		optionCohorts.put(dimensionKey, cohortsByOption);
+		optionBitmaps.put(dimensionKey, new HashMap<String, IdBitmap>());
+	}
+
+	/**
+	 * @return the Cohort for the passed option of the passed dimension
+	 * @throws EvaluationException if no such dimension or option has been added
+	 */
+	public Cohort getOptionCohort(String dimensionKey, String option) throws EvaluationException {
+		Map<String, Cohort> cohorts = optionCohorts.get(dimensionKey);
+		if (cohorts == null) {
+			throw new EvaluationException("dimension " + dimensionKey);
+		}
+		return cohorts.get(option);
+	}
+
+	/**
+	 * @param dimensionOptions the option of each dimension to include, keyed by dimension key
+	 * @return the intersection of the Cohorts of the passed dimension options, or null if none are passed
+	 * @throws EvaluationException if one of the dimensions has not been added
+	 */
+	public IdBitmap getFilter(Map<String, String> dimensionOptions) throws EvaluationException {
+		if (dimensionOptions == null || dimensionOptions.isEmpty()) {
+			return null;
+		}
+		IdBitmap filter = null;
+		StringBuilder key = new StringBuilder();
+		for (Map.Entry<String, String> e : new TreeMap<String, String>(dimensionOptions).entrySet()) {
+			key.append(key.length() == 0 ? "" : ",").append(e.getKey()).append("=").append(e.getValue());
+			IdBitmap prefixFilter = filters.get(key.toString());
+			if (prefixFilter == null) {
+				IdBitmap optionBitmap = getOptionBitmap(e.getKey(), e.getValue());
+				prefixFilter = (filter == null ? optionBitmap : filter.and(optionBitmap));
+				filters.put(key.toString(), prefixFilter);
+			}
+			filter = prefixFilter;
+		}
+		return filter;
+	}
+
+	/**
+	 * @return the value of the passed result restricted to the passed dimension options, which is calculated the first time it is requested
+	 * @throws EvaluationException if one of the dimensions has not been added
+	 */
+	public Number getValue(CohortIndicatorResult result, Map<String, String> dimensionOptions) throws EvaluationException {
+		Row row = rows.get(result);
+		if (row == null) {
+			row = new Row(result);
+			rows.put(result, row);
+		}
+		String combination = getCombinationKey(dimensionOptions);
+		Integer column = columns.get(combination);
+		if (column == null) {
+			column = columns.size();
+			columns.put(combination, column);
+		}
+		row.ensureCapacity(columns.size());
+
+		if (row.type == IndicatorType.LOGIC) {
+			if (row.logicValues[column] == null) {
+				row.logicValues[column] = CohortIndicatorResult.getResultValue(result, getFilter(dimensionOptions));
+			}
+			return row.logicValues[column];
+		}
+		if (row.numeratorCounts[column] < 0) {
+			IdBitmap filter = getFilter(dimensionOptions);
+			row.numeratorCounts[column] = getFilteredSize(row.numerator, filter);
+			if (row.denominator != null) {
+				row.denominatorCounts[column] = getFilteredSize(row.denominator, filter);
+			}
+		}
+		if (row.type == IndicatorType.FRACTION) {
+			return new Fraction(row.numeratorCounts[column], row.denominatorCounts[column]);
+		}
+		return row.numeratorCounts[column];
+	}
+
+	/**
+	 * @return a result for the passed indicator result and dimension options, which reads its value and dimension filter from this cube
+	 * @param dimensions the dimension for each dimension key
+	 * @throws EvaluationException if one of the dimensions has not been added
+	 */
+	public CohortIndicatorAndDimensionResult createResult(CohortIndicatorResult result, Map<String, String> dimensionOptions,
+	                                                      Map<String, ? extends CohortDimension> dimensions, EvaluationContext context) throws EvaluationException {
+		CohortIndicatorAndDimensionResult ret = new CohortIndicatorAndDimensionResult(result, context);
+		if (dimensionOptions != null) {
+			for (Map.Entry<String, String> e : dimensionOptions.entrySet()) {
+				ret.addDimensionResult(dimensions.get(e.getKey()), getOptionCohort(e.getKey(), e.getValue()));
+			}
+		}
+		ret.setCalculatedValues(getFilter(dimensionOptions), getValue(result, dimensionOptions));
+		return ret;
+	}
+
+	/**
+	 * @return the canonical form of the passed combination of dimension options
+	 */
+	private String getCombinationKey(Map<String, String> dimensionOptions) {
+		StringBuilder key = new StringBuilder();
+		if (dimensionOptions != null) {
+			for (Map.Entry<String, String> e : new TreeMap<String, String>(dimensionOptions).entrySet()) {
+				key.append(key.length() == 0 ? "" : ",").append(e.getKey()).append("=").append(e.getValue());
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return the number of members of the passed bitmap which are also in the passed filter, if not null
+	 */
+	private static int getFilteredSize(IdBitmap bitmap, IdBitmap filter) {
+		return (filter == null ? bitmap.size() : IdBitmap.andCardinality(bitmap, filter));
+	}
+
+	private static IdBitmap toBitmap(Cohort c) {
+		return (c == null ? new IdBitmap() : CohortUtil.toBitmap(c));
+	}
+
+	private IdBitmap getOptionBitmap(String dimensionKey, String option) throws EvaluationException {
+		Map<String, IdBitmap> bitmaps = optionBitmaps.get(dimensionKey);
+		if (bitmaps == null) {
+			throw new EvaluationException("dimension " + dimensionKey);
+		}
+		IdBitmap bitmap = bitmaps.get(option);
+		if (bitmap == null) {
+			bitmap = toBitmap(optionCohorts.get(dimensionKey).get(option));
+			bitmaps.put(option, bitmap);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * The bitmaps and calculated values of an indicator result, with a column for each combination of options.
+	 * Counts which have not yet been calculated are -1, and aggregated values are only used by logic indicators.
+	 */
+	private static class Row {
+
+		private IndicatorType type;
+		private IdBitmap numerator;
+		private IdBitmap denominator;
+		private int[] numeratorCounts = new int[0];
+		private int[] denominatorCounts = new int[0];
+		private Number[] logicValues = new Number[0];
+
+		public Row(CohortIndicatorResult result) {
+			type = result.getDefinition().getType();
+			if (type != IndicatorType.LOGIC) {
+				numerator = toBitmap(result.getCohort());
+			}
+			if (type == IndicatorType.FRACTION) {
+				denominator = toBitmap(result.getDenominatorCohort());
+			}
+		}
+
+		public void ensureCapacity(int columnCount) {
+			int current = numeratorCounts.length;
+			if (columnCount <= current) {
+				return;
+			}
+			int length = Math.max(columnCount, current * 2);
+			numeratorCounts = grow(numeratorCounts, length);
+			denominatorCounts = grow(denominatorCounts, length);
+			logicValues = Arrays.copyOf(logicValues, length);
+		}
+
+		private static int[] grow(int[] counts, int length) {
+			int[] ret = Arrays.copyOf(counts, length);
+			Arrays.fill(ret, counts.length, length, -1);
+			return ret;
+		}
+	}
+}
@@ -24,7 +24,9 @@ import org.openmrs.api.context.Context;
 import org.openmrs.logic.LogicCriteria;
 import org.openmrs.logic.LogicException;
 import org.openmrs.logic.result.Result;
+import org.openmrs.module.reporting.cohort.CohortUtil;
 import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
+import org.openmrs.module.reporting.common.IdBitmap;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
 import org.openmrs.module.reporting.indicator.CohortIndicator;
@@ -59,15 +61,16 @@ public class CohortIndicatorEvaluator implements IndicatorEvaluator {
 		CohortDefinitionService cds = Context.getService(CohortDefinitionService.class);
 		
 		// Determine Base Cohort from LocationFilter and EvaluationContext base cohort
-		Cohort baseCohort = context.getBaseCohort();
+		// All intersections are done on IdBitmaps, and only converted back to Cohorts when set on the result
+		IdBitmap baseCohort = CohortUtil.toBitmap(context.getBaseCohort());
 		if (cid.getLocationFilter() != null) {
 			try {
-				Cohort locationCohort = cds.evaluate(cid.getLocationFilter(), context);
+				IdBitmap locationCohort = CohortUtil.toBitmap(cds.evaluate(cid.getLocationFilter(), context));
 				if (baseCohort == null) {
 					baseCohort = locationCohort;
 				}
 				else {
-					baseCohort = Cohort.intersect(baseCohort, locationCohort);
+					baseCohort = baseCohort.and(locationCohort);
 				}
 			} catch (Exception ex) {
 				throw new EvaluationException("locationFilter", ex);
@@ -77,12 +80,12 @@ public class CohortIndicatorEvaluator implements IndicatorEvaluator {
 		// Set Definition Denominator and further restrict base cohort
 		if (cid.getDenominator() != null) {
 			try {
-				Cohort denominatorCohort = cds.evaluate(cid.getDenominator(), context);
+				IdBitmap denominatorCohort = CohortUtil.toBitmap(cds.evaluate(cid.getDenominator(), context));
 				if (baseCohort != null) {
-					denominatorCohort = Cohort.intersect(denominatorCohort, baseCohort);
+					denominatorCohort = denominatorCohort.and(baseCohort);
 				}
-				baseCohort = new Cohort(denominatorCohort.getMemberIds());
-				result.setDenominatorCohort(denominatorCohort);
+				baseCohort = denominatorCohort;
+				result.setDenominatorCohort(CohortUtil.toCohort(denominatorCohort));
 			} catch (Exception ex) {
 				throw new EvaluationException("denominator", ex);
 			}
@@ -93,7 +96,7 @@ public class CohortIndicatorEvaluator implements IndicatorEvaluator {
 		try {
 			cohort = cds.evaluate(cid.getCohortDefinition(), context);
 			if (baseCohort != null) {
-				cohort = Cohort.intersect(cohort, baseCohort);
+				cohort = CohortUtil.toCohort(CohortUtil.toBitmap(cohort).and(baseCohort));
 			}
 			result.setCohort(cohort);
 		} catch (Exception ex) {
@@ -15,11 +15,13 @@
 package org.openmrs.module.reporting.query.encounter.evaluator;
 
 import org.hibernate.Criteria;
+import org.hibernate.Hibernate;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.openmrs.Encounter;
 import org.openmrs.annotation.Handler;
+import org.openmrs.module.reporting.cohort.MaterializedCohortUtil;
 import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
@@ -64,7 +66,12 @@ public class BasicEncounterQueryEvaluator implements EncounterQueryEvaluator {
             if (context.getBaseCohort().size() == 0) {
                 return result;
             } else {
-                criteria.add(Restrictions.in("patient.id", context.getBaseCohort().getMemberIds()));
+                String cohortKey = MaterializedCohortUtil.getBaseCohortKey(context);
+                if (cohortKey == null) {
+                    criteria.add(Restrictions.in("patient.id", context.getBaseCohort().getMemberIds()));
+                } else {
+                    criteria.add(Restrictions.sqlRestriction("{alias}.patient_id in (select member_id from reporting_materialized_cohort_member where cohort_key = ?)", cohortKey, Hibernate.STRING));
+                }
             }
         }
         if (context instanceof EncounterEvaluationContext) {
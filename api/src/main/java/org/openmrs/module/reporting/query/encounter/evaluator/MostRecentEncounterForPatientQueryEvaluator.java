@@ -22,6 +22,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.cohort.MaterializedCohortUtil;
 import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.dataset.query.service.DataSetQueryService;
@@ -75,8 +76,7 @@ public class MostRecentEncounterForPatientQueryEvaluator implements EncounterQue
 			params.put("onOrBefore", DateUtil.getEndOfDayIfTimeExcluded(query.getOnOrBefore()));
 		}
 		if (context.getBaseCohort() != null) {
-			q.append(" and patient.patientId in (:patientIds) ");
-			params.put("patientIds", context.getBaseCohort().getMemberIds());
+			q.append(" and " + MaterializedCohortUtil.getHqlRestriction("patient.patientId", context, params, "patientIds") + " ");
 		}
 		if (context instanceof EncounterEvaluationContext) {
 			EncounterEvaluationContext eec = (EncounterEvaluationContext) context;
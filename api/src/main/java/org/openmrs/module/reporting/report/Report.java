@@ -1,7 +1,11 @@
 package org.openmrs.module.reporting.report;
 
+import java.io.File;
+
+import org.openmrs.module.reporting.ReportingException;
 import org.openmrs.module.reporting.report.definition.ReportDefinition;
 import org.openmrs.module.reporting.report.renderer.ReportRenderer;
+import org.openmrs.module.reporting.report.util.ReportUtil;
 
 /**
  * This represents the result of having run a {@link ReportRequest}.
@@ -14,6 +18,7 @@ public class Report {
 	private ReportRequest request;
 	private ReportData reportData;
 	private byte[] renderedOutput;
+	private File renderedOutputFile;
 	private String errorMessage;
 	private boolean persisted;
 
@@ -74,9 +79,17 @@ public class Report {
 	}
 
 	/**
-	 * @return the renderedOutput
+	 * @return the renderedOutput, read from the renderedOutputFile if the output was rendered directly to file
 	 */
 	public byte[] getRenderedOutput() {
+		if (renderedOutput == null && renderedOutputFile != null) {
+			try {
+				return ReportUtil.readByteArrayFromFile(renderedOutputFile);
+			}
+			catch (Exception e) {
+				throw new ReportingException("Unable to read rendered output from " + renderedOutputFile, e);
+			}
+		}
 		return renderedOutput;
 	}
 
@@ -87,6 +100,20 @@ public class Report {
 		this.renderedOutput = renderedOutput;
 	}
 
+	/**
+	 * @return the file to which the output was rendered, if it was rendered directly to file rather than held in memory
+	 */
+	public File getRenderedOutputFile() {
+		return renderedOutputFile;
+	}
+
+	/**
+	 * @param renderedOutputFile the renderedOutputFile to set
+	 */
+	public void setRenderedOutputFile(File renderedOutputFile) {
+		this.renderedOutputFile = renderedOutputFile;
+	}
+
 	/**
 	 * @return the errorMessage
 	 */
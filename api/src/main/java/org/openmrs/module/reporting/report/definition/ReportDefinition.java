@@ -52,6 +52,9 @@ public class ReportDefinition extends BaseDefinition {
 	@ConfigurationProperty
 	private Map<String, Mapped<? extends DataSetDefinition>> dataSetDefinitions;
 	
+	@ConfigurationProperty
+	private Integer maxConcurrentDataSets;
+	
 	//***********************
 	// CONSTRUCTORS
 	//***********************
@@ -177,4 +180,19 @@ public class ReportDefinition extends BaseDefinition {
 	public void setDataSetDefinitions(Map<String, Mapped<? extends DataSetDefinition>> dataSetDefinitions) {
 		this.dataSetDefinitions = dataSetDefinitions;
 	}
+
+	/**
+	 * @return the maximum number of data sets in this report that may be evaluated concurrently.
+	 * If null or not greater than one, data sets are evaluated one at a time.
+	 */
+	public Integer getMaxConcurrentDataSets() {
+		return maxConcurrentDataSets;
+	}
+
+	/**
+	 * @param maxConcurrentDataSets the maxConcurrentDataSets to set
+	 */
+	public void setMaxConcurrentDataSets(Integer maxConcurrentDataSets) {
+		this.maxConcurrentDataSets = maxConcurrentDataSets;
+	}
 }
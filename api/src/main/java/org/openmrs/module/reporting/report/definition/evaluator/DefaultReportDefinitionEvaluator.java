@@ -17,19 +17,27 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Cohort;
 import org.openmrs.annotation.Handler;
+import org.openmrs.module.reporting.ReportingConstants;
 import org.openmrs.module.reporting.cohort.definition.util.CohortFilter;
 import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.dataset.DataSet;
+import org.openmrs.module.reporting.dataset.DataSetUtil;
 import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.service.DataSetDefinitionService;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.ParallelEvaluationUtil;
 import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.evaluation.plan.EvaluationPlanner;
 import org.openmrs.module.reporting.report.ReportData;
 import org.openmrs.module.reporting.report.definition.ReportDefinition;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * The default implementation of a {@link ReportDefinitionEvaluator} that
@@ -50,7 +58,13 @@ public class DefaultReportDefinitionEvaluator implements ReportDefinitionEvaluat
 	public DefaultReportDefinitionEvaluator() { }
 
 	/**
-	 * Evaluates each DataSetDefinition defined in the ReportDefinition and returns these within ReportData
+	 * Evaluates each DataSetDefinition defined in the ReportDefinition and returns these within ReportData.
+	 * If the ReportDefinition allows more than one data set to be evaluated concurrently, each data set which can be
+	 * (see {@link #canEvaluateOnWorker(DataSetDefinition)}) is evaluated on a worker thread with its own copy of the
+	 * EvaluationContext.  If the context allows streaming, each data set evaluated on the calling thread is allowed
+	 * to produce its rows lazily.  Unless disabled by global property, the report is first planned,
+	 * so that cohort definitions and dimensions which are mapped into it more than once are only evaluated once
+	 * @see EvaluationPlanner
 	 * @see ReportDefinitionEvaluator#evaluate(ReportDefinition, EvaluationContext)
 	 */
 	@Override
@@ -63,6 +77,9 @@ public class DefaultReportDefinitionEvaluator implements ReportDefinitionEvaluat
 
 		// We do this first so that we do not clear the cache between data sets if not necessary
 		EvaluationContext dataSetContext = context.shallowCopy();
+		if (dataSetContext.getEvaluationPlan() == null && ReportingConstants.GLOBAL_PROPERTY_EVALUATION_PLANNING()) {
+			dataSetContext.setEvaluationPlan(EvaluationPlanner.plan(reportDefinition, dataSetContext));
+		}
 		try {
 			if (reportDefinition.getBaseCohortDefinition() != null) {
 				Cohort newCohort = CohortFilter.filter(dataSetContext, reportDefinition.getBaseCohortDefinition());
@@ -75,19 +92,80 @@ public class DefaultReportDefinitionEvaluator implements ReportDefinitionEvaluat
 
 		Map<String, Mapped<? extends DataSetDefinition>> dataSetDefinitions = reportDefinition.getDataSetDefinitions();
 		if (dataSetDefinitions != null) {
-			for (String key : dataSetDefinitions.keySet()) {
-				Mapped<? extends DataSetDefinition> mappedDataSetDefinition = dataSetDefinitions.get(key);
-				EvaluationContext childContext = EvaluationContext.cloneForChild(dataSetContext, mappedDataSetDefinition);
-				try {
-					DataSet ds = dataSetDefinitionService.evaluate(mappedDataSetDefinition.getParameterizable(), childContext);
-					data.getDataSets().put(key, ds);
+			int maxConcurrency = ObjectUtil.nvl(reportDefinition.getMaxConcurrentDataSets(), 1);
+
+			// Data sets are not streamed on worker threads, as their rows would be read after the worker's session is closed
+			List<String> concurrentKeys = new ArrayList<String>();
+			List<Callable<DataSet>> concurrentTasks = new ArrayList<Callable<DataSet>>();
+			if (maxConcurrency > 1) {
+				for (Map.Entry<String, Mapped<? extends DataSetDefinition>> e : dataSetDefinitions.entrySet()) {
+					if (e.getValue() != null && canEvaluateOnWorker(e.getValue().getParameterizable())) {
+						EvaluationContext workerContext = ParallelEvaluationUtil.copyContextForWorker(dataSetContext);
+						concurrentKeys.add(e.getKey());
+						concurrentTasks.add(new DataSetEvaluationTask(e.getKey(), e.getValue(), workerContext, false));
+					}
+				}
+			}
+			Map<String, DataSet> concurrentResults = new HashMap<String, DataSet>();
+			if (concurrentTasks.size() > 1) {
+				List<DataSet> results = ParallelEvaluationUtil.evaluateAll(concurrentTasks, maxConcurrency);
+				for (int i = 0; i < concurrentKeys.size(); i++) {
+					concurrentResults.put(concurrentKeys.get(i), results.get(i));
 				}
-				catch (Exception ex) {
-					throw new EvaluationException("data set '" + key + "'", ex);
+			}
+
+			for (Map.Entry<String, Mapped<? extends DataSetDefinition>> e : dataSetDefinitions.entrySet()) {
+				DataSet dataSet = concurrentResults.get(e.getKey());
+				if (dataSet == null) {
+					dataSet = new DataSetEvaluationTask(e.getKey(), e.getValue(), dataSetContext, context.isStreamingAllowed()).evaluate();
 				}
+				data.getDataSets().put(e.getKey(), dataSet);
 			}
 		}
 		
 		return data;
 	}
+
+	/**
+	 * Data sets evaluated on a worker thread are used after the worker's session is closed, so only those whose values
+	 * are known to be ids or scalars, rather than Hibernate entities which would then be detached, are evaluated there.
+	 * @return true if the data set produced by the passed definition can be evaluated on a worker thread
+	 * @see DataSetUtil#canEvaluateOnWorker(DataSetDefinition)
+	 */
+	protected boolean canEvaluateOnWorker(DataSetDefinition dataSetDefinition) {
+		return DataSetUtil.canEvaluateOnWorker(dataSetDefinition);
+	}
+
+	/**
+	 * Evaluates a single DataSetDefinition of a report
+	 */
+	private class DataSetEvaluationTask implements Callable<DataSet> {
+
+		private String key;
+		private Mapped<? extends DataSetDefinition> mappedDataSetDefinition;
+		private EvaluationContext parentContext;
+		private boolean streamingAllowed;
+
+		public DataSetEvaluationTask(String key, Mapped<? extends DataSetDefinition> mappedDataSetDefinition, EvaluationContext parentContext, boolean streamingAllowed) {
+			this.key = key;
+			this.mappedDataSetDefinition = mappedDataSetDefinition;
+			this.parentContext = parentContext;
+			this.streamingAllowed = streamingAllowed;
+		}
+
+		public DataSet call() throws Exception {
+			return evaluate();
+		}
+
+		public DataSet evaluate() throws EvaluationException {
+			try {
+				EvaluationContext childContext = EvaluationContext.cloneForChild(parentContext, mappedDataSetDefinition);
+				childContext.setStreamingAllowed(streamingAllowed);
+				return dataSetDefinitionService.evaluate(mappedDataSetDefinition.getParameterizable(), childContext);
+			}
+			catch (Exception ex) {
+				throw new EvaluationException("data set '" + key + "'", ex);
+			}
+		}
+	}
 }
@@ -18,6 +18,7 @@ import org.openmrs.module.reporting.evaluation.Definition;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
 import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.evaluation.plan.EvaluationPlanExplanation;
 import org.openmrs.module.reporting.report.ReportData;
 import org.openmrs.module.reporting.report.definition.ReportDefinition;
 import org.springframework.transaction.annotation.Transactional;
@@ -47,5 +48,21 @@ public interface ReportDefinitionService extends DefinitionService<ReportDefinit
 	 */
 	@Transactional(readOnly = true)
 	public ReportData evaluate(Mapped<? extends ReportDefinition> reportDefinition, EvaluationContext context) throws EvaluationException;
+	
+	/**
+	 * Plans the evaluation of a ReportDefinition for the given EvaluationContext without evaluating it, and returns
+	 * the tree of definitions it would evaluate, with the evaluator and expected cache status of each, and estimates
+	 * of their result sizes and evaluation times based on past evaluations
+	 * @see org.openmrs.module.reporting.evaluation.plan.EvaluationPlanExplainer
+	 */
+	@Transactional(readOnly = true)
+	public EvaluationPlanExplanation explain(ReportDefinition reportDefinition, EvaluationContext context);
+	
+	/**
+	 * Explains the evaluation of a mapped ReportDefinition, after resolving its parameter mappings against the given EvaluationContext
+	 * @see #explain(ReportDefinition, EvaluationContext)
+	 */
+	@Transactional(readOnly = true)
+	public EvaluationPlanExplanation explain(Mapped<? extends ReportDefinition> reportDefinition, EvaluationContext context) throws EvaluationException;
 }
 
@@ -2,6 +2,7 @@ package org.openmrs.module.reporting.report.definition.service;
 
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.definition.DefinitionSummary;
 import org.openmrs.module.reporting.definition.service.BaseDefinitionService;
 import org.openmrs.module.reporting.definition.service.DefinitionService;
@@ -9,7 +10,12 @@ import org.openmrs.module.reporting.definition.service.SerializedDefinitionServi
 import org.openmrs.module.reporting.evaluation.Definition;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.MissingDependencyException;
 import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.evaluation.plan.EvaluationPlan;
+import org.openmrs.module.reporting.evaluation.plan.EvaluationPlanExplainer;
+import org.openmrs.module.reporting.evaluation.plan.EvaluationPlanExplanation;
+import org.openmrs.module.reporting.evaluation.plan.EvaluationPlanner;
 import org.openmrs.module.reporting.report.ReportData;
 import org.openmrs.module.reporting.report.ReportDesign;
 import org.openmrs.module.reporting.report.ReportRequest;
@@ -149,6 +155,28 @@ public class ReportDefinitionServiceImpl extends BaseDefinitionService<ReportDef
 		return (ReportData) super.evaluate(definition, context);
 	}
 	
+	/**
+	 * @see ReportDefinitionService#explain(ReportDefinition, EvaluationContext)
+	 */
+	@Transactional(readOnly=true)
+	public EvaluationPlanExplanation explain(ReportDefinition definition, EvaluationContext context) {
+		context = ObjectUtil.nvl(context, new EvaluationContext());
+		EvaluationPlan plan = EvaluationPlanner.plan(definition, context);
+		return EvaluationPlanExplainer.explain(plan, context);
+	}
+	
+	/**
+	 * @see ReportDefinitionService#explain(Mapped, EvaluationContext)
+	 */
+	@Transactional(readOnly=true)
+	public EvaluationPlanExplanation explain(Mapped<? extends ReportDefinition> definition, EvaluationContext context) throws EvaluationException {
+		if (definition == null || definition.getParameterizable() == null) {
+			throw new MissingDependencyException();
+		}
+		EvaluationContext childContext = EvaluationContext.cloneForChild(ObjectUtil.nvl(context, new EvaluationContext()), definition);
+		return explain(definition.getParameterizable(), childContext);
+	}
+	
 	/**
 	 * Utility method that returns the SerializedDefinitionService
 	 */
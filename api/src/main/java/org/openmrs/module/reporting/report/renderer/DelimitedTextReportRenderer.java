@@ -42,7 +42,7 @@ import java.util.zip.ZipOutputStream;
 /**
  * ReportRenderer that renders to a delimited text file
  */
-public class DelimitedTextReportRenderer extends ReportDesignRenderer {
+public class DelimitedTextReportRenderer extends ReportDesignRenderer implements StreamingReportRenderer {
 	
 	transient protected final Log log = LogFactory.getLog(getClass());
 	
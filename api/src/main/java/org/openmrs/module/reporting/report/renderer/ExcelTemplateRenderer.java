@@ -30,9 +30,11 @@ import org.openmrs.annotation.Handler;
 import org.openmrs.module.reporting.common.ExcelUtil;
 import org.openmrs.module.reporting.common.Localized;
 import org.openmrs.module.reporting.common.ObjectUtil;
+import org.openmrs.module.reporting.common.OverlayMap;
 import org.openmrs.module.reporting.dataset.DataSet;
 import org.openmrs.module.reporting.dataset.DataSetRow;
 import org.openmrs.module.reporting.evaluation.EvaluationUtil;
+import org.openmrs.module.reporting.evaluation.ExpressionTemplate;
 import org.openmrs.module.reporting.report.ReportData;
 import org.openmrs.module.reporting.report.ReportDesign;
 import org.openmrs.module.reporting.report.ReportDesignResource;
@@ -43,6 +45,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -99,7 +102,11 @@ public class ExcelTemplateRenderer extends ReportTemplateRenderer {
 				Map<String, String> repeatSections = getRepeatingSections(design);
 
 				// Put together base set of replacements.  Any dataSet with only one row is included.
-				Map<String, Object> replacements = getBaseReplacementData(reportData, design);
+				// This is shared by all sheets, rows, and cells, which only overlay their own values on it
+				Map<String, Object> replacements = Collections.unmodifiableMap(getBaseReplacementData(reportData, design));
+
+				// Each distinct cell text is parsed only once, however many times it is repeated
+				Map<String, ExpressionTemplate> cellTemplates = new HashMap<String, ExpressionTemplate>();
 
 				// Iterate across all of the sheets in the workbook, and configure all those that need to be added/cloned
 				List<SheetToAdd> sheetsToAdd = new ArrayList<SheetToAdd>();
@@ -132,7 +139,9 @@ public class ExcelTemplateRenderer extends ReportTemplateRenderer {
 
 				// Then iterate across all of these and add them in
 				for (int i=0; i<sheetsToAdd.size(); i++) {
-					addSheet(wb, sheetsToAdd.get(i), usedSheetNames, reportData, design, repeatSections);
+					SheetToAdd sheetToAdd = sheetsToAdd.get(i);
+					sheetToAdd.setCellTemplates(cellTemplates);
+					addSheet(wb, sheetToAdd, usedSheetNames, reportData, design, repeatSections);
 				}
 
 				wb.write(out);
@@ -156,6 +165,9 @@ public class ExcelTemplateRenderer extends ReportTemplateRenderer {
 		
 		int sheetIndex = wb.getSheetIndex(sheet);
 
+		// Index the conditional formatting of the template cells before any rows are added to the sheet
+		sheetToAdd.setConditionalFormattings(getConditionalFormattings(sheet));
+
 		// Configure the sheet name, replacing any values as needed, and ensuring it is unique for the workbook
 		String sheetName = EvaluationUtil.evaluateExpression(sheetToAdd.getOriginalSheetName(), sheetToAdd.getReplacementData(), prefix, suffix).toString();
 		sheetName = ExcelUtil.formatSheetTitle(sheetName, usedSheetNames);
@@ -297,6 +309,13 @@ public class ExcelTemplateRenderer extends ReportTemplateRenderer {
 		String prefix = getExpressionPrefix(design);
 		String suffix = getExpressionSuffix(design);
 
+		if (sheetToAdd.getConditionalFormattings() == null) {
+			sheetToAdd.setConditionalFormattings(getConditionalFormattings(sheetToAdd.getSheet()));
+		}
+		if (sheetToAdd.getCellTemplates() == null) {
+			sheetToAdd.setCellTemplates(new HashMap<String, ExpressionTemplate>());
+		}
+
 		for (int i=0; i<cellsToAdd.size(); i++) {
 			CellToAdd cellToAdd = cellsToAdd.get(i);
 			Cell newCell = newRow.createCell(i);
@@ -311,28 +330,23 @@ public class ExcelTemplateRenderer extends ReportTemplateRenderer {
 		    		// Do nothing here.  I don't know why POI throw exceptions here when the cell is not a formula, but this suppresses them...
 		    	}
 		    	
-		    	int numFormattings = sheetToAdd.getSheet().getSheetConditionalFormatting().getNumConditionalFormattings();
-				for (int n=0; n<numFormattings; n++) {
-					ConditionalFormatting f = sheetToAdd.getSheet().getSheetConditionalFormatting().getConditionalFormattingAt(n);
-					for (CellRangeAddress add : f.getFormattingRanges()) {
-						
-						if (add.getFirstRow() == rowToAdd.getRowToClone().getRowNum() && add.getLastRow() == rowToClone.getRowNum()) {
-							if (add.getFirstColumn() == cellToClone.getColumnIndex() && add.getLastColumn() == cellToClone.getColumnIndex()) {
-								ConditionalFormattingRule[] rules = new ConditionalFormattingRule[f.getNumberOfRules()];
-								for (int j=0; j<f.getNumberOfRules(); j++) {
-									rules[j] = f.getRule(j);
-								}
-								CellRangeAddress[] cellRange = new CellRangeAddress[1];
-								cellRange[0] = new CellRangeAddress(rowIndex, rowIndex, i, i);
-								sheetToAdd.getSheet().getSheetConditionalFormatting().addConditionalFormatting(cellRange, rules);
-							}
-						}
-					}
-				}	
+		    	List<ConditionalFormattingRule[]> formattings = sheetToAdd.getConditionalFormattings().get(getCellKey(rowToClone.getRowNum(), cellToClone.getColumnIndex()));
+		    	if (formattings != null) {
+		    		for (ConditionalFormattingRule[] rules : formattings) {
+		    			CellRangeAddress[] cellRange = new CellRangeAddress[1];
+		    			cellRange[0] = new CellRangeAddress(rowIndex, rowIndex, i, i);
+		    			sheetToAdd.getSheet().getSheetConditionalFormatting().addConditionalFormatting(cellRange, rules);
+		    		}
+		    	}
 		    	
 		    	if (ObjectUtil.notNull(contents)) {
 					if (contents instanceof String) {
-		    			contents = EvaluationUtil.evaluateExpression(contents.toString(), cellToAdd.getReplacementData(), prefix, suffix);
+						ExpressionTemplate cellTemplate = sheetToAdd.getCellTemplates().get(contents);
+						if (cellTemplate == null) {
+							cellTemplate = new ExpressionTemplate(contents.toString(), prefix, suffix);
+							sheetToAdd.getCellTemplates().put(contents.toString(), cellTemplate);
+						}
+		    			contents = cellTemplate.evaluate(cellToAdd.getReplacementData());
 					}
 		    		ExcelUtil.setCellContents(newCell, contents);
 		    	}
@@ -341,6 +355,42 @@ public class ExcelTemplateRenderer extends ReportTemplateRenderer {
 		
 		return newRow;
 	}
+
+	/**
+	 * @return the rules of each single-cell conditional formatting in the passed sheet, keyed by the cell they apply to
+	 * This is read once before the sheet is rendered, so that cloned cells do not need to search all formattings
+	 * of the sheet, nor pick up the formattings that have been added for cells cloned before them
+	 */
+	protected Map<String, List<ConditionalFormattingRule[]>> getConditionalFormattings(Sheet sheet) {
+		Map<String, List<ConditionalFormattingRule[]>> ret = new HashMap<String, List<ConditionalFormattingRule[]>>();
+		int numFormattings = sheet.getSheetConditionalFormatting().getNumConditionalFormattings();
+		for (int n=0; n<numFormattings; n++) {
+			ConditionalFormatting f = sheet.getSheetConditionalFormatting().getConditionalFormattingAt(n);
+			ConditionalFormattingRule[] rules = new ConditionalFormattingRule[f.getNumberOfRules()];
+			for (int j=0; j<f.getNumberOfRules(); j++) {
+				rules[j] = f.getRule(j);
+			}
+			for (CellRangeAddress add : f.getFormattingRanges()) {
+				if (add.getFirstRow() == add.getLastRow() && add.getFirstColumn() == add.getLastColumn()) {
+					String key = getCellKey(add.getFirstRow(), add.getFirstColumn());
+					List<ConditionalFormattingRule[]> l = ret.get(key);
+					if (l == null) {
+						l = new ArrayList<ConditionalFormattingRule[]>();
+						ret.put(key, l);
+					}
+					l.add(rules);
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return a key identifying the cell at the passed row and column
+	 */
+	private String getCellKey(int rowNum, int columnNum) {
+		return rowNum + "," + columnNum;
+	}
 	
 	/**
 	 * @return an Excel Workbook for the given argument
@@ -453,13 +503,13 @@ public class ExcelTemplateRenderer extends ReportTemplateRenderer {
 	}
 	
 	/**
-	 * @return a new Map with the original map values cloned and new values inserted as appropriate from the passed DataSetRow
+	 * @return a new Map with the values from the passed DataSetRow overlaid on the original map values
+	 * The original map is shared rather than copied, so only the values of the row itself are allocated
 	 */
 	public Map<String, Object> getReplacementData(Map<String, Object> replacements, ReportData reportData, ReportDesign design, 
 												  String dataSetName, DataSetRow dataSetRow, Integer dataSetRowNum) {
 	
-		Map<String, Object> newReplacements = new HashMap<String, Object>(replacements);
-		newReplacements.putAll(getReplacementData(reportData, design, dataSetName, dataSetRow));
+		Map<String, Object> newReplacements = new OverlayMap<String, Object>(replacements, getReplacementData(reportData, design, dataSetName, dataSetRow));
 		newReplacements.put(dataSetName + SEPARATOR + ROW_CONTEXT_PREFIX + SEPARATOR + INDEX, dataSetRowNum);
 		return newReplacements;
 	}
@@ -473,6 +523,8 @@ public class ExcelTemplateRenderer extends ReportTemplateRenderer {
 		private Integer originalSheetNum;
 		private String originalSheetName;
 		private Map<String, Object> replacementData;
+		private Map<String, List<ConditionalFormattingRule[]>> conditionalFormattings;
+		private Map<String, ExpressionTemplate> cellTemplates;
 		
 		/**
 		 * Default Constructor
@@ -532,6 +584,30 @@ public class ExcelTemplateRenderer extends ReportTemplateRenderer {
 		public void setReplacementData(Map<String, Object> replacementData) {
 			this.replacementData = replacementData;
 		}
+		/**
+		 * @return the conditional formatting rules of the template cells, keyed by cell
+		 */
+		public Map<String, List<ConditionalFormattingRule[]>> getConditionalFormattings() {
+			return conditionalFormattings;
+		}
+		/**
+		 * @param conditionalFormattings the conditionalFormattings to set
+		 */
+		public void setConditionalFormattings(Map<String, List<ConditionalFormattingRule[]>> conditionalFormattings) {
+			this.conditionalFormattings = conditionalFormattings;
+		}
+		/**
+		 * @return the parsed cell contents, keyed by the original cell text
+		 */
+		public Map<String, ExpressionTemplate> getCellTemplates() {
+			return cellTemplates;
+		}
+		/**
+		 * @param cellTemplates the cellTemplates to set
+		 */
+		public void setCellTemplates(Map<String, ExpressionTemplate> cellTemplates) {
+			this.cellTemplates = cellTemplates;
+		}
 	}
 	
 	/**
@@ -0,0 +1,10 @@
+package org.openmrs.module.reporting.report.renderer;
+
+/**
+ * Marker interface that represents renderers that read each DataSet in a single pass over its rows,
+ * writing each row as it is read.  Reports rendered with such a renderer may evaluate their DataSets
+ * lazily, and are rendered directly to file, so that rows need not all be held in memory at once.
+ */
+public interface StreamingReportRenderer extends ReportRenderer {
+
+}
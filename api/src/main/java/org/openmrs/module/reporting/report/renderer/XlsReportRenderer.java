@@ -70,41 +70,70 @@ public class XlsReportRenderer extends ReportTemplateRenderer {
 			templateRenderer.render(reportData, argument, out);
         }
 		else {
-			ExcelBuilder excelBuilder = new ExcelBuilder();
-            for (Map.Entry<String, DataSet> e : reportData.getDataSets().entrySet()) {
-                DataSet dataset = e.getValue();
-				excelBuilder.newSheet(e.getKey());
+			ExcelBuilder excelBuilder = createExcelBuilder(design);
+			try {
+				addDataSets(reportData, design, excelBuilder);
+				excelBuilder.write(out);
+			}
+			finally {
+				excelBuilder.dispose();
+			}
+        }
+    }
+
+	/**
+	 * @return the builder of the workbook to which the data sets are added, if no template is used
+	 */
+	protected ExcelBuilder createExcelBuilder(ReportDesign design) {
+		return new ExcelBuilder();
+	}
+
+	/**
+	 * Adds a sheet to the passed builder for each data set of the passed report data, reading the rows of
+	 * each data set once, in order.  If a data set has more rows than fit in a sheet, it is continued in another
+	 * sheet, which starts with the column headers again.
+	 */
+	protected void addDataSets(ReportData reportData, ReportDesign design, ExcelBuilder excelBuilder) {
+		for (Map.Entry<String, DataSet> e : reportData.getDataSets().entrySet()) {
+			DataSet dataset = e.getValue();
+			excelBuilder.newSheet(e.getKey());
 
-				if (getIncludeDataSetNameAndParameters(design)) {
-					String displayName = ObjectUtil.nvlStr(dataset.getDefinition().getName(), e.getKey());
-					excelBuilder.addCell(displayName, "bold");
-					excelBuilder.nextRow();
-					for (Parameter p : dataset.getDefinition().getParameters()) {
-						Object parameterValue = dataset.getContext().getParameterValue(p.getName());
-						if (ObjectUtil.notNull(parameterValue)) {
-							excelBuilder.addCell(p.getLabelOrName() + ":", "align=right");
-							excelBuilder.addCell(ObjectUtil.format(parameterValue));
-							excelBuilder.nextRow();
-						}
+			if (getIncludeDataSetNameAndParameters(design)) {
+				String displayName = ObjectUtil.nvlStr(dataset.getDefinition().getName(), e.getKey());
+				excelBuilder.addCell(displayName, "bold");
+				excelBuilder.nextRow();
+				for (Parameter p : dataset.getDefinition().getParameters()) {
+					Object parameterValue = dataset.getContext().getParameterValue(p.getName());
+					if (ObjectUtil.notNull(parameterValue)) {
+						excelBuilder.addCell(p.getLabelOrName() + ":", "align=right");
+						excelBuilder.addCell(ObjectUtil.format(parameterValue));
+						excelBuilder.nextRow();
 					}
-					excelBuilder.nextRow();
 				}
+				excelBuilder.nextRow();
+			}
 
-                List<DataSetColumn> columnList = dataset.getMetaData().getColumns();
-                for (DataSetColumn column : columnList) {
-					excelBuilder.addCell(column.getLabel(), "bold,border=bottom");
-                }
-                for (DataSetRow row : dataset ) {
-					excelBuilder.nextRow();
-                    for (DataSetColumn column : columnList) {
-                    	Object cellValue = row.getColumnValue(column);
-                        excelBuilder.addCell(cellValue);
-                    }
-                }
-            }
-			excelBuilder.write(out);
-        }
-    }
+			List<DataSetColumn> columnList = dataset.getMetaData().getColumns();
+			addColumnHeaders(excelBuilder, columnList);
+			for (DataSetRow row : dataset ) {
+				if (excelBuilder.getCurrentRowNum() + 1 >= excelBuilder.getMaxRowsPerSheet()) {
+					excelBuilder.newSheet(e.getKey());
+					addColumnHeaders(excelBuilder, columnList);
+				}
+				excelBuilder.nextRow();
+				for (DataSetColumn column : columnList) {
+					Object cellValue = row.getColumnValue(column);
+					excelBuilder.addCell(cellValue);
+				}
+			}
+		}
+	}
+
+	private void addColumnHeaders(ExcelBuilder excelBuilder, List<DataSetColumn> columnList) {
+		for (DataSetColumn column : columnList) {
+			excelBuilder.addCell(column.getLabel(), "bold,border=bottom");
+		}
+	}
 
 	/**
 	 * @return true if the Excel output should include the data set name and parameters in the top rows
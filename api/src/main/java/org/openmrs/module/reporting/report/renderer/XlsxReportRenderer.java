@@ -0,0 +1,68 @@
+package org.openmrs.module.reporting.report.renderer;
+
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.openmrs.annotation.Handler;
+import org.openmrs.module.reporting.common.ExcelBuilder;
+import org.openmrs.module.reporting.common.Localized;
+import org.openmrs.module.reporting.report.ReportDesign;
+import org.openmrs.module.reporting.report.definition.ReportDefinition;
+
+/**
+ * Report renderer that produces an Excel 2007 (xlsx) workbook with one sheet per dataset in the report.
+ * Only a window of the most recent rows of each sheet is held in memory while the workbook is built, and earlier
+ * rows are written to temporary files, so that the rows of each dataset can be streamed into the workbook.
+ * The number of rows kept in memory can be set with the {@link #ROW_ACCESS_WINDOW_SIZE_PROPERTY} design property.
+ */
+@Handler
+@Localized("reporting.XlsxReportRenderer")
+public class XlsxReportRenderer extends XlsReportRenderer implements StreamingReportRenderer {
+
+	public static String ROW_ACCESS_WINDOW_SIZE_PROPERTY = "rowAccessWindowSize";
+
+	public XlsxReportRenderer() { }
+
+	/**
+	 * Designs with a template are rendered by the {@link ExcelTemplateRenderer}, in the format of the template
+	 * @see ReportRenderer#getRenderedContentType(ReportDefinition, String)
+	 */
+	@Override
+	public String getRenderedContentType(ReportDefinition schema, String argument) {
+		if (getTemplate(getDesign(argument)) != null) {
+			return super.getRenderedContentType(schema, argument);
+		}
+		return "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+	}
+
+	/**
+	 * @see ReportRenderer#getFilename(ReportDefinition, String)
+	 */
+	@Override
+	public String getFilename(ReportDefinition definition, String argument) {
+		String fileName = super.getFilename(definition, argument);
+		if (getTemplate(getDesign(argument)) == null && fileName.endsWith(".xls")) {
+			fileName = fileName + "x";
+		}
+		return fileName;
+	}
+
+	/**
+	 * @see XlsReportRenderer#createExcelBuilder(ReportDesign)
+	 */
+	@Override
+	protected ExcelBuilder createExcelBuilder(ReportDesign design) {
+		return new ExcelBuilder(new SXSSFWorkbook(getRowAccessWindowSize(design)));
+	}
+
+	/**
+	 * @return the number of rows of each sheet to keep in memory while the workbook is built
+	 */
+	public int getRowAccessWindowSize(ReportDesign design) {
+		String windowSize = design.getPropertyValue(ROW_ACCESS_WINDOW_SIZE_PROPERTY, "");
+		try {
+			return Math.max(Integer.parseInt(windowSize.trim()), 1);
+		}
+		catch (NumberFormatException e) {
+			return SXSSFWorkbook.DEFAULT_WINDOW_SIZE;
+		}
+	}
+}
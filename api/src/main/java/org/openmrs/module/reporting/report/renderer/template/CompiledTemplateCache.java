@@ -0,0 +1,202 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.report.renderer.template;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.reporting.ReportingConstants;
+import org.openmrs.module.reporting.evaluation.caching.EvaluationCacheStatistics;
+
+/**
+ * Caches the compiled form of templates for a single template engine, so that a template is only compiled
+ * (which, for Groovy, generates and loads new classes) the first time it is evaluated.  Entries are keyed by
+ * the hash of the template content, and the content itself is compared on lookup, so that templates whose
+ * hashes collide are never confused.  Compiled templates are shared between threads, so the compiled form
+ * must be safe to evaluate concurrently.
+ *
+ * The least recently used entries are removed once {@link ReportingConstants#GLOBAL_PROPERTY_TEMPLATE_CACHE_MAX_SIZE()}
+ * is reached, and {@link #removed(Object)} is called for each of them.  In the statistics, each miss is a compilation,
+ * and the weight is the number of cached templates.
+ */
+public class CompiledTemplateCache<T> {
+
+	private static Log log = LogFactory.getLog(CompiledTemplateCache.class);
+
+	public static final String MBEAN_NAME_PREFIX = "org.openmrs.module.reporting:type=CompiledTemplateCache,engine=";
+
+	private final String engineName;
+	private final Map<Integer, Entry<T>> entries;
+	private final EvaluationCacheStatistics statistics = new EvaluationCacheStatistics();
+	private Integer maxSize;
+
+	/**
+	 * Compiles a template into the form in which it is cached
+	 */
+	public interface Compiler<T> {
+
+		/**
+		 * @return the compiled form of the passed template
+		 * @throws Exception if the template cannot be compiled
+		 */
+		public T compile(String template) throws Exception;
+	}
+
+	/**
+	 * @param engineName the name of the engine whose templates are cached, under which its statistics are registered
+	 */
+	public CompiledTemplateCache(String engineName) {
+		this.engineName = engineName;
+		this.entries = new LinkedHashMap<Integer, Entry<T>>(16, 0.75f, true);
+	}
+
+	/**
+	 * @return the compiled form of the passed template, which is compiled with the passed compiler only if it is not yet cached
+	 * @throws Exception if the template cannot be compiled
+	 */
+	public T get(String template, Compiler<T> compiler) throws Exception {
+		Integer key = template.hashCode();
+		synchronized (this) {
+			Entry<T> entry = entries.get(key);
+			if (entry != null && entry.getTemplate().equals(template)) {
+				statistics.recordHit();
+				return entry.getCompiled();
+			}
+		}
+		statistics.recordMiss();
+		T compiled = compiler.compile(template);
+		int max = getMaxSize();
+		if (max > 0) {
+			synchronized (this) {
+				entries.put(key, new Entry<T>(template, compiled));
+				statistics.recordPut();
+				while (entries.size() > max) {
+					Iterator<Entry<T>> i = entries.values().iterator();
+					Entry<T> eldest = i.next();
+					i.remove();
+					removed(eldest.getCompiled());
+					statistics.recordEviction();
+				}
+				statistics.setCurrentWeight(entries.size());
+			}
+		}
+		return compiled;
+	}
+
+	/**
+	 * Removes all cached templates
+	 */
+	public synchronized void clear() {
+		for (Entry<T> entry : entries.values()) {
+			removed(entry.getCompiled());
+		}
+		entries.clear();
+		maxSize = null;
+		statistics.setCurrentWeight(0);
+	}
+
+	/**
+	 * Called when the passed compiled template is removed from the cache, so that engines can release anything they hold
+	 * for it.  The default implementation does nothing.
+	 */
+	protected void removed(T compiled) {
+	}
+
+	/**
+	 * @return the number of cached templates
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the hit, miss and eviction counts of this cache
+	 */
+	public EvaluationCacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * The maximum size is read the first time a template is compiled, rather than when the cache is created,
+	 * since template engines are created before global properties can be read
+	 */
+	private synchronized int getMaxSize() {
+		if (maxSize == null) {
+			maxSize = ReportingConstants.GLOBAL_PROPERTY_TEMPLATE_CACHE_MAX_SIZE();
+			registerStatistics();
+		}
+		return maxSize;
+	}
+
+	/**
+	 * Registers the statistics of this cache with the platform MBean server, so they can be monitored over JMX
+	 */
+	public void registerStatistics() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(MBEAN_NAME_PREFIX + ObjectName.quote(engineName));
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(statistics, name);
+		}
+		catch (Exception e) {
+			log.warn("Unable to register " + engineName + " template cache statistics with JMX", e);
+		}
+	}
+
+	/**
+	 * Removes the statistics of all template caches from the platform MBean server
+	 */
+	public static void unregisterStatistics() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			for (ObjectName name : server.queryNames(new ObjectName(MBEAN_NAME_PREFIX + "*"), null)) {
+				server.unregisterMBean(name);
+			}
+		}
+		catch (Exception e) {
+			log.warn("Unable to unregister template cache statistics from JMX", e);
+		}
+	}
+
+	/**
+	 * A compiled template, along with the content it was compiled from
+	 */
+	private static class Entry<T> {
+
+		private String template;
+		private T compiled;
+
+		public Entry(String template, T compiled) {
+			this.template = template;
+			this.compiled = compiled;
+		}
+
+		public String getTemplate() {
+			return template;
+		}
+
+		public T getCompiled() {
+			return compiled;
+		}
+	}
+}
@@ -23,9 +23,14 @@ import org.openmrs.util.OpenmrsClassLoader;
 
 /**
  * Groovy-based template engine
+ * Compiled templates are cached, so that each template only generates and loads new classes once
  */
 public class GroovyTemplateEngine implements TemplateEngine {
 	
+	private final CompiledTemplateCache<Template> templateCache = new CompiledTemplateCache<Template>(getName());
+	
+	private SimpleTemplateEngine engine;
+	
 	/**
 	 * @see TemplateEngine#getName()
 	 */
@@ -39,8 +44,11 @@ public class GroovyTemplateEngine implements TemplateEngine {
 	@Override
 	public String evaluate(String template, Map<String, Object> bindings) throws TemplateEvaluationException {
 		try {
-			SimpleTemplateEngine engine = new SimpleTemplateEngine(OpenmrsClassLoader.getInstance());
-			Template groovyTemplate = engine.createTemplate(template);
+			Template groovyTemplate = templateCache.get(template, new CompiledTemplateCache.Compiler<Template>() {
+				public Template compile(String template) throws Exception {
+					return getEngine().createTemplate(template);
+				}
+			});
 			String result = groovyTemplate.make(bindings).toString();
 			return result;
 		}
@@ -51,4 +59,21 @@ public class GroovyTemplateEngine implements TemplateEngine {
 			throw new TemplateEvaluationException("Unable to compile " + getName() + " template", e);
 		}
 	}
+	
+	/**
+	 * @return the cache of compiled templates of this engine
+	 */
+	public CompiledTemplateCache<Template> getTemplateCache() {
+		return templateCache;
+	}
+	
+	/**
+	 * The engine is created on first use, since the OpenMRS class loader is not available when engines are registered
+	 */
+	private synchronized SimpleTemplateEngine getEngine() {
+		if (engine == null) {
+			engine = new SimpleTemplateEngine(OpenmrsClassLoader.getInstance());
+		}
+		return engine;
+	}
 }
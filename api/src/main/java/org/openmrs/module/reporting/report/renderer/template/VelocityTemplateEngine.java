@@ -13,19 +13,35 @@
  */
 package org.openmrs.module.reporting.report.renderer.template;
 
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.Map;
 
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
 import org.apache.velocity.runtime.log.CommonsLogLogChute;
 
 /**
  * Velocity-based template engine
+ * A single runtime is initialized on first use, and the parsed form of each template is cached.  Each template is named
+ * by the hash of its content, and macros defined inline are local to the template that defines them, so they never
+ * leak into other templates.
  */
 public class VelocityTemplateEngine implements TemplateEngine {
 	
+	private final CompiledTemplateCache<Template> templateCache = new CompiledTemplateCache<Template>(getName()) {
+		@Override
+		protected void removed(Template compiled) {
+			if (runtime != null) {
+				runtime.dumpVMNamespace(compiled.getName());
+			}
+		}
+	};
+	
+	private RuntimeInstance runtime;
+	
 	/**
 	 * @see TemplateEngine#getName()
 	 */
@@ -39,16 +55,25 @@ public class VelocityTemplateEngine implements TemplateEngine {
 	@Override
 	public String evaluate(String template, Map<String, Object> bindings) throws TemplateEvaluationException {
 		try {
-			VelocityEngine ve = new VelocityEngine();
-			ve.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, "org.apache.velocity.runtime.log.CommonsLogLogChute");
-			ve.setProperty(CommonsLogLogChute.LOGCHUTE_COMMONS_LOG_NAME, "reporttemplate_velocity");
-			ve.init();
+			Template velocityTemplate = templateCache.get(template, new CompiledTemplateCache.Compiler<Template>() {
+				public Template compile(String template) throws Exception {
+					RuntimeInstance ri = getRuntime();
+					Template t = new Template();
+					t.setName(VelocityTemplateEngine.class.getName() + "-" + Integer.toHexString(template.hashCode()));
+					// Recompiling a template, or one whose hash collides with it, replaces rather than adds to its macros
+					ri.dumpVMNamespace(t.getName());
+					t.setRuntimeServices(ri);
+					t.setData(ri.parse(new StringReader(template), t.getName()));
+					t.initDocument();
+					return t;
+				}
+			});
 			VelocityContext velocityContext = new VelocityContext();
 			for (Map.Entry<String, Object> e : bindings.entrySet()) {
 				velocityContext.put(e.getKey().replace(".", "-"), e.getValue());
 			}
 			StringWriter writer = new StringWriter();
-			ve.evaluate(velocityContext, writer, getClass().getName(), template);
+			velocityTemplate.merge(velocityContext, writer);
 			String result = writer.toString();
 			return result;
 		}
@@ -56,4 +81,26 @@ public class VelocityTemplateEngine implements TemplateEngine {
 			throw new TemplateEvaluationException("Unable to compile " + getName() + " template", e);
 		}
 	}
+	
+	/**
+	 * @return the cache of parsed templates of this engine
+	 */
+	public CompiledTemplateCache<Template> getTemplateCache() {
+		return templateCache;
+	}
+	
+	/**
+	 * @return the runtime shared by all templates of this engine, which is initialized on first use
+	 */
+	private synchronized RuntimeInstance getRuntime() throws Exception {
+		if (runtime == null) {
+			RuntimeInstance ri = new RuntimeInstance();
+			ri.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, "org.apache.velocity.runtime.log.CommonsLogLogChute");
+			ri.setProperty(CommonsLogLogChute.LOGCHUTE_COMMONS_LOG_NAME, "reporttemplate_velocity");
+			ri.setProperty(RuntimeConstants.VM_PERM_INLINE_LOCAL, "true");
+			ri.init();
+			runtime = ri;
+		}
+		return runtime;
+	}
 }
@@ -152,6 +152,17 @@ public interface ReportService extends OpenmrsService {
 	@Transactional
 	public void purgeReportRequest(ReportRequest request);
 	
+	/**
+	 * Claims the highest priority queued {@link ReportRequest} for processing by moving it from REQUESTED to PROCESSING.
+	 * The transition is made atomically in the database, so that a request is only ever claimed once, even if
+	 * several threads or several servers sharing the same database are processing the queue.
+	 * @return the claimed request, or null if there are no queued requests left to claim
+	 * @should claim the highest priority queued request
+	 * @should not claim a request that has already been claimed
+	 */
+	@Transactional
+	public ReportRequest claimNextQueuedReportRequest();
+	
 	//****** REPORT PROCESSOR CONFIGURATIONS *****
 	
 	/**
@@ -229,6 +240,13 @@ public interface ReportService extends OpenmrsService {
 	@Transactional(readOnly = true)
 	public File getReportLogFile(ReportRequest request);
 	
+	/**
+	 * @return the File that may contain the timings of each evaluation within a given {@link ReportRequest}
+	 * @see org.openmrs.module.reporting.evaluation.EvaluationProfiler
+	 */
+	@Transactional(readOnly = true)
+	public File getReportProfileFile(ReportRequest request);
+	
 	/**
 	 * <pre>
 	 * Runs a report synchronously, blocking until the report is ready. This method populates the uuid
@@ -302,6 +320,13 @@ public interface ReportService extends OpenmrsService {
 	@Transactional(readOnly = true)
 	public List<String> loadReportLog(ReportRequest request);
 	
+	/**
+	 * Loads the timings of each evaluation within a previously generated Report for the given ReportRequest,
+	 * one per line and indented to show which evaluations were made within others
+	 */
+	@Transactional(readOnly = true)
+	public List<String> loadReportProfile(ReportRequest request);
+	
 	/**
 	 * @return the persisted Report for the given ReportRequest
 	 */
@@ -10,12 +10,19 @@ import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.reporting.ReportingConstants;
 import org.openmrs.module.reporting.ReportingException;
+import org.openmrs.module.reporting.cohort.MaterializedCohortUtil;
 import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
 import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.common.Timer;
+import org.openmrs.module.reporting.dataset.DataSet;
+import org.openmrs.module.reporting.dataset.PersistedDataSet;
+import org.openmrs.module.reporting.dataset.StreamingSqlDataSet;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.EvaluationProfiler;
+import org.openmrs.module.reporting.evaluation.EvaluationProfilerStatistics;
+import org.openmrs.module.reporting.evaluation.EvaluationSpan;
 import org.openmrs.module.reporting.report.Report;
 import org.openmrs.module.reporting.report.ReportData;
 import org.openmrs.module.reporting.report.ReportDesign;
@@ -30,10 +37,11 @@ import org.openmrs.module.reporting.report.processor.ReportProcessor;
 import org.openmrs.module.reporting.report.renderer.InteractiveReportRenderer;
 import org.openmrs.module.reporting.report.renderer.RenderingMode;
 import org.openmrs.module.reporting.report.renderer.ReportRenderer;
+import org.openmrs.module.reporting.report.renderer.StreamingReportRenderer;
 import org.openmrs.module.reporting.report.service.db.ReportDAO;
 import org.openmrs.module.reporting.report.task.RunQueuedReportsTask;
 import org.openmrs.module.reporting.report.util.ReportUtil;
-import org.openmrs.module.reporting.serializer.ReportingSerializer;
+import org.openmrs.module.reporting.serializer.BinaryReportDataSerializer;
 import org.openmrs.util.HandlerUtil;
 import org.openmrs.util.OpenmrsUtil;
 import org.springframework.core.task.TaskExecutor;
@@ -227,9 +235,11 @@ public class ReportServiceImpl extends BaseOpenmrsService implements ReportServi
 		reportDAO.purgeReportRequest(request);
 		reportCache.remove(request.getUuid());
 		FileUtils.deleteQuietly(getReportDataFile(request));
+		FileUtils.deleteQuietly(getLegacyReportDataFile(request));
 		FileUtils.deleteQuietly(getReportErrorFile(request));
 		FileUtils.deleteQuietly(getReportOutputFile(request));
 		FileUtils.deleteQuietly(getReportLogFile(request));
+		FileUtils.deleteQuietly(getReportProfileFile(request));
 	}
 	
 	//****** REPORT PROCESSOR CONFIGURATIONS *****
@@ -302,6 +312,15 @@ public class ReportServiceImpl extends BaseOpenmrsService implements ReportServi
 	 * @see ReportService#getReportDataFile(ReportRequest)
 	 */
 	public File getReportDataFile(ReportRequest request) {
+		File dir = OpenmrsUtil.getDirectoryInApplicationDataDirectory(REPORT_RESULTS_DIR);
+		return new File(dir, request.getUuid() + ".reportdata");
+	}
+
+	/**
+	 * @return the File to which the serialized {@link ReportData} for a given {@link ReportRequest} was written as gzipped XML
+	 * by earlier versions, which is still read if the request has no other report data file
+	 */
+	protected File getLegacyReportDataFile(ReportRequest request) {
 		File dir = OpenmrsUtil.getDirectoryInApplicationDataDirectory(REPORT_RESULTS_DIR);
 		return new File(dir, request.getUuid() + ".reportdata.gz");
 	}
@@ -330,6 +349,14 @@ public class ReportServiceImpl extends BaseOpenmrsService implements ReportServi
 		return new File(dir, request.getUuid() + ".reportlog");
 	}
 	
+	/**
+	 * @see ReportService#getReportProfileFile(ReportRequest)
+	 */
+	public File getReportProfileFile(ReportRequest request) {
+		File dir = OpenmrsUtil.getDirectoryInApplicationDataDirectory(REPORT_RESULTS_DIR);
+		return new File(dir, request.getUuid() + ".reportprofile");
+	}
+	
 	/**
 	 * @see ReportService#queueReport(ReportRequest)
 	 */
@@ -375,6 +402,25 @@ public class ReportServiceImpl extends BaseOpenmrsService implements ReportServi
 		return null;
 	}
 	
+	/**
+	 * @see ReportService#claimNextQueuedReportRequest()
+	 */
+	@Transactional
+	public ReportRequest claimNextQueuedReportRequest() {
+		List<ReportRequest> l = getReportRequests(null, null, null, Status.REQUESTED);
+		Collections.sort(l, new PriorityComparator());
+		for (ReportRequest request : l) {
+			Date startDate = new Date();
+			if (reportDAO.claimReportRequest(request, startDate)) {
+				request.setStatus(Status.PROCESSING);
+				request.setEvaluateStartDatetime(startDate);
+				return request;
+			}
+			log.debug("Report request " + request.getUuid() + " has already been claimed");
+		}
+		return null;
+	}
+	
 	/**
 	 * @see ReportService#processNextQueuedReports()
 	 */
@@ -419,13 +465,20 @@ public class ReportServiceImpl extends BaseOpenmrsService implements ReportServi
 		// Construct a new report object to return
 		Report report = new Report(request);
 		ReportDefinitionService rds = Context.getService(ReportDefinitionService.class);
+		EvaluationContext context = null;
+		EvaluationSpan profile = EvaluationProfiler.startProfile("ReportRequest [" + request.getUuid() + "]");
 		try {
 			// Create a new Evaluation Context, setting the base cohort from the request
 			Date evaluationDate = request.getEvaluationDate() == null ? new Date() : request.getEvaluationDate();
-			EvaluationContext context = new EvaluationContext(evaluationDate);
+			context = new EvaluationContext(evaluationDate);
 			context.addContextValue(GENERATED_BY, ObjectUtil.getNameOfUser(request.getRequestedBy()));
 			context.addContextValue(GENERATION_DATE, request.getRequestDate());
 			
+			// Renderers which read each data set in a single pass allow rows to be evaluated as they are rendered
+			if (request.getRenderingMode() != null && request.getRenderingMode().getRenderer() instanceof StreamingReportRenderer) {
+				context.setStreamingAllowed(true);
+			}
+			
 			if (request.getBaseCohort() != null) {
 				logReportMessage(request, "Evaluating base Cohort....");
 				try {
@@ -452,9 +505,15 @@ public class ReportServiceImpl extends BaseOpenmrsService implements ReportServi
 				String argument = request.getRenderingMode().getArgument();
 				if (!(renderer instanceof InteractiveReportRenderer)) {
 					logReportMessage(request, "Generating Rendered Report....");
-					ByteArrayOutputStream out = new ByteArrayOutputStream();
-		            renderer.render(reportData, argument, out);
-		            report.setRenderedOutput(out.toByteArray());
+					if (renderer instanceof StreamingReportRenderer) {
+						renderToFile(renderer, reportData, argument, getReportOutputFile(request));
+						report.setRenderedOutputFile(getReportOutputFile(request));
+					}
+					else {
+						ByteArrayOutputStream out = new ByteArrayOutputStream();
+						renderer.render(reportData, argument, out);
+						report.setRenderedOutput(out.toByteArray());
+					}
 		            request.setRenderCompleteDatetime(new Date());
 	            }
 			}
@@ -472,6 +531,15 @@ public class ReportServiceImpl extends BaseOpenmrsService implements ReportServi
 				log.warn("Unable to log reporting error to file.", e);
 			}
 		}
+		finally {
+			// Base cohorts are released as evaluation completes, this removes any written by data sets evaluated as they are rendered
+			if (context != null) {
+				MaterializedCohortUtil.release(context);
+			}
+			EvaluationProfiler.endProfile(profile);
+			saveReportProfile(request, profile);
+			EvaluationProfilerStatistics.saveStatistics();
+		}
 
 		Context.flushSession(); // Ensure other threads can see updated request
 			
@@ -526,8 +594,11 @@ public class ReportServiceImpl extends BaseOpenmrsService implements ReportServi
 		}
 		try {
 			long t1 = System.currentTimeMillis();
-			String s = ReportUtil.readStringFromFile(getReportDataFile(request));
-			ReportData reportData = Context.getSerializationService().deserialize(s, ReportData.class, ReportingSerializer.class);
+			File reportDataFile = getReportDataFile(request);
+			if (!reportDataFile.exists() && getLegacyReportDataFile(request).exists()) {
+				reportDataFile = getLegacyReportDataFile(request);
+			}
+			ReportData reportData = new BinaryReportDataSerializer().deserialize(reportDataFile);
 			long t2 = System.currentTimeMillis();
 			log.info("Loaded and Deserialized ReportData from file in " + (int)((t2-t1)/1000) + " seconds");
 			return reportData;
@@ -584,6 +655,22 @@ public class ReportServiceImpl extends BaseOpenmrsService implements ReportServi
 		return null;
 	}
 	
+	/**
+	 * @see ReportService#loadReportProfile(ReportRequest)
+	 */
+	public List<String> loadReportProfile(ReportRequest request) {
+		try {
+			File f = getReportProfileFile(request);
+			if (f.exists()) {
+				return ReportUtil.readLinesFromFile(f);
+			}
+		}
+		catch (Exception e) {
+			log.warn("Failed to load Report Profile from disk for request " + request + " due to " + e.getMessage());
+		}
+		return null;
+	}
+	
 	/**
 	 * Loads a previously generated Report for the given ReportRequest, first checking the cache
 	 */
@@ -660,6 +747,59 @@ public class ReportServiceImpl extends BaseOpenmrsService implements ReportServi
 	
 	//***** PRIVATE UTILITY METHODS *****
 	
+	/**
+	 * Saves the tree of evaluation timings for the passed request alongside its log
+	 */
+	protected void saveReportProfile(ReportRequest request, EvaluationSpan profile) {
+		try {
+			ReportUtil.writeStringToFile(getReportProfileFile(request), profile.toString());
+		}
+		catch (Exception e) {
+			log.warn("Unable to save report profile to disk for request " + request, e);
+		}
+	}
+	
+	/**
+	 * Renders the passed ReportData directly to the passed file, removing the file if rendering fails.  Any data sets
+	 * which read their rows from the database as they are rendered are closed once rendering is complete.
+	 */
+	protected void renderToFile(ReportRenderer renderer, ReportData reportData, String argument, File file) throws Exception {
+		boolean success = false;
+		BufferedOutputStream out = null;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(file));
+			renderer.render(reportData, argument, out);
+			out.flush();
+			success = true;
+		}
+		finally {
+			for (DataSet dataSet : reportData.getDataSets().values()) {
+				if (dataSet instanceof StreamingSqlDataSet) {
+					((StreamingSqlDataSet) dataSet).close();
+				}
+			}
+			IOUtils.closeQuietly(out);
+			if (!success) {
+				FileUtils.deleteQuietly(file);
+			}
+		}
+	}
+	
+	/**
+	 * @return true if any data set of the passed ReportData reads its rows from the passed file, in which case
+	 * the file must not be overwritten
+	 */
+	protected boolean isReadFromFile(ReportData reportData, File file) {
+		if (reportData != null) {
+			for (DataSet dataSet : reportData.getDataSets().values()) {
+				if (dataSet instanceof PersistedDataSet && file.equals(((PersistedDataSet) dataSet).getFile())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * @param report the Report to cache
 	 */
@@ -677,17 +817,24 @@ public class ReportServiceImpl extends BaseOpenmrsService implements ReportServi
 		Timer timer = Timer.start();
 
 		// If there is no rendered output, serialize the raw data to file, otherwise write the rendered output to file
-		if (report.getRenderedOutput() == null) {
+		if (report.getRenderedOutputFile() != null) {
+			log.info(timer.logInterval("The report output was rendered directly to " + report.getRenderedOutputFile().getPath()));
+		}
+		else if (report.getRenderedOutput() == null) {
             BufferedOutputStream out = null;
             try {
                 File reportDataFile = getReportDataFile(report.getRequest());
-                log.info(timer.logInterval("About to serialize the ReportData to " + reportDataFile.getPath()));
-
-                out = new BufferedOutputStream(new FileOutputStream(reportDataFile));
-                ReportingSerializer serializer = (ReportingSerializer) Context.getSerializationService().getSerializer(ReportingSerializer.class);
-                serializer.serializeToStream(report.getReportData(), out);
-
-				log.info(timer.logInterval("Serialized the report data to disk"));
+                if (isReadFromFile(report.getReportData(), reportDataFile)) {
+                	log.info(timer.logInterval("The report data is already persisted to " + reportDataFile.getPath()));
+                }
+                else {
+	                log.info(timer.logInterval("About to serialize the ReportData to " + reportDataFile.getPath()));
+	                out = new BufferedOutputStream(new FileOutputStream(reportDataFile));
+	                new BinaryReportDataSerializer().serialize(report.getReportData(), out);
+	                out.flush();
+	                FileUtils.deleteQuietly(getLegacyReportDataFile(report.getRequest()));
+					log.info(timer.logInterval("Serialized the report data to disk"));
+                }
 			}
 			catch (Exception e) {
 				success = false;
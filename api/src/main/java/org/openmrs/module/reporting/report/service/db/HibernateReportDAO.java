@@ -215,6 +215,21 @@ public class HibernateReportDAO implements ReportDAO {
 		return c.list();
 	}
 	
+	/**
+	 * @see ReportDAO#claimReportRequest(ReportRequest, Date)
+	 */
+	public boolean claimReportRequest(ReportRequest request, Date evaluateStartDatetime) {
+		StringBuilder hql = new StringBuilder();
+		hql.append("update ReportRequest r set r.status = :processing, r.evaluateStartDatetime = :startDate ");
+		hql.append("where r.id = :id and r.status = :requested");
+		Query q = sessionFactory.getCurrentSession().createQuery(hql.toString());
+		q.setParameter("processing", Status.PROCESSING);
+		q.setTimestamp("startDate", evaluateStartDatetime);
+		q.setInteger("id", request.getId());
+		q.setParameter("requested", Status.REQUESTED);
+		return q.executeUpdate() == 1;
+	}
+	
 	/**
 	 * @see ReportDAO#purgeReportRequest(ReportRequest)
 	 */
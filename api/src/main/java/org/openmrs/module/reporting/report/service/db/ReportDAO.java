@@ -127,6 +127,12 @@ public interface ReportDAO {
 	 */
 	public List<ReportRequest> getReportRequests(ReportDefinition reportDefinition, Date requestOnOrAfter, Date requestOnOrBefore, Integer mostRecentNum, Status...statuses);
 
+	/**
+	 * Atomically moves the passed {@link ReportRequest} from REQUESTED to PROCESSING in the database
+	 * @return true if the request was claimed, false if it was no longer REQUESTED (eg. claimed by another node)
+	 */
+	public boolean claimReportRequest(ReportRequest request, Date evaluateStartDatetime);
+
 	/**
 	 * Deletes the passed {@link ReportRequest}
 	 */
@@ -1,9 +1,8 @@
 package org.openmrs.module.reporting.report.task;
 
-import java.util.Collections;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -11,64 +10,87 @@ import org.openmrs.api.context.Context;
 import org.openmrs.module.reporting.ReportingConstants;
 import org.openmrs.module.reporting.evaluation.parameter.ParameterizableUtil;
 import org.openmrs.module.reporting.report.ReportRequest;
-import org.openmrs.module.reporting.report.ReportRequest.PriorityComparator;
-import org.openmrs.module.reporting.report.ReportRequest.Status;
 import org.openmrs.module.reporting.report.service.ReportService;
 
 /**
- * If there are any queued reports to run, this task starts running the next one.
+ * If there are any queued reports to run, this task claims and runs them, highest priority first, until either
+ * the queue is empty or the maximum number of reports allowed to run at once on this server is reached.
+ * Each time a request is claimed, another task is started to claim the next one, so that up to the configured
+ * number of requests are run concurrently.  Requests are claimed via {@link ReportService#claimNextQueuedReportRequest()},
+ * so a request is never run twice, even by several servers sharing the same queue.
  */
 public class RunQueuedReportsTask extends AbstractReportsTask {
-	
+
 	private final Log log = LogFactory.getLog(RunQueuedReportsTask.class);
-	
-	private static Integer maxExecutions = null;
+
+	private final static AtomicInteger numRunningTasks = new AtomicInteger();
 	private final static Map<String, RunQueuedReportsTask> currentlyRunningRequests = new ConcurrentHashMap<String, RunQueuedReportsTask>();
-	
+
 	/**
 	 * @see AbstractReportsTask#execute()
 	 */
 	@Override
-	public synchronized void execute() {
-		try {
-			Thread.sleep(1000);  // This should not be necessary, but there is something funky with transaction order and this helps things to work
-		}
-		catch (Exception e) {}
-		
-		if (maxExecutions == null) {
-			maxExecutions = ReportingConstants.GLOBAL_PROPERTY_MAX_REPORTS_TO_RUN();
-		}
-		
+	public void execute() {
 		log.debug("Executing the Run Queued Reports Task");
-		
+
 		ReportService rs = Context.getService(ReportService.class);
-		
-		if (currentlyRunningRequests.size() < maxExecutions) {
-			List<ReportRequest> l = rs.getReportRequests(null, null, null, Status.REQUESTED);
-			if (!l.isEmpty()) {
-				Collections.sort(l, new PriorityComparator());
-				for (int i=1; i<l.size(); i++) {
-					rs.logReportMessage(l.get(i), "Report in queue at position " + i);
+
+		while (reserveExecution()) {
+			ReportRequest requestToRun = null;
+			try {
+				requestToRun = rs.claimNextQueuedReportRequest();
+				if (requestToRun == null) {
+					return;
 				}
-				ReportRequest requestToRun = l.get(0);
-		    	ParameterizableUtil.refreshMappedDefinition(requestToRun.getReportDefinition());
-		    	if (requestToRun.getBaseCohort() != null) {
-		    		ParameterizableUtil.refreshMappedDefinition(requestToRun.getBaseCohort());
-		    	}
+				startNextTask(rs);
 
-		    	if (!currentlyRunningRequests.containsKey(requestToRun.getUuid())) {
-					try {
-						currentlyRunningRequests.put(requestToRun.getUuid(), this);
-						rs.runReport(requestToRun);
-					}
-					finally {
-						currentlyRunningRequests.remove(requestToRun.getUuid());
-					}
+				ParameterizableUtil.refreshMappedDefinition(requestToRun.getReportDefinition());
+				if (requestToRun.getBaseCohort() != null) {
+					ParameterizableUtil.refreshMappedDefinition(requestToRun.getBaseCohort());
+				}
+				currentlyRunningRequests.put(requestToRun.getUuid(), this);
+				rs.runReport(requestToRun);
+			}
+			finally {
+				if (requestToRun != null) {
+					currentlyRunningRequests.remove(requestToRun.getUuid());
+					Context.clearSession();
 				}
+				numRunningTasks.decrementAndGet();
 			}
 		}
 	}
-	
+
+	/**
+	 * Reserves one of the executions allowed by {@link ReportingConstants#GLOBAL_PROPERTY_MAX_REPORTS_TO_RUN}
+	 * @return true if an execution was reserved, false if the maximum number are already running
+	 */
+	protected boolean reserveExecution() {
+		int maxExecutions = ReportingConstants.GLOBAL_PROPERTY_MAX_REPORTS_TO_RUN();
+		while (true) {
+			int numRunning = numRunningTasks.get();
+			if (numRunning >= maxExecutions) {
+				log.debug("Not running any more queued reports, as " + numRunning + " are already running");
+				return false;
+			}
+			if (numRunningTasks.compareAndSet(numRunning, numRunning + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Starts another task to claim the next queued request while this one is running
+	 */
+	protected void startNextTask(ReportService rs) {
+		try {
+			rs.processNextQueuedReports();
+		}
+		catch (Exception e) {
+			log.debug("Unable to start another task to run queued reports, they will be run by a later task", e);
+		}
+	}
+
 	public static Map<String, RunQueuedReportsTask> getCurrentlyRunningRequests() {
 		return currentlyRunningRequests;
 	}
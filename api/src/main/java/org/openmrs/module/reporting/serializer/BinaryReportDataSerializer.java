@@ -0,0 +1,582 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.serializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.dataset.DataSet;
+import org.openmrs.module.reporting.dataset.DataSetColumn;
+import org.openmrs.module.reporting.dataset.DataSetRow;
+import org.openmrs.module.reporting.dataset.MapDataSet;
+import org.openmrs.module.reporting.dataset.PersistedDataSet;
+import org.openmrs.module.reporting.dataset.SimpleDataSet;
+import org.openmrs.module.reporting.dataset.SimpleDataSetMetaData;
+import org.openmrs.module.reporting.dataset.StreamingPatientDataSet;
+import org.openmrs.module.reporting.dataset.StreamingSqlDataSet;
+import org.openmrs.module.reporting.report.ReportData;
+import org.openmrs.serialization.SerializationException;
+
+/**
+ * Reads and writes {@link ReportData} in a compact binary format, which is much faster to write and read than XML
+ * for large data sets, and which allows the rows of a data set to be read a page at a time.
+ *
+ * A file consists of a header, followed by the rows of each tabular data set, followed by an index:
+ * <ul>
+ * <li>The header is the compressed XML of the ReportData with the rows of each tabular data set removed.
+ * Non-tabular data sets, such as {@link MapDataSet}s, are kept in the header in their entirety.</li>
+ * <li>Rows are written in compressed blocks of up to {@link #ROWS_PER_BLOCK} rows, as they are iterated,
+ * so a data set never needs to be held in memory in order to be written.  Each cell is stored as a type tag and
+ * a value, with values of types that are not natively supported falling back to XML.</li>
+ * <li>The index contains the columns of each tabular data set and the position of each of its blocks, and is
+ * followed by its own position, so that it can be read without reading the rest of the file.</li>
+ * </ul>
+ * When read, each tabular data set is returned as a {@link PersistedDataSet}, which reads its rows from the file on demand.
+ */
+public class BinaryReportDataSerializer {
+
+	public static final int ROWS_PER_BLOCK = 1000;
+
+	private static final byte[] MAGIC = new byte[] {'O', 'M', 'R', 'S', 'R', 'D', 'A', 'T'};
+	private static final int VERSION = 1;
+
+	// Tags which identify the type of each cell value
+	private static final int NULL = 0;
+	private static final int INTEGER = 1;
+	private static final int LONG = 2;
+	private static final int DOUBLE = 3;
+	private static final int FLOAT = 4;
+	private static final int BOOLEAN = 5;
+	private static final int STRING = 6;
+	private static final int DATE = 7;
+	private static final int SQL_DATE = 8;
+	private static final int TIMESTAMP = 9;
+	private static final int BIG_DECIMAL = 10;
+	private static final int XML = 11;
+
+	private ReportingSerializer xmlSerializer;
+
+	/**
+	 * Creates a serializer which uses the registered {@link ReportingSerializer} for everything that is stored as XML
+	 */
+	public BinaryReportDataSerializer() {
+		this((ReportingSerializer) Context.getSerializationService().getSerializer(ReportingSerializer.class));
+	}
+
+	/**
+	 * @param xmlSerializer the serializer to use for everything that is stored as XML
+	 */
+	public BinaryReportDataSerializer(ReportingSerializer xmlSerializer) {
+		this.xmlSerializer = xmlSerializer;
+	}
+
+	//***** WRITING *****
+
+	/**
+	 * Writes the passed ReportData to the passed stream, iterating over the rows of each tabular data set only once
+	 */
+	public void serialize(ReportData reportData, OutputStream outputStream) throws IOException {
+		CountingOutputStream counter = new CountingOutputStream(outputStream);
+		DataOutputStream out = new DataOutputStream(counter);
+		out.write(MAGIC);
+		out.writeInt(VERSION);
+
+		// The header holds everything but the rows of tabular data sets
+		ReportData header = new ReportData(reportData.getDefinition(), reportData.getContext());
+		for (Map.Entry<String, DataSet> e : reportData.getDataSets().entrySet()) {
+			DataSet ds = e.getValue();
+			header.getDataSets().put(e.getKey(), isTabular(ds) ? new SimpleDataSet(ds.getDefinition(), ds.getContext()) : ds);
+		}
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DeflaterOutputStream headerOut = new DeflaterOutputStream(headerBytes);
+		xmlSerializer.serializeToStream(header, headerOut);
+		headerOut.finish();
+		out.writeInt(headerBytes.size());
+		headerBytes.writeTo(out);
+
+		List<DataSetIndex> indexes = new ArrayList<DataSetIndex>();
+		for (Map.Entry<String, DataSet> e : reportData.getDataSets().entrySet()) {
+			if (isTabular(e.getValue())) {
+				indexes.add(writeRows(e.getKey(), e.getValue(), out, counter));
+			}
+		}
+
+		out.flush();
+		long indexPosition = counter.getByteCount();
+		out.writeInt(indexes.size());
+		for (DataSetIndex index : indexes) {
+			index.write(out);
+		}
+		out.writeLong(indexPosition);
+		out.flush();
+	}
+
+	/**
+	 * Writes the rows of the passed data set in compressed blocks
+	 * @return the index of the columns and blocks that were written
+	 */
+	protected DataSetIndex writeRows(String name, DataSet dataSet, DataOutputStream out, CountingOutputStream counter) throws IOException {
+		Map<DataSetColumn, Integer> columnIndexes = new LinkedHashMap<DataSetColumn, Integer>();
+		for (DataSetColumn column : dataSet.getMetaData().getColumns()) {
+			columnIndexes.put(column, columnIndexes.size());
+		}
+
+		DataSetIndex index = new DataSetIndex(name);
+		ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+		DeflaterOutputStream compressor = null;
+		DataOutputStream block = null;
+		Deflater deflater = new Deflater();
+		int rowsInBlock = 0;
+		try {
+			for (DataSetRow row : dataSet) {
+				if (block == null) {
+					blockBytes.reset();
+					deflater.reset();
+					compressor = new DeflaterOutputStream(blockBytes, deflater);
+					block = new DataOutputStream(new BufferedOutputStream(compressor));
+				}
+				writeVarInt(block, row.getColumnValues().size());
+				for (Map.Entry<DataSetColumn, Object> cell : row.getColumnValues().entrySet()) {
+					Integer columnIndex = columnIndexes.get(cell.getKey());
+					if (columnIndex == null) {
+						columnIndex = columnIndexes.size();
+						columnIndexes.put(cell.getKey(), columnIndex);
+					}
+					writeVarInt(block, columnIndex);
+					writeValue(block, cell.getValue());
+				}
+				rowsInBlock++;
+				if (rowsInBlock == ROWS_PER_BLOCK) {
+					writeBlock(index, block, compressor, blockBytes, rowsInBlock, out, counter);
+					block = null;
+					rowsInBlock = 0;
+				}
+			}
+			if (block != null) {
+				writeBlock(index, block, compressor, blockBytes, rowsInBlock, out, counter);
+			}
+		}
+		finally {
+			deflater.end();
+		}
+		index.setColumns(new ArrayList<DataSetColumn>(columnIndexes.keySet()));
+		return index;
+	}
+
+	private void writeBlock(DataSetIndex index, DataOutputStream block, DeflaterOutputStream compressor, ByteArrayOutputStream blockBytes,
+	                        int numRows, DataOutputStream out, CountingOutputStream counter) throws IOException {
+		block.flush();
+		compressor.finish();
+		out.flush();
+		index.addBlock(counter.getByteCount(), numRows);
+		out.writeInt(numRows);
+		out.writeInt(blockBytes.size());
+		blockBytes.writeTo(out);
+	}
+
+	/**
+	 * Writes a type tag followed by the passed value
+	 */
+	protected void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		}
+		else if (value instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt((Integer) value);
+		}
+		else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		}
+		else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		}
+		else if (value instanceof Float) {
+			out.writeByte(FLOAT);
+			out.writeFloat((Float) value);
+		}
+		else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		}
+		else if (value instanceof String) {
+			out.writeByte(STRING);
+			writeString(out, (String) value);
+		}
+		else if (value.getClass() == Date.class) {
+			out.writeByte(DATE);
+			out.writeLong(((Date) value).getTime());
+		}
+		else if (value.getClass() == java.sql.Date.class) {
+			out.writeByte(SQL_DATE);
+			out.writeLong(((Date) value).getTime());
+		}
+		else if (value.getClass() == java.sql.Timestamp.class) {
+			java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+			out.writeByte(TIMESTAMP);
+			out.writeLong(timestamp.getTime());
+			out.writeInt(timestamp.getNanos());
+		}
+		else if (value.getClass() == BigDecimal.class) {
+			out.writeByte(BIG_DECIMAL);
+			writeString(out, value.toString());
+		}
+		else {
+			out.writeByte(XML);
+			try {
+				writeString(out, xmlSerializer.serialize(value));
+			}
+			catch (SerializationException e) {
+				throw new IOException("Unable to serialize value of type " + value.getClass().getName() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	//***** READING *****
+
+	/**
+	 * @return true if the passed file was written by this serializer
+	 */
+	public static boolean isBinaryFormat(File file) {
+		if (file == null || !file.exists() || file.length() < MAGIC.length) {
+			return false;
+		}
+		byte[] start = new byte[MAGIC.length];
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			in.readFully(start);
+			return Arrays.equals(start, MAGIC);
+		}
+		catch (IOException e) {
+			return false;
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Reads the ReportData from the passed file.  If the file was written by this serializer, only the header and
+	 * index are read, and the rows of each tabular data set are read from the file as they are accessed.
+	 * Otherwise the file is expected to contain the ReportData as XML, optionally gzipped, and is read in its entirety.
+	 */
+	public ReportData deserialize(File file) throws IOException {
+		if (!isBinaryFormat(file)) {
+			return deserializeXml(file);
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			raf.seek(MAGIC.length);
+			int version = raf.readInt();
+			if (version > VERSION) {
+				throw new IOException("Unable to read report data of version " + version + " from " + file);
+			}
+			byte[] headerBytes = new byte[raf.readInt()];
+			raf.readFully(headerBytes);
+			String headerXml = IOUtils.toString(new InflaterInputStream(new ByteArrayInputStream(headerBytes)), "UTF-8");
+			ReportData reportData = xmlSerializer.deserialize(headerXml, ReportData.class);
+
+			raf.seek(raf.length() - 8);
+			long indexPosition = raf.readLong();
+			byte[] indexBytes = new byte[(int) (raf.length() - 8 - indexPosition)];
+			raf.seek(indexPosition);
+			raf.readFully(indexBytes);
+			DataInputStream indexIn = new DataInputStream(new ByteArrayInputStream(indexBytes));
+			int numDataSets = indexIn.readInt();
+			for (int i = 0; i < numDataSets; i++) {
+				DataSetIndex index = DataSetIndex.read(indexIn);
+				DataSet shell = reportData.getDataSets().get(index.getName());
+				SimpleDataSetMetaData metaData = new SimpleDataSetMetaData();
+				metaData.setColumns(index.getColumns());
+				PersistedDataSet dataSet = new PersistedDataSet(this, file, shell.getDefinition(), shell.getContext(), metaData,
+						index.getBlockPositions(), index.getBlockRowCounts());
+				reportData.getDataSets().put(index.getName(), dataSet);
+			}
+			return reportData;
+		}
+		catch (SerializationException e) {
+			throw new IOException("Unable to deserialize report data header from " + file + ": " + e.getMessage());
+		}
+		finally {
+			IOUtils.closeQuietly(raf);
+		}
+	}
+
+	/**
+	 * Reads the ReportData from a file written as XML by earlier versions
+	 */
+	protected ReportData deserializeXml(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			in.mark(2);
+			boolean gzipped = in.read() == 0x1f && in.read() == 0x8b;
+			in.reset();
+			if (gzipped) {
+				in = new GZIPInputStream(in);
+			}
+			return xmlSerializer.deserialize(IOUtils.toString(in, "UTF-8"), ReportData.class);
+		}
+		catch (SerializationException e) {
+			throw new IOException("Unable to deserialize report data from " + file + ": " + e.getMessage());
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Reads the block of rows at the passed position of the passed file
+	 * @param file the file to read
+	 * @param position the position of the block within the file
+	 * @param columns the columns of the data set, in the order in which they were indexed when written
+	 * @return the rows in the block
+	 */
+	public List<DataSetRow> readBlock(File file, long position, List<DataSetColumn> columns) throws IOException {
+		byte[] blockBytes;
+		int numRows;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			raf.seek(position);
+			numRows = raf.readInt();
+			blockBytes = new byte[raf.readInt()];
+			raf.readFully(blockBytes);
+		}
+		finally {
+			IOUtils.closeQuietly(raf);
+		}
+
+		List<DataSetRow> rows = new ArrayList<DataSetRow>(numRows);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(blockBytes))));
+		for (int i = 0; i < numRows; i++) {
+			DataSetRow row = new DataSetRow();
+			int numCells = readVarInt(in);
+			for (int j = 0; j < numCells; j++) {
+				DataSetColumn column = columns.get(readVarInt(in));
+				row.addColumnValue(column, readValue(in));
+			}
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	/**
+	 * Reads a value written by {@link #writeValue(DataOutputStream, Object)}
+	 */
+	protected Object readValue(DataInputStream in) throws IOException {
+		int tag = in.readByte();
+		switch (tag) {
+			case NULL: return null;
+			case INTEGER: return in.readInt();
+			case LONG: return in.readLong();
+			case DOUBLE: return in.readDouble();
+			case FLOAT: return in.readFloat();
+			case BOOLEAN: return in.readBoolean();
+			case STRING: return readString(in);
+			case DATE: return new Date(in.readLong());
+			case SQL_DATE: return new java.sql.Date(in.readLong());
+			case TIMESTAMP: {
+				java.sql.Timestamp timestamp = new java.sql.Timestamp(in.readLong());
+				timestamp.setNanos(in.readInt());
+				return timestamp;
+			}
+			case BIG_DECIMAL: return new BigDecimal(readString(in));
+			case XML: {
+				try {
+					return xmlSerializer.deserialize(readString(in), Object.class);
+				}
+				catch (SerializationException e) {
+					throw new IOException("Unable to deserialize value: " + e.getMessage());
+				}
+			}
+			default: throw new IOException("Unknown value type " + tag + " in report data");
+		}
+	}
+
+	//***** UTILITY METHODS *****
+
+	/**
+	 * A MapDataSet is written as XML, as its single row is keyed by column rather than by id
+	 * @return true if the rows of the passed data set should be written as blocks rather than as XML
+	 */
+	protected boolean isTabular(DataSet dataSet) {
+		if (dataSet instanceof MapDataSet) {
+			return false;
+		}
+		return dataSet instanceof SimpleDataSet
+				|| dataSet instanceof StreamingPatientDataSet || dataSet instanceof StreamingSqlDataSet || dataSet instanceof PersistedDataSet;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes("UTF-8");
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[readVarInt(in)];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable length integer in report data");
+	}
+
+	private static void writeNullableString(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null) {
+			writeString(out, s);
+		}
+	}
+
+	private static String readNullableString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? readString(in) : null;
+	}
+
+	/**
+	 * The columns of a tabular data set, and the position and number of rows of each of its blocks
+	 */
+	protected static class DataSetIndex {
+
+		private String name;
+		private List<DataSetColumn> columns;
+		private List<Long> blockPositions = new ArrayList<Long>();
+		private List<Integer> blockRowCounts = new ArrayList<Integer>();
+
+		public DataSetIndex(String name) {
+			this.name = name;
+		}
+
+		public void addBlock(long position, int numRows) {
+			blockPositions.add(position);
+			blockRowCounts.add(numRows);
+		}
+
+		public void write(DataOutputStream out) throws IOException {
+			writeString(out, name);
+			writeVarInt(out, columns.size());
+			for (DataSetColumn column : columns) {
+				writeNullableString(out, column.getName());
+				writeNullableString(out, column.getLabel());
+				writeNullableString(out, column.getDataType() == null ? null : column.getDataType().getName());
+			}
+			writeVarInt(out, blockPositions.size());
+			for (int i = 0; i < blockPositions.size(); i++) {
+				out.writeLong(blockPositions.get(i));
+				out.writeInt(blockRowCounts.get(i));
+			}
+		}
+
+		public static DataSetIndex read(DataInputStream in) throws IOException {
+			DataSetIndex index = new DataSetIndex(readString(in));
+			int numColumns = readVarInt(in);
+			List<DataSetColumn> columns = new ArrayList<DataSetColumn>(numColumns);
+			for (int i = 0; i < numColumns; i++) {
+				String columnName = readNullableString(in);
+				String label = readNullableString(in);
+				String dataType = readNullableString(in);
+				columns.add(new DataSetColumn(columnName, label, loadDataType(dataType)));
+			}
+			index.setColumns(columns);
+			int numBlocks = readVarInt(in);
+			for (int i = 0; i < numBlocks; i++) {
+				index.addBlock(in.readLong(), in.readInt());
+			}
+			return index;
+		}
+
+		private static Class<?> loadDataType(String className) {
+			if (className == null) {
+				return null;
+			}
+			try {
+				return Context.loadClass(className);
+			}
+			catch (Exception e) {
+				return Object.class;
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public List<DataSetColumn> getColumns() {
+			return columns;
+		}
+
+		public void setColumns(List<DataSetColumn> columns) {
+			this.columns = columns;
+		}
+
+		public long[] getBlockPositions() {
+			long[] ret = new long[blockPositions.size()];
+			for (int i = 0; i < ret.length; i++) {
+				ret[i] = blockPositions.get(i);
+			}
+			return ret;
+		}
+
+		public int[] getBlockRowCounts() {
+			int[] ret = new int[blockRowCounts.size()];
+			for (int i = 0; i < ret.length; i++) {
+				ret[i] = blockRowCounts.get(i);
+			}
+			return ret;
+		}
+	}
+}
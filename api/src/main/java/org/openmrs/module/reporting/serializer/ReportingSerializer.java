@@ -1,6 +1,7 @@
 package org.openmrs.module.reporting.serializer;
 
 import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.XStreamException;
 import com.thoughtworks.xstream.converters.ConverterLookup;
 import com.thoughtworks.xstream.converters.DataHolder;
 import com.thoughtworks.xstream.core.MapBackedDataHolder;
@@ -73,15 +74,26 @@ public class ReportingSerializer extends XStreamShortSerializer {
 		xstream.registerConverter(new ReportDefinitionConverter(mapper, converterLookup));
 	}
 	
+	/**
+	 * XStream is thread-safe once configured, and the only state used while unmarshalling is the DataHolder, which is
+	 * confined to the calling thread (and shared by any nested calls on that thread), so objects can be deserialized
+	 * by any number of threads at once.
+	 * @should deserialize objects concurrently on multiple threads
+	 */
 	@Override
-	synchronized public <T> T deserialize(String serializedObject, Class<? extends T> clazz) throws SerializationException {
+	@SuppressWarnings("unchecked")
+	public <T> T deserialize(String serializedObject, Class<? extends T> clazz) throws SerializationException {
 		boolean cacheOwner = cache.get() == null;
 		if (cacheOwner) {
 			cache.set(new MapBackedDataHolder());
 		}
 		try {
-			return super.deserialize(serializedObject, clazz);
-		} finally {
+			return (T) xstream.fromXML(serializedObject);
+		}
+		catch (XStreamException e) {
+			throw new SerializationException("Unable to deserialize " + clazz, e);
+		}
+		finally {
 			if (cacheOwner)
 				cache.remove();
 		}
@@ -6,6 +6,7 @@ import org.openmrs.api.ConceptService;
 import org.openmrs.messagesource.MessageSourceService;
 import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.report.renderer.template.CompiledTemplateCache;
 import org.openmrs.module.reporting.report.renderer.template.TemplateEvaluationException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -24,6 +25,8 @@ public class TemplateFactory {
 
     private Handlebars handlebars = new Handlebars();
 
+    private CompiledTemplateCache<Template> handlebarsTemplateCache = new CompiledTemplateCache<Template>("Handlebars");
+
     @Autowired
     public TemplateFactory(@Qualifier("messageSourceService") MessageSourceService mss,
                            @Qualifier("conceptService") ConceptService conceptService) {
@@ -31,14 +34,28 @@ public class TemplateFactory {
         this.handlebars.registerHelpers(new HandlebarsHelpers(mss, conceptService));
     }
 
+    /**
+     * @return the compiled template, which is only compiled the first time it is requested
+     */
     public Template compileHandlebarsTemplate(String template) {
         try {
-            return handlebars.compileInline(template);
-        } catch (IOException e) {
+            return handlebarsTemplateCache.get(template, new CompiledTemplateCache.Compiler<Template>() {
+                public Template compile(String template) throws Exception {
+                    return handlebars.compileInline(template);
+                }
+            });
+        } catch (Exception e) {
             throw new TemplateEvaluationException("Error compiling handlebars template: " + template, e); // this is in another package. Use this or another exception?
         }
     }
 
+    /**
+     * @return the cache of compiled handlebars templates
+     */
+    public CompiledTemplateCache<Template> getHandlebarsTemplateCache() {
+        return handlebarsTemplateCache;
+    }
+
     public String evaluateHandlebarsTemplate(String template, Object context) throws EvaluationException {
         Template handlebarsTemplate = compileHandlebarsTemplate(template);
         try {
@@ -0,0 +1,89 @@
+package org.openmrs.module.reporting.cohort;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Cohort;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.ReportingConstants;
+import org.openmrs.module.reporting.cohort.query.service.CohortQueryService;
+import org.openmrs.module.reporting.dataset.DataSet;
+import org.openmrs.module.reporting.dataset.definition.SqlDataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.service.DataSetDefinitionService;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class MaterializedCohortUtilTest extends BaseModuleContextSensitiveTest {
+
+	@Before
+	public void setup() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(ReportingConstants.GLOBAL_PROPERTY_MATERIALIZED_COHORT_MIN_SIZE, "2"));
+	}
+
+	/**
+	 * @see MaterializedCohortUtil#getSqlRestriction(String, EvaluationContext, Map, String)
+	 * @verifies restrict to the members of a materialized base cohort
+	 */
+	@Test
+	public void getSqlRestriction_shouldRestrictToTheMembersOfAMaterializedBaseCohort() throws Exception {
+		EvaluationContext context = new EvaluationContext();
+		context.setBaseCohort(new Cohort("2,7"));
+		Map<String, Object> parameterValues = new HashMap<String, Object>();
+		String restriction = MaterializedCohortUtil.getSqlRestriction("patient_id", context, parameterValues, "baseCohort");
+		Assert.assertTrue(restriction.contains("reporting_materialized_cohort_member"));
+		Assert.assertEquals(1, context.getMaterializedCohortKeys().size());
+
+		EvaluationContext copy = context.shallowCopy();
+		Assert.assertEquals(parameterValues.get("baseCohort"), MaterializedCohortUtil.getBaseCohortKey(copy));
+
+		CohortQueryService cqs = Context.getService(CohortQueryService.class);
+		Cohort c = cqs.executeSqlQuery("select patient_id from patient where " + restriction, parameterValues);
+		Assert.assertEquals(2, c.size());
+		Assert.assertTrue(c.contains(2));
+		Assert.assertTrue(c.contains(7));
+
+		MaterializedCohortUtil.release(copy);
+		Assert.assertTrue(context.getMaterializedCohortKeys().isEmpty());
+		Assert.assertEquals(0, cqs.executeSqlQuery("select patient_id from patient where " + restriction, parameterValues).size());
+	}
+
+	/**
+	 * @see MaterializedCohortUtil#getBaseCohortKey(EvaluationContext)
+	 * @verifies be released when the outermost evaluation completes
+	 */
+	@Test
+	public void getBaseCohortKey_shouldBeReleasedWhenTheOutermostEvaluationCompletes() throws Exception {
+		EvaluationContext context = new EvaluationContext();
+		context.setBaseCohort(new Cohort("2,7"));
+		SqlDataSetDefinition dsd = new SqlDataSetDefinition();
+		dsd.setSqlQuery("select patient_id from patient");
+		DataSet ds = Context.getService(DataSetDefinitionService.class).evaluate(dsd, context);
+		int rows = 0;
+		for (Iterator<?> i = ds.iterator(); i.hasNext(); i.next()) {
+			rows++;
+		}
+		Assert.assertEquals(2, rows);
+		Assert.assertTrue(context.getMaterializedCohortKeys().isEmpty());
+		CohortQueryService cqs = Context.getService(CohortQueryService.class);
+		Assert.assertEquals(0, cqs.executeSqlQuery("select member_id from reporting_materialized_cohort_member", new HashMap<String, Object>()).size());
+	}
+
+	/**
+	 * @see MaterializedCohortUtil#getHqlRestriction(String, EvaluationContext, Map, String)
+	 * @verifies bind small base cohorts as a list of ids
+	 */
+	@Test
+	public void getHqlRestriction_shouldBindSmallBaseCohortsAsAListOfIds() throws Exception {
+		EvaluationContext context = new EvaluationContext();
+		context.setBaseCohort(new Cohort("7"));
+		Map<String, Object> parameterValues = new HashMap<String, Object>();
+		Assert.assertEquals("personId in (:patientIds)", MaterializedCohortUtil.getHqlRestriction("personId", context, parameterValues, "patientIds"));
+		Assert.assertEquals(context.getBaseCohort(), parameterValues.get("patientIds"));
+		Assert.assertTrue(context.getMaterializedCohortKeys().isEmpty());
+	}
+}
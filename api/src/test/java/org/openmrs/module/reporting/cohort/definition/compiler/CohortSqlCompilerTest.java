@@ -0,0 +1,157 @@
+package org.openmrs.module.reporting.cohort.definition.compiler;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Cohort;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.ReportingConstants;
+import org.openmrs.module.reporting.cohort.definition.AgeCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.CompositionCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.GenderCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.SqlCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.StaticCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
+import org.openmrs.module.reporting.cohort.definition.util.CohortExpressionParser;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.evaluation.parameter.Parameter;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class CohortSqlCompilerTest extends BaseModuleContextSensitiveTest {
+
+	/**
+	 * @see CohortSqlCompiler#compile(java.util.List, CompositionCohortDefinition, EvaluationContext)
+	 * @verifies return the same patients as evaluating the composition in memory
+	 */
+	@Test
+	public void compile_shouldReturnTheSamePatientsAsEvaluatingTheCompositionInMemory() throws Exception {
+		GenderCohortDefinition males = new GenderCohortDefinition();
+		males.setMaleIncluded(true);
+		AgeCohortDefinition adults = new AgeCohortDefinition();
+		adults.setMinAge(18);
+		SqlCohortDefinition selected = new SqlCohortDefinition("select patient_id from patient where patient_id in (2, 7)");
+
+		CompositionCohortDefinition composition = new CompositionCohortDefinition();
+		composition.addSearch("males", new Mapped<CohortDefinition>(males, null));
+		composition.addSearch("adults", new Mapped<CohortDefinition>(adults, null));
+		composition.addSearch("selected", new Mapped<CohortDefinition>(selected, null));
+		composition.setCompositionString("males and not (adults or selected)");
+
+		CohortSqlQuery query = CohortSqlCompiler.compile(CohortExpressionParser.parseIntoTokens(composition.getCompositionString()), composition, new EvaluationContext());
+		Assert.assertNotNull(query);
+
+		Cohort inMemory = Context.getService(CohortDefinitionService.class).evaluate(composition, new EvaluationContext());
+		Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(ReportingConstants.GLOBAL_PROPERTY_COMPOSITION_SQL_PUSHDOWN, "true"));
+		Cohort inDatabase = Context.getService(CohortDefinitionService.class).evaluate(composition, new EvaluationContext());
+		Assert.assertEquals(inMemory.getMemberIds(), inDatabase.getMemberIds());
+	}
+
+	/**
+	 * @see CohortSqlCompiler#compile(java.util.List, CompositionCohortDefinition, EvaluationContext)
+	 * @verifies exclude only the patients of a negated search which returns null ids
+	 */
+	@Test
+	public void compile_shouldExcludeOnlyThePatientsOfANegatedSearchWhichReturnsNullIds() throws Exception {
+		GenderCohortDefinition males = new GenderCohortDefinition();
+		males.setMaleIncluded(true);
+		SqlCohortDefinition selected = new SqlCohortDefinition("select patient_id from patient where patient_id = 2 union select null from patient");
+
+		CompositionCohortDefinition composition = new CompositionCohortDefinition();
+		composition.addSearch("males", new Mapped<CohortDefinition>(males, null));
+		composition.addSearch("selected", new Mapped<CohortDefinition>(selected, null));
+		composition.setCompositionString("males and not selected");
+
+		CohortSqlQuery query = CohortSqlCompiler.compile(CohortExpressionParser.parseIntoTokens(composition.getCompositionString()), composition, new EvaluationContext());
+		Set<Integer> expected = new HashSet<Integer>(Context.getService(CohortDefinitionService.class).evaluate(males, new EvaluationContext()).getMemberIds());
+		Assert.assertTrue(expected.remove(2));
+		Assert.assertFalse(expected.isEmpty());
+		Assert.assertEquals(expected, CohortSqlCompiler.evaluate(query).toSet());
+	}
+
+	/**
+	 * @see CohortSqlCompiler#compile(java.util.List, CompositionCohortDefinition, EvaluationContext)
+	 * @verifies give the parameters of each search distinct names
+	 */
+	@Test
+	public void compile_shouldGiveTheParametersOfEachSearchDistinctNames() throws Exception {
+		SqlCohortDefinition patient = new SqlCohortDefinition("select patient_id from patient where patient_id = :patientId");
+		patient.addParameter(new Parameter("patientId", "Patient Id", Integer.class));
+
+		CompositionCohortDefinition composition = new CompositionCohortDefinition();
+		composition.addSearch("first", new Mapped<CohortDefinition>(patient, createMappings("patientId", 2)));
+		composition.addSearch("second", new Mapped<CohortDefinition>(patient, createMappings("patientId", 7)));
+		composition.setCompositionString("first or second");
+
+		CohortSqlQuery query = CohortSqlCompiler.compile(CohortExpressionParser.parseIntoTokens(composition.getCompositionString()), composition, new EvaluationContext());
+		Assert.assertEquals(2, query.getParameterValues().size());
+		Assert.assertEquals(2, query.getParameterValues().get("s0_patientId"));
+		Assert.assertEquals(7, query.getParameterValues().get("s1_patientId"));
+		Assert.assertFalse(query.getSql().contains(":patientId"));
+	}
+
+	/**
+	 * @see CohortSqlCompiler#compile(java.util.List, CompositionCohortDefinition, EvaluationContext)
+	 * @verifies return null if any search cannot be translated
+	 */
+	@Test
+	public void compile_shouldReturnNullIfAnySearchCannotBeTranslated() throws Exception {
+		GenderCohortDefinition females = new GenderCohortDefinition();
+		females.setFemaleIncluded(true);
+		StaticCohortDefinition selected = new StaticCohortDefinition(new Cohort("2,7"));
+
+		CompositionCohortDefinition composition = new CompositionCohortDefinition();
+		composition.addSearch("females", new Mapped<CohortDefinition>(females, null));
+		composition.addSearch("selected", new Mapped<CohortDefinition>(selected, null));
+		composition.setCompositionString("females or selected");
+
+		Assert.assertNull(CohortSqlCompiler.compile(CohortExpressionParser.parseIntoTokens(composition.getCompositionString()), composition, new EvaluationContext()));
+	}
+
+	/**
+	 * @see CohortSqlCompiler#compile(List, CompositionCohortDefinition, EvaluationContext, Map)
+	 * @verifies record the result of each nested group so that it is compiled only once
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void compile_shouldRecordTheResultOfEachNestedGroupSoThatItIsCompiledOnlyOnce() throws Exception {
+		GenderCohortDefinition females = new GenderCohortDefinition();
+		females.setFemaleIncluded(true);
+		AgeCohortDefinition adults = new AgeCohortDefinition();
+		adults.setMinAge(18);
+		StaticCohortDefinition selected = new StaticCohortDefinition(new Cohort("2,7"));
+
+		CompositionCohortDefinition composition = new CompositionCohortDefinition();
+		composition.addSearch("females", new Mapped<CohortDefinition>(females, null));
+		composition.addSearch("adults", new Mapped<CohortDefinition>(adults, null));
+		composition.addSearch("selected", new Mapped<CohortDefinition>(selected, null));
+		composition.setCompositionString("(females and adults) and (selected or females)");
+
+		List<Object> tokens = CohortExpressionParser.parseIntoTokens(composition.getCompositionString());
+		Map<List<Object>, CohortSqlQuery> compiled = new IdentityHashMap<List<Object>, CohortSqlQuery>();
+		Assert.assertNull(CohortSqlCompiler.compile(tokens, composition, new EvaluationContext(), compiled));
+
+		List<Object> translatable = (List<Object>) tokens.get(0);
+		List<Object> untranslatable = (List<Object>) tokens.get(2);
+		Assert.assertEquals(3, compiled.size());
+		Assert.assertTrue(compiled.containsKey(tokens));
+		Assert.assertTrue(compiled.containsKey(untranslatable));
+		Assert.assertNull(compiled.get(untranslatable));
+		Assert.assertNotNull(compiled.get(translatable));
+		Assert.assertSame(compiled.get(translatable), CohortSqlCompiler.compile(translatable, composition, new EvaluationContext(), compiled));
+	}
+
+	private Map<String, Object> createMappings(String parameterName, Object value) {
+		Map<String, Object> mappings = new HashMap<String, Object>();
+		mappings.put(parameterName, value);
+		return mappings;
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.common;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link IdBitmap}
+ */
+public class IdBitmapTest {
+
+	@Test
+	public void add_shouldAddIdsAcrossSparseAndDenseChunks() throws Exception {
+		IdBitmap bitmap = new IdBitmap(5, 70000, 3, 5);
+		for (int i = 200000; i < 210000; i++) {
+			bitmap.add(i);
+		}
+		Assert.assertEquals(10003, bitmap.size());
+		Assert.assertTrue(bitmap.contains(3));
+		Assert.assertTrue(bitmap.contains(70000));
+		Assert.assertTrue(bitmap.contains(205000));
+		Assert.assertFalse(bitmap.contains(4));
+		Assert.assertFalse(bitmap.contains(-1));
+		int[] ids = bitmap.toArray();
+		Assert.assertEquals(3, ids[0]);
+		Assert.assertEquals(5, ids[1]);
+		Assert.assertEquals(70000, ids[2]);
+		Assert.assertEquals(209999, ids[ids.length - 1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void add_shouldFailForNegativeIds() throws Exception {
+		new IdBitmap().add(-5);
+	}
+
+	@Test
+	public void and_or_andNot_shouldMatchTheEquivalentSetOperations() throws Exception {
+		Random random = new Random(42);
+		Set<Integer> a = randomIds(random, 20000, 150000);
+		Set<Integer> b = randomIds(random, 3000, 150000);
+		Set<Integer> c = randomIds(random, 60000, 150000);
+
+		assertOperations(a, b);
+		assertOperations(a, c);
+		assertOperations(b, c);
+		assertOperations(b, new HashSet<Integer>());
+	}
+
+	@Test
+	public void toSet_shouldReturnAllIds() throws Exception {
+		Set<Integer> ids = randomIds(new Random(7), 10000, 1000000);
+		Assert.assertEquals(ids, new IdBitmap(ids).toSet());
+	}
+
+	private void assertOperations(Set<Integer> a, Set<Integer> b) {
+		IdBitmap bitmapA = new IdBitmap(a);
+		IdBitmap bitmapB = new IdBitmap(b);
+
+		Set<Integer> expectedAnd = new HashSet<Integer>(a);
+		expectedAnd.retainAll(b);
+		Assert.assertEquals(expectedAnd, bitmapA.and(bitmapB).toSet());
+		Assert.assertEquals(expectedAnd.size(), IdBitmap.andCardinality(bitmapA, bitmapB));
+
+		Set<Integer> expectedOr = new HashSet<Integer>(a);
+		expectedOr.addAll(b);
+		Assert.assertEquals(expectedOr, bitmapA.or(bitmapB).toSet());
+
+		Set<Integer> expectedAndNot = new HashSet<Integer>(a);
+		expectedAndNot.removeAll(b);
+		Assert.assertEquals(expectedAndNot, bitmapA.andNot(bitmapB).toSet());
+		Assert.assertEquals(new IdBitmap(expectedAndNot), bitmapA.andNot(bitmapB));
+	}
+
+	private Set<Integer> randomIds(Random random, int num, int max) {
+		Set<Integer> ret = new HashSet<Integer>();
+		for (int i = 0; i < num; i++) {
+			ret.add(random.nextInt(max));
+		}
+		return ret;
+	}
+}
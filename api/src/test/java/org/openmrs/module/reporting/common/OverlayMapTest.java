@@ -0,0 +1,47 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.common;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link OverlayMap}
+ */
+public class OverlayMapTest {
+
+	@Test
+	public void shouldReadThroughToTheBaseWithoutModifyingIt() throws Exception {
+		Map<String, Object> base = new HashMap<String, Object>();
+		base.put("a", 1);
+		base.put("b", 2);
+
+		Map<String, Object> m = new OverlayMap<String, Object>(base);
+		m.put("b", 3);
+		m.put("c", null);
+
+		Assert.assertEquals(1, m.get("a"));
+		Assert.assertEquals(3, m.get("b"));
+		Assert.assertNull(m.get("c"));
+		Assert.assertTrue(m.containsKey("c"));
+		Assert.assertFalse(m.containsKey("d"));
+		Assert.assertEquals(3, m.size());
+
+		Assert.assertEquals(2, base.get("b"));
+		Assert.assertEquals(2, base.size());
+	}
+}
@@ -174,4 +174,29 @@ public class ObsForPersonDataEvaluatorTest extends BaseModuleContextSensitiveTes
 			Assert.assertEquals(3, ((List) pd.getData().get(7)).size());
 		}
 	}
+	
+	/**
+	 * @see ObsForPersonDataEvaluator#evaluate(PersonDataDefinition,EvaluationContext)
+	 * @verifies select the first or last obs for each person in the database
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void evaluate_shouldSelectTheFirstOrLastObsForEachPersonInTheDatabase() throws Exception {
+		EvaluationContext context = new EvaluationContext();
+		context.setBaseCohort(new Cohort("7,20"));
+		
+		ObsForPersonDataDefinition d = new ObsForPersonDataDefinition();
+		d.setQuestion(Context.getConceptService().getConcept(5089));
+		d.addEncounterType(Context.getEncounterService().getEncounterType(1));
+		List<Obs> all = (List<Obs>) Context.getService(PersonDataService.class).evaluate(d, context).getData().get(7);
+		
+		d.setWhich(TimeQualifier.FIRST);
+		Obs first = (Obs) Context.getService(PersonDataService.class).evaluate(d, context).getData().get(7);
+		Assert.assertEquals(all.get(0), first);
+		
+		d.setWhich(TimeQualifier.LAST);
+		Obs last = (Obs) Context.getService(PersonDataService.class).evaluate(d, context).getData().get(7);
+		Assert.assertEquals(all.get(all.size() - 1), last);
+		Assert.assertNotSame(first, last);
+	}
 }
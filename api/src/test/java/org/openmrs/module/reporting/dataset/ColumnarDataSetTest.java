@@ -0,0 +1,160 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.dataset;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.reporting.common.SortCriteria;
+import org.openmrs.module.reporting.common.SortCriteria.SortDirection;
+
+/**
+ * Tests for {@link ColumnarDataSet}
+ */
+public class ColumnarDataSetTest {
+
+	private DataSetColumn id = new DataSetColumn("id", "Id", Integer.class);
+	private DataSetColumn name = new DataSetColumn("name", "Name", String.class);
+	private DataSetColumn birthdate = new DataSetColumn("birthdate", "Birthdate", Date.class);
+	private DataSetColumn weight = new DataSetColumn("weight", "Weight", Double.class);
+	private DataSetColumn other = new DataSetColumn("other", "Other", Object.class);
+
+	@Test
+	public void getRows_shouldReturnTheSameRowsAsASimpleDataSet() throws Exception {
+		SimpleDataSet expected = new SimpleDataSet(null, null);
+		ColumnarDataSet actual = new ColumnarDataSet(null, null);
+		Random random = new Random(3);
+		for (int i = 0; i < 2000; i++) {
+			int rowId = random.nextInt(100000);
+			for (DataSetColumn column : new DataSetColumn[] {id, name, birthdate, weight, other}) {
+				Object value = randomValue(random, column);
+				expected.addColumnValue(rowId, column, value);
+				actual.addColumnValue(rowId, column, value);
+			}
+		}
+		List<DataSetRow> expectedRows = expected.getRows();
+		List<DataSetRow> actualRows = actual.getRows();
+		Assert.assertEquals(expectedRows.size(), actual.getRowCount());
+		for (int i = 0; i < expectedRows.size(); i++) {
+			Assert.assertEquals(expectedRows.get(i).getColumnValues(), actualRows.get(i).getColumnValues());
+			Assert.assertEquals(expectedRows.get(i).getColumnValue("NAME"), actualRows.get(i).getColumnValue("NAME"));
+		}
+		for (Integer rowId : expected.getRowMap().keySet()) {
+			Assert.assertEquals(expected.getColumnValue(rowId, "birthdate"), actual.getColumnValue(rowId, "birthdate"));
+		}
+		Assert.assertEquals(5, actual.getMetaData().getColumnCount());
+	}
+
+	@Test
+	public void getRows_shouldWriteChangesMadeToRowsThroughToTheDataSet() throws Exception {
+		ColumnarDataSet dataSet = new ColumnarDataSet(null, null);
+		dataSet.addColumnValue(1, id, 1);
+		dataSet.addColumnValue(1, name, "Alice");
+		DataSetRow row = dataSet.getRows().get(0);
+		row.removeColumn("id");
+		row.addColumnValue(weight, 52.5);
+		DataSetRow reread = dataSet.getRows().get(0);
+		Assert.assertFalse(reread.getColumnValues().containsKey(id));
+		Assert.assertEquals(52.5, reread.getColumnValue(weight));
+		Assert.assertEquals("Alice", reread.getColumnValue(name));
+	}
+
+	@Test
+	public void getRows_shouldSortRowsBySortCriteria() throws Exception {
+		ColumnarDataSet dataSet = new ColumnarDataSet(null, null);
+		dataSet.addColumnValue(1, name, "Charlie");
+		dataSet.addColumnValue(2, name, "Alice");
+		dataSet.addColumnValue(3, name, "Bob");
+		SortCriteria sortCriteria = new SortCriteria();
+		sortCriteria.addSortElement("name", SortDirection.ASC);
+		dataSet.setSortCriteria(sortCriteria);
+		List<DataSetRow> rows = dataSet.getRows();
+		Assert.assertEquals("Alice", rows.get(0).getColumnValue("name"));
+		Assert.assertEquals("Bob", rows.get(1).getColumnValue("name"));
+		Assert.assertEquals("Charlie", rows.get(2).getColumnValue("name"));
+	}
+
+	@Test
+	public void addColumnValue_shouldRetainValuesOfMixedTypesInAColumn() throws Exception {
+		ColumnarDataSet dataSet = new ColumnarDataSet(null, null);
+		dataSet.addColumnValue(1, other, 5);
+		dataSet.addColumnValue(2, other, "five");
+		dataSet.addColumnValue(3, other, new java.sql.Timestamp(5));
+		Assert.assertEquals(5, dataSet.getColumnValue(1, "other"));
+		Assert.assertEquals("five", dataSet.getColumnValue(2, "other"));
+		Assert.assertEquals(java.sql.Timestamp.class, dataSet.getColumnValue(3, "other").getClass());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void addColumnValue_shouldFailForARowWithANullId() throws Exception {
+		ColumnarDataSet dataSet = new ColumnarDataSet(null, null);
+		dataSet.addColumnValue(null, other, 5);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void addRow_shouldFailForARowWithANullId() throws Exception {
+		ColumnarDataSet dataSet = new ColumnarDataSet(null, null);
+		DataSetRow row = new DataSetRow();
+		row.addColumnValue(other, 5);
+		dataSet.addRow(null, row);
+	}
+
+	@Test
+	public void getColumnValue_shouldReturnNullForANullId() throws Exception {
+		ColumnarDataSet dataSet = new ColumnarDataSet(null, null);
+		dataSet.addColumnValue(1, other, 5);
+		Assert.assertNull(dataSet.getColumnValue(null, "other"));
+	}
+
+	@Test
+	public void addColumnValue_shouldPreserveTheClassOfDatesReadFromTheDatabase() throws Exception {
+		ColumnarDataSet dataSet = new ColumnarDataSet(null, null);
+		dataSet.addColumnValue(1, birthdate, new Timestamp(1000L));
+		dataSet.addColumnValue(2, birthdate, new Timestamp(2000L));
+		dataSet.addColumnValue(1, other, new java.sql.Date(3000L));
+		Assert.assertEquals(Timestamp.class, dataSet.getColumnValue(2, "birthdate").getClass());
+		Assert.assertEquals(new Timestamp(2000L), dataSet.getColumnValue(2, "birthdate"));
+		Assert.assertEquals(java.sql.Date.class, dataSet.getColumnValue(1, "other").getClass());
+
+		Timestamp precise = new Timestamp(4000L);
+		precise.setNanos(123456789);
+		dataSet.addColumnValue(3, birthdate, precise);
+		Assert.assertEquals(precise, dataSet.getColumnValue(3, "birthdate"));
+		Assert.assertEquals(new Timestamp(1000L), dataSet.getColumnValue(1, "birthdate"));
+	}
+
+	private Object randomValue(Random random, DataSetColumn column) {
+		int n = random.nextInt(10);
+		if (n == 0) {
+			return null;
+		}
+		if (column == id) {
+			return random.nextInt();
+		}
+		if (column == name) {
+			return "Name " + random.nextInt(50);
+		}
+		if (column == birthdate) {
+			return new Date(random.nextInt() * 1000L);
+		}
+		if (column == weight) {
+			return random.nextDouble();
+		}
+		return n < 5 ? (Object) n : "Value " + n;
+	}
+}
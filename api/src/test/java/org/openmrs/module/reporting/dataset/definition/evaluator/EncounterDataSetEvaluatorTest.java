@@ -17,18 +17,23 @@ import java.util.Date;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.EncounterType;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.common.TestUtil;
+import org.openmrs.module.reporting.data.converter.DataConverter;
 import org.openmrs.module.reporting.data.converter.DateConverter;
 import org.openmrs.module.reporting.data.encounter.definition.EncounterDatetimeDataDefinition;
 import org.openmrs.module.reporting.data.encounter.definition.EncounterIdDataDefinition;
+import org.openmrs.module.reporting.data.encounter.definition.EncounterTypeDataDefinition;
 import org.openmrs.module.reporting.data.patient.definition.PatientIdDataDefinition;
 import org.openmrs.module.reporting.data.person.definition.AgeDataDefinition;
 import org.openmrs.module.reporting.data.person.definition.BirthdateDataDefinition;
 import org.openmrs.module.reporting.dataset.DataSet;
+import org.openmrs.module.reporting.dataset.DataSetRow;
 import org.openmrs.module.reporting.dataset.DataSetUtil;
 import org.openmrs.module.reporting.dataset.definition.EncounterDataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.service.DataSetDefinitionService;
@@ -84,4 +89,30 @@ public class EncounterDataSetEvaluatorTest extends BaseModuleContextSensitiveTes
 		DataSet dataset = Context.getService(DataSetDefinitionService.class).evaluate(d, context);
 		DataSetUtil.printDataSet(dataset, System.out);
 	}
+
+	@Test
+	public void evaluate_shouldConvertEntitiesWithinTheSessionOfTheCallerWhenEvaluatingColumnsConcurrently() throws Exception {
+		EncounterDataSetDefinition d = new EncounterDataSetDefinition();
+		d.setMaxConcurrentColumns(2);
+		d.addColumn("ENCOUNTER ID", new EncounterIdDataDefinition(), null);
+		d.addColumn("TYPE CREATOR", new EncounterTypeDataDefinition(), null, new DataConverter() {
+			public Object convert(Object original) {
+				return (original == null ? null : ((EncounterType) original).getCreator().getSystemId()); // a lazy association
+			}
+			public Class<?> getInputDataType() {
+				return EncounterType.class;
+			}
+			public Class<?> getDataType() {
+				return String.class;
+			}
+		});
+
+		DataSet dataset = Context.getService(DataSetDefinitionService.class).evaluate(d, new EvaluationContext());
+		int numRows = 0;
+		for (DataSetRow row : dataset) {
+			Assert.assertNotNull(row.getColumnValue("TYPE CREATOR"));
+			numRows++;
+		}
+		Assert.assertTrue(numRows > 0);
+	}
 }
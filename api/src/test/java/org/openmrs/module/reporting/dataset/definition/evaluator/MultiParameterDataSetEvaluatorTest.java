@@ -15,9 +15,13 @@ package org.openmrs.module.reporting.dataset.definition.evaluator;
 
 import junit.framework.Assert;
 import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.data.person.definition.PreferredNameDataDefinition;
 import org.openmrs.module.reporting.dataset.DataSetColumn;
 import org.openmrs.module.reporting.dataset.SimpleDataSet;
 import org.openmrs.module.reporting.dataset.definition.MultiParameterDataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.PatientDataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.SqlDataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.service.DataSetDefinitionService;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
@@ -109,4 +113,39 @@ public class MultiParameterDataSetEvaluatorTest extends BaseModuleContextSensiti
 		Assert.assertTrue(thirdDateResult.before(secondIterationParameter));
 
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see {@link MultiParameterDataSetEvaluator#canEvaluateConcurrently(MultiParameterDataSetDefinition, EvaluationContext)}
+	 */
+	@Test
+	@Verifies(value = "should only allow base definitions evaluated with ids or scalars", method = "canEvaluateConcurrently(MultiParameterDataSetDefinition,EvaluationContext)")
+	public void canEvaluateConcurrently_shouldOnlyAllowBaseDefinitionsEvaluatedWithIdsOrScalars() throws Exception {
+		MultiParameterDataSetEvaluator evaluator = new MultiParameterDataSetEvaluator();
+
+		SqlDataSetDefinition sqlDataSetDefinition = new SqlDataSetDefinition("counts", null, "select count(*) from encounter where location_id = :location");
+		sqlDataSetDefinition.addParameter(new Parameter("location", "location", Location.class));
+		MultiParameterDataSetDefinition byLocationId = new MultiParameterDataSetDefinition(sqlDataSetDefinition);
+		for (int locationId = 1; locationId <= 2; locationId++) {
+			Map<String, Object> iteration = new HashMap<String, Object>();
+			iteration.put("location", locationId);
+			byLocationId.addIteration(iteration);
+		}
+		Assert.assertTrue(evaluator.canEvaluateConcurrently(byLocationId, new EvaluationContext()));
+
+		MultiParameterDataSetDefinition byLocation = new MultiParameterDataSetDefinition(sqlDataSetDefinition);
+		for (int locationId = 1; locationId <= 2; locationId++) {
+			Map<String, Object> iteration = new HashMap<String, Object>();
+			iteration.put("location", Context.getLocationService().getLocation(locationId));
+			byLocation.addIteration(iteration);
+		}
+		Assert.assertFalse(evaluator.canEvaluateConcurrently(byLocation, new EvaluationContext()));
+
+		EvaluationContext withLocation = new EvaluationContext();
+		withLocation.addParameterValue("location", Context.getLocationService().getLocation(1));
+		Assert.assertFalse(evaluator.canEvaluateConcurrently(byLocationId, withLocation));
+
+		PatientDataSetDefinition names = new PatientDataSetDefinition();
+		names.addColumn("name", new PreferredNameDataDefinition(), (String) null);
+		Assert.assertFalse(evaluator.canEvaluateConcurrently(new MultiParameterDataSetDefinition(names), new EvaluationContext()));
+	}
+}
@@ -18,16 +18,19 @@ import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.UUID;
 
 import junit.framework.Assert;
 
 import org.junit.Test;
+import org.openmrs.Cohort;
 import org.openmrs.Location;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.reporting.ReportingConstants;
 import org.openmrs.module.reporting.cohort.definition.AgeCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.StaticCohortDefinition;
 import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.dataset.DataSet;
 import org.openmrs.module.reporting.dataset.DataSetRow;
@@ -98,4 +101,52 @@ public class MultiPeriodIndicatorDataSetEvaluatorTest extends BaseModuleContextS
 			}
 		}
 	}
+
+	@Test
+	public void evaluate_shouldReturnTheSameRowsWhenIterationsAreEvaluatedConcurrently() throws Exception {
+		// Static cohorts are used, so that worker threads need not read any data from the test transaction
+		Map<String, Object> periodMappings = new HashMap<String, Object>();
+		periodMappings.put("startDate", "${startDate}");
+		periodMappings.put("endDate", "${endDate}");
+
+		CohortIndicatorDataSetDefinition def = new CohortIndicatorDataSetDefinition();
+		def.addColumn("1", "Three", new Mapped<CohortIndicator>(createCountIndicator(new Cohort("2,6,7")), periodMappings), "");
+		def.addColumn("2", "One", new Mapped<CohortIndicator>(createCountIndicator(new Cohort("6")), periodMappings), "");
+
+		MultiPeriodIndicatorDataSetDefinition multi = new MultiPeriodIndicatorDataSetDefinition(def);
+		for (int i = 0; i < 6; ++i) {
+			Date startDate = DateUtil.getDateTime(2009, i, 1);
+			multi.addIteration(new Iteration(startDate, DateUtil.getEndOfMonth(startDate), null));
+		}
+
+		DataSet sequential = Context.getService(DataSetDefinitionService.class).evaluate(multi, new EvaluationContext());
+		multi.setMaxConcurrentIterations(3);
+		DataSet concurrent = Context.getService(DataSetDefinitionService.class).evaluate(multi, new EvaluationContext());
+
+		Iterator<DataSetRow> expectedRows = sequential.iterator();
+		int numRows = 0;
+		for (DataSetRow row : concurrent) {
+			DataSetRow expected = expectedRows.next();
+			Assert.assertEquals(expected.getColumnValue("startDate"), row.getColumnValue("startDate"));
+			for (String column : new String[] { "1", "2" }) {
+				CohortIndicatorAndDimensionResult expectedResult = (CohortIndicatorAndDimensionResult) expected.getColumnValue(column);
+				CohortIndicatorAndDimensionResult result = (CohortIndicatorAndDimensionResult) row.getColumnValue(column);
+				Assert.assertEquals(expectedResult.getValue().doubleValue(), result.getValue().doubleValue());
+				Assert.assertEquals(expectedResult.getCohortIndicatorAndDimensionCohort().getMemberIds(), result.getCohortIndicatorAndDimensionCohort().getMemberIds());
+			}
+			numRows++;
+		}
+		Assert.assertFalse(expectedRows.hasNext());
+		Assert.assertEquals(6, numRows);
+		Assert.assertEquals(3d, ((CohortIndicatorAndDimensionResult) concurrent.iterator().next().getColumnValue("1")).getValue().doubleValue());
+	}
+
+	private CohortIndicator createCountIndicator(Cohort cohort) {
+		CohortIndicator indicator = new CohortIndicator();
+		indicator.addParameter(ReportingConstants.START_DATE_PARAMETER);
+		indicator.addParameter(ReportingConstants.END_DATE_PARAMETER);
+		indicator.setUuid(UUID.randomUUID().toString());
+		indicator.setCohortDefinition(new StaticCohortDefinition(cohort), new HashMap<String, Object>());
+		return indicator;
+	}
 }
\ No newline at end of file
@@ -14,6 +14,7 @@
 package org.openmrs.module.reporting.dataset.definition.evaluator;
 
 import java.util.Date;
+import java.util.Iterator;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -21,13 +22,17 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.Cohort;
+import org.openmrs.GlobalProperty;
+import org.openmrs.PersonName;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.ReportingConstants;
 import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.common.TestUtil;
 import org.openmrs.module.reporting.common.SortCriteria.SortDirection;
 import org.openmrs.module.reporting.common.TimeQualifier;
 import org.openmrs.module.reporting.data.converter.AgeConverter;
 import org.openmrs.module.reporting.data.converter.BirthdateConverter;
+import org.openmrs.module.reporting.data.converter.DataConverter;
 import org.openmrs.module.reporting.data.converter.DateConverter;
 import org.openmrs.module.reporting.data.converter.ObjectFormatter;
 import org.openmrs.module.reporting.data.encounter.definition.EncounterDatetimeDataDefinition;
@@ -36,8 +41,12 @@ import org.openmrs.module.reporting.data.patient.definition.PatientIdDataDefinit
 import org.openmrs.module.reporting.data.person.definition.AgeDataDefinition;
 import org.openmrs.module.reporting.data.person.definition.BirthdateDataDefinition;
 import org.openmrs.module.reporting.data.person.definition.GenderDataDefinition;
+import org.openmrs.module.reporting.data.person.definition.PreferredNameDataDefinition;
+import org.openmrs.module.reporting.dataset.DataSet;
+import org.openmrs.module.reporting.dataset.DataSetRow;
 import org.openmrs.module.reporting.dataset.DataSetUtil;
 import org.openmrs.module.reporting.dataset.SimpleDataSet;
+import org.openmrs.module.reporting.dataset.StreamingPatientDataSet;
 import org.openmrs.module.reporting.dataset.definition.EncounterDataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.PatientDataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.service.DataSetDefinitionService;
@@ -182,6 +191,64 @@ public class PatientDataSetEvaluatorTest extends BaseModuleContextSensitiveTest
 		DataSetUtil.printDataSet(dataset, System.out);
 	}
 	
+	@Test
+	public void evaluate_shouldStreamTheSameRowsInBatchesIfStreamingIsAllowed() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(ReportingConstants.GLOBAL_PROPERTY_DATA_EVALUATION_BATCH_SIZE, "2"));
+
+		PatientDataSetDefinition d = new PatientDataSetDefinition();
+		d.addColumn("EMR ID", new PatientIdDataDefinition(), (String) null);
+		d.addColumn("Sexe", new GenderDataDefinition(), (String) null);
+
+		SimpleDataSet expected = (SimpleDataSet)Context.getService(DataSetDefinitionService.class).evaluate(d, getEvaluationContext());
+
+		EvaluationContext context = getEvaluationContext();
+		context.setStreamingAllowed(true);
+		DataSet actual = Context.getService(DataSetDefinitionService.class).evaluate(d, context);
+		Assert.assertTrue(actual instanceof StreamingPatientDataSet);
+		Assert.assertEquals(2, actual.getMetaData().getColumnCount());
+
+		Iterator<DataSetRow> actualRows = actual.iterator();
+		for (DataSetRow expectedRow : expected) {
+			DataSetRow actualRow = actualRows.next();
+			Assert.assertEquals(expectedRow.getColumnValue("EMR ID"), actualRow.getColumnValue("EMR ID"));
+			Assert.assertEquals(expectedRow.getColumnValue("Sexe"), actualRow.getColumnValue("Sexe"));
+		}
+		Assert.assertFalse(actualRows.hasNext());
+	}
+
+	@Test
+	public void evaluate_shouldNotStreamRowsThatMustBeSorted() throws Exception {
+		PatientDataSetDefinition d = new PatientDataSetDefinition();
+		d.addColumn("EMR ID", new PatientIdDataDefinition(), (String) null);
+		d.addSortCriteria("EMR ID", SortDirection.DESC);
+
+		EvaluationContext context = getEvaluationContext();
+		context.setStreamingAllowed(true);
+		DataSet dataset = Context.getService(DataSetDefinitionService.class).evaluate(d, context);
+		Assert.assertTrue(dataset instanceof SimpleDataSet);
+	}
+	
+	@Test
+	public void evaluate_shouldConvertEntitiesWithinTheSessionOfTheCallerWhenEvaluatingColumnsConcurrently() throws Exception {
+		PatientDataSetDefinition d = new PatientDataSetDefinition();
+		d.setMaxConcurrentColumns(2);
+		d.addColumn("Sexe", new GenderDataDefinition(), (String) null);
+		d.addColumn("Number of Names", new PreferredNameDataDefinition(), (String) null, new DataConverter() {
+			public Object convert(Object original) {
+				return (original == null ? null : ((PersonName) original).getPerson().getNames().size()); // a lazy association
+			}
+			public Class<?> getInputDataType() {
+				return PersonName.class;
+			}
+			public Class<?> getDataType() {
+				return Integer.class;
+			}
+		});
+		SimpleDataSet dataset = (SimpleDataSet)Context.getService(DataSetDefinitionService.class).evaluate(d, getEvaluationContext());
+		Assert.assertEquals("M", dataset.getColumnValue(2, "Sexe"));
+		Assert.assertTrue((Integer) dataset.getColumnValue(2, "Number of Names") > 0);
+	}
+	
 	//***** UTILITY METHODS *****
 	
 	public EvaluationContext getEvaluationContext() {
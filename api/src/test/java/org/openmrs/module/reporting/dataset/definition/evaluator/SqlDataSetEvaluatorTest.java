@@ -1,17 +1,23 @@
 package org.openmrs.module.reporting.dataset.definition.evaluator;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 
 import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.Cohort;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.reporting.IllegalDatabaseAccessException;
 import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.common.TestUtil;
+import org.openmrs.module.reporting.dataset.DataSet;
 import org.openmrs.module.reporting.dataset.DataSetRow;
 import org.openmrs.module.reporting.dataset.SimpleDataSet;
+import org.openmrs.module.reporting.dataset.StreamingSqlDataSet;
 import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.SqlDataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.service.DataSetDefinitionService;
@@ -121,4 +127,105 @@ public class SqlDataSetEvaluatorTest extends BaseModuleContextSensitiveTest {
 		ds = (SimpleDataSet)Context.getService(DataSetDefinitionService.class).evaluate(dataSetDefinition, context);
 		Assert.assertEquals(2, ds.getRows().size());
 	}
+	/**
+	 * @see {@link SqlDataSetEvaluator#evaluate(DataSetDefinition,EvaluationContext)}
+	 */
+	@Test
+	@Verifies(value = "should restrict the query to the base cohort", method = "evaluate(DataSetDefinition,EvaluationContext)")
+	public void evaluate_shouldRestrictTheQueryToTheBaseCohort() throws Exception {
+		SqlDataSetDefinition d = new SqlDataSetDefinition();
+		d.setSqlQuery("select t.patient_id, p.gender from patient t inner join person p on t.patient_id = p.person_id order by t.patient_id asc;");
+		EvaluationContext context = new EvaluationContext();
+		context.setBaseCohort(new Cohort("2,21"));
+		SimpleDataSet result = (SimpleDataSet) Context.getService(DataSetDefinitionService.class).evaluate(d, context);
+		Assert.assertEquals(2, result.getRows().size());
+		Assert.assertEquals(2, result.getRows().get(0).getColumnValue("patient_id"));
+		Assert.assertEquals(21, result.getRows().get(1).getColumnValue("patient_id"));
+		
+		context.setBaseCohort(new Cohort("21"));
+		result = (SimpleDataSet) Context.getService(DataSetDefinitionService.class).evaluate(d, context);
+		Assert.assertEquals(1, result.getRows().size());
+		
+		context.setBaseCohort(new Cohort());
+		result = (SimpleDataSet) Context.getService(DataSetDefinitionService.class).evaluate(d, context);
+		Assert.assertEquals(0, result.getRows().size());
+		Assert.assertEquals(2, result.getMetaData().getColumnCount());
+	}
+	
+	/**
+	 * @see {@link SqlDataSetEvaluator#evaluate(DataSetDefinition,EvaluationContext)}
+	 */
+	@Test
+	@Verifies(value = "should keep the order of an ordered query restricted to the base cohort", method = "evaluate(DataSetDefinition,EvaluationContext)")
+	public void evaluate_shouldKeepTheOrderOfAnOrderedQueryRestrictedToTheBaseCohort() throws Exception {
+		SqlDataSetDefinition d = new SqlDataSetDefinition();
+		d.setSqlQuery("select t.patient_id, p.gender from patient t inner join person p on t.patient_id = p.person_id order by t.patient_id desc");
+		EvaluationContext context = new EvaluationContext();
+		context.setBaseCohort(new Cohort("2,21"));
+		SimpleDataSet result = (SimpleDataSet) Context.getService(DataSetDefinitionService.class).evaluate(d, context);
+		Assert.assertEquals(2, result.getRows().size());
+		Assert.assertEquals(21, result.getRows().get(0).getColumnValue("patient_id"));
+		Assert.assertEquals(2, result.getRows().get(1).getColumnValue("patient_id"));
+		
+		d.setSqlQuery("select t.patient_id, p.gender from patient t inner join person p on t.patient_id = p.person_id");
+		result = (SimpleDataSet) Context.getService(DataSetDefinitionService.class).evaluate(d, context);
+		Assert.assertEquals(2, result.getRows().size());
+	}
+	
+	/**
+	 * @see {@link SqlDataSetEvaluator#evaluate(DataSetDefinition,EvaluationContext)}
+	 */
+	@Test
+	@Verifies(value = "should return a streaming data set if the context allows streaming", method = "evaluate(DataSetDefinition,EvaluationContext)")
+	public void evaluate_shouldReturnAStreamingDataSetIfTheContextAllowsStreaming() throws Exception {
+		SqlDataSetDefinition d = new SqlDataSetDefinition();
+		d.setSqlQuery("select t.patient_id, p.gender from patient t inner join person p on t.patient_id = p.person_id order by t.patient_id asc");
+		EvaluationContext context = new EvaluationContext();
+		context.setBaseCohort(new Cohort("2,21"));
+		context.setStreamingAllowed(true);
+		DataSet result = Context.getService(DataSetDefinitionService.class).evaluate(d, context);
+		Assert.assertTrue(result instanceof StreamingSqlDataSet);
+		Assert.assertEquals(2, result.getMetaData().getColumnCount());
+		
+		// each iteration reads the rows again
+		for (int i = 0; i < 2; i++) {
+			List<Object> patientIds = new ArrayList<Object>();
+			for (DataSetRow row : result) {
+				patientIds.add(row.getColumnValue("patient_id"));
+			}
+			Assert.assertEquals(Arrays.asList((Object) 2, 21), patientIds);
+		}
+		
+		// an iteration which is abandoned is closed with the data set
+		Iterator<DataSetRow> rows = result.iterator();
+		Assert.assertTrue(rows.hasNext());
+		rows.next();
+		((StreamingSqlDataSet) result).close();
+		Assert.assertFalse(rows.hasNext());
+	}
+	
+	/**
+	 * @see {@link SqlDataSetEvaluator#evaluate(DataSetDefinition,EvaluationContext)}
+	 */
+	@Test
+	@Verifies(value = "should restrict a streamed query to the base cohort in the database", method = "evaluate(DataSetDefinition,EvaluationContext)")
+	public void evaluate_shouldRestrictAStreamedQueryToTheBaseCohortInTheDatabase() throws Exception {
+		SqlDataSetDefinition d = new SqlDataSetDefinition();
+		d.setSqlQuery("select t.patient_id, p.gender from patient t inner join person p on t.patient_id = p.person_id");
+		EvaluationContext context = new EvaluationContext();
+		context.setBaseCohort(new Cohort("21"));
+		context.setStreamingAllowed(true);
+		DataSet result = Context.getService(DataSetDefinitionService.class).evaluate(d, context);
+		List<Object> patientIds = new ArrayList<Object>();
+		for (DataSetRow row : result) {
+			patientIds.add(row.getColumnValue("patient_id"));
+		}
+		Assert.assertEquals(Arrays.asList((Object) 21), patientIds);
+		((StreamingSqlDataSet) result).close();
+		
+		context.setBaseCohort(new Cohort());
+		result = Context.getService(DataSetDefinitionService.class).evaluate(d, context);
+		Assert.assertFalse(result.iterator().hasNext());
+		Assert.assertEquals(2, result.getMetaData().getColumnCount());
+	}
 }
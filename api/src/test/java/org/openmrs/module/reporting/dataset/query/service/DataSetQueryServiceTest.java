@@ -0,0 +1,89 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.dataset.query.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Assert;
+import org.hibernate.SessionFactory;
+import org.junit.Test;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class DataSetQueryServiceTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private SessionFactory sessionFactory;
+
+	/**
+	 * @see DataSetQueryService#executeHqlQuery(String, java.util.Map, HqlResultHandler)
+	 * @verifies pass each result of the query to the handler
+	 */
+	@Test
+	public void executeHqlQuery_shouldPassEachResultOfTheQueryToTheHandler() throws Exception {
+		DataSetQueryService qs = Context.getService(DataSetQueryService.class);
+		String hql = "select pn.person.personId, pn.givenName from PersonName pn order by pn.personNameId";
+		List<Object> expected = qs.executeHqlQuery(hql, new HashMap<String, Object>());
+
+		final List<Object> actual = new ArrayList<Object>();
+		qs.executeHqlQuery(hql, new HashMap<String, Object>(), new HqlResultHandler() {
+			public boolean handleResult(Object result) {
+				actual.add(result);
+				return false;
+			}
+		});
+
+		Assert.assertFalse(expected.isEmpty());
+		Assert.assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Assert.assertArrayEquals((Object[]) expected.get(i), (Object[]) actual.get(i));
+		}
+	}
+
+	/**
+	 * @see DataSetQueryService#executeHqlQuery(String, java.util.Map, HqlResultHandler)
+	 * @verifies evict only the entities loaded by the query which the handler does not keep
+	 */
+	@Test
+	public void executeHqlQuery_shouldEvictOnlyTheEntitiesLoadedByTheQueryWhichTheHandlerDoesNotKeep() throws Exception {
+		DataSetQueryService qs = Context.getService(DataSetQueryService.class);
+		PersonName preloaded = (PersonName) qs.executeHqlQuery("from PersonName pn where pn.personNameId = 1", new HashMap<String, Object>()).get(0);
+
+		final List<PersonName> kept = new ArrayList<PersonName>();
+		final List<PersonName> released = new ArrayList<PersonName>();
+		qs.executeHqlQuery("from PersonName pn order by pn.personNameId", new HashMap<String, Object>(), new HqlResultHandler() {
+			public boolean handleResult(Object result) {
+				PersonName pn = (PersonName) result;
+				if (pn.getPersonNameId() == 2) {
+					kept.add(pn);
+					return true;
+				}
+				released.add(pn);
+				return false;
+			}
+		});
+
+		Assert.assertEquals(1, kept.size());
+		Assert.assertTrue(released.size() > 1);
+		for (PersonName pn : released) {
+			Assert.assertEquals(pn == preloaded, sessionFactory.getCurrentSession().contains(pn));
+		}
+		Assert.assertTrue(released.contains(preloaded));
+		Assert.assertTrue(sessionFactory.getCurrentSession().contains(kept.get(0)));
+	}
+}
@@ -0,0 +1,52 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.definition;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.reporting.evaluation.BaseDefinition;
+
+/**
+ * Tests for {@link DefinitionCopier}
+ */
+public class DefinitionCopierTest {
+
+	@Test
+	public void copy_shouldCopyMutableObjectsWhichAreNotOpenmrsObjects() throws Exception {
+		MutableFieldDefinition definition = new MutableFieldDefinition();
+		definition.setName("original");
+		definition.note = new StringBuilder("note");
+		definition.date = new Date(1000L);
+
+		MutableFieldDefinition copy = new DefinitionCopier(null).copy(definition);
+		Assert.assertNotSame(definition, copy);
+		Assert.assertSame(definition.getName(), copy.getName());
+		Assert.assertNotSame(definition.note, copy.note);
+		Assert.assertEquals("note", copy.note.toString());
+		Assert.assertNotSame(definition.date, copy.date);
+		Assert.assertEquals(definition.date, copy.date);
+
+		copy.note.append(" changed");
+		Assert.assertEquals("note", definition.note.toString());
+	}
+
+	public static class MutableFieldDefinition extends BaseDefinition {
+
+		private StringBuilder note;
+
+		private Date date;
+	}
+}
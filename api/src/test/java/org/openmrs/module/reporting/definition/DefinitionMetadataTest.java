@@ -0,0 +1,58 @@
+package org.openmrs.module.reporting.definition;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.reporting.cohort.definition.AgeCohortDefinition;
+import org.openmrs.module.reporting.definition.DefinitionMetadata.PropertyMetadata;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.parameter.Parameter;
+
+public class DefinitionMetadataTest {
+
+	/**
+	 * @see DefinitionMetadata#getMetadata(Class)
+	 * @verifies return the configuration properties of the class and its superclasses
+	 */
+	@Test
+	public void getMetadata_shouldReturnTheConfigurationPropertiesOfTheClassAndItsSuperclasses() throws Exception {
+		DefinitionMetadata metadata = DefinitionMetadata.getMetadata(AgeCohortDefinition.class);
+		Assert.assertSame(metadata, DefinitionMetadata.getMetadata(AgeCohortDefinition.class));
+		List<String> names = new ArrayList<String>();
+		for (PropertyMetadata p : metadata.getConfigurationProperties()) {
+			names.add(p.getName());
+		}
+		Assert.assertTrue(names.contains("minAge"));
+		Assert.assertTrue(names.contains("unknownAgeIncluded"));
+		Assert.assertTrue(names.contains("effectiveDate"));
+		Assert.assertFalse(names.contains("name"));
+		Assert.assertNotNull(metadata.getProperty("name"));
+		Assert.assertNull(metadata.getProperty("notAField"));
+	}
+
+	/**
+	 * @see DefinitionUtil#cloneDefinitionWithContext(org.openmrs.module.reporting.evaluation.Definition, EvaluationContext)
+	 * @verifies set parameter values on the clone through the metadata of its class
+	 */
+	@Test
+	public void cloneDefinitionWithContext_shouldSetParameterValuesOnTheClone() throws Exception {
+		AgeCohortDefinition definition = new AgeCohortDefinition();
+		definition.setMinAge(15);
+		definition.setUnknownAgeIncluded(true);
+		definition.addParameter(new Parameter("effectiveDate", "Effective Date", Date.class));
+
+		Date effectiveDate = new Date();
+		EvaluationContext context = new EvaluationContext();
+		context.addParameterValue("effectiveDate", effectiveDate);
+		AgeCohortDefinition clone = DefinitionUtil.cloneDefinitionWithContext(definition, context);
+
+		Assert.assertNotSame(definition, clone);
+		Assert.assertEquals(Integer.valueOf(15), clone.getMinAge());
+		Assert.assertTrue(clone.isUnknownAgeIncluded());
+		Assert.assertEquals(effectiveDate, clone.getEffectiveDate());
+		Assert.assertNull(definition.getEffectiveDate());
+	}
+}
@@ -0,0 +1,99 @@
+package org.openmrs.module.reporting.definition.service;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.cohort.definition.AgeCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.CompositionCohortDefinition;
+import org.openmrs.module.reporting.evaluation.caching.EvaluationCacheStatistics;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class SerializedDefinitionServiceTest extends BaseModuleContextSensitiveTest {
+
+	private SerializedDefinitionService service;
+
+	@Before
+	public void setup() throws Exception {
+		service = Context.getService(SerializedDefinitionService.class);
+		service.clearDefinitionCache();
+	}
+
+	/**
+	 * @see SerializedDefinitionService#getDefinitionByUuid(Class, String)
+	 * @verifies return a copy of a cached definition
+	 */
+	@Test
+	public void getDefinitionByUuid_shouldReturnACopyOfACachedDefinition() throws Exception {
+		AgeCohortDefinition saved = service.saveDefinition(createAgeCohortDefinition("Adults", 18));
+		EvaluationCacheStatistics statistics = service.getDefinitionCacheStatistics();
+		long hits = statistics.getHitCount();
+
+		AgeCohortDefinition first = service.getDefinitionByUuid(AgeCohortDefinition.class, saved.getUuid());
+		AgeCohortDefinition second = service.getDefinitionByUuid(AgeCohortDefinition.class, saved.getUuid());
+		Assert.assertEquals(hits + 1, statistics.getHitCount());
+		Assert.assertNotSame(first, second);
+		Assert.assertEquals(Integer.valueOf(18), second.getMinAge());
+
+		first.setMinAge(21);
+		first.getParameters().clear();
+		AgeCohortDefinition third = service.getDefinitionByUuid(AgeCohortDefinition.class, saved.getUuid());
+		Assert.assertEquals(Integer.valueOf(18), third.getMinAge());
+		Assert.assertEquals("Adults", third.getName());
+	}
+
+	/**
+	 * @see SerializedDefinitionService#saveDefinition(org.openmrs.module.reporting.evaluation.Definition)
+	 * @verifies remove the saved definition from the cache
+	 */
+	@Test
+	public void saveDefinition_shouldRemoveTheSavedDefinitionFromTheCache() throws Exception {
+		AgeCohortDefinition saved = service.saveDefinition(createAgeCohortDefinition("Adults", 18));
+		AgeCohortDefinition loaded = service.getDefinitionByUuid(AgeCohortDefinition.class, saved.getUuid());
+		loaded.setMinAge(21);
+		service.saveDefinition(loaded);
+		Assert.assertEquals(Integer.valueOf(21), service.getDefinitionByUuid(AgeCohortDefinition.class, saved.getUuid()).getMinAge());
+	}
+
+	/**
+	 * @see SerializedDefinitionService#saveDefinition(org.openmrs.module.reporting.evaluation.Definition)
+	 * @verifies remove cached definitions which refer to the saved definition
+	 */
+	@Test
+	public void saveDefinition_shouldRemoveCachedDefinitionsWhichReferToTheSavedDefinition() throws Exception {
+		AgeCohortDefinition adults = service.saveDefinition(createAgeCohortDefinition("Adults", 18));
+		CompositionCohortDefinition composition = new CompositionCohortDefinition();
+		composition.setName("Adult patients");
+		composition.addSearch("adults", new Mapped<CohortDefinition>(adults, null));
+		composition.setCompositionString("adults");
+		composition = service.saveDefinition(composition);
+		service.getDefinitionByUuid(CompositionCohortDefinition.class, composition.getUuid());
+
+		adults.setMinAge(21);
+		service.saveDefinition(adults);
+		CompositionCohortDefinition loaded = service.getDefinitionByUuid(CompositionCohortDefinition.class, composition.getUuid());
+		AgeCohortDefinition search = (AgeCohortDefinition) loaded.getSearches().get("adults").getParameterizable();
+		Assert.assertEquals(Integer.valueOf(21), search.getMinAge());
+	}
+
+	/**
+	 * @see SerializedDefinitionService#purgeDefinition(String)
+	 * @verifies remove the purged definition from the cache
+	 */
+	@Test
+	public void purgeDefinition_shouldRemoveThePurgedDefinitionFromTheCache() throws Exception {
+		AgeCohortDefinition saved = service.saveDefinition(createAgeCohortDefinition("Adults", 18));
+		service.getDefinitionByUuid(AgeCohortDefinition.class, saved.getUuid());
+		service.purgeDefinition(saved.getUuid());
+		Assert.assertNull(service.getDefinitionByUuid(AgeCohortDefinition.class, saved.getUuid()));
+	}
+
+	private AgeCohortDefinition createAgeCohortDefinition(String name, Integer minAge) {
+		AgeCohortDefinition definition = new AgeCohortDefinition();
+		definition.setName(name);
+		definition.setMinAge(minAge);
+		return definition;
+	}
+}
@@ -15,7 +15,12 @@ package org.openmrs.module.reporting.evaluation;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.openmrs.Cohort;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.cohort.definition.GenderCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
 import org.openmrs.module.reporting.evaluation.parameter.ParameterException;
+import org.openmrs.module.reporting.serializer.ReportingSerializer;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 
 import java.text.DateFormat;
@@ -120,6 +125,21 @@ public class EvaluationContextTest extends BaseModuleContextSensitiveTest {
 		assertEquals("reportDate", parseParameter("reportDate"));
 		assertEquals("startDate", parseParameter("startDate"));
 	}
+
+	@Test
+	public void shouldEvaluateWithACopyOfADeserializedContext() throws Exception {
+		EvaluationContext context = new EvaluationContext();
+		context.setBaseCohort(new Cohort("2,6,7"));
+		ReportingSerializer serializer = new ReportingSerializer();
+		EvaluationContext deserialized = serializer.deserialize(serializer.serialize(context), EvaluationContext.class);
+
+		GenderCohortDefinition males = new GenderCohortDefinition();
+		males.setMaleIncluded(true);
+		CohortDefinitionService service = Context.getService(CohortDefinitionService.class);
+		Cohort expected = service.evaluate(males, context);
+		Assert.assertEquals(expected.getMemberIds(), service.evaluate(males, deserialized.shallowCopy()).getMemberIds());
+		Assert.assertEquals(expected.getMemberIds(), service.evaluate(males, deserialized).getMemberIds());
+	}
 	
 	/**
 	 * Helper method to evaluate an expression
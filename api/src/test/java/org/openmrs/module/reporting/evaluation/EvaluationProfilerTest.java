@@ -25,10 +25,12 @@ import org.junit.Test;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.reporting.cohort.definition.GenderCohortDefinition;
 import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
 import org.openmrs.module.reporting.indicator.CohortIndicator;
 import org.openmrs.module.reporting.indicator.service.IndicatorService;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 
+import java.io.File;
 import java.io.StringWriter;
 
 /**
@@ -85,4 +87,141 @@ public class EvaluationProfilerTest extends BaseModuleContextSensitiveTest {
 				"TRACE > \\d+ ms to evaluate CohortIndicator \\[\\?\\]")
 		);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void startProfile_shouldRetainATreeOfSpansWithinTheProfile() throws EvaluationException {
+		GenderCohortDefinition males = new GenderCohortDefinition();
+		males.setName("males");
+		males.setMaleIncluded(true);
+
+		CohortIndicator count = new CohortIndicator();
+		count.setName("count");
+		count.setCohortDefinition(males, "");
+
+		long evaluationCount = EvaluationProfilerStatistics.getInstance().getEvaluationCount();
+
+		EvaluationSpan profile = EvaluationProfiler.startProfile("test");
+		try {
+			Context.getService(IndicatorService.class).evaluate(count, null);
+		}
+		finally {
+			EvaluationProfiler.endProfile(profile);
+		}
+
+		Assert.assertNull(EvaluationProfiler.getCurrentSpan());
+		Assert.assertTrue(profile.getDurationNanos() >= 0);
+		Assert.assertEquals(2, profile.getNumSpans());
+		Assert.assertEquals(1, profile.getChildren().size());
+
+		EvaluationSpan indicatorSpan = profile.getChildren().get(0);
+		Assert.assertEquals("CohortIndicator [count]", indicatorSpan.getLabel());
+		Assert.assertEquals(1, indicatorSpan.getChildren().size());
+
+		EvaluationSpan cohortSpan = indicatorSpan.getChildren().get(0);
+		Assert.assertEquals(GenderCohortDefinition.class.getName(), cohortSpan.getDefinitionType());
+		Assert.assertNotNull(cohortSpan.getCacheHit());
+		Assert.assertNotNull(cohortSpan.getResultSize());
+		Assert.assertEquals(2, cohortSpan.getDepth());
+
+		Assert.assertEquals(3, profile.format().size());
+		Assert.assertEquals(evaluationCount + 2, EvaluationProfilerStatistics.getInstance().getEvaluationCount());
+		EvaluationProfilerStatistics.Timings timings = EvaluationProfilerStatistics.getInstance().getTimings(EvaluationProfiler.getKey(males));
+		Assert.assertNotNull(timings);
+		Assert.assertEquals("GenderCohortDefinition [males]", timings.getLabel());
+	}
+
+	@Test
+	public void profiled_shouldRecordTheTimingsOfSavedDefinitionsWithTheSameLabelSeparately() throws EvaluationException {
+		GenderCohortDefinition males = new GenderCohortDefinition();
+		males.setId(1);
+		males.setName("patients");
+		males.setMaleIncluded(true);
+
+		GenderCohortDefinition females = new GenderCohortDefinition();
+		females.setId(2);
+		females.setName("patients");
+		females.setFemaleIncluded(true);
+
+		CohortDefinitionService cds = Context.getService(CohortDefinitionService.class);
+		cds.evaluate(males, null);
+		cds.evaluate(females, null);
+		cds.evaluate(females, null);
+
+		EvaluationProfilerStatistics statistics = EvaluationProfilerStatistics.getInstance();
+		Assert.assertEquals(1, statistics.getTimings(EvaluationProfiler.getKey(males)).getCount());
+		Assert.assertEquals(2, statistics.getTimings(EvaluationProfiler.getKey(females)).getCount());
+		Assert.assertEquals("GenderCohortDefinition [patients]", statistics.getTimings(EvaluationProfiler.getKey(females)).getLabel());
+	}
+
+	@Test
+	public void profiled_shouldRecordTheTimingsOfUnsavedDefinitionsByTypeAndName() throws EvaluationException {
+		CohortDefinitionService cds = Context.getService(CohortDefinitionService.class);
+		String key = null;
+		for (int i = 0; i < 2; i++) {
+			GenderCohortDefinition males = new GenderCohortDefinition();
+			males.setName("unsaved males");
+			males.setMaleIncluded(true);
+			Assert.assertTrue(key == null || key.equals(EvaluationProfiler.getKey(males)));
+			key = EvaluationProfiler.getKey(males);
+			cds.evaluate(males, null);
+		}
+		Assert.assertEquals(2, EvaluationProfilerStatistics.getInstance().getTimings(key).getCount());
+	}
+
+	@Test
+	public void getDefinition_shouldReturnNullIfThereIsNoDefinitionToProfile() throws Exception {
+		Assert.assertNull(profiler1.getDefinition(null));
+		Assert.assertNull(profiler1.getDefinition(new Mapped<GenderCohortDefinition>()));
+		GenderCohortDefinition males = new GenderCohortDefinition();
+		Assert.assertSame(males, profiler1.getDefinition(new Mapped<GenderCohortDefinition>(males, null)));
+	}
+
+	@Test
+	public void record_shouldDiscardTheTimingsOfTheLeastRecentlyEvaluatedDefinition() throws Exception {
+		EvaluationProfilerStatistics statistics = new EvaluationProfilerStatistics();
+		for (int i = 0; i <= EvaluationProfilerStatistics.MAX_DEFINITIONS; i++) {
+			statistics.record("definition" + i, createSpan("definition" + i));
+			statistics.record("definition0", createSpan("definition0"));
+		}
+		Assert.assertEquals(EvaluationProfilerStatistics.MAX_DEFINITIONS, statistics.getDefinitionKeys().length);
+		Assert.assertNull(statistics.getTimings("definition1"));
+		Assert.assertEquals(EvaluationProfilerStatistics.MAX_DEFINITIONS + 2, statistics.getTimings("definition0").getCount());
+		Assert.assertNull(statistics.getDefinitionHistogram("definition1"));
+		Assert.assertEquals(EvaluationProfilerStatistics.BUCKET_BOUNDS_MILLIS.length + 1, statistics.getDefinitionHistogram("definition2").length);
+	}
+
+	@Test
+	public void load_shouldRestoreTheTimingsOfEachDefinitionSaved() throws Exception {
+		EvaluationProfilerStatistics statistics = new EvaluationProfilerStatistics();
+		EvaluationSpan span = createSpan("GenderCohortDefinition [males]");
+		span.setCacheHit(false);
+		span.setBaseCohortSize(100);
+		span.setResultSize(40);
+		statistics.record("males", span);
+		statistics.record("males", createSpan("GenderCohortDefinition [males]"));
+
+		File file = File.createTempFile("evaluation", ".profilerstatistics");
+		try {
+			statistics.save(file);
+			EvaluationProfilerStatistics loaded = new EvaluationProfilerStatistics();
+			loaded.load(file);
+			EvaluationProfilerStatistics.Timings timings = loaded.getTimings("males");
+			Assert.assertEquals("GenderCohortDefinition [males]", timings.getLabel());
+			Assert.assertEquals(2, timings.getCount());
+			Assert.assertEquals(statistics.getTimings("males").getTotalNanos(), timings.getTotalNanos());
+			Assert.assertEquals(2, timings.getEvaluatedCount());
+			Assert.assertEquals(40L, timings.getExpectedResultSize(100).longValue());
+			Assert.assertArrayEquals(statistics.getDefinitionHistogram("males"), loaded.getDefinitionHistogram("males"));
+		}
+		finally {
+			file.delete();
+		}
+		Assert.assertNull(EvaluationProfilerStatistics.Timings.parse("males\tlabel\t1"));
+	}
+
+	private EvaluationSpan createSpan(String label) {
+		EvaluationSpan span = new EvaluationSpan(label, null);
+		span.end();
+		return span;
+	}
+}
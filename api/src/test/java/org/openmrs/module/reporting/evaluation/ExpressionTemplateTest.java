@@ -0,0 +1,70 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+/**
+ * Tests for {@link ExpressionTemplate}
+ */
+public class ExpressionTemplateTest extends BaseModuleContextSensitiveTest {
+
+	@Test
+	public void evaluate_shouldGiveTheSameResultAsScanningTheExpression() throws Exception {
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("startDate", DateUtil.getDateTime(2012, 1, 10));
+		parameters.put("count", 5);
+		parameters.put("name", "Test");
+		parameters.put("empty", "");
+		parameters.put("nested", "#name#");
+		parameters.put("partial", "$");
+
+		String[][] templates = {
+			{"Plain text", "#", "#"},
+			{"#startDate#", "#", "#"},
+			{"#startDate+1m#", "#", "#"},
+			{"Starting #startDate|yyyy-MM-dd# for #name#", "#", "#"},
+			{"#count+1# of #count#", "#", "#"},
+			{"#empty##count#", "#", "#"},
+			{"#unknown# value", "#", "#"},
+			{"Nested #nested# value", "#", "#"},
+			{"Unclosed #name", "#", "#"},
+			{"${name} and ${count*2}", "${", "}"},
+			{"${partial}{name}", "${", "}"},
+			{"${empty}${startDate}", "${", "}"}
+		};
+		for (String[] t : templates) {
+			Object expected = EvaluationUtil.evaluateExpressionByScanning(t[0], parameters, t[1], t[2]);
+			Object actual = new ExpressionTemplate(t[0], t[1], t[2]).evaluate(parameters);
+			Assert.assertEquals(t[0], expected, actual);
+		}
+	}
+
+	@Test
+	public void evaluate_shouldReturnTheValueOfASingleExpressionUnformatted() throws Exception {
+		Date startDate = DateUtil.getDateTime(2012, 1, 10);
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("startDate", startDate);
+		ExpressionTemplate template = new ExpressionTemplate("#startDate#", "#", "#");
+		Assert.assertFalse(template.isConstant());
+		Assert.assertEquals(startDate, template.evaluate(parameters));
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.cohort.EvaluatedCohort;
+import org.openmrs.module.reporting.cohort.definition.GenderCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.module.reporting.evaluation.caching.SharedEvaluationCache;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+/**
+ * Tests for {@link ParallelEvaluationUtil}
+ */
+public class ParallelEvaluationUtilTest extends BaseModuleContextSensitiveTest {
+
+	@After
+	public void tearDown() throws Exception {
+		ParallelEvaluationUtil.shutdown();
+	}
+
+	@Test
+	public void evaluateAll_shouldReturnResultsInTheOrderOfTheTasks() throws Exception {
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i < 10; i++) {
+			final int num = i;
+			tasks.add(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					Thread.sleep(10 * (10 - num));
+					return num;
+				}
+			});
+		}
+		List<Integer> results = ParallelEvaluationUtil.evaluateAll(tasks, 4);
+		for (int i = 0; i < 10; i++) {
+			Assert.assertEquals(i, results.get(i).intValue());
+		}
+	}
+
+	@Test
+	public void evaluateAll_shouldRunTasksOnWorkerThreadsAsTheAuthenticatedUser() throws Exception {
+		final String username = Context.getAuthenticatedUser().getUsername();
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for (int i = 0; i < 2; i++) {
+			tasks.add(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					return ParallelEvaluationUtil.isWorkerThread() && username.equals(Context.getAuthenticatedUser().getUsername());
+				}
+			});
+		}
+		for (Boolean result : ParallelEvaluationUtil.evaluateAll(tasks, 2)) {
+			Assert.assertTrue(result);
+		}
+	}
+
+	@Test
+	public void evaluateAll_shouldRunTasksSequentiallyIfConcurrencyIsNotAllowed() throws Exception {
+		final Thread caller = Thread.currentThread();
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for (int i = 0; i < 3; i++) {
+			tasks.add(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					return Thread.currentThread() == caller;
+				}
+			});
+		}
+		for (Boolean result : ParallelEvaluationUtil.evaluateAll(tasks, 1)) {
+			Assert.assertTrue(result);
+		}
+	}
+
+	@Test(expected = EvaluationException.class)
+	public void evaluateAll_shouldThrowAnEvaluationExceptionIfAnyTaskFails() throws Exception {
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i < 3; i++) {
+			final int num = i;
+			tasks.add(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					if (num == 1) {
+						throw new IllegalStateException("Failed");
+					}
+					return num;
+				}
+			});
+		}
+		ParallelEvaluationUtil.evaluateAll(tasks, 3);
+	}
+
+	@Test
+	public void isIndependentOfSession_shouldOnlyAcceptScalarTypes() throws Exception {
+		Assert.assertTrue(ParallelEvaluationUtil.isIndependentOfSession(int.class));
+		Assert.assertTrue(ParallelEvaluationUtil.isIndependentOfSession(Integer.class));
+		Assert.assertTrue(ParallelEvaluationUtil.isIndependentOfSession(String.class));
+		Assert.assertTrue(ParallelEvaluationUtil.isIndependentOfSession(Date.class));
+		Assert.assertFalse(ParallelEvaluationUtil.isIndependentOfSession(Patient.class));
+		Assert.assertFalse(ParallelEvaluationUtil.isIndependentOfSession(List.class));
+		Assert.assertFalse(ParallelEvaluationUtil.isIndependentOfSession(Object.class));
+		Assert.assertFalse(ParallelEvaluationUtil.isIndependentOfSession(null));
+	}
+
+	@Test
+	public void copyContextForWorker_shouldShareCachedResultsBetweenContextsWithTheSameSharedCache() throws Exception {
+		EvaluationContext context = new EvaluationContext();
+		Map<String, Object> sharedCache = ParallelEvaluationUtil.getSharedCache(context);
+		EvaluationContext first = ParallelEvaluationUtil.copyContextForWorker(context, sharedCache);
+		first.addParameterValue("startDate", DateUtil.getDateTime(2013, 1, 1));
+		EvaluationContext second = ParallelEvaluationUtil.copyContextForWorker(context, sharedCache);
+		second.addParameterValue("startDate", DateUtil.getDateTime(2013, 2, 1));
+		Assert.assertNotSame(first.getCache(), second.getCache());
+
+		GenderCohortDefinition females = new GenderCohortDefinition();
+		females.setFemaleIncluded(true);
+		CohortDefinitionService service = Context.getService(CohortDefinitionService.class);
+		EvaluatedCohort firstResult = service.evaluate(females, first);
+		EvaluatedCohort secondResult = service.evaluate(females, second);
+		Assert.assertEquals(firstResult.getMemberIds(), secondResult.getMemberIds());
+		Assert.assertTrue(context.getCache().isEmpty());
+	}
+
+	@Test
+	public void copyContextForWorker_shouldOnlyShareTheMemberIdsOfCachedCohorts() throws Exception {
+		SharedEvaluationCache.reset(); // so that the cohort is not found in the cache shared by all evaluations
+		EvaluationContext context = new EvaluationContext();
+		Map<String, Object> sharedCache = ParallelEvaluationUtil.getSharedCache(context);
+		EvaluationContext worker = ParallelEvaluationUtil.copyContextForWorker(context, sharedCache);
+
+		GenderCohortDefinition females = new GenderCohortDefinition();
+		females.setFemaleIncluded(true);
+		Context.getService(CohortDefinitionService.class).evaluate(females, worker);
+		Assert.assertFalse(sharedCache.isEmpty());
+		for (Object value : sharedCache.values()) {
+			Assert.assertTrue(value instanceof Set);
+		}
+	}
+}
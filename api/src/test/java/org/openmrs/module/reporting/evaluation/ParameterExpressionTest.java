@@ -0,0 +1,85 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.module.reporting.evaluation.parameter.ParameterException;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+/**
+ * Tests for {@link ParameterExpression}
+ */
+public class ParameterExpressionTest extends BaseModuleContextSensitiveTest {
+
+	private Map<String, Object> parameters;
+
+	@Before
+	public void setup() throws Exception {
+		parameters = new HashMap<String, Object>();
+		parameters.put("endDate", DateUtil.getDateTime(2012, 3, 31));
+		parameters.put("count", 10);
+		parameters.put("ratio", 1.5);
+		parameters.put("missing", null);
+	}
+
+	@Test
+	public void evaluate_shouldApplyDateArithmeticInOrder() throws Exception {
+		Assert.assertEquals(DateUtil.getDateTime(2012, 3, 1), evaluate("endDate-1m+1d"));
+		Assert.assertEquals(DateUtil.getDateTime(2012, 3, 17), evaluate("endDate - 2w"));
+		Assert.assertEquals(DateUtil.getDateTime(2011, 3, 31), evaluate("endDate-1y"));
+		Assert.assertEquals(DateUtil.getDateTime(2012, 3, 31, 6, 0, 0, 0), evaluate("endDate+6h"));
+	}
+
+	@Test
+	public void evaluate_shouldApplyNumericArithmetic() throws Exception {
+		Assert.assertEquals(12, evaluate("count+2"));
+		Assert.assertEquals(5, evaluate("count/2"));
+		Assert.assertEquals(10.5, evaluate("count+0.5"));
+		Assert.assertEquals(3.0, evaluate("ratio*2"));
+	}
+
+	@Test
+	public void evaluate_shouldFormatTheValue() throws Exception {
+		Assert.assertEquals("2012-03-01", evaluate("endDate-1m+1d|yyyy-MM-dd"));
+		Assert.assertEquals("2012-03-31", evaluate("endDate|yyyy-MM-dd"));
+	}
+
+	@Test
+	public void evaluate_shouldReturnTheExpressionForUnknownParameters() throws Exception {
+		Assert.assertEquals("unknown+1d", evaluate("unknown+1d"));
+		Assert.assertNull(evaluate("missing"));
+	}
+
+	@Test(expected = ParameterException.class)
+	public void evaluate_shouldFailForFloatingPointDateArithmetic() throws Exception {
+		evaluate("endDate+1.5d");
+	}
+
+	@Test
+	public void compile_shouldReturnTheCachedExpression() throws Exception {
+		Assert.assertSame(ParameterExpression.compile("endDate-1m+1d"), ParameterExpression.compile("endDate-1m+1d"));
+	}
+
+	private Object evaluate(String expression) {
+		Object expected = ParameterExpression.compile(expression).evaluate(parameters);
+		Assert.assertEquals(expected, EvaluationUtil.evaluateParameterExpression(expression, parameters));
+		return expected;
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation.caching;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link MemoryBoundedEvaluationCache}
+ */
+public class MemoryBoundedEvaluationCacheTest {
+
+	@Test
+	public void get_shouldReturnCachedValuesAndRecordHitsAndMisses() throws Exception {
+		MemoryBoundedEvaluationCache cache = new MemoryBoundedEvaluationCache(1024 * 1024, 0);
+		Set<Integer> ids = new HashSet<Integer>(Arrays.asList(1, 2, 3));
+		cache.put("males", ids);
+		Assert.assertEquals(ids, cache.get("males"));
+		Assert.assertNull(cache.get("females"));
+		Assert.assertEquals(1, cache.getStatistics().getHitCount());
+		Assert.assertEquals(1, cache.getStatistics().getMissCount());
+		Assert.assertEquals(3 * MemoryBoundedEvaluationCache.BYTES_PER_ID, cache.getStatistics().getCurrentWeight());
+	}
+
+	@Test
+	public void put_shouldEvictLeastRecentlyUsedEntriesWhenMaxWeightIsExceeded() throws Exception {
+		MemoryBoundedEvaluationCache cache = new MemoryBoundedEvaluationCache(4 * MemoryBoundedEvaluationCache.BYTES_PER_ID, 0);
+		cache.put("a", new HashSet<Integer>(Arrays.asList(1, 2)));
+		cache.put("b", new HashSet<Integer>(Arrays.asList(3, 4)));
+		cache.get("a"); // "b" is now the least recently used
+		cache.put("c", new HashSet<Integer>(Arrays.asList(5)));
+		Assert.assertNotNull(cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+		Assert.assertNotNull(cache.get("c"));
+		Assert.assertEquals(1, cache.getStatistics().getEvictionCount());
+		Assert.assertEquals(3 * MemoryBoundedEvaluationCache.BYTES_PER_ID, cache.getStatistics().getCurrentWeight());
+	}
+
+	@Test
+	public void put_shouldNotCacheValuesLargerThanTheMaxWeight() throws Exception {
+		MemoryBoundedEvaluationCache cache = new MemoryBoundedEvaluationCache(MemoryBoundedEvaluationCache.BYTES_PER_ID, 0);
+		cache.put("a", new HashSet<Integer>(Arrays.asList(1, 2)));
+		Assert.assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void get_shouldNotReturnExpiredEntries() throws Exception {
+		MemoryBoundedEvaluationCache cache = new MemoryBoundedEvaluationCache(1024 * 1024, 1);
+		cache.put("a", new HashSet<Integer>(Arrays.asList(1, 2)));
+		Thread.sleep(10);
+		Assert.assertNull(cache.get("a"));
+		Assert.assertEquals(1, cache.getStatistics().getExpirationCount());
+		Assert.assertEquals(0, cache.getStatistics().getCurrentWeight());
+	}
+}
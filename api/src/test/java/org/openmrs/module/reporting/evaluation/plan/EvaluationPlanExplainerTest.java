@@ -0,0 +1,146 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation.plan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Cohort;
+import org.openmrs.module.reporting.cohort.definition.CompositionCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.GenderCohortDefinition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationProfiler;
+import org.openmrs.module.reporting.evaluation.EvaluationProfilerStatistics;
+import org.openmrs.module.reporting.evaluation.EvaluationSpan;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+/**
+ * Tests for {@link EvaluationPlanExplainer}
+ */
+public class EvaluationPlanExplainerTest extends BaseModuleContextSensitiveTest {
+
+	private GenderCohortDefinition males;
+	private CompositionCohortDefinition root;
+
+	@Before
+	public void setup() throws Exception {
+		EvaluationProfilerStatistics.getInstance().reset();
+
+		males = new GenderCohortDefinition();
+		males.setName("males");
+		males.setMaleIncluded(true);
+
+		root = new CompositionCohortDefinition();
+		root.setName("root");
+		root.addSearch("first", males, new HashMap<String, Object>());
+		root.addSearch("second", males, new HashMap<String, Object>());
+		root.setCompositionString("first OR second");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		EvaluationProfilerStatistics.getInstance().reset();
+	}
+
+	private void recordPastEvaluation(Integer baseCohortSize, Integer resultSize) {
+		EvaluationSpan span = new EvaluationSpan(EvaluationProfiler.getLabel(males), null);
+		span.setCacheHit(false);
+		span.setBaseCohortSize(baseCohortSize);
+		span.setResultSize(resultSize);
+		span.end();
+		EvaluationProfilerStatistics.getInstance().record(EvaluationProfiler.getKey(males), span);
+	}
+
+	@Test
+	public void explain_shouldShowTheEvaluatorOfEachNodeAndWhetherItIsShared() throws Exception {
+		EvaluationContext context = new EvaluationContext();
+		EvaluationPlanExplanation explanation = EvaluationPlanExplainer.explain(EvaluationPlanner.plan(root, context), context);
+
+		ExplainedPlanNode first = explanation.getRoot().getChildren().get(0);
+		ExplainedPlanNode second = explanation.getRoot().getChildren().get(1);
+		Assert.assertEquals("GenderCohortDefinitionEvaluator", first.getEvaluator());
+		Assert.assertNotSame(ExplainedPlanNode.CacheStatus.SHARED, first.getCacheStatus());
+		Assert.assertEquals(ExplainedPlanNode.CacheStatus.SHARED, second.getCacheStatus());
+		Assert.assertEquals(0L, second.getEstimatedMillis().longValue());
+		Assert.assertEquals(3, explanation.format().size());
+	}
+
+	@Test
+	public void explain_shouldEstimateResultSizesAndTimesFromPastEvaluations() throws Exception {
+		recordPastEvaluation(100, 40);
+		recordPastEvaluation(200, 100);
+
+		EvaluationContext context = new EvaluationContext();
+		EvaluationPlanExplanation explanation = EvaluationPlanExplainer.explain(EvaluationPlanner.plan(root, context), context);
+		ExplainedPlanNode first = explanation.getRoot().getChildren().get(0);
+		Assert.assertEquals(2, first.getNumPastEvaluations());
+		Assert.assertEquals(70L, first.getEstimatedResultSize().longValue());
+		Assert.assertNotNull(first.getEstimatedMillis());
+		Assert.assertEquals(first.getEstimatedMillis(), explanation.getEstimatedMillis());
+		Assert.assertEquals(1, explanation.getMostExpensiveNodes(5).size());
+
+		List<Integer> memberIds = new ArrayList<Integer>();
+		for (int i = 1; i <= 30; i++) {
+			memberIds.add(i);
+		}
+		context.setBaseCohort(new Cohort(memberIds));
+		explanation = EvaluationPlanExplainer.explain(EvaluationPlanner.plan(root, context), context);
+		Assert.assertEquals(14L, explanation.getRoot().getChildren().get(0).getEstimatedResultSize().longValue());
+	}
+
+	@Test
+	public void explain_shouldBoundTheResultSizeOfDefinitionsWithoutHistoryByTheBaseCohort() throws Exception {
+		EvaluationContext context = new EvaluationContext();
+		context.setBaseCohort(new Cohort("2,6,7"));
+		EvaluationPlanExplanation explanation = EvaluationPlanExplainer.explain(EvaluationPlanner.plan(root, context), context);
+		ExplainedPlanNode first = explanation.getRoot().getChildren().get(0);
+		Assert.assertEquals(0, first.getNumPastEvaluations());
+		Assert.assertNull(first.getEstimatedMillis());
+		Assert.assertNotNull(first.getEstimatedResultSize());
+		Assert.assertTrue(first.getEstimatedResultSize() <= 3);
+		Assert.assertNull(explanation.getEstimatedMillis());
+	}
+
+	@Test
+	public void explain_shouldNotUseTheTimingsOfOtherSavedDefinitionsWithTheSameLabel() throws Exception {
+		males.setId(1);
+		recordPastEvaluation(100, 40);
+
+		GenderCohortDefinition otherMales = new GenderCohortDefinition();
+		otherMales.setId(2);
+		otherMales.setName("males");
+		otherMales.setMaleIncluded(true);
+		EvaluationContext context = new EvaluationContext();
+		EvaluationPlanExplanation explanation = EvaluationPlanExplainer.explain(EvaluationPlanner.plan(otherMales, context), context);
+		Assert.assertEquals(EvaluationProfiler.getLabel(males), explanation.getRoot().getLabel());
+		Assert.assertEquals(0, explanation.getRoot().getNumPastEvaluations());
+	}
+
+	@Test
+	public void explain_shouldUseTheTimingsOfAnUnsavedDefinitionBuiltAgainWithTheSameName() throws Exception {
+		recordPastEvaluation(100, 40);
+
+		GenderCohortDefinition rebuiltMales = new GenderCohortDefinition();
+		rebuiltMales.setName("males");
+		rebuiltMales.setMaleIncluded(true);
+		EvaluationContext context = new EvaluationContext();
+		EvaluationPlanExplanation explanation = EvaluationPlanExplainer.explain(EvaluationPlanner.plan(rebuiltMales, context), context);
+		Assert.assertEquals(1, explanation.getRoot().getNumPastEvaluations());
+	}
+}
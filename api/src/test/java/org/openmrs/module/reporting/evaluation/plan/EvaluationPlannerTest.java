@@ -0,0 +1,145 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.evaluation.plan;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.cohort.EvaluatedCohort;
+import org.openmrs.module.reporting.cohort.definition.AgeCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.CompositionCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.GenderCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.evaluation.parameter.Parameter;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+/**
+ * Tests for {@link EvaluationPlanner} and {@link EvaluationPlan}
+ */
+public class EvaluationPlannerTest extends BaseModuleContextSensitiveTest {
+
+	private GenderCohortDefinition males;
+	private AgeCohortDefinition adults;
+	private CompositionCohortDefinition root;
+	private EvaluationContext context;
+
+	@Before
+	public void setup() throws Exception {
+		males = new GenderCohortDefinition();
+		males.setMaleIncluded(true);
+
+		adults = new AgeCohortDefinition();
+		adults.setMinAge(15);
+		adults.addParameter(new Parameter("effectiveDate", "Effective Date", Date.class));
+
+		CompositionCohortDefinition adultMalesAtEnd = newComposition("effectiveDate=${endDate}");
+		CompositionCohortDefinition adultMalesAtStart = newComposition("effectiveDate=${startDate}");
+
+		root = new CompositionCohortDefinition();
+		root.addParameter(new Parameter("startDate", "Start Date", Date.class));
+		root.addParameter(new Parameter("endDate", "End Date", Date.class));
+		root.addSearch("atEnd", Mapped.mapStraightThrough(adultMalesAtEnd));
+		root.addSearch("atStart", Mapped.mapStraightThrough(adultMalesAtStart));
+		root.addSearch("males", males, new HashMap<String, Object>());
+		root.setCompositionString("(atEnd OR atStart) AND males");
+
+		context = new EvaluationContext();
+		context.addParameterValue("startDate", DateUtil.getDateTime(2000, 1, 1));
+		context.addParameterValue("endDate", DateUtil.getDateTime(2010, 1, 1));
+	}
+
+	private CompositionCohortDefinition newComposition(String adultMappings) {
+		CompositionCohortDefinition cd = new CompositionCohortDefinition();
+		cd.addParameter(new Parameter("startDate", "Start Date", Date.class));
+		cd.addParameter(new Parameter("endDate", "End Date", Date.class));
+		cd.addSearch("males", males, new HashMap<String, Object>());
+		cd.addSearch("adults", Mapped.map(adults, adultMappings));
+		cd.setCompositionString("males AND adults");
+		return cd;
+	}
+
+	@Test
+	public void plan_shouldCountEachConsumerOfTheSameDefinitionWithTheSameParameterValues() throws Exception {
+		EvaluationPlan plan = EvaluationPlanner.plan(root, context);
+		Assert.assertEquals(8, plan.getRoot().getSize());
+
+		String malesKey = EvaluationPlan.getNodeKey(males, new HashMap<String, Object>());
+		Assert.assertEquals(3, plan.getRemainingConsumers(malesKey));
+		Assert.assertTrue(plan.isShared(malesKey));
+
+		HashMap<String, Object> atEnd = new HashMap<String, Object>();
+		atEnd.put("effectiveDate", DateUtil.getDateTime(2010, 1, 1));
+		Assert.assertEquals(0, plan.getRemainingConsumers(EvaluationPlan.getNodeKey(adults, atEnd)));
+	}
+
+	@Test
+	public void plan_shouldNotExpandTheChildrenOfARepeatedSharedNode() throws Exception {
+		CompositionCohortDefinition twice = new CompositionCohortDefinition();
+		twice.addParameter(new Parameter("startDate", "Start Date", Date.class));
+		twice.addParameter(new Parameter("endDate", "End Date", Date.class));
+		twice.addSearch("first", Mapped.mapStraightThrough(root));
+		twice.addSearch("second", Mapped.mapStraightThrough(root));
+		twice.setCompositionString("first AND second");
+
+		EvaluationPlan plan = EvaluationPlanner.plan(twice, context);
+		EvaluationPlanNode second = plan.getRoot().getChildren().get(1);
+		Assert.assertTrue(second.isRepeated());
+		Assert.assertEquals(0, second.getChildren().size());
+		Assert.assertEquals(2, plan.getRemainingConsumers(second.getKey()));
+		Assert.assertEquals(3, plan.getRemainingConsumers(EvaluationPlan.getNodeKey(males, new HashMap<String, Object>())));
+	}
+
+	@Test
+	public void evaluate_shouldEvaluateASharedNodeOnceAndReleaseItAfterItsLastConsumer() throws Exception {
+		EvaluationPlan plan = EvaluationPlanner.plan(root, context);
+		EvaluationContext malesContext = new EvaluationContext();
+		final int[] numEvaluations = new int[1];
+		Callable<Object> evaluation = new Callable<Object>() {
+			public Object call() throws Exception {
+				numEvaluations[0]++;
+				return new Object();
+			}
+		};
+		Object first = plan.evaluate(males, malesContext, evaluation);
+		Assert.assertSame(first, plan.evaluate(males, malesContext, evaluation));
+		Assert.assertEquals(1, plan.getNumRetainedResults());
+		Assert.assertSame(first, plan.evaluate(males, malesContext, evaluation));
+		Assert.assertEquals(1, numEvaluations[0]);
+		Assert.assertEquals(0, plan.getNumRetainedResults());
+		Assert.assertFalse(plan.isShared(EvaluationPlan.getNodeKey(males, new HashMap<String, Object>())));
+
+		Assert.assertNotSame(first, plan.evaluate(males, malesContext, evaluation));
+		Assert.assertEquals(2, numEvaluations[0]);
+	}
+
+	@Test
+	public void evaluate_shouldProduceTheSameResultsAsAnUnplannedEvaluation() throws Exception {
+		CohortDefinitionService service = Context.getService(CohortDefinitionService.class);
+		EvaluatedCohort unplanned = service.evaluate(root, context.shallowCopy());
+
+		EvaluationContext plannedContext = context.shallowCopy();
+		plannedContext.setEvaluationPlan(EvaluationPlanner.plan(root, plannedContext));
+		EvaluatedCohort planned = service.evaluate(root, plannedContext);
+
+		Assert.assertEquals(unplanned.getMemberIds(), planned.getMemberIds());
+	}
+}
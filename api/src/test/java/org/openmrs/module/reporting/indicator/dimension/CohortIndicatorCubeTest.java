@@ -0,0 +1,105 @@
+package org.openmrs.module.reporting.indicator.dimension;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Cohort;
+import org.openmrs.module.reporting.common.Fraction;
+import org.openmrs.module.reporting.common.IdBitmap;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.indicator.CohortIndicator;
+import org.openmrs.module.reporting.indicator.CohortIndicatorResult;
+
+public class CohortIndicatorCubeTest {
+
+	/**
+	 * @see CohortIndicatorCube#getFilter(Map)
+	 * @verifies return the same intersection for the same combination of options in any order
+	 */
+	@Test
+	public void getFilter_shouldReturnTheSameIntersectionForTheSameCombinationOfOptionsInAnyOrder() throws Exception {
+		CohortIndicatorCube cube = createCube();
+		IdBitmap filter = cube.getFilter(options("gender", "female", "age", "child"));
+		Assert.assertEquals(new IdBitmap(2, 4), filter);
+		Assert.assertSame(filter, cube.getFilter(options("age", "child", "gender", "female")));
+		Assert.assertNull(cube.getFilter(new HashMap<String, String>()));
+	}
+
+	/**
+	 * @see CohortIndicatorCube#createResult(CohortIndicatorResult, Map, Map, EvaluationContext)
+	 * @verifies return results with the same values as those calculated without the cube
+	 */
+	@Test
+	public void createResult_shouldReturnResultsWithTheSameValuesAsThoseCalculatedWithoutTheCube() throws Exception {
+		CohortIndicatorCube cube = createCube();
+		CohortIndicatorResult indicatorResult = new CohortIndicatorResult();
+		indicatorResult.setIndicator(CohortIndicator.newCountIndicator("test", null, null));
+		indicatorResult.setCohort(new Cohort("1,2,3,4,7"));
+
+		Map<String, CohortDimension> dimensions = new HashMap<String, CohortDimension>();
+		CohortDefinitionDimension gender = new CohortDefinitionDimension();
+		gender.setName("gender");
+		CohortDefinitionDimension age = new CohortDefinitionDimension();
+		age.setName("age");
+		dimensions.put("gender", gender);
+		dimensions.put("age", age);
+
+		CohortIndicatorAndDimensionResult result = cube.createResult(indicatorResult, options("gender", "female", "age", "child"), dimensions, new EvaluationContext());
+		Assert.assertEquals(2, result.getValue());
+		Assert.assertEquals(5, cube.createResult(indicatorResult, null, dimensions, new EvaluationContext()).getValue());
+		Assert.assertEquals(3, cube.getValue(indicatorResult, options("gender", "female")));
+
+		CohortIndicatorAndDimensionResult uncached = new CohortIndicatorAndDimensionResult(indicatorResult, new EvaluationContext());
+		uncached.getDimensionResults().putAll(result.getDimensionResults());
+		Assert.assertEquals(uncached.getValue(), result.getValue());
+		Assert.assertEquals(uncached.calculateDimensionCohort().getMemberIds(), result.calculateDimensionCohort().getMemberIds());
+	}
+
+	/**
+	 * @see CohortIndicatorCube#getValue(CohortIndicatorResult, Map)
+	 * @verifies count the numerator and denominator of fraction indicators in each combination of options
+	 */
+	@Test
+	public void getValue_shouldCountTheNumeratorAndDenominatorOfFractionIndicatorsInEachCombinationOfOptions() throws Exception {
+		CohortIndicatorCube cube = createCube();
+		CohortIndicatorResult indicatorResult = new CohortIndicatorResult();
+		indicatorResult.setIndicator(CohortIndicator.newFractionIndicator("test", null, null, null));
+		indicatorResult.setCohort(new Cohort("2,3"));
+		indicatorResult.setDenominatorCohort(new Cohort("1,2,3,4,7"));
+
+		Fraction all = (Fraction) cube.getValue(indicatorResult, null);
+		Assert.assertEquals(2, all.getNumerator());
+		Assert.assertEquals(5, all.getDenominator());
+		Fraction females = (Fraction) cube.getValue(indicatorResult, options("gender", "female"));
+		Assert.assertEquals(1, females.getNumerator());
+		Assert.assertEquals(3, females.getDenominator());
+		Fraction adults = (Fraction) cube.getValue(indicatorResult, options("age", "adult"));
+		Assert.assertEquals(0, adults.getNumerator());
+		Assert.assertEquals(1, adults.getDenominator());
+		Assert.assertEquals(all.getDenominator(), ((Fraction) CohortIndicatorResult.getResultValue(indicatorResult)).getDenominator());
+	}
+
+	private CohortIndicatorCube createCube() {
+		CohortIndicatorCube cube = new CohortIndicatorCube();
+		Map<String, Cohort> gender = new HashMap<String, Cohort>();
+		gender.put("female", new Cohort("2,4,6,7"));
+		gender.put("male", new Cohort("1,3,5"));
+		cube.addDimension("gender", gender);
+		Map<String, Cohort> age = new HashMap<String, Cohort>();
+		age.put("child", new Cohort("1,2,3,4"));
+		age.put("adult", new Cohort("5,6,7"));
+		cube.addDimension("age", age);
+		return cube;
+	}
+
+	private Map<String, String> options(String... keysAndValues) {
+		Map<String, String> ret = new LinkedHashMap<String, String>();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			ret.put(keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return ret;
+	}
+}
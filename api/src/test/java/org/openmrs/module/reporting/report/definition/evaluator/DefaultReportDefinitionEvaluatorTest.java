@@ -0,0 +1,89 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.report.definition.evaluator;
+
+import java.util.HashMap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.common.TestUtil;
+import org.openmrs.module.reporting.data.person.definition.GenderDataDefinition;
+import org.openmrs.module.reporting.data.person.definition.PreferredNameDataDefinition;
+import org.openmrs.module.reporting.dataset.DataSetRow;
+import org.openmrs.module.reporting.dataset.definition.PatientDataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.SqlDataSetDefinition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.report.ReportData;
+import org.openmrs.module.reporting.report.definition.ReportDefinition;
+import org.openmrs.module.reporting.report.definition.service.ReportDefinitionService;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+/**
+ * Tests for {@link DefaultReportDefinitionEvaluator}
+ */
+public class DefaultReportDefinitionEvaluatorTest extends BaseModuleContextSensitiveTest {
+
+	protected static final String XML_DATASET_PATH = "org/openmrs/module/reporting/include/";
+
+	protected static final String XML_REPORT_TEST_DATASET = "ReportTestDataset";
+
+	@Before
+	public void setup() throws Exception {
+		executeDataSet(XML_DATASET_PATH + new TestUtil().getTestDatasetFilename(XML_REPORT_TEST_DATASET));
+	}
+
+	@Test
+	public void canEvaluateOnWorker_shouldOnlyAllowDataSetsWhoseValuesAreIdsOrScalars() throws Exception {
+		DefaultReportDefinitionEvaluator evaluator = new DefaultReportDefinitionEvaluator();
+
+		PatientDataSetDefinition genders = new PatientDataSetDefinition();
+		genders.addColumn("gender", new GenderDataDefinition(), (String) null);
+		Assert.assertTrue(evaluator.canEvaluateOnWorker(genders));
+
+		PatientDataSetDefinition names = new PatientDataSetDefinition();
+		names.addColumn("gender", new GenderDataDefinition(), (String) null);
+		names.addColumn("name", new PreferredNameDataDefinition(), (String) null);
+		Assert.assertFalse(evaluator.canEvaluateOnWorker(names));
+
+		Assert.assertTrue(evaluator.canEvaluateOnWorker(new SqlDataSetDefinition("counts", null, "select count(*) from patient")));
+	}
+
+	@Test
+	public void evaluate_shouldReturnEntitiesWhichCanBeRenderedAfterConcurrentEvaluation() throws Exception {
+		PatientDataSetDefinition names = new PatientDataSetDefinition();
+		names.addColumn("name", new PreferredNameDataDefinition(), (String) null);
+
+		ReportDefinition reportDefinition = new ReportDefinition();
+		reportDefinition.setMaxConcurrentDataSets(2);
+		reportDefinition.addDataSetDefinition("names", names, new HashMap<String, Object>());
+		reportDefinition.addDataSetDefinition("counts", new SqlDataSetDefinition("counts", null, "select count(*) as num from patient"), new HashMap<String, Object>());
+
+		ReportData data = Context.getService(ReportDefinitionService.class).evaluate(reportDefinition, new EvaluationContext());
+
+		// Touch a lazy association of each entity, as a renderer or converter might
+		int numNames = 0;
+		for (DataSetRow row : data.getDataSets().get("names")) {
+			PersonName name = (PersonName) row.getColumnValue("name");
+			if (name != null) {
+				Assert.assertFalse(name.getPerson().getNames().isEmpty());
+				numNames++;
+			}
+		}
+		Assert.assertTrue(numNames > 0);
+		Assert.assertTrue(data.getDataSets().get("counts").iterator().hasNext());
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.report.renderer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Properties;
+
+import junit.framework.Assert;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.report.ReportData;
+import org.openmrs.module.reporting.report.ReportDesign;
+import org.openmrs.module.reporting.report.definition.ReportDefinition;
+
+/**
+ * Verify that XlsxReportRenderer outputs the same layout as XlsReportRenderer
+ */
+public class XlsxReportRendererTest extends XlsReportRendererTest {
+
+	@Test
+	public void testXlsxReportRenderingWithHeaders() throws Exception {
+		Workbook wb = renderToXlsx(true);
+		Assert.assertEquals(3, wb.getNumberOfSheets());
+		testValue(wb, "males", 1, 1, "Gender Data Set");
+		testValue(wb, "males", 2, 1, "Gender:");
+		testValue(wb, "males", 2, 2, "M");
+		testValue(wb, "females", 2, 2, "F");
+		testValue(wb, "males", 4, 1, "patient_id");
+	}
+
+	@Test
+	public void testXlsxReportRenderingWithoutHeaders() throws Exception {
+		Workbook wb = renderToXlsx(false);
+		testValue(wb, "encounters", 1, 1, "encounter_id");
+		testValue(wb, "encounters", 1, 2, "patient_id");
+
+		// all rows are written, even though only 2 are held in memory at a time
+		Sheet encounters = wb.getSheet("encounters");
+		Assert.assertTrue(encounters.getLastRowNum() > 2);
+		for (int i = 1; i <= encounters.getLastRowNum(); i++) {
+			Assert.assertNotNull(encounters.getRow(i).getCell(0));
+		}
+	}
+
+	protected Workbook renderToXlsx(boolean includeHeaders) throws Exception {
+
+		ReportDefinition rd = getReportDefinition();
+		ReportData data = reportDefinitionService.evaluate(rd, new EvaluationContext());
+
+		final ReportDesign design = new ReportDesign();
+		design.setName("TestDesign");
+		design.setReportDefinition(rd);
+		design.setRendererType(XlsxReportRenderer.class);
+		Properties props = new Properties();
+		props.setProperty(XlsReportRenderer.INCLUDE_DATASET_NAME_AND_PARAMETERS_PROPERTY, Boolean.toString(includeHeaders));
+		props.setProperty(XlsxReportRenderer.ROW_ACCESS_WINDOW_SIZE_PROPERTY, "2");
+		design.setProperties(props);
+
+		XlsxReportRenderer renderer = new XlsxReportRenderer() {
+			public ReportDesign getDesign(String argument) {
+				return design;
+			}
+		};
+		Assert.assertTrue(renderer.getFilename(rd, "xxx:xlsx").endsWith(".xlsx"));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		renderer.render(data, "xxx:xlsx", out);
+		return new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()));
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.report.renderer.template;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class CompiledTemplateCacheTest extends BaseModuleContextSensitiveTest {
+
+	/**
+	 * @see GroovyTemplateEngine#evaluate(String, Map)
+	 * @verifies compile each template only once
+	 */
+	@Test
+	public void evaluate_shouldCompileEachGroovyTemplateOnlyOnce() throws Exception {
+		GroovyTemplateEngine engine = new GroovyTemplateEngine();
+		Map<String, Object> bindings = new HashMap<String, Object>();
+		bindings.put("name", "World");
+		Assert.assertEquals("Hello World", engine.evaluate("Hello ${name}", bindings));
+		bindings.put("name", "Again");
+		Assert.assertEquals("Hello Again", engine.evaluate("Hello ${name}", bindings));
+		Assert.assertEquals("Bye Again", engine.evaluate("Bye ${name}", bindings));
+
+		Assert.assertEquals(2, engine.getTemplateCache().getStatistics().getMissCount());
+		Assert.assertEquals(1, engine.getTemplateCache().getStatistics().getHitCount());
+		Assert.assertEquals(2, engine.getTemplateCache().size());
+	}
+
+	/**
+	 * @see VelocityTemplateEngine#evaluate(String, Map)
+	 * @verifies compile each template only once
+	 */
+	@Test
+	public void evaluate_shouldCompileEachVelocityTemplateOnlyOnce() throws Exception {
+		VelocityTemplateEngine engine = new VelocityTemplateEngine();
+		Map<String, Object> bindings = new HashMap<String, Object>();
+		bindings.put("name", "World");
+		Assert.assertEquals("Hello World", engine.evaluate("Hello $name", bindings));
+		bindings.put("name", "Again");
+		Assert.assertEquals("Hello Again", engine.evaluate("Hello $name", bindings));
+
+		Assert.assertEquals(1, engine.getTemplateCache().getStatistics().getMissCount());
+		Assert.assertEquals(1, engine.getTemplateCache().getStatistics().getHitCount());
+	}
+
+	/**
+	 * @see VelocityTemplateEngine#evaluate(String, Map)
+	 * @verifies keep macros defined inline local to the template which defines them
+	 */
+	@Test
+	public void evaluate_shouldKeepMacrosDefinedInlineLocalToTheTemplateWhichDefinesThem() throws Exception {
+		VelocityTemplateEngine engine = new VelocityTemplateEngine();
+		Map<String, Object> bindings = new HashMap<String, Object>();
+		Assert.assertEquals("Hello", engine.evaluate("#macro(greet)Hello#end#greet()", bindings));
+		Assert.assertEquals("Bye", engine.evaluate("#macro(greet)Bye#end#greet()", bindings));
+		Assert.assertEquals("#greet()", engine.evaluate("#greet()", bindings));
+		Assert.assertEquals("Hello", engine.evaluate("#macro(greet)Hello#end#greet()", bindings));
+	}
+
+	/**
+	 * @see CompiledTemplateCache#get(String, CompiledTemplateCache.Compiler)
+	 * @verifies remove the least recently used template once the maximum size is reached
+	 */
+	@Test
+	public void get_shouldRemoveTheLeastRecentlyUsedTemplateOnceTheMaximumSizeIsReached() throws Exception {
+		CompiledTemplateCache<String> cache = new CompiledTemplateCache<String>("Test");
+		CompiledTemplateCache.Compiler<String> compiler = new CompiledTemplateCache.Compiler<String>() {
+			public String compile(String template) throws Exception {
+				return template.toUpperCase();
+			}
+		};
+		for (int i = 0; i < 205; i++) {
+			Assert.assertEquals("T" + i, cache.get("t" + i, compiler));
+		}
+		Assert.assertEquals(200, cache.size());
+		Assert.assertEquals(5, cache.getStatistics().getEvictionCount());
+		cache.get("t204", compiler);
+		Assert.assertEquals(1, cache.getStatistics().getHitCount());
+	}
+}
@@ -14,6 +14,7 @@ import org.openmrs.module.reporting.report.ReportDesign;
 import org.openmrs.module.reporting.report.ReportProcessorConfiguration;
 import org.openmrs.module.reporting.report.ReportRequest;
 import org.openmrs.module.reporting.report.ReportRequest.Priority;
+import org.openmrs.module.reporting.report.ReportRequest.Status;
 import org.openmrs.module.reporting.report.definition.ReportDefinition;
 import org.openmrs.module.reporting.report.definition.service.ReportDefinitionService;
 import org.openmrs.module.reporting.report.processor.LoggingReportProcessor;
@@ -432,4 +433,41 @@ public class ReportServiceTest extends BaseModuleContextSensitiveTest {
 		Report actual = Context.getService(ReportService.class).runReport(request);
 		Assert.assertEquals(sdf.format(actual.getReportData().getContext().getEvaluationDate()), sdf.format(new Date()));
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see ReportService#claimNextQueuedReportRequest()
+	 * @verifies claim the highest priority queued request
+	 */
+	@Test
+	public void claimNextQueuedReportRequest_shouldClaimTheHighestPriorityQueuedRequest() throws Exception {
+		ReportService rs = Context.getService(ReportService.class);
+		ReportRequest normal = saveQueuedRequest(Priority.NORMAL);
+		ReportRequest highest = saveQueuedRequest(Priority.HIGHEST);
+		ReportRequest claimed = rs.claimNextQueuedReportRequest();
+		Assert.assertEquals(highest, claimed);
+		Assert.assertEquals(Status.PROCESSING, claimed.getStatus());
+		Assert.assertNotNull(claimed.getEvaluateStartDatetime());
+		Assert.assertEquals(normal, rs.claimNextQueuedReportRequest());
+	}
+
+	/**
+	 * @see ReportService#claimNextQueuedReportRequest()
+	 * @verifies not claim a request that has already been claimed
+	 */
+	@Test
+	public void claimNextQueuedReportRequest_shouldNotClaimARequestThatHasAlreadyBeenClaimed() throws Exception {
+		ReportService rs = Context.getService(ReportService.class);
+		ReportRequest request = saveQueuedRequest(Priority.NORMAL);
+		Assert.assertEquals(request, rs.claimNextQueuedReportRequest());
+		Assert.assertNull(rs.claimNextQueuedReportRequest());
+	}
+
+	private ReportRequest saveQueuedRequest(Priority priority) {
+		ReportDefinition def = new ReportDefinition();
+		def.setName("Queued report");
+		Context.getService(ReportDefinitionService.class).saveDefinition(def);
+		ReportRequest request = new ReportRequest(new Mapped<ReportDefinition>(def, null), null, null, priority, null);
+		request.setStatus(Status.REQUESTED);
+		return Context.getService(ReportService.class).saveReportRequest(request);
+	}
+}
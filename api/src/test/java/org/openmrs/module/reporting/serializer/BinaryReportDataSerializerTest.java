@@ -0,0 +1,147 @@
+package org.openmrs.module.reporting.serializer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Cohort;
+import org.openmrs.module.reporting.dataset.DataSetColumn;
+import org.openmrs.module.reporting.dataset.DataSetRow;
+import org.openmrs.module.reporting.dataset.MapDataSet;
+import org.openmrs.module.reporting.dataset.PersistedDataSet;
+import org.openmrs.module.reporting.dataset.SimpleDataSet;
+import org.openmrs.module.reporting.dataset.definition.SqlDataSetDefinition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.report.ReportData;
+import org.openmrs.module.reporting.report.definition.ReportDefinition;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class BinaryReportDataSerializerTest extends BaseModuleContextSensitiveTest {
+
+	private File file;
+
+	@Before
+	public void setup() throws Exception {
+		file = File.createTempFile("reportdata", ".reportdata");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteQuietly(file);
+	}
+
+	@Test
+	public void deserialize_shouldReadTheSameRowsThatWereSerialized() throws Exception {
+		ReportData reportData = createReportData(2500);
+		write(reportData);
+		Assert.assertTrue(BinaryReportDataSerializer.isBinaryFormat(file));
+
+		ReportData actual = new BinaryReportDataSerializer(new ReportingSerializer()).deserialize(file);
+		Assert.assertEquals("Test Report", actual.getDefinition().getName());
+		PersistedDataSet dataSet = (PersistedDataSet) actual.getDataSets().get("rows");
+		Assert.assertEquals(2500, dataSet.getSize());
+		Assert.assertEquals(5, dataSet.getMetaData().getColumnCount());
+		Assert.assertEquals("patients", dataSet.getDefinition().getName());
+
+		Iterator<DataSetRow> expectedRows = reportData.getDataSets().get("rows").iterator();
+		for (DataSetRow row : dataSet) {
+			Assert.assertEquals(expectedRows.next().getColumnValues(), row.getColumnValues());
+		}
+		Assert.assertFalse(expectedRows.hasNext());
+
+		MapDataSet counts = (MapDataSet) actual.getDataSets().get("counts");
+		Assert.assertEquals(3, ((Cohort) counts.getData(new DataSetColumn("cohort", "Cohort", Cohort.class))).size());
+	}
+
+	@Test
+	public void rowsForCohortSubset_shouldReadOnlyTheRequestedPageOfRows() throws Exception {
+		write(createReportData(2500));
+		PersistedDataSet dataSet = (PersistedDataSet) new BinaryReportDataSerializer(new ReportingSerializer()).deserialize(file).getDataSets().get("rows");
+		List<DataSetRow> page = dataSet.getRows(1990, 2020);
+		Assert.assertEquals(30, page.size());
+		Assert.assertEquals(1990, page.get(0).getColumnValue("id"));
+		Assert.assertEquals(2019, page.get(29).getColumnValue("id"));
+		Iterator<DataSetRow> lastPage = dataSet.rowsForCohortSubset(2490, 100);
+		int numRows = 0;
+		while (lastPage.hasNext()) {
+			lastPage.next();
+			numRows++;
+		}
+		Assert.assertEquals(10, numRows);
+	}
+
+	@Test
+	public void getPage_shouldReturnASimpleDataSetOfTheRowsOfThePage() throws Exception {
+		write(createReportData(2500));
+		PersistedDataSet dataSet = (PersistedDataSet) new BinaryReportDataSerializer(new ReportingSerializer()).deserialize(file).getDataSets().get("rows");
+		SimpleDataSet page = dataSet.getPage(2, 1000);
+		Assert.assertEquals(500, page.getRows().size());
+		Assert.assertEquals(2000, page.getRows().get(0).getColumnValue("id"));
+		Assert.assertEquals(5, page.getMetaData().getColumnCount());
+		Assert.assertEquals(0, dataSet.getPage(3, 1000).getRows().size());
+	}
+
+	@Test
+	public void deserialize_shouldReadReportDataThatWasSerializedAsXml() throws Exception {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			new ReportingSerializer().serializeToStream(createReportData(10), out);
+		}
+		finally {
+			IOUtils.closeQuietly(out);
+		}
+		Assert.assertFalse(BinaryReportDataSerializer.isBinaryFormat(file));
+		ReportData actual = new BinaryReportDataSerializer(new ReportingSerializer()).deserialize(file);
+		Assert.assertEquals(10, ((SimpleDataSet) actual.getDataSets().get("rows")).getRows().size());
+	}
+
+	private void write(ReportData reportData) throws Exception {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			new BinaryReportDataSerializer(new ReportingSerializer()).serialize(reportData, out);
+		}
+		finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	private ReportData createReportData(int numRows) {
+		ReportDefinition definition = new ReportDefinition();
+		definition.setName("Test Report");
+		EvaluationContext context = new EvaluationContext();
+		ReportData reportData = new ReportData(definition, context);
+
+		SqlDataSetDefinition dsd = new SqlDataSetDefinition();
+		dsd.setName("patients");
+		SimpleDataSet rows = new SimpleDataSet(dsd, context);
+		DataSetColumn id = new DataSetColumn("id", "Id", Integer.class);
+		DataSetColumn name = new DataSetColumn("name", "Name", String.class);
+		DataSetColumn date = new DataSetColumn("date", "Date", Date.class);
+		DataSetColumn amount = new DataSetColumn("amount", "Amount", BigDecimal.class);
+		DataSetColumn other = new DataSetColumn("other", "Other", Object.class);
+		for (int i = 0; i < numRows; i++) {
+			rows.addColumnValue(i, id, i);
+			rows.addColumnValue(i, name, i % 7 == 0 ? null : "Name " + (i % 100));
+			rows.addColumnValue(i, date, new Date(1000000L * i));
+			rows.addColumnValue(i, amount, new BigDecimal(i).movePointLeft(2));
+			rows.addColumnValue(i, other, i % 2 == 0 ? new java.sql.Timestamp(1000L * i) : Boolean.TRUE);
+		}
+		reportData.getDataSets().put("rows", rows);
+
+		MapDataSet counts = new MapDataSet(null, context);
+		counts.addData(new DataSetColumn("cohort", "Cohort", Cohort.class), new Cohort("1,2,3"));
+		reportData.getDataSets().put("counts", counts);
+		return reportData;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.reporting.serializer;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.reporting.cohort.definition.AgeCohortDefinition;
+import org.openmrs.module.reporting.evaluation.parameter.Parameter;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+/**
+ * Measures the throughput of {@link ReportingSerializer#deserialize(String, Class)} as the number of threads grows
+ * up to the number of available processors.  This is not run by the default build, see the benchmark profile.
+ */
+public class ReportingSerializerBenchmark extends BaseModuleContextSensitiveTest {
+
+	protected static final Log log = LogFactory.getLog(ReportingSerializerBenchmark.class);
+
+	private static final long WARMUP_MILLIS = 2000;
+
+	private static final long MEASURE_MILLIS = 5000;
+
+	@Test
+	public void deserialize_shouldScaleWithTheNumberOfThreads() throws Exception {
+		ReportingSerializer rs = new ReportingSerializer();
+		AgeCohortDefinition cd = new AgeCohortDefinition();
+		cd.addParameter(new Parameter("onDate", "On Date", Date.class));
+		cd.setMaxAge(15);
+		String xml = rs.serialize(cd);
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		measureThroughput(rs, xml, processors, WARMUP_MILLIS);
+
+		double singleThreaded = 0;
+		double throughput = 0;
+		for (int threads = 1; threads <= processors; threads *= 2) {
+			throughput = measureThroughput(rs, xml, threads, MEASURE_MILLIS);
+			if (threads == 1) {
+				singleThreaded = throughput;
+			}
+			log.info("Deserialized " + Math.round(throughput) + " definitions per second on " + threads + " threads");
+		}
+		if (processors > 1) {
+			// Allow for contention on the shared resources of the machine, but not for a lock shared by all threads
+			Assert.assertTrue("Throughput did not scale with the number of threads", throughput > singleThreaded * 1.5);
+		}
+	}
+
+	/**
+	 * @return the number of times the passed xml is deserialized per second, on the passed number of threads
+	 */
+	private double measureThroughput(final ReportingSerializer rs, final String xml, int threads, final long millis) throws Exception {
+		List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+		for (int i = 0; i < threads; i++) {
+			tasks.add(new Callable<Long>() {
+				public Long call() throws Exception {
+					long count = 0;
+					long end = System.currentTimeMillis() + millis;
+					while (System.currentTimeMillis() < end) {
+						rs.deserialize(xml, AgeCohortDefinition.class);
+						count++;
+					}
+					return count;
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			long total = 0;
+			for (Future<Long> result : executor.invokeAll(tasks)) {
+				total += result.get();
+			}
+			return total * 1000.0 / millis;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+}
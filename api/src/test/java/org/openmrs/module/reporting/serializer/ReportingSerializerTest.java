@@ -24,6 +24,10 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
@@ -63,12 +67,12 @@ public class ReportingSerializerTest extends BaseModuleContextSensitiveTest {
 	}
 
 	/**
-     * @see {@link ReportingSerializer#ReportingSerializer()}
-     * 
-     */
-    @Test
-    @Verifies(value = "should serialize an indicator that contains an unsaved cohort definition", method = "ReportingSerializer()")
-    public void ReportingSerializer_shouldSerializeAnIndicatorThatContainsAnUnsavedCohortDefinition() throws Exception {
+	 * @see {@link ReportingSerializer#ReportingSerializer()}
+	 * 
+	 */
+	@Test
+	@Verifies(value = "should serialize an indicator that contains an unsaved cohort definition", method = "ReportingSerializer()")
+	public void ReportingSerializer_shouldSerializeAnIndicatorThatContainsAnUnsavedCohortDefinition() throws Exception {
 
 		GenderCohortDefinition males = new GenderCohortDefinition();
 		males.setUuid(UUID.randomUUID().toString());
@@ -84,16 +88,16 @@ public class ReportingSerializerTest extends BaseModuleContextSensitiveTest {
 		Assert.assertNotNull(hydrated.getCohortDefinition().getParameterizable());
 		Assert.assertTrue(((GenderCohortDefinition)hydrated.getCohortDefinition().getParameterizable()).getMaleIncluded());
 		Assert.assertFalse(((GenderCohortDefinition)hydrated.getCohortDefinition().getParameterizable()).getFemaleIncluded());
-    }
-    
+	}
+	
 	/**
-     * @see {@link ReportingSerializer#ReportingSerializer()}
-     * 
-     */
-    @Test
-    @Verifies(value = "should serialize an indicator that contains a persisted cohort definition", method = "ReportingSerializer()")
-    public void ReportingSerializer_shouldSerializeAnIndicatorThatContainsAPersistedCohortDefinition() throws Exception {
-    	AgeCohortDefinition age = new AgeCohortDefinition();
+	 * @see {@link ReportingSerializer#ReportingSerializer()}
+	 * 
+	 */
+	@Test
+	@Verifies(value = "should serialize an indicator that contains a persisted cohort definition", method = "ReportingSerializer()")
+	public void ReportingSerializer_shouldSerializeAnIndicatorThatContainsAPersistedCohortDefinition() throws Exception {
+		AgeCohortDefinition age = new AgeCohortDefinition();
 		age.addParameter(new Parameter("onDate", "On Date", Date.class));
 		age.setMaxAge(15);
 		age.setName("Age on Date");
@@ -117,7 +121,7 @@ public class ReportingSerializerTest extends BaseModuleContextSensitiveTest {
 		Assert.assertEquals("Age on some random date", out.getName());
 		Assert.assertEquals("Name has changed", ((CohortIndicator) out).getCohortDefinition().getParameterizable().getName());
 		Assert.assertEquals("07/08/2009", ((CohortIndicator) out).getCohortDefinition().getParameterMappings().get("onDate"));
-    }
+	}
 
 	@Test
 	public void testMapConverters() throws Exception {
@@ -131,13 +135,54 @@ public class ReportingSerializerTest extends BaseModuleContextSensitiveTest {
 		Assert.assertEquals("cat=meow,dog=woof", ObjectUtil.toString(newMaps.get(1), "=", ","));
 	}
 
-    @Test
-    public void testSerializeToStream() throws Exception {
-        Object object = "Test";
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ReportingSerializer rs = new ReportingSerializer();
-        rs.serializeToStream(object, out);
+	@Test
+	public void testSerializeToStream() throws Exception {
+		Object object = "Test";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ReportingSerializer rs = new ReportingSerializer();
+		rs.serializeToStream(object, out);
+
+		assertThat(out.toString("UTF-8"), is("<string>Test</string>"));
+	}
+
+	/**
+	 * @see ReportingSerializer#deserialize(String, Class)
+	 * @verifies deserialize objects concurrently on multiple threads
+	 */
+	@Test
+	public void deserialize_shouldDeserializeObjectsConcurrentlyOnMultipleThreads() throws Exception {
+		final ReportingSerializer rs = new ReportingSerializer();
+		final String xml = rs.serialize(createAgeCohortDefinition());
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i < 8; i++) {
+			tasks.add(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					int numCorrect = 0;
+					for (int j = 0; j < 50; j++) {
+						AgeCohortDefinition cd = rs.deserialize(xml, AgeCohortDefinition.class);
+						if (cd.getMaxAge() == 15 && "onDate".equals(cd.getParameters().get(0).getName())) {
+							numCorrect++;
+						}
+					}
+					return numCorrect;
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (Future<Integer> result : executor.invokeAll(tasks)) {
+				Assert.assertEquals(50, result.get().intValue());
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
 
-        assertThat(out.toString("UTF-8"), is("<string>Test</string>"));
-    }
+	private AgeCohortDefinition createAgeCohortDefinition() {
+		AgeCohortDefinition cd = new AgeCohortDefinition();
+		cd.addParameter(new Parameter("onDate", "On Date", Date.class));
+		cd.setMaxAge(15);
+		return cd;
+	}
 }
\ No newline at end of file
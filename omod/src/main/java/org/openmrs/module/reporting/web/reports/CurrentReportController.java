@@ -16,6 +16,7 @@ public class CurrentReportController {
 		request.removeAttribute(ReportingConstants.OPENMRS_REPORT_DATA, WebRequest.SCOPE_SESSION);
 		request.removeAttribute(ReportingConstants.OPENMRS_REPORT_ARGUMENT, WebRequest.SCOPE_SESSION);
 		request.removeAttribute(ReportingConstants.OPENMRS_LAST_REPORT_URL, WebRequest.SCOPE_SESSION);
+		request.removeAttribute(ReportingConstants.OPENMRS_REPORT_PAGE, WebRequest.SCOPE_SESSION);
 		return "redirect:../dashboard/index.form";
 	}
 	
@@ -13,6 +13,7 @@ import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -21,6 +22,8 @@ import org.openmrs.User;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.reporting.ReportingConstants;
 import org.openmrs.module.reporting.common.ObjectUtil;
+import org.openmrs.module.reporting.dataset.DataSet;
+import org.openmrs.module.reporting.dataset.PersistedDataSet;
 import org.openmrs.module.reporting.propertyeditor.ReportDefinitionEditor;
 import org.openmrs.module.reporting.report.Report;
 import org.openmrs.module.reporting.report.ReportData;
@@ -55,6 +58,9 @@ import org.springframework.web.servlet.view.RedirectView;
 public class ReportHistoryController {
 
 	private final Log log = LogFactory.getLog(getClass());
+
+	// The number of rows of each saved data set that are shown at a time
+	public static final int REPORT_DATA_PAGE_SIZE = 1000;
 	
 	@InitBinder
 	public void initBinder(WebDataBinder binder) {
@@ -201,7 +207,9 @@ public class ReportHistoryController {
 	}
 	
 	@RequestMapping("/module/reporting/reports/viewReport")
-	public ModelAndView viewReport(@RequestParam("uuid") String uuid, HttpServletResponse response, HttpServletRequest request) throws IOException {
+	public ModelAndView viewReport(@RequestParam("uuid") String uuid,
+	                               @RequestParam(value="page", required=false) Integer page,
+	                               HttpServletResponse response, HttpServletRequest request) throws IOException {
 		ReportRequest req = getReportService().getReportRequestByUuid(uuid);
 		RenderingMode rm = req.getRenderingMode();
 		String linkUrl = "/module/reporting/reports/reportHistoryOpen";
@@ -213,6 +221,7 @@ public class ReportHistoryController {
 			if (req != null) {
 				ReportData reportData = getReportService().loadReportData(req);
 				if (reportData != null) {
+					reportData = getPageOfReportData(req, reportData, ObjectUtil.nvl(page, 0), request.getSession());
 					request.getSession().setAttribute(ReportingConstants.OPENMRS_REPORT_DATA, reportData);
 					request.getSession().setAttribute(ReportingConstants.OPENMRS_REPORT_ARGUMENT, rm.getArgument());
 					request.getSession().setAttribute(ReportingConstants.OPENMRS_LAST_REPORT_URL, linkUrl);
@@ -238,6 +247,37 @@ public class ReportHistoryController {
 		
 	}
 	
+	/**
+	 * Each data set of a saved report is read from file a page at a time, so that a large report can be viewed without
+	 * reading all of its rows.  This returns the passed ReportData with each such data set replaced by the rows of the
+	 * passed page, and records the page in the session so that the other pages can be linked to.
+	 */
+	private ReportData getPageOfReportData(ReportRequest req, ReportData reportData, int page, HttpSession session) {
+		ReportData ret = new ReportData(reportData.getDefinition(), reportData.getContext());
+		int numPages = 0;
+		for (Map.Entry<String, DataSet> e : reportData.getDataSets().entrySet()) {
+			DataSet dataSet = e.getValue();
+			if (dataSet instanceof PersistedDataSet) {
+				PersistedDataSet persisted = (PersistedDataSet) dataSet;
+				numPages = Math.max(numPages, (persisted.getSize() + REPORT_DATA_PAGE_SIZE - 1) / REPORT_DATA_PAGE_SIZE);
+				dataSet = persisted.getPage(page, REPORT_DATA_PAGE_SIZE);
+			}
+			ret.getDataSets().put(e.getKey(), dataSet);
+		}
+		if (numPages > 1) {
+			Map<String, Object> pageInfo = new HashMap<String, Object>();
+			pageInfo.put("requestUuid", req.getUuid());
+			pageInfo.put("page", page);
+			pageInfo.put("numPages", numPages);
+			pageInfo.put("pageSize", REPORT_DATA_PAGE_SIZE);
+			session.setAttribute(ReportingConstants.OPENMRS_REPORT_PAGE, pageInfo);
+		}
+		else {
+			session.removeAttribute(ReportingConstants.OPENMRS_REPORT_PAGE);
+		}
+		return ret;
+	}
+
 	@RequestMapping("/module/reporting/reports/reportHistoryProcess")
 	public String runOnDemandPostProcessor(@RequestParam("uuid") String requestUuid, @RequestParam("processorUuid") String processorUuid, HttpServletResponse response, HttpServletRequest request) throws IOException {
 		ReportRequest req = getReportService().getReportRequestByUuid(requestUuid);
@@ -35,6 +35,7 @@ import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationUtil;
 import org.openmrs.module.reporting.evaluation.parameter.Mapped;
 import org.openmrs.module.reporting.evaluation.parameter.Parameter;
+import org.openmrs.module.reporting.evaluation.plan.EvaluationPlanExplanation;
 import org.openmrs.module.reporting.propertyeditor.MappedEditor;
 import org.openmrs.module.reporting.report.ReportRequest;
 import org.openmrs.module.reporting.report.ReportRequest.Priority;
@@ -229,6 +230,17 @@ public class RunReportFormController extends SimpleFormController implements Val
 			return showForm(request, response, errors);
 		}
 		
+		// Show how the report would be evaluated, and what it is expected to cost, rather than requesting it
+		if (StringUtils.hasText(request.getParameter("explain"))) {
+			ReportDefinitionService rds = Context.getService(ReportDefinitionService.class);
+			EvaluationPlanExplanation explanation = rds.explain(new Mapped<ReportDefinition>(reportDefinition, params), new EvaluationContext());
+			Map<String, Object> model = new HashMap<String, Object>();
+			model.put("explanation", explanation);
+			model.put("explanationLines", explanation.format());
+			model.put("expensiveNodes", explanation.getMostExpensiveNodes(5));
+			return showForm(request, errors, getFormView(), model);
+		}
+		
 		ReportRequest rr = null;
 		if (command.getExistingRequestUuid() != null) {
 			rr = rs.getReportRequestByUuid(command.getExistingRequestUuid());
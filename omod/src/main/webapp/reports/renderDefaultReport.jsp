@@ -43,6 +43,20 @@ $(document).ready(function(){
 
 <openmrs:portlet url="currentReportHeader" moduleId="reporting" parameters="showDiscardButton=true"/>
 
+<c:if test="${!empty __openmrs_report_page}">
+	<c:set var="reportPage" value="${__openmrs_report_page}"/>
+	<c:set var="viewReportUrl" value="${pageContext.request.contextPath}/module/reporting/reports/viewReport.form?uuid=${reportPage.requestUuid}"/>
+	<div style="padding:5px;">
+		<spring:message code="reporting.Report.view.page" arguments="${reportPage.page + 1},${reportPage.numPages},${reportPage.pageSize}"/>
+		<c:if test="${reportPage.page > 0}">
+			<a href="${viewReportUrl}&page=${reportPage.page - 1}"><spring:message code="general.previous"/></a>
+		</c:if>
+		<c:if test="${reportPage.page + 1 < reportPage.numPages}">
+			<a href="${viewReportUrl}&page=${reportPage.page + 1}"><spring:message code="general.next"/></a>
+		</c:if>
+	</div>
+</c:if>
+
 <div id="page">
 	<div id="container">
 		<div id="tabs">
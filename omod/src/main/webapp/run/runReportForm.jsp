@@ -138,6 +138,7 @@ function toggleInputElements( idPrefix ){
 							            	<td colspan="2">
 							            		<br/>
 												<input type="submit" value="<spring:message code="reporting.Report.run.button"/>" />
+												<input type="submit" name="explain" value="<spring:message code="reporting.Report.run.explainButton"/>" />
 												<c:if test="${!empty report.existingRequestUuid}">
 													<span style="padding-left:20px;">
 														<a onclick="return confirm('<spring:message code="reporting.reportHistory.confirmDelete"/>');" href="../reports/deleteReportRequest.form?uuid=${report.existingRequestUuid}">
@@ -150,6 +151,31 @@ function toggleInputElements( idPrefix ){
 							        </table>
 								</form>
 							</spring:nestedPath>
+							<c:if test="${!empty explanation}">
+								<div style="padding:10px;">
+									<h4>
+										<spring:message code="reporting.Report.run.explanation"/>:
+										<c:choose>
+											<c:when test="${!empty explanation.estimatedMillis}">
+												<spring:message code="reporting.Report.run.explanation.estimatedTime" arguments="${explanation.estimatedMillis}"/>
+											</c:when>
+											<c:otherwise>
+												<spring:message code="reporting.Report.run.explanation.noEstimate"/>
+											</c:otherwise>
+										</c:choose>
+									</h4>
+									<c:if test="${!empty expensiveNodes}">
+										<spring:message code="reporting.Report.run.explanation.mostExpensive"/>
+										<ul>
+											<c:forEach items="${expensiveNodes}" var="node">
+												<li><c:out value="${node.label}"/>: <spring:message code="reporting.Report.run.explanation.millis" arguments="${node.estimatedMillis}"/></li>
+											</c:forEach>
+										</ul>
+									</c:if>
+									<pre style="overflow:auto; font-size:smaller;"><c:forEach items="${explanationLines}" var="line"><c:out value="${line}"/>
+</c:forEach></pre>
+								</div>
+							</c:if>
 							
 						</fieldSet>
 					</td>